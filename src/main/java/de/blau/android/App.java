@@ -61,6 +61,7 @@ import de.blau.android.util.Util;
 import de.blau.android.util.collections.MultiHashMap;
 import de.blau.android.util.rtree.RTree;
 import de.blau.android.validation.BaseValidator;
+import de.blau.android.validation.ValidationEngine;
 import de.blau.android.validation.Validator;
 import io.michaelrocks.libphonenumber.android.PhoneNumberUtil;
 import okhttp3.OkHttpClient;
@@ -155,6 +156,12 @@ public class App extends LocaleAwareApplication implements android.app.Applicati
     private static final Object defaultValidatorLock = new Object();
     private static Validator    defaultValidator;
 
+    /**
+     * Background validation of the default validator
+     */
+    private static final Object     validationEngineLock = new Object();
+    private static ValidationEngine validationEngine;
+
     /**
      * The clipboard for tags
      */
@@ -699,6 +706,34 @@ public class App extends LocaleAwareApplication implements android.app.Applicati
         }
     }
 
+    /**
+     * Return the ValidationEngine for the default Validator, allocate if necessary
+     * 
+     * @param ctx Android Context
+     * @return a ValidationEngine instance
+     */
+    @NonNull
+    public static ValidationEngine getValidationEngine(@NonNull Context ctx) {
+        synchronized (validationEngineLock) {
+            if (validationEngine == null) {
+                validationEngine = new ValidationEngine(ctx.getApplicationContext(), getDefaultValidator(ctx));
+            }
+            return validationEngine;
+        }
+    }
+
+    /**
+     * Return the ValidationEngine if it has been allocated
+     * 
+     * @return a ValidationEngine instance or null
+     */
+    @Nullable
+    public static ValidationEngine getValidationEngine() {
+        synchronized (validationEngineLock) {
+            return validationEngine;
+        }
+    }
+
     /**
      * Get an new instance of the phone number utilities class
      * 
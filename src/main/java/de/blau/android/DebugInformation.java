@@ -25,6 +25,7 @@ import de.blau.android.osm.StorageDelegator;
 import de.blau.android.prefs.AdvancedPrefDatabase;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.resources.TileLayerSource;
+import de.blau.android.services.util.MapTileFilesystemProvider;
 import de.blau.android.tasks.TaskStorage;
 import de.blau.android.util.ACRAHelper;
 import de.blau.android.util.DateFormatter;
@@ -105,6 +106,13 @@ public class DebugInformation extends LocaleAwareCompatActivity {
                         if (tileLayerConfiguration != null) {
                             builder.append("Tile Cache " + tileLayerConfiguration.getId() + " usage "
                                     + ((MapTilesLayer<?>) ov).getTileProvider().getCacheUsageInfo() + eol);
+                            builder.append("Tile queue " + tileLayerConfiguration.getId() + " " + ((MapTilesLayer<?>) ov).getTileProvider().getQueueInfo() + eol);
+                            builder.append("Tile draw " + tileLayerConfiguration.getId() + " " + ((MapTilesLayer<?>) ov).getDrawInfo() + eol);
+                            MapTileFilesystemProvider fsProvider = App.getMapTileFilesystemProvider(this);
+                            if (fsProvider != null) {
+                                builder.append("Tile disk cache " + tileLayerConfiguration.getId() + " "
+                                        + fsProvider.getCacheStatistics(tileLayerConfiguration.getId()) + eol);
+                            }
                         }
                     }
                 }
@@ -33,8 +33,6 @@ import java.util.regex.Matcher;
 import javax.net.ssl.SSLProtocolException;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
-import org.openstreetmap.osmosis.osmbinary.file.BlockReaderAdapter;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -353,6 +351,7 @@ public class Logic {
     public void setPrefs(@NonNull final Preferences prefs) {
         this.prefs = prefs;
         DataStyle.switchTo(prefs.getMapProfile());
+        getDelegator().setUndoMemoryBudget(prefs.getUndoMemoryBudget());
     }
 
     /**
@@ -367,7 +366,7 @@ public class Logic {
         for (Way w : getWays()) {
             w.setStyle(null);
         }
-        for (Relation r : getDelegator().getCurrentStorage().getRelations()) {
+        for (Relation r : getDelegator().getCurrentStorage().getRelationsView()) {
             r.setStyle(null);
         }
         map.updateStyle();
@@ -444,7 +443,7 @@ public class Logic {
     @Nullable
     public String undo() {
         String name = getDelegator().getUndo().undo();
-        getDelegator().dirty();
+        getDelegator().dirty(true);
         return name;
     }
 
@@ -457,7 +456,7 @@ public class Logic {
     @Nullable
     public String undo(int checkpoint) {
         String name = getDelegator().getUndo().undo(checkpoint);
-        getDelegator().dirty();
+        getDelegator().dirty(true);
         return name;
     }
 
@@ -469,7 +468,7 @@ public class Logic {
     @Nullable
     public String redo() {
         String name = getDelegator().getUndo().redo();
-        getDelegator().dirty();
+        getDelegator().dirty(true);
         return name;
     }
 
@@ -482,7 +481,7 @@ public class Logic {
     @Nullable
     public String redo(int checkpoint) {
         String name = getDelegator().getUndo().redo(checkpoint);
-        getDelegator().dirty();
+        getDelegator().dirty(true);
         return name;
     }
 
@@ -493,7 +492,7 @@ public class Logic {
      */
     public void rollback() {
         getDelegator().getUndo().undo(false);
-        getDelegator().dirty();
+        getDelegator().dirty(true);
     }
 
     /**
@@ -2341,7 +2340,7 @@ public class Logic {
         float jx = lonE7ToX(nodeToJoin.getLon());
         float jy = latE7ToY(nodeToJoin.getLat());
         // start by looking for the closest nodes
-        for (Node node : getDelegator().getCurrentStorage().getNodes()) {
+        for (Node node : getDelegator().getCurrentStorage().getNodesView()) {
             if (!nodeToJoin.equals(node)) {
                 Double distance = clickDistance(node, jx, jy);
                 if (distance != null && (filter == null || filter.include(node, false))) {
@@ -2351,7 +2350,7 @@ public class Logic {
         }
         if (closestElements.isEmpty()) {
             // fall back to closest ways
-            for (Way way : getDelegator().getCurrentStorage().getWays()) {
+            for (Way way : getDelegator().getCurrentStorage().getWaysView()) {
                 if (!way.hasNode(nodeToJoin)) {
                     List<Node> wayNodes = way.getNodes();
                     if (!wayNodes.isEmpty()) {
@@ -2959,7 +2958,7 @@ public class Logic {
             } else {
                 try (InputStream in = server.getStreamForBox(ctx, mapBox)) {
                     final OsmParser osmParser = new OsmParser();
-                    osmParser.start(in);
+                    osmParser.startStreaming(in);
                     input = osmParser.getStorage();
                 }
             }
@@ -3246,12 +3245,12 @@ public class Logic {
             // we always retrieve ways with nodes, relations "full" is optional
             try (InputStream in = server.getStreamForElement(ctx, (Relation.NAME.equals(type) && relationFull) || Way.NAME.equals(type) ? "full" : null, type,
                     id)) {
-                osmParser.start(in);
+                osmParser.startStreaming(in);
             }
             if (withParents) {
                 // optional retrieve relations the element is a member of
                 try (InputStream in = server.getStreamForElement(ctx, "relations", type, id)) {
-                    osmParser.start(in);
+                    osmParser.startStreaming(in);
                 }
             }
         } catch (SAXException e) {
@@ -3676,8 +3675,7 @@ public class Logic {
                     try {
                         Storage storage = new Storage();
                         try {
-                            BlockReaderAdapter opp = new OsmPbfParser(storage);
-                            new BlockInputStream(is, opp).process();
+                            new OsmPbfParser(storage).parse(is, Runtime.getRuntime().availableProcessors());
                             StorageDelegator sd = getDelegator();
                             sd.reset(false);
                             sd.setCurrentStorage(storage); // this sets dirty flag
@@ -3779,7 +3777,7 @@ public class Logic {
                 save(context);
                 // the disadvantage of saving async is that something might have
                 // changed during the write .... so we force the dirty flags on
-                getDelegator().dirty();
+                getDelegator().dirty(true);
                 App.getTaskStorage().setDirty();
                 return null;
             }
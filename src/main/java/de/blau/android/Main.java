@@ -1109,9 +1109,23 @@ public class Main extends FullScreenAppCompatActivity
      * Load geojson from intent
      */
     private void loadGeoJson() {
-        de.blau.android.layer.Util.addLayer(this, LayerType.GEOJSON, contentUri.toString());
-        map.setUpLayers(this);
-        de.blau.android.layer.geojson.MapOverlay layer = (MapOverlay) map.getLayer(LayerType.GEOJSON, contentUri.toString());
+        final String contentId = contentUri.toString();
+        final boolean exists = map.getLayer(LayerType.GEOJSON, contentId) != null;
+        de.blau.android.layer.Util.addLayer(this, LayerType.GEOJSON, contentId);
+        // the contents of new layers are loaded in the background
+        map.setUpLayers(this, () -> zoomToGeoJson(contentId));
+        if (exists) {
+            zoomToGeoJson(contentId);
+        }
+    }
+
+    /**
+     * Zoom to the extent of a GeoJSON layer
+     * 
+     * @param contentId the content id of the layer
+     */
+    private void zoomToGeoJson(@NonNull String contentId) {
+        de.blau.android.layer.geojson.MapOverlay layer = (MapOverlay) map.getLayer(LayerType.GEOJSON, contentId);
         if (layer != null) {
             BoundingBox extent = layer.getExtent();
             if (extent != null) {
@@ -54,7 +54,6 @@ import de.blau.android.resources.TileLayerSource.TileType;
 import de.blau.android.services.TrackerService;
 import de.blau.android.util.Density;
 import de.blau.android.util.GeoMath;
-import de.blau.android.util.Snack;
 import de.blau.android.util.ThemeUtils;
 import de.blau.android.util.collections.FloatPrimitiveList;
 import de.blau.android.util.mvt.VectorTileRenderer;
@@ -210,6 +209,19 @@ public class Map extends View implements IMapView {
      * @param ctx Android context
      */
     public void setUpLayers(@NonNull Context ctx) {
+        setUpLayers(ctx, null);
+    }
+
+    /**
+     * Setup layers from layer db
+     * 
+     * The contents of GeoJSON layers are loaded in the background, layers that fail to load are removed again
+     * 
+     * @param ctx Android context
+     * @param postLoad if not null called on the UI thread each time the contents of a layer have been loaded in the
+     *            background
+     */
+    public void setUpLayers(@NonNull Context ctx, @Nullable PostAsyncActionHandler postLoad) {
         List<MapViewLayer> tempLayers = new ArrayList<>();
         try (AdvancedPrefDatabase db = new AdvancedPrefDatabase(ctx)) {
             final LayerConfig[] layerConfigs = db.getLayers();
@@ -283,20 +295,29 @@ public class Map extends View implements IMapView {
                             layer = new de.blau.android.layer.tasks.MapOverlay(this);
                             break;
                         case GEOJSON:
-                            layer = new de.blau.android.layer.geojson.MapOverlay(this);
-                            try {
-                                if (!((de.blau.android.layer.geojson.MapOverlay) layer).loadGeoJsonFile(ctx, Uri.parse(contentId), true)) {
-                                    // other error, has already been toasted
-                                    db.deleteLayer(LayerType.GEOJSON, contentId);
-                                    continue;
+                            de.blau.android.layer.geojson.MapOverlay geoJsonLayer = new de.blau.android.layer.geojson.MapOverlay(this);
+                            geoJsonLayer.loadGeoJsonFile(ctx, Uri.parse(contentId), true, new PostAsyncActionHandler() {
+                                @Override
+                                public void onSuccess() {
+                                    if (postLoad != null) {
+                                        postLoad.onSuccess();
+                                    }
                                 }
-                            } catch (IOException e) {
-                                if (context instanceof Main) {
-                                    Snack.toastTopError(context, context.getString(R.string.toast_error_reading, contentId));
+
+                                @Override
+                                public void onError(@Nullable AsyncResult result) {
+                                    // error has already been toasted
+                                    try (AdvancedPrefDatabase layerDb = new AdvancedPrefDatabase(ctx)) {
+                                        layerDb.deleteLayer(LayerType.GEOJSON, contentId);
+                                    }
+                                    removeLayer(geoJsonLayer);
+                                    invalidate();
+                                    if (postLoad != null) {
+                                        postLoad.onError(result);
+                                    }
                                 }
-                                db.deleteLayer(LayerType.GEOJSON, contentId);
-                                continue; // skip
-                            }
+                            });
+                            layer = geoJsonLayer;
                             break;
                         case MAPILLARY:
                             layer = new de.blau.android.layer.mapillary.MapOverlay(this);
@@ -331,6 +352,24 @@ public class Map extends View implements IMapView {
         }
     }
 
+    /**
+     * Remove a single layer whose configuration has already been deleted
+     * 
+     * The remaining layers are renumbered in the same way as their configuration
+     * 
+     * @param layer the layer to remove
+     */
+    private void removeLayer(@NonNull MapViewLayer layer) {
+        synchronized (mLayers) {
+            if (mLayers.remove(layer)) {
+                layer.onDestroy();
+                for (int i = 0; i < mLayers.size(); i++) {
+                    mLayers.get(i).setIndex(i);
+                }
+            }
+        }
+    }
+
     /**
      * Save the state of a single layer Used to save the state of layers that are being removed completely
      * 
@@ -844,11 +883,11 @@ public class Map extends View implements IMapView {
 
         text = "viewBox: " + viewBox.toString();
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
-        text = "Relations (current/API) :" + delegator.getCurrentStorage().getRelations().size() + "/" + delegator.getApiRelationCount();
+        text = "Relations (current/API) :" + delegator.getCurrentStorage().getRelationCount() + "/" + delegator.getApiRelationCount();
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
-        text = "Ways (current/API) :" + delegator.getCurrentStorage().getWays().size() + "/" + delegator.getApiWayCount();
+        text = "Ways (current/API) :" + delegator.getCurrentStorage().getWayCount() + "/" + delegator.getApiWayCount();
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
-        text = "Nodes (current/Waynodes/API) :" + delegator.getCurrentStorage().getNodes().size() + "/" + delegator.getCurrentStorage().getWayNodes().size()
+        text = "Nodes (current/Waynodes/API) :" + delegator.getCurrentStorage().getNodeCount() + "/" + delegator.getCurrentStorage().getWayNodes().size()
                 + "/" + delegator.getApiNodeCount();
         canvas.drawText(text, 5, getHeight() - textSize * pos++, infotextPaint);
         if (fps < 10) {
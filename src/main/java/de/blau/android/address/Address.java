@@ -390,11 +390,11 @@ public final class Address implements Serializable {
                         if (list.size() == 0) { // try to seed lastAddresses from OSM data
                             Log.d(DEBUG_TAG, "Seeding from street " + street);
                             // nodes
-                            for (Node n : storageDelegator.getCurrentStorage().getNodes()) {
+                            for (Node n : storageDelegator.getCurrentStorage().getNodesView()) {
                                 seedAddressList(context, street, n, lastAddresses);
                             }
                             // ways
-                            for (Way w : storageDelegator.getCurrentStorage().getWays()) {
+                            for (Way w : storageDelegator.getCurrentStorage().getWaysView()) {
                                 seedAddressList(context, street, w, lastAddresses);
                             }
                             // and try again
@@ -43,13 +43,13 @@ public abstract class CommonFilter extends InvertableFilter {
         if (!enabled || selected) {
             return true;
         }
-        Include include = cachedNodes.get(node);
+        Include include = getCached(node);
         if (include != null) {
             return include != Include.DONT;
         }
 
         include = filter(node);
-        cachedNodes.put(node, include);
+        setCached(node, include);
         return include != Include.DONT;
     }
 
@@ -58,7 +58,7 @@ public abstract class CommonFilter extends InvertableFilter {
         if (!enabled) {
             return true;
         }
-        Include include = cachedWays.get(way);
+        Include include = getCached(way);
         if (include != null) {
             return include != Include.DONT;
         }
@@ -67,7 +67,7 @@ public abstract class CommonFilter extends InvertableFilter {
 
         if (include == Include.INCLUDE_WITH_WAYNODES) {
             for (Node n : way.getNodes()) {
-                Include includeNode = cachedNodes.get(n);
+                Include includeNode = getCached(n);
                 if (includeNode == null || (include != Include.DONT && includeNode == Include.DONT)) {
                     // if not originally included overwrite now
                     if (include == Include.DONT && (n.hasTags() || n.hasParentRelations())) { // no entry yet so we have
@@ -76,11 +76,11 @@ public abstract class CommonFilter extends InvertableFilter {
                         include(n, false);
                         continue;
                     }
-                    cachedNodes.put(n, include);
+                    setCached(n, include);
                 }
             }
         }
-        cachedWays.put(way, include);
+        setCached(way, include);
 
         return include != Include.DONT || selected;
     }
@@ -101,18 +101,18 @@ public abstract class CommonFilter extends InvertableFilter {
         if (!enabled || selected) {
             return Include.INCLUDE_WITH_WAYNODES;
         }
-        Include include = cachedRelations.get(relation);
+        Include include = getCached(relation);
         if (include != null) {
             return include;
         }
-        if (cachedRelations.containsKey(relation)) { // relation loop
+        if (isCached(relation)) { // relation loop
             include = Include.DONT;
             Log.e(DEBUG_TAG, "Relation " + relation.getOsmId() + " has a loop");
         } else {
-            cachedRelations.put(relation, null);
+            setCached(relation, null);
             include = filter(relation);
         }
-        cachedRelations.put(relation, include);
+        setCached(relation, include);
         List<RelationMember> members = relation.getMembers();
         if (members != null) {
             for (RelationMember rm : members) {
@@ -120,22 +120,22 @@ public abstract class CommonFilter extends InvertableFilter {
                 if (element != null) {
                     if (element instanceof Way) {
                         Way w = (Way) element;
-                        Include includeWay = cachedWays.get(w);
+                        Include includeWay = getCached(w);
                         if (includeWay != null && (include != Include.DONT && includeWay == Include.DONT)) {
                             // if not originally included overwrite now
                             if (include == Include.INCLUDE_WITH_WAYNODES) {
                                 for (Node n : w.getNodes()) {
-                                    cachedNodes.put(n, include);
+                                    setCached(n, include);
                                 }
                             }
-                            cachedWays.put(w, include);
+                            setCached(w, include);
                         }
                     } else if (element instanceof Node) {
                         Node n = (Node) element;
-                        Include includeNode = cachedNodes.get(n);
+                        Include includeNode = getCached(n);
                         if (includeNode != null && (include != Include.DONT && includeNode == Include.DONT)) {
                             // if not originally included overwrite now
-                            cachedNodes.put(n, include);
+                            setCached(n, include);
                         }
                     } else if (element instanceof Relation) {
                         // FIXME not clear if we really want to do this
@@ -3,10 +3,7 @@ package de.blau.android.filter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import android.content.Context;
 import android.view.ViewGroup;
@@ -17,7 +14,10 @@ import de.blau.android.Logic;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.Relation;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Way;
+import de.blau.android.util.collections.LongByteMap;
 
 public abstract class Filter implements Serializable {
     /**
@@ -32,12 +32,25 @@ public abstract class Filter implements Serializable {
         DONT, INCLUDE, INCLUDE_WITH_WAYNODES
     }
 
+    private static final Include[] INCLUDE_VALUES = Include.values();
+
+    /**
+     * Values in the caches that are not an Include ordinal
+     */
+    private static final byte NOT_CACHED  = -1;
+    private static final byte IN_PROGRESS = -2;
+
+    /**
+     * Invalidating the caches element by element is more expensive than starting from scratch for more changed elements
+     */
+    static final int MAX_INVALIDATE = 1000;
+
     /**
-     * cache for element filter actions
+     * cache for element filter actions, keyed by OSM id with the ordinal of the Include value as value
      */
-    transient Map<Node, Include>     cachedNodes     = new HashMap<>(100);
-    transient Map<Way, Include>      cachedWays      = new HashMap<>(100);
-    transient Map<Relation, Include> cachedRelations = new HashMap<>(100);
+    private transient LongByteMap cachedNodes     = new LongByteMap(100);
+    private transient LongByteMap cachedWays      = new LongByteMap(100);
+    private transient LongByteMap cachedRelations = new LongByteMap(100);
 
     private transient Logic logic = App.getLogic();
 
@@ -165,6 +178,91 @@ public abstract class Filter implements Serializable {
         cachedRelations.clear();
     }
 
+    /**
+     * Convert a value from the caches to an Include value
+     * 
+     * @param value the cached value
+     * @return the Include value or null if not cached or still being determined
+     */
+    @Nullable
+    private static Include toInclude(byte value) {
+        return value >= 0 ? INCLUDE_VALUES[value] : null;
+    }
+
+    /**
+     * Get the cached filter action for a Node
+     * 
+     * @param node the Node
+     * @return the Include value or null if not cached
+     */
+    @Nullable
+    Include getCached(@NonNull Node node) {
+        return toInclude(cachedNodes.get(node.getOsmId(), NOT_CACHED));
+    }
+
+    /**
+     * Cache the filter action for a Node
+     * 
+     * @param node the Node
+     * @param include the Include value
+     */
+    void setCached(@NonNull Node node, @NonNull Include include) {
+        cachedNodes.put(node.getOsmId(), (byte) include.ordinal());
+    }
+
+    /**
+     * Get the cached filter action for a Way
+     * 
+     * @param way the Way
+     * @return the Include value or null if not cached
+     */
+    @Nullable
+    Include getCached(@NonNull Way way) {
+        return toInclude(cachedWays.get(way.getOsmId(), NOT_CACHED));
+    }
+
+    /**
+     * Cache the filter action for a Way
+     * 
+     * @param way the Way
+     * @param include the Include value
+     */
+    void setCached(@NonNull Way way, @NonNull Include include) {
+        cachedWays.put(way.getOsmId(), (byte) include.ordinal());
+    }
+
+    /**
+     * Get the cached filter action for a Relation
+     * 
+     * @param relation the Relation
+     * @return the Include value or null if not cached or if it is currently being determined
+     */
+    @Nullable
+    Include getCached(@NonNull Relation relation) {
+        return toInclude(cachedRelations.get(relation.getOsmId(), NOT_CACHED));
+    }
+
+    /**
+     * Cache the filter action for a Relation
+     * 
+     * @param relation the Relation
+     * @param include the Include value or null to mark the Relation as currently being determined
+     */
+    void setCached(@NonNull Relation relation, @Nullable Include include) {
+        cachedRelations.put(relation.getOsmId(), include != null ? (byte) include.ordinal() : IN_PROGRESS);
+    }
+
+    /**
+     * Check if there is an entry for a Relation in the cache, this includes Relations that are currently being
+     * determined
+     * 
+     * @param relation the Relation
+     * @return true if there is an entry
+     */
+    boolean isCached(@NonNull Relation relation) {
+        return cachedRelations.containsKey(relation.getOsmId());
+    }
+
     /**
      * Get all nodes that are currently visible from the cache
      * 
@@ -173,9 +271,14 @@ public abstract class Filter implements Serializable {
     @NonNull
     public List<Node> getVisibleNodes() {
         List<Node> result = new ArrayList<>();
-        for (Entry<Node, Include> e : cachedNodes.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
+        Storage storage = App.getDelegator().getCurrentStorage();
+        for (long id : cachedNodes.keys()) {
+            Include include = toInclude(cachedNodes.get(id, NOT_CACHED));
+            if (include != null && include != Include.DONT) {
+                Node node = storage.getNode(id);
+                if (node != null) {
+                    result.add(node);
+                }
             }
         }
         return result;
@@ -189,9 +292,14 @@ public abstract class Filter implements Serializable {
     @NonNull
     public List<Way> getVisibleWays() {
         List<Way> result = new ArrayList<>();
-        for (Entry<Way, Include> e : cachedWays.entrySet()) {
-            if (e.getValue() != Include.DONT) {
-                result.add(e.getKey());
+        Storage storage = App.getDelegator().getCurrentStorage();
+        for (long id : cachedWays.keys()) {
+            Include include = toInclude(cachedWays.get(id, NOT_CACHED));
+            if (include != null && include != Include.DONT) {
+                Way way = storage.getWay(id);
+                if (way != null) {
+                    result.add(way);
+                }
             }
         }
         return result;
@@ -206,13 +314,77 @@ public abstract class Filter implements Serializable {
     /**
      * Call this on element(s) changing to update/invalidate the cache.
      * 
-     * The default implementation simply calls {@link #clear()}
+     * The default implementation removes the entries for the changed elements and for the elements whose cached value
+     * may have been derived from them: the Ways a changed Node is a member of, the Nodes of changed Ways and the Ways
+     * these are members of. Changes to Relations, changes that are not specified and large numbers of changes result
+     * in the cache being cleared with {@link #clear()}.
      * 
      * @param pre the element(s) before the change or null
      * @param post the element(s) after the change or null
      */
     public void onElementChanged(@Nullable List<OsmElement> pre, @Nullable List<OsmElement> post) {
-        clear();
+        if ((pre == null && post == null) || size(pre) + size(post) > MAX_INVALIDATE) {
+            clear();
+            return;
+        }
+        StorageDelegator delegator = App.getDelegator();
+        Storage storage = delegator != null ? delegator.getCurrentStorage() : null;
+        if (storage == null || !invalidate(storage, pre) || !invalidate(storage, post)) {
+            clear();
+        }
+    }
+
+    /**
+     * Get the size of a List
+     * 
+     * @param list the List or null
+     * @return the size, 0 if list is null
+     */
+    private static int size(@Nullable List<OsmElement> list) {
+        return list != null ? list.size() : 0;
+    }
+
+    /**
+     * Remove the cache entries for a List of changed elements and the elements that depend on them
+     * 
+     * @param storage the current Storage
+     * @param elements the elements or null
+     * @return false if the cache needs to be cleared instead
+     */
+    private boolean invalidate(@NonNull Storage storage, @Nullable List<OsmElement> elements) {
+        if (elements == null) {
+            return true;
+        }
+        for (OsmElement e : elements) {
+            if (e instanceof Node) {
+                invalidate(storage, (Node) e);
+            } else if (e instanceof Way) {
+                cachedWays.remove(e.getOsmId());
+                for (Node n : ((Way) e).getNodes()) {
+                    invalidate(storage, n);
+                }
+            } else if (e instanceof Relation) {
+                // member status is inherited from parent relations, potentially over multiple levels
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the cache entries for a Node and the Ways it is a member of
+     * 
+     * The Ways need to be determined again as the entry for the Node may have been derived from them
+     * 
+     * @param storage the current Storage
+     * @param node the Node
+     */
+    private void invalidate(@NonNull Storage storage, @NonNull Node node) {
+        if (cachedNodes.remove(node.getOsmId())) {
+            for (Way w : storage.getWays(node)) {
+                cachedWays.remove(w.getOsmId());
+            }
+        }
     }
 
     /**
@@ -225,8 +397,8 @@ public abstract class Filter implements Serializable {
     private void readObject(@NonNull java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         // Normal deserialization will not initialize transient objects, need to do it here
-        cachedNodes = new HashMap<>(100);
-        cachedWays = new HashMap<>(100);
-        cachedRelations = new HashMap<>(100);
+        cachedNodes = new LongByteMap(100);
+        cachedWays = new LongByteMap(100);
+        cachedRelations = new LongByteMap(100);
     }
 }
@@ -55,7 +55,7 @@ public class IndoorFilter extends InvertableFilter {
 
     @Override
     public boolean include(Node node, boolean selected) {
-        Include include = cachedNodes.get(node);
+        Include include = getCached(node);
         if (include != null) {
             return include != Include.DONT;
         }
@@ -81,13 +81,13 @@ public class IndoorFilter extends InvertableFilter {
             }
         }
 
-        cachedNodes.put(node, include);
+        setCached(node, include);
         return include != Include.DONT;
     }
 
     @Override
     public boolean include(Way way, boolean selected) {
-        Include include = cachedWays.get(way);
+        Include include = getCached(way);
         if (include != null) {
             return include != Include.DONT;
         }
@@ -113,7 +113,7 @@ public class IndoorFilter extends InvertableFilter {
         }
 
         for (Node n : way.getNodes()) {
-            Include includeNode = cachedNodes.get(n);
+            Include includeNode = getCached(n);
             if (includeNode == null || (include != Include.DONT && includeNode == Include.DONT)) {
                 // if not originally included overwrite now
                 if (include == Include.DONT && (n.hasTags() || n.hasParentRelations())) { // no entry yet so we have to
@@ -121,17 +121,17 @@ public class IndoorFilter extends InvertableFilter {
                     include(n, false);
                     continue;
                 }
-                cachedNodes.put(n, include);
+                setCached(n, include);
             }
         }
-        cachedWays.put(way, include);
+        setCached(way, include);
 
         return include != Include.DONT;
     }
 
     @Override
     public boolean include(Relation relation, boolean selected) {
-        Include include = cachedRelations.get(relation);
+        Include include = getCached(relation);
         if (include != null) {
             return include != Include.DONT;
         }
@@ -143,7 +143,7 @@ public class IndoorFilter extends InvertableFilter {
                     : Include.DONT;
         }
 
-        cachedRelations.put(relation, include);
+        setCached(relation, include);
         List<RelationMember> members = relation.getMembers();
         if (members != null) {
             for (RelationMember rm : members) {
@@ -151,7 +151,7 @@ public class IndoorFilter extends InvertableFilter {
                 if (element != null) {
                     if (element instanceof Way) {
                         Way w = (Way) element;
-                        Include includeWay = cachedWays.get(w);
+                        Include includeWay = getCached(w);
                         if (includeWay == null) {
                             // status hasn't been determined, do that now
                             includeWay = include(w, false) ? Include.INCLUDE_WITH_WAYNODES : Include.DONT;
@@ -159,20 +159,20 @@ public class IndoorFilter extends InvertableFilter {
                         if (include != Include.DONT && includeWay == Include.DONT) {
                             // if not originally included overwrite now
                             for (Node n : w.getNodes()) {
-                                cachedNodes.put(n, include);
+                                setCached(n, include);
                             }
-                            cachedWays.put(w, include);
+                            setCached(w, include);
                         }
                     } else if (element instanceof Node) {
                         Node n = (Node) element;
-                        Include includeNode = cachedNodes.get(n);
+                        Include includeNode = getCached(n);
                         if (includeNode == null) {
                             // status hasn't been determined, do that now
                             includeNode = include(n, false) ? Include.INCLUDE : Include.DONT;
                         }
                         if (include != Include.DONT && includeNode == Include.DONT) {
                             // if not originally included overwrite now
-                            cachedNodes.put(n, include);
+                            setCached(n, include);
                         }
                     } else if (element instanceof Relation) {
                         // FIXME determine if further inheritance actually makes sense
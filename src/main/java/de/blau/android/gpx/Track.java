@@ -1,8 +1,6 @@
 package de.blau.android.gpx;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,6 +9,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -39,10 +40,12 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.blau.android.contract.FileExtensions;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
 import de.blau.android.osm.OsmXml;
 import de.blau.android.util.ExecutorTask;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.SavingHelper.Exportable;
+import de.blau.android.util.collections.IntPrimitiveList;
 
 /**
  * GPS track data class. Only one instance allowed. Automatically saves and loads content. Content saving happens
@@ -57,7 +60,9 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private static final String TRK_ELEMENT    = "trk";
     private static final String GPX_ELEMENT    = "gpx";
 
-    private final List<TrackPoint> currentTrack;
+    private final TrackPointList currentTrack;
+
+    private final TrackIndex index = new TrackIndex();
 
     private final List<WayPoint> currentWayPoints;
 
@@ -123,7 +128,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         iso8601Format = new SimpleDateFormat(DATE_PATTERN_ISO8601_UTC, Locale.US);
         iso8601Format.setTimeZone(TimeZone.getTimeZone("UTC"));
 
-        currentTrack = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
+        currentTrack = new TrackPointList(); // synchronized internally
         currentWayPoints = recording ? Collections.synchronizedList(new ArrayList<>()) : new ArrayList<>();
         ctx = context;
         synchronized (savingLock) {
@@ -146,6 +151,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         deleteSaveFile();
         currentTrack.clear();
         currentWayPoints.clear();
+        index.clear();
     }
 
     /**
@@ -166,6 +172,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         if (location != null) {
             currentTrack.add(new TrackPoint(location, nextIsNewSegment));
             nextIsNewSegment = false;
+            index.update(currentTrack.geoPoints(), currentTrack.getModificationCount());
         }
     }
 
@@ -179,6 +186,49 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
         return currentTrack;
     }
 
+    /**
+     * Get a light weight view of the TrackPoints
+     * 
+     * @return a List of InterruptibleGeoPoint
+     */
+    @NonNull
+    public List<InterruptibleGeoPoint> getGeoPoints() {
+        return currentTrack.geoPoints();
+    }
+
+    /**
+     * Fill a PointBuffer with the TrackPoints at specific indices
+     * 
+     * See {@link TrackPointList#getPoints(IntPrimitiveList, TrackPointList.PointBuffer)}
+     * 
+     * @param indices the indices of the points, as returned by the TrackIndex
+     * @param result the PointBuffer to fill
+     */
+    public void getPoints(@NonNull IntPrimitiveList indices, @NonNull TrackPointList.PointBuffer result) {
+        currentTrack.getPoints(indices, result);
+    }
+
+    /**
+     * Get the number of changes to the TrackPoints that were not appends
+     * 
+     * @return the modification count
+     */
+    public int getModificationCount() {
+        return currentTrack.getModificationCount();
+    }
+
+    /**
+     * Get the spatial index for the TrackPoints
+     * 
+     * Points added by other means than addTrackPoint are only indexed after the next call of TrackIndex.update
+     * 
+     * @return the TrackIndex
+     */
+    @NonNull
+    public TrackIndex getIndex() {
+        return index;
+    }
+
     /**
      * Get the WayPoints for this track
      * 
@@ -223,15 +273,17 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
 
         // There are records to be saved
         ensureFileOpen();
-        while (savedTrackPoints < currentTrack.size()) {
-            try {
-                currentTrack.get(savedTrackPoints).toStream(saveFileStream);
-            } catch (IOException e) {
-                markSavingBroken("Failed to save track point", e);
-                return;
-            }
-            savedTrackPoints++;
+        if (saveFileStream == null) {
+            return;
+        }
+        int size = currentTrack.size();
+        try {
+            currentTrack.write(saveFileStream, savedTrackPoints, size);
+        } catch (IOException e) {
+            markSavingBroken("Failed to save track point", e);
+            return;
         }
+        savedTrackPoints = size;
     }
 
     /**
@@ -257,7 +309,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                 // no save file, create one
                 fileOutput = ctx.openFileOutput(SAVEFILE, Context.MODE_PRIVATE); // NOSONAR closed in close
                 out = new DataOutputStream(new BufferedOutputStream(fileOutput)); // NOSONAR closed in close
-                out.writeInt(TrackPoint.FORMAT_VERSION);
+                out.writeInt(TrackPointList.FORMAT_VERSION);
                 savedTrackPoints = 0;
             }
             saveFileStream = out;
@@ -307,7 +359,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
     private void asyncLoad() {
         // Logic instance might not be available here
         new ExecutorTask<Void, Void, Void>() {
-            private ArrayList<TrackPoint> loaded = new ArrayList<>();
+            private TrackPointList loaded = new TrackPointList();
 
             @Override
             protected Void doInBackground(Void param) {
@@ -353,6 +405,7 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             @Override
             protected void onPostExecute(Void result) {
                 currentTrack.addAll(0, loaded);
+                index.clear();
                 loadingFinished = true;
                 // See end of doInBackground for possible states
                 Log.i(DEBUG_TAG, "asyncLoad track loading finished, loaded entries: " + loaded.size());
@@ -362,35 +415,27 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
             }
 
             /**
-             * Loads a track from the file to the "loaded" ArrayList.
+             * Loads a track from the file to the "loaded" TrackPointList.
+             * 
+             * The file is memory mapped, files in the previous record based format are loaded but need to be rewritten.
              * 
              * @return true if the file was loaded without problems, false if some problem occurred and the file needs
              *         to be rewritten
              */
             private boolean load() {
-                try (FileInputStream fileInput = ctx.openFileInput(SAVEFILE); DataInputStream in = new DataInputStream(new BufferedInputStream(fileInput));) {
-                    long size = fileInput.getChannel().size();
-                    // if you manage to record over 32 GB of track data (in RAM) on a mobile device,
-                    // which means non-stop recording over many many years,
-                    // you deserve the problem you are going to get when the integer overflows in the next line.
-                    int records = (int) ((size - 4) / TrackPoint.RECORD_SIZE);
-
-                    loaded.ensureCapacity(records);
-                    if (in.readInt() != TrackPoint.FORMAT_VERSION) {
-                        Log.e(DEBUG_TAG, "cannot load track, incompatible data format");
+                try (FileInputStream fileInput = ctx.openFileInput(SAVEFILE); FileChannel channel = fileInput.getChannel()) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int version = buffer.getInt();
+                    if (version == TrackPoint.FORMAT_VERSION) {
+                        loadRecords(buffer);
+                        Log.i(DEBUG_TAG, "track file in old format");
                         return false;
                     }
-
-                    for (int i = 0; i < records; i++) {
-                        loaded.add(TrackPoint.fromStream(in));
-                    }
-
-                    if ((size - 4) % TrackPoint.RECORD_SIZE != 0) {
-                        Log.e(DEBUG_TAG, "track file contains partial record");
+                    if (version != TrackPointList.FORMAT_VERSION) {
+                        Log.e(DEBUG_TAG, "cannot load track, incompatible data format");
                         return false;
                     }
-
-                    return true;
+                    return loaded.read(buffer);
                 } catch (FileNotFoundException e) {
                     Log.i(DEBUG_TAG, "No saved track");
                     return false;
@@ -400,16 +445,33 @@ public class Track extends DefaultHandler implements GpxTimeFormater, Exportable
                 }
             }
 
+            /**
+             * Load TrackPoints stored as individual records
+             * 
+             * @param buffer the buffer positioned after the format version
+             */
+            private void loadRecords(@NonNull ByteBuffer buffer) {
+                // if you manage to record over 32 GB of track data (in RAM) on a mobile device,
+                // which means non-stop recording over many many years,
+                // you deserve the problem you are going to get when the integer overflows in the next line.
+                int records = buffer.remaining() / TrackPoint.RECORD_SIZE;
+                List<TrackPoint> points = new ArrayList<>(records);
+                for (int i = 0; i < records; i++) {
+                    points.add(new TrackPoint(buffer.get(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getLong()));
+                }
+                loaded.addAll(points);
+            }
+
             /**
              * Saves the given data to disk, overwriting anything already saved
+             * 
+             * @param data the TrackPoints to save
              */
-            private void rewriteSaveFile(Iterable<TrackPoint> data) {
+            private void rewriteSaveFile(@NonNull TrackPointList data) {
                 try (FileOutputStream fileOutput = ctx.openFileOutput(SAVEFILE, Context.MODE_PRIVATE);
                         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutput));) {
-                    out.writeInt(TrackPoint.FORMAT_VERSION);
-                    for (TrackPoint point : data) {
-                        point.toStream(out);
-                    }
+                    out.writeInt(TrackPointList.FORMAT_VERSION);
+                    data.write(out, 0, data.size());
                 } catch (Exception e) {
                     markSavingBroken("Failed to rewrite broken save file", e);
                 }
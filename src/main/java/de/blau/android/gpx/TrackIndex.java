@@ -0,0 +1,316 @@
+package de.blau.android.gpx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.GeoPoint;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
+import de.blau.android.util.collections.IntPrimitiveList;
+
+/**
+ * Spatial index and simplification pyramid for the points of a Track
+ *
+ * The points are split in to chunks of a fixed number of points, for each chunk the bounding box and Douglas-Peucker
+ * simplifications for a range of tolerances are stored. Chunks overlap by one point so that the line between two
+ * chunks is contained in both. Points can only be appended, when that happens only the last chunk changes, its
+ * simplifications are recalculated the next time they are needed. Any other change to the points is detected via the
+ * modification count of the track and causes the index to be rebuilt.
+ *
+ * @author simon
+ *
+ */
+public class TrackIndex {
+
+    static final int CHUNK_SIZE = 256;
+
+    /**
+     * Number of simplification levels
+     */
+    static final int LEVELS = 8;
+
+    /**
+     * Tolerance of the most detailed level in WGS84*1E7 degrees, roughly 1 m, each following level is 4 times larger
+     */
+    static final int BASE_TOLERANCE = 10;
+
+    /**
+     * Chunk of consecutive points
+     */
+    private static final class Chunk {
+        final int     start;
+        int           end;
+        int           left   = Integer.MAX_VALUE;
+        int           bottom = Integer.MAX_VALUE;
+        int           right  = Integer.MIN_VALUE;
+        int           top    = Integer.MIN_VALUE;
+        final int[][] levels = new int[LEVELS][];
+
+        /**
+         * Construct a new chunk
+         *
+         * @param start index of the first point
+         */
+        Chunk(int start) {
+            this.start = start;
+            this.end = start;
+        }
+
+        /**
+         * Add a point to the chunks bounding box
+         *
+         * @param p the GeoPoint
+         */
+        void extend(@NonNull GeoPoint p) {
+            int lon = p.getLon();
+            int lat = p.getLat();
+            left = Math.min(left, lon);
+            right = Math.max(right, lon);
+            bottom = Math.min(bottom, lat);
+            top = Math.max(top, lat);
+        }
+
+        /**
+         * Check if the bounding box of the chunk intersects with a BoundingBox
+         *
+         * @param box the BoundingBox
+         * @return true if they intersect
+         */
+        boolean intersects(@NonNull BoundingBox box) {
+            return left <= box.getRight() && right >= box.getLeft() && bottom <= box.getTop() && top >= box.getBottom();
+        }
+    }
+
+    private final List<Chunk> chunks               = new ArrayList<>();
+    private int               indexedSize          = 0;
+    private int               indexedModifications = 0;
+
+    /**
+     * Remove all indexed points
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        indexedSize = 0;
+    }
+
+    /**
+     * Add any points that have been appended to the track since the last call
+     *
+     * If the points have been changed in any other way the index is rebuilt
+     *
+     * @param points the points of the track
+     * @param modifications the count of changes to the points that were not appends
+     */
+    public synchronized void update(@NonNull List<? extends InterruptibleGeoPoint> points, int modifications) {
+        int size = points.size();
+        if (size < indexedSize || modifications != indexedModifications) {
+            clear();
+            indexedModifications = modifications;
+        }
+        for (int i = indexedSize; i < size; i++) {
+            InterruptibleGeoPoint p = points.get(i);
+            Chunk chunk;
+            if (chunks.isEmpty()) {
+                chunk = new Chunk(i);
+                chunks.add(chunk);
+            } else {
+                chunk = chunks.get(chunks.size() - 1);
+                if (chunk.end - chunk.start >= CHUNK_SIZE - 1) {
+                    // start a new chunk with the last point of the previous one
+                    chunk = new Chunk(chunk.end);
+                    chunk.extend(points.get(chunk.start));
+                    chunks.add(chunk);
+                }
+                chunk.end = i;
+                Arrays.fill(chunk.levels, null);
+            }
+            chunk.extend(p);
+        }
+        indexedSize = size;
+    }
+
+    /**
+     * Get the simplification level to use
+     *
+     * @param pixelE7 the size of a screen pixel in WGS84*1E7 degrees longitude
+     * @return the level or -1 if all points should be used
+     */
+    static int level(double pixelE7) {
+        int level = -1;
+        double tolerance = BASE_TOLERANCE;
+        while (level < LEVELS - 1 && tolerance <= pixelE7) {
+            level++;
+            tolerance *= 4;
+        }
+        return level;
+    }
+
+    /**
+     * Get the indices of the points that need to be drawn for a bounding box
+     *
+     * Only the points of chunks intersecting the box are returned, simplified so that they don't deviate from the
+     * original track by more than roughly a pixel. If a chunk doesn't directly continue the previous one, the complement
+     * of the index of its first point is added, the point has to start a new segment so that no line is drawn between
+     * them. No points are created, see {@link TrackPointList#getPoints(IntPrimitiveList, TrackPointList.PointBuffer)}.
+     *
+     * @param points the points of the track, update must have been called with the same List
+     * @param box the BoundingBox
+     * @param pixelE7 the size of a screen pixel in WGS84*1E7 degrees longitude
+     * @param result list the indices are added to
+     */
+    public synchronized void query(@NonNull List<? extends InterruptibleGeoPoint> points, @NonNull BoundingBox box, double pixelE7,
+            @NonNull IntPrimitiveList result) {
+        final int level = level(pixelE7);
+        int lastAdded = -1;
+        for (Chunk chunk : chunks) {
+            if (!chunk.intersects(box)) {
+                continue;
+            }
+            int[] indices = level >= 0 ? getLevel(points, chunk, level) : null;
+            int count = indices != null ? indices.length : chunk.end - chunk.start + 1;
+            for (int i = 0; i < count; i++) {
+                int index = indices != null ? indices[i] : chunk.start + i;
+                if (i == 0) {
+                    if (index == lastAdded) {
+                        continue;
+                    }
+                    if (result.size() > 0) {
+                        result.add(~index);
+                        continue;
+                    }
+                }
+                result.add(index);
+            }
+            lastAdded = chunk.end;
+        }
+    }
+
+    /**
+     * Get the simplified points of a chunk, calculating them if necessary
+     *
+     * @param points the points of the track
+     * @param chunk the Chunk
+     * @param level the simplification level
+     * @return the indices of the points to keep
+     */
+    @NonNull
+    private int[] getLevel(@NonNull List<? extends InterruptibleGeoPoint> points, @NonNull Chunk chunk, int level) {
+        int[] indices = chunk.levels[level];
+        if (indices == null) {
+            indices = simplify(points, chunk.start, chunk.end, BASE_TOLERANCE * Math.pow(4, level));
+            chunk.levels[level] = indices;
+        }
+        return indices;
+    }
+
+    /**
+     * Simplify a range of points with the Douglas-Peucker algorithm
+     *
+     * The points before and at the start of a new segment are always retained
+     *
+     * @param points the points of the track
+     * @param start index of the first point
+     * @param end index of the last point
+     * @param tolerance the tolerance in WGS84*1E7 degrees longitude
+     * @return the indices of the points to keep
+     */
+    @NonNull
+    static int[] simplify(@NonNull List<? extends InterruptibleGeoPoint> points, int start, int end, double tolerance) {
+        final int length = end - start + 1;
+        double[] x = new double[length];
+        double[] y = new double[length];
+        // scale latitude so that distances are roughly the same as on a mercator projection
+        final double yScale = 1 / Math.max(0.01, Math.cos(Math.toRadians(points.get(start).getLat() / 1E7)));
+        boolean[] keep = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            InterruptibleGeoPoint p = points.get(start + i);
+            x[i] = p.getLon();
+            y[i] = p.getLat() * yScale;
+            if (p.isInterrupted() && i > 0) {
+                keep[i - 1] = true;
+                keep[i] = true;
+            }
+        }
+        keep[0] = true;
+        keep[length - 1] = true;
+        final double toleranceSquared = tolerance * tolerance;
+        int[] stack = new int[2 * length];
+        int runStart = 0;
+        for (int i = 1; i < length; i++) {
+            if (!keep[i]) {
+                continue;
+            }
+            // simplify the run between two kept points
+            int top = 0;
+            stack[top++] = runStart;
+            stack[top++] = i;
+            while (top > 0) {
+                int last = stack[--top];
+                int first = stack[--top];
+                double maxDistance = 0;
+                int farthest = -1;
+                for (int j = first + 1; j < last; j++) {
+                    double distance = distanceSquared(x[j], y[j], x[first], y[first], x[last], y[last]);
+                    if (distance > maxDistance) {
+                        maxDistance = distance;
+                        farthest = j;
+                    }
+                }
+                if (farthest >= 0 && maxDistance > toleranceSquared) {
+                    keep[farthest] = true;
+                    stack[top++] = first;
+                    stack[top++] = farthest;
+                    stack[top++] = farthest;
+                    stack[top++] = last;
+                }
+            }
+            runStart = i;
+        }
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) {
+                kept++;
+            }
+        }
+        int[] result = new int[kept];
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            if (keep[i]) {
+                result[pos++] = start + i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculate the squared distance of a point to a line segment
+     *
+     * @param px x coordinate of the point
+     * @param py y coordinate of the point
+     * @param x1 x coordinate of the start of the segment
+     * @param y1 y coordinate of the start of the segment
+     * @param x2 x coordinate of the end of the segment
+     * @param y2 y coordinate of the end of the segment
+     * @return the squared distance
+     */
+    private static double distanceSquared(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared)) : 0;
+        double ex = px - (x1 + t * dx);
+        double ey = py - (y1 + t * dy);
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Get the number of indexed points
+     *
+     * @return the number of points
+     */
+    public synchronized int size() {
+        return indexedSize;
+    }
+}
@@ -0,0 +1,683 @@
+package de.blau.android.gpx;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
+import de.blau.android.util.collections.FloatPrimitiveList;
+import de.blau.android.util.collections.IntPrimitiveList;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongPrimitiveList;
+
+/**
+ * Columnar storage for TrackPoints
+ *
+ * Coordinates are stored as WGS84*1E7 ints, times as int offsets to a base time shared by a block of points and
+ * altitudes in a float column that is only allocated once a point with an altitude is added. get returns a new
+ * TrackPoint with the stored values, {@link #geoPoints()} provides a lighter view for code that only needs the
+ * coordinates.
+ *
+ * The on disk format consists of the int format version followed by blocks of points, each block starts with a header
+ * holding a marker, the number of points, the base time and if altitudes are present, followed by the columns. Blocks
+ * are only appended, a partially written block at the end of a file is ignored when reading.
+ *
+ * @author simon
+ *
+ */
+public class TrackPointList extends AbstractList<TrackPoint> implements RandomAccess {
+
+    private static final String DEBUG_TAG = TrackPointList.class.getSimpleName();
+
+    public static final int FORMAT_VERSION = 3;
+
+    private static final int BLOCK_MARKER      = 0x54524B42; // TRKB
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 1;
+    private static final int MAX_WRITE_BLOCK   = 4096;
+
+    /**
+     * Number of points that share a base time in memory is 1 << TIME_BLOCK_SHIFT
+     */
+    private static final int TIME_BLOCK_SHIFT = 8;
+
+    /**
+     * Marks time offsets that don't fit in an int
+     */
+    private static final int TIME_OVERFLOW = Integer.MIN_VALUE;
+
+    private final IntPrimitiveList  lats        = new IntPrimitiveList();
+    private final IntPrimitiveList  lons        = new IntPrimitiveList();
+    private final IntPrimitiveList  timeOffsets = new IntPrimitiveList();
+    private final LongPrimitiveList timeBases   = new LongPrimitiveList();
+    private final BitSet            newSegments = new BitSet();
+    private LongHashMap<Long>       timeOverflow;
+    private FloatPrimitiveList      altitudes;
+    private int                     modifications = 0;
+
+    /**
+     * Light weight GeoPoint for a stored point, the instances in a PointBuffer are reused
+     */
+    static final class Point implements InterruptibleGeoPoint {
+        private int     lat;
+        private int     lon;
+        private boolean interrupted;
+
+        /**
+         * Construct a new instance
+         *
+         * @param lat WGS84*1E7 latitude
+         * @param lon WGS84*1E7 longitude
+         * @param interrupted true if the point starts a new segment
+         */
+        Point(int lat, int lon, boolean interrupted) {
+            set(lat, lon, interrupted);
+        }
+
+        /**
+         * Set the values of the point
+         *
+         * @param lat WGS84*1E7 latitude
+         * @param lon WGS84*1E7 longitude
+         * @param interrupted true if the point starts a new segment
+         */
+        void set(int lat, int lon, boolean interrupted) {
+            this.lat = lat;
+            this.lon = lon;
+            this.interrupted = interrupted;
+        }
+
+        @Override
+        public int getLat() {
+            return lat;
+        }
+
+        @Override
+        public int getLon() {
+            return lon;
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return interrupted;
+        }
+    }
+
+    /**
+     * List of points that keeps its Point instances when cleared and reuses them, so that filling it repeatedly only
+     * allocates when it grows beyond its previous size
+     */
+    public static final class PointBuffer extends AbstractList<InterruptibleGeoPoint> implements RandomAccess {
+        private final List<Point> points = new ArrayList<>();
+        private int               size   = 0;
+
+        /**
+         * Add a point
+         *
+         * @param lat WGS84*1E7 latitude
+         * @param lon WGS84*1E7 longitude
+         * @param interrupted true if the point starts a new segment
+         */
+        void add(int lat, int lon, boolean interrupted) {
+            if (size == points.size()) {
+                points.add(new Point(lat, lon, interrupted));
+            } else {
+                points.get(size).set(lat, lon, interrupted);
+            }
+            size++;
+        }
+
+        @Override
+        public InterruptibleGeoPoint get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException(index + " size " + size);
+            }
+            return points.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+        }
+    }
+
+    private final List<InterruptibleGeoPoint> geoPoints = new GeoPointView();
+
+    /**
+     * View of the points as InterruptibleGeoPoints
+     */
+    private final class GeoPointView extends AbstractList<InterruptibleGeoPoint> implements RandomAccess {
+        @Override
+        public InterruptibleGeoPoint get(int index) {
+            synchronized (TrackPointList.this) {
+                return new Point(lats.get(index), lons.get(index), newSegments.get(index));
+            }
+        }
+
+        @Override
+        public int size() {
+            return TrackPointList.this.size();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return lats.size();
+    }
+
+    @Override
+    public synchronized TrackPoint get(int index) {
+        checkIndex(index);
+        float altitude = altitudes != null ? altitudes.get(index) : Float.NaN;
+        return new TrackPoint(newSegments.get(index) ? TrackPoint.FLAG_NEWSEGMENT : 0, toDegrees(lats.get(index)), toDegrees(lons.get(index)), altitude,
+                getTime(index));
+    }
+
+    /**
+     * Convert a WGS84*1E7 coordinate to degrees
+     * 
+     * TrackPoint truncates when converting to E7, e1E7/1E7 can end up a fraction below the value in that case, this
+     * returns the double closest to that which converts back to exactly e1E7
+     * 
+     * @param e1E7 the coordinate multiplied by 1E7
+     * @return the coordinate in degrees
+     */
+    static double toDegrees(int e1E7) {
+        double degrees = e1E7 / 1E7;
+        final double direction = e1E7 >= 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        while ((int) (degrees * 1E7) != e1E7) {
+            degrees = Math.nextAfter(degrees, direction);
+        }
+        return degrees;
+    }
+
+    /**
+     * Get a view of the points that doesn't create complete TrackPoints
+     *
+     * @return a List of InterruptibleGeoPoint
+     */
+    @NonNull
+    public List<InterruptibleGeoPoint> geoPoints() {
+        return geoPoints;
+    }
+
+    /**
+     * Replace the contents of a PointBuffer with the points at specific indices
+     *
+     * A negative value is the complement of the index of a point that has to start a new segment, see
+     * {@link TrackIndex#query(List, de.blau.android.osm.BoundingBox, double, IntPrimitiveList)}. Indices beyond the end
+     * of the list, which can only happen if it was changed after the indices were determined, are ignored.
+     *
+     * @param indices the indices of the points
+     * @param result the PointBuffer to fill
+     */
+    public synchronized void getPoints(@NonNull IntPrimitiveList indices, @NonNull PointBuffer result) {
+        result.clear();
+        final int size = lats.size();
+        for (int i = 0, count = indices.size(); i < count; i++) {
+            int index = indices.get(i);
+            final boolean interrupted = index < 0;
+            if (interrupted) {
+                index = ~index;
+            }
+            if (index < size) {
+                result.add(lats.get(index), lons.get(index), interrupted || newSegments.get(index));
+            }
+        }
+    }
+
+    /**
+     * Get the latitude of a point
+     *
+     * @param index the index of the point
+     * @return the WGS84*1E7 latitude
+     */
+    public synchronized int getLat(int index) {
+        return lats.get(index);
+    }
+
+    /**
+     * Get the longitude of a point
+     *
+     * @param index the index of the point
+     * @return the WGS84*1E7 longitude
+     */
+    public synchronized int getLon(int index) {
+        return lons.get(index);
+    }
+
+    /**
+     * Get the time of a point
+     *
+     * @param index the index of the point
+     * @return the time in milliseconds since the epoch
+     */
+    public synchronized long getTime(int index) {
+        int offset = timeOffsets.get(index);
+        if (offset == TIME_OVERFLOW) {
+            return timeOverflow.get(index);
+        }
+        return timeBases.get(index >> TIME_BLOCK_SHIFT) + offset;
+    }
+
+    /**
+     * Check if a point starts a new segment
+     *
+     * @param index the index of the point
+     * @return true if the point starts a new segment
+     */
+    public synchronized boolean isNewSegment(int index) {
+        checkIndex(index);
+        return newSegments.get(index);
+    }
+
+    /**
+     * Throw an IndexOutOfBoundsException if index is not valid
+     *
+     * @param index the index
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= lats.size()) {
+            throw new IndexOutOfBoundsException(index + " size " + lats.size());
+        }
+    }
+
+    /**
+     * Insert a TrackPoint
+     * 
+     * The storage is optimized for appending, inserting anywhere else has to move all following points, use
+     * {@link #addAll(int, Collection)} to insert more than one point
+     */
+    @Override
+    public synchronized void add(int index, TrackPoint element) {
+        if (index == lats.size()) {
+            append(element);
+            modCount++;
+        } else {
+            addAll(index, Collections.singletonList(element));
+        }
+    }
+
+    @Override
+    public synchronized boolean addAll(int index, Collection<? extends TrackPoint> c) {
+        int size = lats.size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException(index + " size " + size);
+        }
+        Collection<? extends TrackPoint> points = c;
+        if (c == this) {
+            TrackPointList copy = new TrackPointList();
+            copy.appendRange(this, 0, size);
+            points = copy;
+        }
+        if (index == size) {
+            if (points instanceof TrackPointList) {
+                TrackPointList other = (TrackPointList) points;
+                synchronized (other) {
+                    appendRange(other, 0, other.size());
+                }
+            } else {
+                for (TrackPoint p : points) {
+                    append(p);
+                }
+            }
+        } else if (!points.isEmpty()) {
+            insert(index, points);
+        }
+        modCount++;
+        return !points.isEmpty();
+    }
+
+    /**
+     * Insert points in front of existing ones
+     * 
+     * @param index the index to insert at, must be smaller than the size
+     * @param c the points to insert
+     */
+    private void insert(int index, @NonNull Collection<? extends TrackPoint> c) {
+        modifications++;
+        if (c instanceof TrackPointList) {
+            TrackPointList other = (TrackPointList) c;
+            synchronized (other) {
+                final int count = other.size();
+                openGap(index, count);
+                for (int i = 0; i < count; i++) {
+                    setPoint(index + i, other.lats.get(i), other.lons.get(i), other.getTime(i), other.newSegments.get(i),
+                            other.altitudes != null ? other.altitudes.get(i) : Float.NaN);
+                }
+            }
+        } else {
+            openGap(index, c.size());
+            int i = index;
+            for (TrackPoint p : c) {
+                setPoint(i++, p.getLat(), p.getLon(), p.getTime(), p.isNewSegment(), p.hasAltitude() ? (float) p.getAltitude() : Float.NaN);
+            }
+        }
+    }
+
+    /**
+     * Move all points from index on up by count
+     * 
+     * The columns are moved in place, as time offsets are relative to the base time of a block the offsets of the moved
+     * points are recalculated against the base times of the blocks they end up in
+     * 
+     * @param index the first point to move
+     * @param count the number of positions to move by
+     */
+    private void openGap(int index, int count) {
+        final int size = lats.size();
+        lats.insert(index, count);
+        lons.insert(index, count);
+        if (altitudes != null) {
+            altitudes.insert(index, count);
+        }
+        for (int i = size - 1; i >= index; i--) {
+            if (newSegments.get(i)) {
+                newSegments.clear(i);
+                newSegments.set(i + count);
+            }
+        }
+        // the block containing index keeps its base, the following ones get the time of the first moved point in them
+        final int firstBlock = index >> TIME_BLOCK_SHIFT;
+        final long[] bases = new long[((size + count - 1) >> TIME_BLOCK_SHIFT) - firstBlock + 1];
+        bases[0] = timeBases.get(firstBlock);
+        for (int b = 1; b < bases.length; b++) {
+            bases[b] = getTime(Math.max(index, ((firstBlock + b) << TIME_BLOCK_SHIFT) - count));
+        }
+        LongHashMap<Long> overflow = null;
+        if (timeOverflow != null) {
+            overflow = new LongHashMap<>();
+            for (long i : timeOverflow.keys()) {
+                if (i >= index) {
+                    overflow.put(i, timeOverflow.remove(i));
+                }
+            }
+        }
+        timeOffsets.insert(index, count);
+        for (int i = size - 1; i >= index; i--) {
+            int offset = timeOffsets.get(i + count);
+            long time = offset == TIME_OVERFLOW && overflow != null ? overflow.get(i) : timeBases.get(i >> TIME_BLOCK_SHIFT) + offset;
+            setTime(i + count, time, bases[((i + count) >> TIME_BLOCK_SHIFT) - firstBlock]);
+        }
+        for (int b = 1; b < bases.length; b++) {
+            if (firstBlock + b < timeBases.size()) {
+                timeBases.set(firstBlock + b, bases[b]);
+            } else {
+                timeBases.add(bases[b]);
+            }
+        }
+    }
+
+    /**
+     * Set the values of a point in a gap created with openGap
+     *
+     * @param index the index of the point
+     * @param lat WGS84*1E7 latitude
+     * @param lon WGS84*1E7 longitude
+     * @param time time in milliseconds since the epoch
+     * @param newSegment true if the point starts a new segment
+     * @param altitude the altitude or NaN
+     */
+    private void setPoint(int index, int lat, int lon, long time, boolean newSegment, float altitude) {
+        lats.set(index, lat);
+        lons.set(index, lon);
+        setTime(index, time, timeBases.get(index >> TIME_BLOCK_SHIFT));
+        if (newSegment) {
+            newSegments.set(index);
+        }
+        if (altitudes == null && !Float.isNaN(altitude)) {
+            createAltitudes(lats.size());
+        }
+        if (altitudes != null) {
+            altitudes.set(index, altitude);
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends TrackPoint> c) {
+        return addAll(size(), c);
+    }
+
+    @Override
+    public synchronized void clear() {
+        truncate(0);
+        altitudes = null;
+        timeOverflow = null;
+        modifications++;
+        modCount++;
+    }
+
+    /**
+     * Get the number of changes to this list that were not appends
+     *
+     * If this is unchanged points have at most been added at the end since the last call
+     *
+     * @return the modification count
+     */
+    public synchronized int getModificationCount() {
+        return modifications;
+    }
+
+    /**
+     * Append a TrackPoint
+     *
+     * @param p the TrackPoint
+     */
+    private void append(@NonNull TrackPoint p) {
+        append(p.getLat(), p.getLon(), p.getTime(), p.isNewSegment(), p.hasAltitude() ? (float) p.getAltitude() : Float.NaN);
+    }
+
+    /**
+     * Append the points from a range of another list
+     *
+     * @param other the other TrackPointList
+     * @param start first point
+     * @param end end of the range (exclusive)
+     */
+    private void appendRange(@NonNull TrackPointList other, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(other.lats.get(i), other.lons.get(i), other.getTime(i), other.newSegments.get(i),
+                    other.altitudes != null ? other.altitudes.get(i) : Float.NaN);
+        }
+    }
+
+    /**
+     * Append a point
+     *
+     * @param lat WGS84*1E7 latitude
+     * @param lon WGS84*1E7 longitude
+     * @param time time in milliseconds since the epoch
+     * @param newSegment true if the point starts a new segment
+     * @param altitude the altitude or NaN
+     */
+    private void append(int lat, int lon, long time, boolean newSegment, float altitude) {
+        int index = lats.size();
+        lats.add(lat);
+        lons.add(lon);
+        appendTime(time);
+        if (newSegment) {
+            newSegments.set(index);
+        }
+        if (altitudes == null && !Float.isNaN(altitude)) {
+            createAltitudes(index);
+        }
+        if (altitudes != null) {
+            altitudes.add(altitude);
+        }
+    }
+
+    /**
+     * Append a time to the time columns
+     * 
+     * @param time time in milliseconds since the epoch
+     */
+    private void appendTime(long time) {
+        int index = timeOffsets.size();
+        if ((index >> TIME_BLOCK_SHIFT) == timeBases.size()) {
+            timeBases.add(time);
+        }
+        timeOffsets.add(0);
+        setTime(index, time, timeBases.get(index >> TIME_BLOCK_SHIFT));
+    }
+
+    /**
+     * Set the time of a point
+     * 
+     * @param index the index of the point
+     * @param time time in milliseconds since the epoch
+     * @param base the base time of the block the point is in
+     */
+    private void setTime(int index, long time, long base) {
+        long offset = time - base;
+        if (offset > Integer.MAX_VALUE || offset <= TIME_OVERFLOW) {
+            if (timeOverflow == null) {
+                timeOverflow = new LongHashMap<>();
+            }
+            timeOverflow.put(index, time);
+            timeOffsets.set(index, TIME_OVERFLOW);
+        } else {
+            timeOffsets.set(index, (int) offset);
+        }
+    }
+
+    /**
+     * Create the altitude column
+     * 
+     * @param size the number of points without altitude to fill it with
+     */
+    private void createAltitudes(int size) {
+        altitudes = new FloatPrimitiveList(Math.max(12, size + 1));
+        for (int i = 0; i < size; i++) {
+            altitudes.add(Float.NaN);
+        }
+    }
+
+    /**
+     * Remove all points from size on
+     *
+     * @param size the new size
+     */
+    private void truncate(int size) {
+        int oldSize = lats.size();
+        lats.truncate(size);
+        lons.truncate(size);
+        timeOffsets.truncate(size);
+        timeBases.truncate((size + (1 << TIME_BLOCK_SHIFT) - 1) >> TIME_BLOCK_SHIFT);
+        newSegments.clear(size, Math.max(size, oldSize));
+        if (altitudes != null) {
+            altitudes.truncate(size);
+        }
+        if (timeOverflow != null) {
+            for (long index : timeOverflow.keys()) {
+                if (index >= size) {
+                    timeOverflow.remove(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a range of points in blocks
+     *
+     * @param out the stream to write to
+     * @param start the first point
+     * @param end end of the range (exclusive)
+     * @throws IOException if writing fails
+     */
+    public synchronized void write(@NonNull DataOutputStream out, int start, int end) throws IOException {
+        int blockStart = start;
+        while (blockStart < end) {
+            long base = getTime(blockStart);
+            int blockEnd = blockStart + 1;
+            // end the block early if a time offset doesn't fit
+            while (blockEnd < end && blockEnd - blockStart < MAX_WRITE_BLOCK) {
+                long offset = getTime(blockEnd) - base;
+                if (offset > Integer.MAX_VALUE || offset < Integer.MIN_VALUE) {
+                    break;
+                }
+                blockEnd++;
+            }
+            boolean hasAltitudes = altitudes != null;
+            out.writeInt(BLOCK_MARKER);
+            out.writeInt(blockEnd - blockStart);
+            out.writeLong(base);
+            out.writeBoolean(hasAltitudes);
+            for (int i = blockStart; i < blockEnd; i++) {
+                out.writeInt(lats.get(i));
+            }
+            for (int i = blockStart; i < blockEnd; i++) {
+                out.writeInt(lons.get(i));
+            }
+            for (int i = blockStart; i < blockEnd; i++) {
+                out.writeInt((int) (getTime(i) - base));
+            }
+            for (int i = blockStart; i < blockEnd; i++) {
+                out.writeByte(newSegments.get(i) ? TrackPoint.FLAG_NEWSEGMENT : 0);
+            }
+            if (hasAltitudes) {
+                for (int i = blockStart; i < blockEnd; i++) {
+                    out.writeFloat(altitudes.get(i));
+                }
+            }
+            blockStart = blockEnd;
+        }
+    }
+
+    /**
+     * Append the points from blocks in a buffer
+     *
+     * The buffer should be positioned after the format version, for example a memory mapped save file. Reading stops
+     * at the first incomplete or invalid block.
+     *
+     * @param buffer the ByteBuffer
+     * @return true if all of the buffer could be read
+     */
+    public synchronized boolean read(@NonNull ByteBuffer buffer) {
+        try {
+            while (buffer.remaining() >= BLOCK_HEADER_SIZE) {
+                int blockStart = buffer.position();
+                if (buffer.getInt() != BLOCK_MARKER) {
+                    Log.e(DEBUG_TAG, "Invalid block at " + blockStart);
+                    return false;
+                }
+                int count = buffer.getInt();
+                long base = buffer.getLong();
+                boolean hasAltitudes = buffer.get() != 0;
+                long blockSize = count * (hasAltitudes ? 17L : 13L);
+                if (count <= 0 || buffer.remaining() < blockSize) {
+                    Log.e(DEBUG_TAG, "Incomplete block at " + blockStart);
+                    return false;
+                }
+                int latPos = buffer.position();
+                int lonPos = latPos + 4 * count;
+                int timePos = lonPos + 4 * count;
+                int flagPos = timePos + 4 * count;
+                int altitudePos = flagPos + count;
+                for (int i = 0; i < count; i++) {
+                    append(buffer.getInt(latPos + 4 * i), buffer.getInt(lonPos + 4 * i), base + buffer.getInt(timePos + 4 * i),
+                            (buffer.get(flagPos + i) & TrackPoint.FLAG_NEWSEGMENT) != 0, hasAltitudes ? buffer.getFloat(altitudePos + 4 * i) : Float.NaN);
+                }
+                buffer.position(latPos + (int) blockSize);
+            }
+            modCount++;
+            return !buffer.hasRemaining();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            Log.e(DEBUG_TAG, "Reading failed " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -95,11 +95,11 @@ public class ApiLayerInfo extends LayerInfo {
             t2.addView(TableLayoutUtils.createFullRowTitle(activity, getString(R.string.data_in_memory), tp));
             t2.addView(TableLayoutUtils.createRow(activity, "", getString(R.string.total), getString(R.string.changed), tp));
             Storage currentStorage = delegator.getCurrentStorage();
-            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.nodes), Integer.toString(currentStorage.getNodes().size()),
+            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.nodes), Integer.toString(currentStorage.getNodeCount()),
                     Integer.toString(delegator.getApiNodeCount()), tp, -1, -1));
-            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.ways), Integer.toString(currentStorage.getWays().size()),
+            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.ways), Integer.toString(currentStorage.getWayCount()),
                     Integer.toString(delegator.getApiWayCount()), tp, -1, -1));
-            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.relations), Integer.toString(currentStorage.getRelations().size()),
+            t2.addView(TableLayoutUtils.createRow(activity, getString(R.string.relations), Integer.toString(currentStorage.getRelationCount()),
                     Integer.toString(delegator.getApiRelationCount()), tp, -1, -1));
         }
         return sv;
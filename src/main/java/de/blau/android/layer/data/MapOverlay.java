@@ -81,6 +81,7 @@ import de.blau.android.util.Snack;
 import de.blau.android.util.Util;
 import de.blau.android.util.collections.FloatPrimitiveList;
 import de.blau.android.util.collections.LongHashSet;
+import de.blau.android.validation.ValidationEngine;
 import de.blau.android.validation.Validator;
 import de.blau.android.views.IMapView;
 
@@ -119,6 +120,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
     private final StorageDelegator delegator;
     private final Context          context;
     private final Validator        validator;
+    private final ValidationEngine validationEngine;
     private final Map              map;
 
     /**
@@ -276,7 +278,15 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
 
     private Paint labelBackground;
 
-    private float[][] coord = null;
+    private final ToleranceGrid toleranceGrid = new ToleranceGrid();
+
+    /**
+     * Ids of the selected elements for fast membership tests during one onDraw pass
+     */
+    private final LongHashSet selectedNodeIds         = new LongHashSet();
+    private final LongHashSet selectedWayIds          = new LongHashSet();
+    private final LongHashSet selectedRelationNodeIds = new LongHashSet();
+    private final LongHashSet selectedRelationWayIds  = new LongHashSet();
 
     private FloatPrimitiveList points          = new FloatPrimitiveList(); // allocate these just once
     private float[]            offsettedCasing = new float[100];
@@ -315,6 +325,8 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         context = map.getContext();
         prefs = map.getPrefs();
         validator = App.getDefaultValidator(context);
+        validationEngine = App.getValidationEngine(context);
+        validationEngine.setListener(map::postInvalidate);
         download = new DataDownloader(context, prefs.getServer(), validator);
 
         iconRadius = Density.dpToPx(context, ICON_SIZE_DP / 2);
@@ -329,6 +341,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
 
     @Override
     public void onDestroy() {
+        validationEngine.setListener(null);
         shutDownThreadPool(dataThreadPoolExecutor);
         shutDownThreadPool(iconThreadPoolExecutor);
         clearIconCaches();
@@ -466,12 +479,25 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         nodesResult.clear();
         List<Node> paintNodes = delegator.getCurrentStorage().getNodes(viewBox, nodesResult);
 
+        setIds(selectedNodeIds, tmpDrawingSelectedNodes);
+        setIds(selectedWayIds, tmpDrawingSelectedWays);
+        setIds(selectedRelationNodeIds, tmpDrawingSelectedRelationNodes);
+        setIds(selectedRelationWayIds, tmpDrawingSelectedRelationWays);
+
         // the following should guarantee that if the selected node is off screen but the handle not, the handle gets
         // drawn, this isn't perfect because touch areas of other nodes just outside the screen still won't get drawn
-        if (tmpDrawingSelectedNodes != null) {
-            for (Node n : tmpDrawingSelectedNodes) {
-                if (!paintNodes.contains(n)) {
-                    paintNodes.add(n);
+        if (tmpDrawingSelectedNodes != null && !tmpDrawingSelectedNodes.isEmpty()) {
+            LongHashSet missing = new LongHashSet(selectedNodeIds);
+            for (Node n : paintNodes) {
+                if (missing.remove(n.getOsmId()) && missing.isEmpty()) {
+                    break;
+                }
+            }
+            if (!missing.isEmpty()) {
+                for (Node n : tmpDrawingSelectedNodes) {
+                    if (missing.remove(n.getOsmId())) {
+                        paintNodes.add(n);
+                    }
                 }
             }
         }
@@ -502,7 +528,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             tmpHiddenWays.clear();
             tmpStyledWays.clear();
             for (Way w : ways) {
-                if (tmpFilter.include(w, tmpDrawingInEditRange && tmpDrawingSelectedWays != null && tmpDrawingSelectedWays.contains(w))) {
+                if (tmpFilter.include(w, tmpDrawingInEditRange && selectedWayIds.contains(w.getOsmId()))) {
                     tmpStyledWays.add(w);
                 } else {
                     tmpHiddenWays.add(w);
@@ -544,11 +570,8 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         // Paint nodes
         boolean hwAccelarationWorkaround = Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && Map.myIsHardwareAccelerated(canvas);
 
-        int coordSize = 0;
-        float r = wayTolerancePaint.getStrokeWidth() / 2;
-        float r2 = r * r;
-        if (drawTolerance && (coord == null || coord.length < paintNodes.size())) {
-            coord = new float[paintNodes.size()][2];
+        if (drawTolerance) {
+            toleranceGrid.reset(screenWidth, screenHeight, wayTolerancePaint.getStrokeWidth() / 2);
         }
         for (Node n : paintNodes) {
             boolean noTolerance = false;
@@ -558,24 +581,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             float x = GeoMath.lonE7ToX(screenWidth, viewBox, lon);
             if (drawTolerance) {
                 // this reduces the number of tolerance fields drawn
-                // while it rather expensive traversing the array is
-                // still reasonably cheap
-                if (coordSize != 0) {
-                    for (int i = 0; i < coordSize; i++) {
-                        float x1 = coord[i][0];
-                        float y1 = coord[i][1];
-                        float d2 = (x1 - x) * (x1 - x) + (y1 - y) * (y1 - y);
-                        if (d2 < r2) {
-                            noTolerance = true;
-                            break;
-                        }
-                    }
-                }
-                if (!noTolerance) {
-                    coord[coordSize][0] = x;
-                    coord[coordSize][1] = y;
-                    coordSize++;
-                }
+                noTolerance = !toleranceGrid.addIfFree(x, y);
             }
             paintNode(canvas, n, x, y, hwAccelarationWorkaround,
                     drawTolerance && !noTolerance && (n.getState() != OsmElement.STATE_UNCHANGED || isInDownload(lon, lat)));
@@ -591,6 +597,21 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         paintHandles(canvas);
     }
 
+    /**
+     * Replace the contents of a set with the ids of a list of elements
+     * 
+     * @param ids the set to fill
+     * @param elements the elements or null
+     */
+    private static void setIds(@NonNull LongHashSet ids, @Nullable List<? extends OsmElement> elements) {
+        ids.clear();
+        if (elements != null) {
+            for (OsmElement e : elements) {
+                ids.put(e.getOsmId());
+            }
+        }
+    }
+
     /**
      * Replacement for the method in StorageDelegator for performance reasons
      * 
@@ -669,7 +690,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
      */
     private void paintMultiPolygon(@NonNull Canvas canvas, @NonNull ViewBox viewBox, @NonNull Relation rel) {
         FeatureStyle style;
-        if (rel.hasProblem(context, validator) != Validator.OK) {
+        if (validationEngine.getProblems(rel) != Validator.OK) {
             style = DataStyle.getInternal(DataStyle.PROBLEM_WAY);
         } else {
             style = DataStyle.matchStyle(rel);
@@ -928,7 +949,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
     private void paintNode(@NonNull final Canvas canvas, @NonNull final Node node, final float x, final float y, final boolean hwAccelarationWorkaround,
             final boolean drawTolerance) {
 
-        boolean isSelected = tmpDrawingSelectedNodes != null && tmpDrawingSelectedNodes.contains(node);
+        boolean isSelected = selectedNodeIds.contains(node.getOsmId());
 
         boolean isTagged = node.isTagged();
         boolean hasProblem = false;
@@ -975,7 +996,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
             }
         }
 
-        if (node.hasProblem(context, validator) != Validator.OK) {
+        if (validationEngine.getProblems(node) != Validator.OK) {
             featureStyle = nodeFeatureStyleProblem;
             featureStyleThin = nodeFeatureStyleThinProblem;
             featureStyleTagged = nodeFeatureStyleTaggedProblem;
@@ -996,7 +1017,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
         }
 
         // relation member highlighting needs to overrule validation
-        if (tmpDrawingInEditRange && tmpDrawingSelectedRelationNodes != null && tmpDrawingSelectedRelationNodes.contains(node)) {
+        if (tmpDrawingInEditRange && selectedRelationNodeIds.contains(node.getOsmId())) {
             featureStyle = nodeFeatureStyleRelation;
             featureStyleThin = nodeFeatureStyleThinRelation;
             featureStyleTagged = nodeFeatureStyleTaggedRelation;
@@ -1270,7 +1291,7 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
     private void paintWay(@NonNull final Canvas canvas, @NonNull final Way way, final boolean displayHandles, boolean drawTolerance) {
 
         FeatureStyle style;
-        if (way.hasProblem(context, validator) != Validator.OK) {
+        if (validationEngine.getProblems(way) != Validator.OK) {
             style = DataStyle.getValidationStyle(way.getCachedProblems());
         } else {
             style = DataStyle.matchStyle(way);
@@ -1278,8 +1299,8 @@ public class MapOverlay extends MapViewLayer implements ExtentInterface, Configu
 
         boolean isSelected = tmpDrawingInEditRange // if we are not in editing range don't show selected way ... may be
                                                    // a better idea to do so
-                && tmpDrawingSelectedWays != null && tmpDrawingSelectedWays.contains(way);
-        boolean isMemberOfSelectedRelation = tmpDrawingInEditRange && tmpDrawingSelectedRelationWays != null && tmpDrawingSelectedRelationWays.contains(way);
+                && selectedWayIds.contains(way.getOsmId());
+        boolean isMemberOfSelectedRelation = tmpDrawingInEditRange && selectedRelationWayIds.contains(way.getOsmId());
 
         if (zoomLevel < style.getMinVisibleZoom() || (style.dontRender() && !(isSelected || isMemberOfSelectedRelation))) {
             return;
@@ -0,0 +1,111 @@
+package de.blau.android.layer.data;
+
+import java.util.Arrays;
+
+/**
+ * Screen space occupancy grid used to avoid drawing overlapping node tolerance areas
+ *
+ * Points are bucketed in square cells that are at least as large as the tolerance radius, so a conflicting point can
+ * only be in the same or one of the eight neighbouring cells. Coordinates outside of the screen are clamped to the
+ * border cells, which keeps the check correct for nodes that are slightly off screen. All arrays are reused between
+ * frames.
+ *
+ * @author simon
+ *
+ */
+final class ToleranceGrid {
+
+    private static final int MAX_CELLS = 1 << 16;
+
+    private int[]   heads = new int[0];
+    private int[]   next  = new int[256];
+    private float[] xs    = new float[256];
+    private float[] ys    = new float[256];
+
+    private int   columns;
+    private int   rows;
+    private float cellSize;
+    private float radius2;
+    private int   size;
+
+    /**
+     * Clear the grid and set the dimensions for the next frame
+     *
+     * @param width screen width in pixels
+     * @param height screen height in pixels
+     * @param radius the tolerance radius in pixels
+     */
+    void reset(int width, int height, float radius) {
+        radius2 = radius * radius;
+        cellSize = Math.max(radius, 1f);
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+        while ((long) columns * rows > MAX_CELLS) {
+            cellSize *= 2;
+            columns = (int) (width / cellSize) + 1;
+            rows = (int) (height / cellSize) + 1;
+        }
+        int cells = columns * rows;
+        if (heads.length < cells) {
+            heads = new int[cells];
+        }
+        Arrays.fill(heads, 0, cells, -1);
+        size = 0;
+    }
+
+    /**
+     * Add a point if there is no other point closer than the radius
+     *
+     * @param x screen x coordinate
+     * @param y screen y coordinate
+     * @return true if the point was added, false if it is too close to an existing one
+     */
+    boolean addIfFree(float x, float y) {
+        int column = column(x);
+        int row = row(y);
+        for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+            for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                for (int i = heads[r * columns + c]; i != -1; i = next[i]) {
+                    float dx = xs[i] - x;
+                    float dy = ys[i] - y;
+                    if (dx * dx + dy * dy < radius2) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (size == xs.length) {
+            int capacity = 2 * size;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        int cell = row * columns + column;
+        xs[size] = x;
+        ys[size] = y;
+        next[size] = heads[cell];
+        heads[cell] = size;
+        size++;
+        return true;
+    }
+
+    /**
+     * Get the clamped column for a x coordinate
+     *
+     * @param x screen x coordinate
+     * @return the column
+     */
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) (x / cellSize)));
+    }
+
+    /**
+     * Get the clamped row for a y coordinate
+     *
+     * @param y screen y coordinate
+     * @return the row
+     */
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) (y / cellSize)));
+    }
+}
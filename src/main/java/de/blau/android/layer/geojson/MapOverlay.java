@@ -16,9 +16,9 @@ import java.util.TreeSet;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.MalformedJsonException;
 import com.mapbox.geojson.CoordinateContainer;
 import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.GeometryCollection;
 import com.mapbox.geojson.MultiPolygon;
@@ -39,7 +39,10 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
+import de.blau.android.App;
+import de.blau.android.Logic;
 import de.blau.android.Map;
+import de.blau.android.PostAsyncActionHandler;
 import de.blau.android.R;
 import de.blau.android.contract.FileExtensions;
 import de.blau.android.dialogs.FeatureInfo;
@@ -58,6 +61,7 @@ import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.DataStyle.FeatureStyle;
 import de.blau.android.resources.symbols.TriangleDown;
 import de.blau.android.util.ContentResolverUtil;
+import de.blau.android.util.ExecutorTask;
 import de.blau.android.util.GeoJSONConstants;
 import de.blau.android.util.GeoJson;
 import de.blau.android.util.GeoMath;
@@ -150,9 +154,9 @@ public class MapOverlay extends StyleableLayer
         }
     }
 
-    private RTree<BoundedFeature>        data;
-    private final transient Path         path   = new Path();
-    private transient FloatPrimitiveList points = new FloatPrimitiveList();
+    private volatile RTree<BoundedFeature> data;
+    private final transient Path           path   = new Path();
+    private transient FloatPrimitiveList   points = new FloatPrimitiveList();
 
     /** Map this is an overlay of. */
     private final transient Map map;
@@ -196,7 +200,8 @@ public class MapOverlay extends StyleableLayer
 
     @Override
     protected void onDraw(Canvas canvas, IMapView osmv) {
-        if (!isVisible || data == null) {
+        final RTree<BoundedFeature> tempData = data;
+        if (!isVisible || tempData == null) {
             return;
         }
         ViewBox bb = osmv.getViewBox();
@@ -209,7 +214,7 @@ public class MapOverlay extends StyleableLayer
         labelStrokeWidth = labelPaint.getStrokeWidth();
 
         Collection<BoundedFeature> queryResult = new ArrayList<>();
-        data.query(queryResult, bb);
+        tempData.query(queryResult, bb);
         Log.d(DEBUG_TAG, "features result count " + queryResult.size());
         for (BoundedFeature bf : queryResult) {
             drawGeometry(canvas, bb, width, height, zoomLevel, bf.getFeature());
@@ -390,6 +395,43 @@ public class MapOverlay extends StyleableLayer
         return uri;
     }
 
+    /**
+     * Read a file containing GeoJSON in to the layer in the background, replacing any existing data
+     * 
+     * The layer is drawn with the Features that have been read so far while loading
+     * 
+     * @param ctx Android Context
+     * @param uri an URI for the file
+     * @param fromState reading from saved state
+     * @param handler if not null called on the UI thread when loading has finished
+     */
+    public void loadGeoJsonFile(@NonNull Context ctx, @NonNull Uri uri, boolean fromState, @Nullable PostAsyncActionHandler handler) {
+        Logic logic = App.getLogic();
+        new ExecutorTask<Void, Void, Boolean>(logic.getExecutorService(), logic.getHandler()) {
+            @Override
+            protected Boolean doInBackground(Void arg) {
+                try {
+                    return loadGeoJsonFile(ctx, uri, fromState);
+                } catch (IOException e) {
+                    Log.e(DEBUG_TAG, "Error reading " + uri + " " + e.getMessage());
+                    toastError(ctx.getString(R.string.toast_error_reading, uri.toString()));
+                    return false;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean result) {
+                if (handler != null) {
+                    if (Boolean.TRUE.equals(result)) {
+                        handler.onSuccess();
+                    } else {
+                        handler.onError(null);
+                    }
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Read a file containing GeoJSON in to the layer, replacing any existing data
      * 
@@ -411,8 +453,7 @@ public class MapOverlay extends StyleableLayer
             return loadGeoJsonFile(ctx, is, fromState);
         } catch (SecurityException sex) {
             Log.e(DEBUG_TAG, sex.getMessage());
-            // note need a context here that is on the ui thread
-            Snack.toastTopError(map.getContext(), ctx.getString(R.string.toast_permission_denied, uri.toString()));
+            toastError(ctx.getString(R.string.toast_permission_denied, uri.toString()));
             return false;
         } finally {
             if (readingLock.isLocked()) {
@@ -443,72 +484,95 @@ public class MapOverlay extends StyleableLayer
      */
     public boolean loadGeoJsonFile(@NonNull Context ctx, @NonNull InputStream is, boolean fromState) throws IOException {
         boolean successful = false;
-        // don't draw while we are loading
-        setVisible(false);
         BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName(OsmXml.UTF_8)));
-        StringBuilder sb = new StringBuilder();
-        int cp;
-        try {
-            while ((cp = rd.read()) != -1) {
-                sb.append((char) cp);
-            }
-        } catch (OutOfMemoryError oom) {
-            Snack.toastTopError(map.getContext(), R.string.out_of_memory_title);
-            Log.e(DEBUG_TAG, "Out of memory error " + oom.getMessage());
-            return false;
-        }
         try {
+            // the layer is drawn with what has been loaded so far
             data = new RTree<>(2, 12);
-            String json = sb.toString();
-            FeatureCollection fc = FeatureCollection.fromJson(json);
-            List<Feature> features = fc.features();
-            if (features != null) {
-                loadFeatures(features);
-            } else {
-                Log.d(DEBUG_TAG, "Retrying as Feature");
-                Feature f = Feature.fromJson(json);
-                Geometry g = f.geometry();
-                if (g != null) {
-                    data.insert(new BoundedFeature(f));
-                } else {
-                    g = GeoJson.geometryFromJson(json);
-                    Log.d(DEBUG_TAG, "Geometry " + g.type());
-                    if (g.type() != null) {
-                        data.insert(new BoundedFeature(Feature.fromGeometry(g)));
-                    }
-                }
-            }
-            setVisible(true); // enable too
+            FeatureLoader loader = new FeatureLoader(data);
+            GeoJson.readFeatures(rd, loader);
+            loader.flush();
             successful = true;
             if (!fromState) {
                 dirty();
             }
-        } catch (com.google.gson.JsonSyntaxException jsex) {
+        } catch (OutOfMemoryError oom) {
+            data = null;
+            toastError(ctx.getString(R.string.out_of_memory_title));
+            Log.e(DEBUG_TAG, "Out of memory error " + oom.getMessage());
+        } catch (com.google.gson.JsonSyntaxException | MalformedJsonException jsex) {
             data = null;
-            Snack.toastTopError(ctx, jsex.getLocalizedMessage());
+            toastError(jsex.getLocalizedMessage());
             Log.e(DEBUG_TAG, "Syntax error " + jsex.getMessage());
         } catch (Exception e) {
             // never crash
             data = null;
-            Snack.toastTopError(ctx, e.getLocalizedMessage());
+            toastError(e.getLocalizedMessage());
             Log.e(DEBUG_TAG, "Exception " + e.getMessage());
         }
-        // re-enable drawing
-        setVisible(true);
+        map.postInvalidate();
         return successful;
     }
 
     /**
-     * @param features a List of Feature
+     * Toast an error on the UI thread, loading may be running in the background
+     * 
+     * @param msg the message to display
      */
-    private void loadFeatures(List<Feature> features) {
-        for (Feature f : features) {
+    private void toastError(@Nullable String msg) {
+        if (msg != null) {
+            // note need a context here that is on the ui thread
+            map.post(() -> Snack.toastTopError(map.getContext(), msg));
+        }
+    }
+
+    /**
+     * Adds Features to an RTree in batches as they are read
+     * 
+     * Each batch is bulk loaded which repacks the whole tree, to keep the total cost at O(n log n) the batch size grows
+     * with the number of Features already loaded. The map is invalidated after each batch so that, if loading is not
+     * running on the UI thread, the layer fills in progressively.
+     */
+    private class FeatureLoader implements GeoJson.FeatureHandler {
+        private static final int MIN_BATCH_SIZE = 1000;
+
+        private final RTree<BoundedFeature> tree;
+        private final List<BoundedFeature>  batch  = new ArrayList<>();
+        private int                         loaded = 0;
+
+        /**
+         * Construct a new loader
+         * 
+         * @param tree the RTree to add the Features to
+         */
+        FeatureLoader(@NonNull RTree<BoundedFeature> tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public void onFeature(@NonNull Feature f) {
             if (GeoJSONConstants.FEATURE.equals(f.type()) && f.geometry() != null) {
-                data.insert(new BoundedFeature(f));
+                BoundedFeature bf = new BoundedFeature(f);
+                bf.getBounds(); // calculate now instead of when drawing
+                batch.add(bf);
+                if (batch.size() >= Math.max(MIN_BATCH_SIZE, loaded)) {
+                    flush();
+                }
             } else {
                 Log.e(DEBUG_TAG, "Type of object " + f.type() + " geometry " + f.geometry());
             }
         }
+
+        /**
+         * Add the current batch to the RTree
+         */
+        void flush() {
+            if (!batch.isEmpty()) {
+                tree.load(batch);
+                loaded += batch.size();
+                batch.clear();
+                map.postInvalidate();
+            }
+        }
     }
 
     @Override
@@ -541,10 +605,11 @@ public class MapOverlay extends StyleableLayer
     public List<Feature> getClicked(final float x, final float y, final ViewBox viewBox) {
         List<Feature> result = new ArrayList<>();
         Log.d(DEBUG_TAG, "getClicked");
-        if (data != null) {
+        final RTree<BoundedFeature> tempData = data;
+        if (tempData != null) {
             final float tolerance = DataStyle.getCurrent().getNodeToleranceValue();
             Collection<BoundedFeature> queryResult = new ArrayList<>();
-            data.query(queryResult, viewBox);
+            tempData.query(queryResult, viewBox);
             Log.d(DEBUG_TAG, "features result count " + queryResult.size());
             for (BoundedFeature bf : queryResult) {
                 Feature f = bf.getFeature();
@@ -703,9 +768,10 @@ public class MapOverlay extends StyleableLayer
 
     @Override
     public List<String> getLabelList() {
-        if (data != null) {
+        final RTree<BoundedFeature> tempData = data;
+        if (tempData != null) {
             Collection<BoundedFeature> queryResult = new ArrayList<>();
-            data.query(queryResult);
+            tempData.query(queryResult);
             Set<String> result = new TreeSet<>();
             for (BoundedFeature bf : queryResult) {
                 Feature feature = bf.getFeature();
@@ -780,9 +846,10 @@ public class MapOverlay extends StyleableLayer
 
     @Override
     public BoundingBox getExtent() {
-        if (data != null) {
+        final RTree<BoundedFeature> tempData = data;
+        if (tempData != null) {
             Collection<BoundedFeature> queryResult = new ArrayList<>();
-            data.query(queryResult);
+            tempData.query(queryResult);
             BoundingBox extent = null;
             for (BoundedFeature bf : queryResult) {
                 if (extent == null) {
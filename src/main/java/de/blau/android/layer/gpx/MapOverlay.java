@@ -36,7 +36,9 @@ import de.blau.android.contract.FileExtensions;
 import de.blau.android.dialogs.Progress;
 import de.blau.android.dialogs.ViewWayPoint;
 import de.blau.android.gpx.Track;
+import de.blau.android.gpx.TrackIndex;
 import de.blau.android.gpx.TrackPoint;
+import de.blau.android.gpx.TrackPointList.PointBuffer;
 import de.blau.android.gpx.WayPoint;
 import de.blau.android.layer.ClickableInterface;
 import de.blau.android.layer.ExtentInterface;
@@ -44,6 +46,7 @@ import de.blau.android.layer.LabelMinZoomInterface;
 import de.blau.android.layer.LayerType;
 import de.blau.android.layer.StyleableLayer;
 import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
 import de.blau.android.osm.ViewBox;
 import de.blau.android.resources.DataStyle;
 import de.blau.android.resources.DataStyle.FeatureStyle;
@@ -59,6 +62,7 @@ import de.blau.android.util.SerializableTextPaint;
 import de.blau.android.util.Snack;
 import de.blau.android.util.Util;
 import de.blau.android.util.collections.FloatPrimitiveList;
+import de.blau.android.util.collections.IntPrimitiveList;
 import de.blau.android.views.IMapView;
 
 public class MapOverlay extends StyleableLayer implements Serializable, ExtentInterface, ClickableInterface<WayPoint>, LabelMinZoomInterface {
@@ -77,7 +81,9 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
 
     private final transient ExecutorService          executorService;
     private final transient List<FloatPrimitiveList> linePointsList;
-    private final transient SavingHelper<MapOverlay> savingHelper = new SavingHelper<>();
+    private final transient IntPrimitiveList         visibleIndices     = new IntPrimitiveList();
+    private final transient PointBuffer              visibleTrackPoints = new PointBuffer();
+    private final transient SavingHelper<MapOverlay> savingHelper       = new SavingHelper<>();
 
     private transient Track       track;
     private transient GpxPlayback playbackTask = null;
@@ -87,6 +93,7 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
     private int                   labelMinZoom;
     private String                contentId;    // could potentially be transient
     private TrackPoint            pausedPoint;
+    private int                   pausedIndex = -1;
 
     // way point label styling
     private final transient FontMetrics  fm;
@@ -166,10 +173,20 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
     /**
      * Draw the trackpoints
      * 
+     * Only the points in the visible part of the track are projected, simplified for the current zoom level. The points
+     * are copied to a buffer that is reused between frames.
+     * 
      * @param canvas the Canvas to draw on
      */
     private void drawTrackPoints(@NonNull Canvas canvas) {
-        List<TrackPoint> trackPoints = track.getTrackPoints();
+        List<InterruptibleGeoPoint> allTrackPoints = track.getGeoPoints();
+        TrackIndex index = track.getIndex();
+        index.update(allTrackPoints, track.getModificationCount());
+        final ViewBox viewBox = map.getViewBox();
+        visibleIndices.clear();
+        index.query(allTrackPoints, viewBox, viewBox.getWidth() / (double) map.getWidth(), visibleIndices);
+        final PointBuffer trackPoints = visibleTrackPoints;
+        track.getPoints(visibleIndices, trackPoints);
         int size = trackPoints.size();
         if (size > 0) {
             final float maxLen = getStrokeWidth() * 2;
@@ -505,6 +522,7 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
         if (playbackTask != null) {
             playbackTask.pause();
             pausedPoint = playbackTask.getPausedPoint();
+            pausedIndex = playbackTask.getPausedIndex();
             playbackTask.cancel();
         }
         return savingHelper.save(context, stateFileName, this, true);
@@ -520,7 +538,7 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
             labelMinZoom = restoredOverlay.labelMinZoom;
             if (playbackTask == null && restoredOverlay.pausedPoint != null) {
                 // restart playback
-                playbackTask = new GpxPlayback();
+                playbackTask = new GpxPlayback(restoredOverlay.pausedIndex);
                 playbackTask.execute(restoredOverlay.pausedPoint);
             }
         }
@@ -568,20 +586,24 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
             playbackTask.resume();
             return;
         }
-        playbackTask = new GpxPlayback();
+        playbackTask = new GpxPlayback(-1);
         playbackTask.execute(null);
     }
 
     private class GpxPlayback extends PlaybackTask<TrackPoint, Void, Void> {
         private boolean       paused      = false;
         private TrackPoint    pausedPoint = null;
+        private int           pausedIndex;
         private final Context context;
 
         /**
          * Create a new instance
+         * 
+         * @param startIndex the index of the point to resume after if known, otherwise -1
          */
-        public GpxPlayback() {
+        public GpxPlayback(int startIndex) {
             super(App.getLogic().getExecutorService(), App.getLogic().getHandler());
+            pausedIndex = startIndex;
             context = MapOverlay.this.map.getContext();
             if (!(context instanceof Main)) {
                 throw new IllegalStateException("Needs to be run from Main");
@@ -595,10 +617,12 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
             if (t != null) {
                 Location loc = new Location(LocationManager.GPS_PROVIDER);
                 final List<TrackPoint> points = t.getTrackPoints();
-                List<TrackPoint> pointsToPlay = start == null ? points : points.subList(points.indexOf(start) + 1, points.size());
-                for (TrackPoint tp : pointsToPlay) {
+                final int size = points.size();
+                for (int i = start == null ? 0 : indexOf(points, start, pausedIndex) + 1; i < size; i++) {
+                    TrackPoint tp = points.get(i);
                     while (paused && !isCancelled()) {
                         pausedPoint = tp;
+                        pausedIndex = i;
                         sleep();
                     }
 
@@ -615,6 +639,40 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
             return null;
         }
 
+        /**
+         * Find a TrackPoint by value
+         * 
+         * The TrackPoints returned by the Track are created on access so identity can't be used, the index the point
+         * had when playback was paused is checked first so that the track normally doesn't have to be scanned
+         * 
+         * @param points the List of TrackPoint
+         * @param point the TrackPoint to look for
+         * @param hint the index the point is expected at or -1
+         * @return the index or -1 if not found
+         */
+        private int indexOf(@NonNull List<TrackPoint> points, @NonNull TrackPoint point, int hint) {
+            if (hint >= 0 && hint < points.size() && samePoint(points.get(hint), point)) {
+                return hint;
+            }
+            for (int i = 0; i < points.size(); i++) {
+                if (samePoint(points.get(i), point)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Check if two TrackPoints have the same time and position
+         * 
+         * @param p1 the first TrackPoint
+         * @param p2 the second TrackPoint
+         * @return true if they are the same
+         */
+        private boolean samePoint(@NonNull TrackPoint p1, @NonNull TrackPoint p2) {
+            return p1.getTime() == p2.getTime() && p1.getLat() == p2.getLat() && p1.getLon() == p2.getLon();
+        }
+
         /**
          * Sleep 1s, this could be adjustable
          */
@@ -659,6 +717,15 @@ public class MapOverlay extends StyleableLayer implements Serializable, ExtentIn
             return pausedPoint;
         }
 
+        /**
+         * Get the index of the point at which we were paused
+         * 
+         * @return the index or -1
+         */
+        public int getPausedIndex() {
+            return pausedIndex;
+        }
+
     }
 
     /**
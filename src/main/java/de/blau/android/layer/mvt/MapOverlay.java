@@ -46,6 +46,7 @@ import de.blau.android.util.ReadFile;
 import de.blau.android.util.SavingHelper;
 import de.blau.android.util.SelectFile;
 import de.blau.android.util.Snack;
+import de.blau.android.util.mvt.FeatureList;
 import de.blau.android.util.mvt.VectorTileDecoder;
 import de.blau.android.util.mvt.VectorTileRenderer;
 import de.blau.android.util.mvt.style.Background;
@@ -118,20 +119,24 @@ public class MapOverlay extends MapTilesOverlayLayer<java.util.Map<String, List<
                 final float scaledX = (x - rect.left) * 256 / rect.width();
                 final float scaledY = (y - rect.top) * 256 / rect.height();
                 Style style = ((VectorTileRenderer) tileRenderer).getStyle();
+                List<VectorTileDecoder.Feature> candidates = new ArrayList<>();
                 // we need layer information to be able to check the interactive status
                 for (Layer layer : style.getLayers()) {
-                    if (layer instanceof Background) {
+                    if (layer instanceof Background || !layer.isInteractive()) {
                         continue; // this is not particularly safe
                     }
-                    for (List<VectorTileDecoder.Feature> list : tile.values()) {
-                        for (VectorTileDecoder.Feature f : list) {
-                            if (f.getLayerName().equals(layer.getSourceLayer()) && (layer.getFilter() == null || layer.evaluateFilter(layer.getFilter(), f))
-                                    && layer.isInteractive()) {
-                                Geometry g = f.getGeometry();
-                                if (geometryClicked(scaledX, scaledY, tolerance, g)) {
-                                    result.add(f);
-                                }
-                            }
+                    List<VectorTileDecoder.Feature> list = tile.get(layer.getSourceLayer());
+                    if (list == null) {
+                        continue;
+                    }
+                    if (list instanceof FeatureList) {
+                        candidates.clear();
+                        ((FeatureList) list).query(scaledX - tolerance, scaledY - tolerance, scaledX + tolerance, scaledY + tolerance, candidates);
+                        list = candidates;
+                    }
+                    for (VectorTileDecoder.Feature f : list) {
+                        if (layer.evaluateFilter(f) && geometryClicked(scaledX, scaledY, tolerance, f.getGeometry())) {
+                            result.add(f);
                         }
                     }
                 }
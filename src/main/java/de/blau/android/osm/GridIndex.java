@@ -0,0 +1,555 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Grid based spatial index for the Nodes and Ways in a Storage instance
+ *
+ * Elements are filed in fixed size cells of the WGS84*1E7 coordinate space, Nodes in the cell they are located in,
+ * Ways in every cell their bounding box covers. Ways that cover more than {@link #MAX_WAY_CELLS} cells are kept in a
+ * separate list that is always scanned.
+ *
+ * Elements that have changed their geometry need to be re-filed by calling {@link #invalidate(OsmElement)} (before or
+ * after the change), the actual work is deferred to the next query. Entries for elements that have been moved or
+ * removed are dropped lazily when they are encountered in a query, this makes the index robust against changes that
+ * don't remove the element explicitly. Such elements are only re-filed after the cells have been iterated over, if
+ * there were any the query is run again so that the results are complete.
+ *
+ * Queries return the same results as a sequential scan with the same tests, but only touch the cells covering the
+ * query box, that is the cost scales with the size of the result and not the size of the Storage.
+ *
+ * This class is not thread safe, callers need to synchronize.
+ *
+ * @author simon
+ *
+ */
+final class GridIndex {
+
+    private static final int CELL_SHIFT = 16; // 2^16 E7 degrees, roughly 700m at the equator
+
+    static final int MAX_WAY_CELLS = 64;
+
+    private static final long LON_OFFSET = 1800000000L;
+    private static final long LAT_OFFSET = 900000000L;
+
+    private static final int MAX_CELL_X = (int) ((2 * LON_OFFSET) >> CELL_SHIFT);
+    private static final int MAX_CELL_Y = (int) ((2 * LAT_OFFSET) >> CELL_SHIFT);
+
+    private static final int MIN_PENDING = 1000;
+
+    /**
+     * A cell of the grid
+     */
+    private static final class Cell {
+        final int    x;
+        final int    y;
+        OsmElement[] elements = new OsmElement[4];
+        int          size     = 0;
+
+        /**
+         * Construct a new cell
+         *
+         * @param x the x grid coordinate
+         * @param y the y grid coordinate
+         */
+        Cell(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * Add an element to the cell
+         *
+         * @param e the OsmElement
+         */
+        void add(@NonNull OsmElement e) {
+            if (size == elements.length) {
+                OsmElement[] temp = new OsmElement[size * 2];
+                System.arraycopy(elements, 0, temp, 0, size);
+                elements = temp;
+            }
+            elements[size++] = e;
+        }
+
+        /**
+         * Check if the cell contains an element
+         *
+         * @param e the OsmElement
+         * @return true if e is present
+         */
+        boolean contains(@NonNull OsmElement e) {
+            for (int i = 0; i < size; i++) {
+                if (elements[i] == e) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remove an element from the cell
+         *
+         * @param e the OsmElement
+         */
+        void remove(@NonNull OsmElement e) {
+            for (int i = 0; i < size; i++) {
+                if (elements[i] == e) {
+                    remove(i);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Remove the element at position i, this replaces it with the last element
+         *
+         * @param i the position
+         */
+        void remove(int i) {
+            size--;
+            elements[i] = elements[size];
+            elements[size] = null;
+        }
+    }
+
+    private final LongOsmElementMap<Node> nodes;
+    private final LongOsmElementMap<Way>  ways;
+
+    private final LongHashMap<Cell> nodeCells = new LongHashMap<>();
+    private final LongHashMap<Cell> wayCells  = new LongHashMap<>();
+    private final List<Way>         largeWays = new ArrayList<>();
+
+    private final List<OsmElement> pending = new ArrayList<>();
+    private final List<OsmElement> stale   = new ArrayList<>();
+    private boolean                rebuild = true;
+
+    private final BoundingBox tempBox = new BoundingBox();
+    private final int[]       range   = new int[4];
+
+    /**
+     * Construct a new index for the contents of the maps
+     *
+     * The index is built on the first query
+     *
+     * @param nodes the Node map
+     * @param ways the Way map
+     */
+    GridIndex(@NonNull LongOsmElementMap<Node> nodes, @NonNull LongOsmElementMap<Way> ways) {
+        this.nodes = nodes;
+        this.ways = ways;
+    }
+
+    /**
+     * Get the grid x coordinate for a longitude
+     *
+     * @param lonE7 WGS84*1E7 longitude
+     * @return the x coordinate
+     */
+    private static int cellX(int lonE7) {
+        return clamp((int) ((lonE7 + LON_OFFSET) >> CELL_SHIFT), MAX_CELL_X);
+    }
+
+    /**
+     * Get the grid y coordinate for a latitude
+     *
+     * @param latE7 WGS84*1E7 latitude
+     * @return the y coordinate
+     */
+    private static int cellY(int latE7) {
+        return clamp((int) ((latE7 + LAT_OFFSET) >> CELL_SHIFT), MAX_CELL_Y);
+    }
+
+    /**
+     * Restrict a grid coordinate to 0..max
+     *
+     * @param v the coordinate
+     * @param max the maximum value
+     * @return the coordinate limited to 0..max
+     */
+    private static int clamp(int v, int max) {
+        return v < 0 ? 0 : Math.min(v, max);
+    }
+
+    /**
+     * Get the key for a cell
+     *
+     * @param x grid x coordinate
+     * @param y grid y coordinate
+     * @return the key
+     */
+    private static long key(int x, int y) {
+        return ((long) x << 32) | y;
+    }
+
+    /**
+     * Calculate the range of cells a Way covers
+     *
+     * @param way the Way
+     * @param result int array holding minX, minY, maxX, maxY
+     * @return false if the way has no nodes
+     */
+    private boolean wayRange(@NonNull Way way, @NonNull int[] result) {
+        if (way.nodeCount() == 0) {
+            return false;
+        }
+        BoundingBox box = way.getBounds(tempBox);
+        result[0] = cellX(box.getLeft());
+        result[1] = cellY(box.getBottom());
+        result[2] = cellX(box.getRight());
+        result[3] = cellY(box.getTop());
+        return true;
+    }
+
+    /**
+     * Check if a cell range is too large to be filed in the grid
+     *
+     * @param r the range
+     * @return true if the range is too large
+     */
+    private static boolean isLarge(@NonNull int[] r) {
+        return ((long) (r[2] - r[0] + 1)) * (r[3] - r[1] + 1) > MAX_WAY_CELLS;
+    }
+
+    /**
+     * Mark an element as having changed geometry
+     *
+     * @param e the OsmElement
+     */
+    void invalidate(@NonNull OsmElement e) {
+        if (rebuild) {
+            return;
+        }
+        if (pending.size() > Math.max(MIN_PENDING, (nodes.size() + ways.size()) / 4)) {
+            // cheaper to start from scratch
+            invalidateAll();
+            return;
+        }
+        pending.add(e);
+    }
+
+    /**
+     * Throw away the index, it will be rebuilt on the next query
+     */
+    void invalidateAll() {
+        rebuild = true;
+        pending.clear();
+        nodeCells.clear();
+        wayCells.clear();
+        largeWays.clear();
+    }
+
+    /**
+     * Add an element to the index
+     *
+     * @param e the OsmElement
+     */
+    void insert(@NonNull OsmElement e) {
+        invalidate(e);
+    }
+
+    /**
+     * Remove an element from the index
+     *
+     * This will only find the element if it hasn't moved since it was filed, any remaining stale entries are removed
+     * lazily
+     *
+     * @param e the OsmElement
+     */
+    void remove(@NonNull OsmElement e) {
+        if (rebuild) {
+            return;
+        }
+        if (e instanceof Node) {
+            Node n = (Node) e;
+            Cell cell = nodeCells.get(key(cellX(n.getLon()), cellY(n.getLat())));
+            if (cell != null) {
+                cell.remove(n);
+            }
+        } else if (e instanceof Way) {
+            Way w = (Way) e;
+            if (wayRange(w, range) && !isLarge(range)) {
+                for (int x = range[0]; x <= range[2]; x++) {
+                    for (int y = range[1]; y <= range[3]; y++) {
+                        Cell cell = wayCells.get(key(x, y));
+                        if (cell != null) {
+                            cell.remove(w);
+                        }
+                    }
+                }
+            } else {
+                largeWays.remove(w);
+            }
+        }
+    }
+
+    /**
+     * Make sure that the index reflects the current state of the Storage
+     */
+    private void update() {
+        if (rebuild) {
+            for (Node n : nodes) {
+                fileNode(n, false);
+            }
+            for (Way w : ways) {
+                fileWay(w, false);
+            }
+            rebuild = false;
+        } else if (!pending.isEmpty()) {
+            for (OsmElement e : pending) {
+                if (e instanceof Node) {
+                    Node n = (Node) e;
+                    if (nodes.get(n.getOsmId()) == n) {
+                        fileNode(n, true);
+                    }
+                } else if (e instanceof Way) {
+                    Way w = (Way) e;
+                    if (ways.get(w.getOsmId()) == w) {
+                        fileWay(w, true);
+                    }
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Re-file the stale entries found in a query
+     *
+     * @return true if there were any stale entries
+     */
+    private boolean refileStale() {
+        if (stale.isEmpty()) {
+            return false;
+        }
+        for (OsmElement e : stale) {
+            if (e instanceof Node) {
+                Node n = (Node) e;
+                if (nodes.get(n.getOsmId()) == n) {
+                    fileNode(n, true);
+                }
+            } else if (e instanceof Way) {
+                Way w = (Way) e;
+                if (ways.get(w.getOsmId()) == w) {
+                    fileWay(w, true);
+                }
+            }
+        }
+        stale.clear();
+        return true;
+    }
+
+    /**
+     * File a Node in the grid
+     *
+     * @param n the Node
+     * @param check if true check that the Node isn't already present
+     */
+    private void fileNode(@NonNull Node n, boolean check) {
+        int x = cellX(n.getLon());
+        int y = cellY(n.getLat());
+        long key = key(x, y);
+        Cell cell = nodeCells.get(key);
+        if (cell == null) {
+            cell = new Cell(x, y);
+            nodeCells.put(key, cell);
+        } else if (check && cell.contains(n)) {
+            return;
+        }
+        cell.add(n);
+    }
+
+    /**
+     * File a Way in the grid
+     *
+     * @param w the Way
+     * @param check if true check that the Way isn't already present
+     */
+    private void fileWay(@NonNull Way w, boolean check) {
+        if (!wayRange(w, range)) {
+            return; // no geometry
+        }
+        if (isLarge(range)) {
+            if (!check || !largeWays.contains(w)) {
+                largeWays.add(w);
+            }
+            return;
+        }
+        for (int x = range[0]; x <= range[2]; x++) {
+            for (int y = range[1]; y <= range[3]; y++) {
+                long key = key(x, y);
+                Cell cell = wayCells.get(key);
+                if (cell == null) {
+                    cell = new Cell(x, y);
+                    wayCells.put(key, cell);
+                } else if (check && cell.contains(w)) {
+                    continue;
+                }
+                cell.add(w);
+            }
+        }
+    }
+
+    /**
+     * Return all nodes in a bounding box
+     *
+     * @param box bounding box to search in
+     * @param result List of Node to hold the result
+     */
+    void getNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
+        update();
+        final int start = result.size();
+        while (collectNodes(box, result)) {
+            // stale entries have been re-filed, start over
+            result.subList(start, result.size()).clear();
+        }
+    }
+
+    /**
+     * Add all nodes in a bounding box to a List
+     *
+     * @param box bounding box to search in
+     * @param result List of Node to hold the result
+     * @return true if stale entries were found and re-filed, the result may be incomplete in that case
+     */
+    private boolean collectNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
+        final int minX = cellX(box.getLeft());
+        final int minY = cellY(box.getBottom());
+        final int maxX = cellX(box.getRight());
+        final int maxY = cellY(box.getTop());
+        if (((long) (maxX - minX + 1)) * (maxY - minY + 1) > nodeCells.size()) {
+            // iterating over the populated cells is cheaper
+            for (Cell cell : nodeCells.values()) {
+                if (cell.x >= minX && cell.x <= maxX && cell.y >= minY && cell.y <= maxY) {
+                    getNodes(cell, box, result);
+                }
+            }
+        } else {
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    Cell cell = nodeCells.get(key(x, y));
+                    if (cell != null) {
+                        getNodes(cell, box, result);
+                    }
+                }
+            }
+        }
+        return refileStale();
+    }
+
+    /**
+     * Add all Nodes in box from a cell to result
+     *
+     * @param cell the Cell
+     * @param box bounding box to search in
+     * @param result List of Node to hold the result
+     */
+    private void getNodes(@NonNull Cell cell, @NonNull BoundingBox box, @NonNull List<Node> result) {
+        final OsmElement[] elements = cell.elements;
+        for (int i = cell.size - 1; i >= 0; i--) {
+            Node n = (Node) elements[i];
+            final int lon = n.getLon();
+            final int lat = n.getLat();
+            if (cellX(lon) != cell.x || cellY(lat) != cell.y || nodes.get(n.getOsmId()) != n) {
+                // stale entry
+                cell.remove(i);
+                stale.add(n);
+                continue;
+            }
+            if (box.isIn(lon, lat)) {
+                result.add(n);
+            }
+        }
+    }
+
+    /**
+     * Return all ways covered or possibly intersecting a bounding box
+     *
+     * @param box bounding box to search in
+     * @param result List of Way to hold the result
+     */
+    void getWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
+        update();
+        final int start = result.size();
+        while (collectWays(box, result)) {
+            // stale entries have been re-filed, start over
+            result.subList(start, result.size()).clear();
+        }
+    }
+
+    /**
+     * Add all ways covered or possibly intersecting a bounding box to a List
+     *
+     * @param box bounding box to search in
+     * @param result List of Way to hold the result
+     * @return true if stale entries were found and re-filed, the result may be incomplete in that case
+     */
+    private boolean collectWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
+        for (int i = largeWays.size() - 1; i >= 0; i--) {
+            Way w = largeWays.get(i);
+            if (ways.get(w.getOsmId()) != w || !wayRange(w, range) || !isLarge(range)) {
+                // stale entry
+                largeWays.remove(i);
+                stale.add(w);
+                continue;
+            }
+            if (w.getBounds(tempBox).intersects(box)) {
+                result.add(w);
+            }
+        }
+        final int minX = cellX(box.getLeft());
+        final int minY = cellY(box.getBottom());
+        final int maxX = cellX(box.getRight());
+        final int maxY = cellY(box.getTop());
+        if (((long) (maxX - minX + 1)) * (maxY - minY + 1) > wayCells.size()) {
+            // iterating over the populated cells is cheaper
+            for (Cell cell : wayCells.values()) {
+                if (cell.x >= minX && cell.x <= maxX && cell.y >= minY && cell.y <= maxY) {
+                    getWays(cell, box, minX, minY, result);
+                }
+            }
+        } else {
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    Cell cell = wayCells.get(key(x, y));
+                    if (cell != null) {
+                        getWays(cell, box, minX, minY, result);
+                    }
+                }
+            }
+        }
+        return refileStale();
+    }
+
+    /**
+     * Add all Ways intersecting box from a cell to result
+     *
+     * As Ways are filed in multiple cells they are only added when we are in the first cell that is covered by both
+     * the query and the Way.
+     *
+     * @param cell the Cell
+     * @param box bounding box to search in
+     * @param minX minimum x coordinate of the query
+     * @param minY minimum y coordinate of the query
+     * @param result List of Way to hold the result
+     */
+    private void getWays(@NonNull Cell cell, @NonNull BoundingBox box, int minX, int minY, @NonNull List<Way> result) {
+        final OsmElement[] elements = cell.elements;
+        for (int i = cell.size - 1; i >= 0; i--) {
+            Way w = (Way) elements[i];
+            if (ways.get(w.getOsmId()) != w || !wayRange(w, range) || isLarge(range) || cell.x < range[0] || cell.x > range[2] || cell.y < range[1] || cell.y > range[3]) {
+                // stale entry
+                cell.remove(i);
+                stale.add(w);
+                continue;
+            }
+            if (cell.x == Math.max(minX, range[0]) && cell.y == Math.max(minY, range[1]) && w.getBounds(tempBox).intersects(box)) {
+                result.add(w);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Reverse index from Node ids to the Ways in a Storage instance that contain the Node
+ *
+ * Entries are either a single Way or, for Nodes shared by multiple Ways, an array of Ways. Ways that have had their
+ * Nodes changed need to be re-added with {@link #invalidate(Way)}, the actual work is deferred to the next query.
+ * Entries for Ways that have been removed from storage or no longer contain the Node are dropped lazily when they are
+ * encountered in a query.
+ *
+ * This class is not thread safe, callers need to synchronize.
+ *
+ * @author simon
+ *
+ */
+final class NodeWaysIndex {
+
+    private static final int MIN_PENDING = 1000;
+
+    private final LongOsmElementMap<Way> ways;
+
+    private final LongHashMap<Object> index   = new LongHashMap<>();
+    private final List<Way>           pending = new ArrayList<>();
+    private boolean                   rebuild = true;
+
+    /**
+     * Construct a new index for the contents of the map
+     *
+     * The index is built on the first query
+     *
+     * @param ways the Way map
+     */
+    NodeWaysIndex(@NonNull LongOsmElementMap<Way> ways) {
+        this.ways = ways;
+    }
+
+    /**
+     * Mark a Way as having changed its Nodes
+     *
+     * @param way the Way
+     */
+    void invalidate(@NonNull Way way) {
+        if (rebuild) {
+            return;
+        }
+        if (pending.size() > Math.max(MIN_PENDING, ways.size() / 4)) {
+            // cheaper to start from scratch
+            invalidateAll();
+            return;
+        }
+        pending.add(way);
+    }
+
+    /**
+     * Throw away the index, it will be rebuilt on the next query
+     */
+    void invalidateAll() {
+        rebuild = true;
+        pending.clear();
+        index.clear();
+    }
+
+    /**
+     * Remove a Way from the index
+     *
+     * This will only remove the entries for the current Nodes of the Way, any remaining stale entries are removed
+     * lazily
+     *
+     * @param way the Way
+     */
+    void remove(@NonNull Way way) {
+        if (rebuild) {
+            return;
+        }
+        List<Node> wayNodes = way.getNodes();
+        for (int i = 0; i < wayNodes.size(); i++) {
+            removeEntry(wayNodes.get(i).getOsmId(), way);
+        }
+    }
+
+    /**
+     * Make sure that the index reflects the current state of the Storage
+     */
+    private void update() {
+        if (rebuild) {
+            for (Way w : ways) {
+                add(w);
+            }
+            rebuild = false;
+        } else if (!pending.isEmpty()) {
+            for (Way w : pending) {
+                if (ways.get(w.getOsmId()) == w) {
+                    add(w);
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Add entries for all Nodes of a Way
+     *
+     * @param way the Way
+     */
+    private void add(@NonNull Way way) {
+        List<Node> wayNodes = way.getNodes();
+        for (int i = 0; i < wayNodes.size(); i++) {
+            addEntry(wayNodes.get(i).getOsmId(), way);
+        }
+    }
+
+    /**
+     * Add a Way to the entry for a Node id if it isn't already present
+     *
+     * @param id the Node id
+     * @param way the Way
+     */
+    private void addEntry(long id, @NonNull Way way) {
+        Object entry = index.get(id);
+        if (entry == null) {
+            index.put(id, way);
+        } else if (entry instanceof Way) {
+            if (entry != way) {
+                index.put(id, new Way[] { (Way) entry, way });
+            }
+        } else {
+            Way[] current = (Way[]) entry;
+            for (Way w : current) {
+                if (w == way) {
+                    return;
+                }
+            }
+            Way[] temp = new Way[current.length + 1];
+            System.arraycopy(current, 0, temp, 0, current.length);
+            temp[current.length] = way;
+            index.put(id, temp);
+        }
+    }
+
+    /**
+     * Remove a Way from the entry for a Node id
+     *
+     * Arrays are never changed in place so that it is safe to remove entries while iterating
+     *
+     * @param id the Node id
+     * @param way the Way
+     */
+    private void removeEntry(long id, @NonNull Way way) {
+        Object entry = index.get(id);
+        if (entry == way) {
+            index.remove(id);
+        } else if (entry instanceof Way[]) {
+            Way[] current = (Way[]) entry;
+            int pos = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == way) {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos == -1) {
+                return;
+            }
+            if (current.length == 2) {
+                index.put(id, current[1 - pos]);
+                return;
+            }
+            Way[] temp = new Way[current.length - 1];
+            System.arraycopy(current, 0, temp, 0, pos);
+            System.arraycopy(current, pos + 1, temp, pos, temp.length - pos);
+            index.put(id, temp);
+        }
+    }
+
+    /**
+     * Check if an entry is stale and remove it if so
+     *
+     * @param id the Node id
+     * @param way the Way from the entry
+     * @return true if the entry was stale
+     */
+    private boolean removeIfStale(long id, @NonNull Way way) {
+        if (ways.get(way.getOsmId()) == way) {
+            List<Node> wayNodes = way.getNodes();
+            for (int i = 0; i < wayNodes.size(); i++) {
+                if (wayNodes.get(i).getOsmId() == id) {
+                    return false;
+                }
+            }
+        }
+        removeEntry(id, way);
+        return true;
+    }
+
+    /**
+     * Get all Ways that contain the Node
+     *
+     * @param node the Node
+     * @param result a List to add the Ways to
+     */
+    void getWays(@NonNull Node node, @NonNull List<Way> result) {
+        update();
+        final long id = node.getOsmId();
+        Object entry = index.get(id);
+        if (entry instanceof Way) {
+            addIfValid(id, node, (Way) entry, result);
+        } else if (entry != null) {
+            for (Way w : (Way[]) entry) {
+                addIfValid(id, node, w, result);
+            }
+        }
+    }
+
+    /**
+     * Add a Way to result if it contains the Node
+     *
+     * @param id the Node id
+     * @param node the Node
+     * @param way the Way
+     * @param result a List to add the Way to
+     */
+    private void addIfValid(long id, @NonNull Node node, @NonNull Way way, @NonNull List<Way> result) {
+        if (!removeIfStale(id, way) && way.hasNode(node)) {
+            result.add(way);
+        }
+    }
+
+    /**
+     * Check if the Node is the first or last Node of at least one Way
+     *
+     * @param node the Node
+     * @return true if the Node is an end node
+     */
+    boolean isEndNode(@NonNull Node node) {
+        update();
+        final long id = node.getOsmId();
+        Object entry = index.get(id);
+        if (entry instanceof Way) {
+            return !removeIfStale(id, (Way) entry) && ((Way) entry).isEndNode(node);
+        } else if (entry != null) {
+            for (Way w : (Way[]) entry) {
+                if (!removeIfStale(id, w) && w.isEndNode(node)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -183,7 +183,7 @@ public class OsmChangeParser extends OsmParser {
             if (currentWay == null) {
                 Log.e(DEBUG_TAG, "No currentWay set!");
             } else {
-                long nodeOsmId = Long.parseLong(atts.getValue(Way.REF));
+                long nodeOsmId = getLong(atts, Way.REF);
                 Node node = nodeIndex.get(nodeOsmId);
                 if (node == null) {
                     if (isOsmChangeInput) {
@@ -57,7 +57,7 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
 
     long osmVersion;
 
-    TreeMap<String, String> tags;
+    SortedMap<String, String> tags;
 
     byte state;
 
@@ -72,6 +72,12 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
      */
     private int cachedProblems = Validator.NOT_VALIDATED;
 
+    /**
+     * Incremented every time the cached problems are reset, allows background validation to detect results that were
+     * calculated for a previous state of the element
+     */
+    private transient volatile int lastChange = 0;
+
     /**
      * Construct a new base osm element
      * 
@@ -89,6 +95,15 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
         this.parentRelations = null;
     }
 
+    /**
+     * Replace this element with a reference if it is contained in a StorageSnapshot that is currently being written
+     * 
+     * @return the object to serialize instead of this one
+     */
+    protected Object writeReplace() {
+        return StorageSnapshot.replace(this);
+    }
+
     /**
      * @return the if of the object (&lt; 0 are temporary ids)
      */
@@ -136,9 +151,12 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
     @NonNull
     public SortedMap<String, String> getTags() {
         if (tags == null) {
-            return Collections.unmodifiableSortedMap(new TreeMap<String, String>()); // for backwards compatibility
+            return TagSet.EMPTY;
         }
-        return Collections.unmodifiableSortedMap(tags);
+        if (tags instanceof TagSet) {
+            return tags; // immutable
+        }
+        return Collections.unmodifiableSortedMap(tags); // state from older versions
     }
 
     /**
@@ -226,10 +244,13 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
      */
     void addTags(final Map<String, String> tags) {
         if (tags != null) {
-            if (this.tags == null) {
-                this.tags = new TreeMap<>();
+            if (this.tags == null || this.tags.isEmpty()) {
+                this.tags = TagSet.of(tags);
+            } else {
+                Map<String, String> merged = new TreeMap<>(this.tags);
+                merged.putAll(tags);
+                this.tags = TagSet.of(merged);
             }
-            this.tags.putAll(tags);
         }
     }
 
@@ -244,8 +265,7 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
             addTags(tags);
             return true;
         } else if (!this.tags.equals(tags)) {
-            this.tags.clear();
-            addTags(tags);
+            this.tags = TagSet.of(tags);
             return true;
         }
         return false;
@@ -710,6 +730,16 @@ public abstract class OsmElement implements Serializable, XmlSerializable, JosmX
      */
     public void resetHasProblem() {
         cachedProblems = Validator.NOT_VALIDATED;
+        lastChange++; // NOSONAR only needs to differ from previous values
+    }
+
+    /**
+     * Get a value that changes every time {@link #resetHasProblem()} is called
+     * 
+     * @return the change counter
+     */
+    public int getLastChange() {
+        return lastChange;
     }
 
     /**
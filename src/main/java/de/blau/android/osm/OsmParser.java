@@ -5,8 +5,8 @@ import java.io.InputStream;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.TreeMap;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -54,7 +54,8 @@ public class OsmParser extends DefaultHandler {
     /** Same as {@link currentNode}. */
     private Relation currentRelation = null;
 
-    private TreeMap<String, String> currentTags;
+    private String[] currentTags     = new String[16];
+    private int      currentTagCount = 0;
 
     private final List<Exception> exceptions = new ArrayList<>();
 
@@ -128,6 +129,20 @@ public class OsmParser extends DefaultHandler {
         saxParser.parse(in, this);
     }
 
+    /**
+     * Parse the input with the streaming parser
+     * 
+     * This is considerably faster and creates far less garbage than the SAX based {@link #start(InputStream)}, but
+     * only supports UTF-8 encoded input without external entities, which is what the OSM API and Overpass return.
+     * 
+     * @param in the InputStream
+     * @throws SAXException if the input is not well formed or parsing failed
+     * @throws IOException when the InputStream could not provide any data
+     */
+    public void startStreaming(@NonNull final InputStream in) throws SAXException, IOException {
+        new StreamingXmlParser(in, this).parse();
+    }
+
     /**
      * needed for post processing of relations
      * 
@@ -259,12 +274,76 @@ public class OsmParser extends DefaultHandler {
      * @param e element to add the tags to
      */
     void addTags(OsmElement e) {
-        if (currentTags != null) {
-            e.setTags(currentTags);
-            currentTags = null;
+        if (currentTagCount > 0) {
+            // TagSet retains the array so hand over a copy
+            TagSet tags = TagSet.of(Arrays.copyOf(currentTags, currentTagCount), currentTagCount);
+            if (e.tags == null) {
+                e.tags = tags;
+            } else {
+                e.setTags(tags);
+            }
+            currentTagCount = 0;
         }
     }
 
+    /**
+     * Get the value of an attribute as a long, if possible without creating a String
+     * 
+     * @param atts the attributes of the current XML start tag
+     * @param name the attribute name
+     * @return the value
+     * @throws NumberFormatException if the attribute is missing or not a valid number
+     */
+    protected static long getLong(@NonNull Attributes atts, @NonNull String name) {
+        if (atts instanceof StreamingXmlParser.FastAttributes) {
+            return ((StreamingXmlParser.FastAttributes) atts).getLong(name);
+        }
+        return Long.parseLong(atts.getValue(name));
+    }
+
+    /**
+     * Get the value of a coordinate attribute scaled by 1E7, if possible without creating a String
+     * 
+     * @param atts the attributes of the current XML start tag
+     * @param name the attribute name
+     * @return the scaled value
+     * @throws NumberFormatException if the attribute is missing or not a valid number
+     */
+    private static int getE7(@NonNull Attributes atts, @NonNull String name) {
+        if (atts instanceof StreamingXmlParser.FastAttributes) {
+            return ((StreamingXmlParser.FastAttributes) atts).getE7(name);
+        }
+        String value = atts.getValue(name);
+        if (value == null) {
+            throw new NumberFormatException("Missing attribute " + name);
+        }
+        return (new BigDecimal(value).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
+    }
+
+    /**
+     * Get the timestamp of the current element
+     * 
+     * @param atts the attributes of the current XML start tag
+     * @return seconds since the epoch or -1 if not present or invalid
+     */
+    private static long getTimestamp(@NonNull Attributes atts) {
+        if (atts instanceof StreamingXmlParser.FastAttributes) {
+            long timestamp = ((StreamingXmlParser.FastAttributes) atts).getTimestamp(OsmElement.TIMESTAMP_ATTR);
+            if (timestamp != Long.MIN_VALUE) {
+                return timestamp;
+            }
+        }
+        String timestampStr = atts.getValue(OsmElement.TIMESTAMP_ATTR);
+        if (timestampStr != null) {
+            try {
+                return DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT).parse(timestampStr).getTime() / 1000;
+            } catch (ParseException e) {
+                Log.d(DEBUG_TAG, "Invalid timestamp " + timestampStr);
+            }
+        }
+        return -1L;
+    }
+
     /**
      * parse API 0.6 output and JOSM OSM files
      * 
@@ -275,20 +354,11 @@ public class OsmParser extends DefaultHandler {
      */
     protected void parseOsmElement(@NonNull final String name, @NonNull final Attributes atts, byte status) throws OsmParseException {
         try {
-            long osmId = Long.parseLong(atts.getValue(OsmElement.ID_ATTR));
-            String version = atts.getValue(OsmElement.VERSION_ATTR);
-            long osmVersion = version == null ? 0 : Long.parseLong(version); // hack for JOSM file
-                                                                             // format support
-
-            String timestampStr = atts.getValue(OsmElement.TIMESTAMP_ATTR);
-            long timestamp = -1L;
-            if (timestampStr != null) {
-                try {
-                    timestamp = DateFormatter.getUtcFormat(OsmParser.TIMESTAMP_FORMAT).parse(timestampStr).getTime() / 1000;
-                } catch (ParseException e) {
-                    Log.d(DEBUG_TAG, "Invalid timestamp " + timestampStr);
-                }
-            }
+            long osmId = getLong(atts, OsmElement.ID_ATTR);
+            // hack for JOSM file format support
+            long osmVersion = atts.getIndex(OsmElement.VERSION_ATTR) < 0 ? 0 : getLong(atts, OsmElement.VERSION_ATTR);
+
+            long timestamp = getTimestamp(atts);
 
             String action = atts.getValue(OsmElement.JOSM_ACTION);
             if (action != null) {
@@ -306,8 +376,8 @@ public class OsmParser extends DefaultHandler {
 
             switch (name) {
             case Node.NAME:
-                int lat = (new BigDecimal(atts.getValue(Node.LAT_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
-                int lon = (new BigDecimal(atts.getValue(Node.LON_ATTR)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
+                int lat = getE7(atts, Node.LAT_ATTR);
+                int lon = getE7(atts, Node.LON_ATTR);
                 currentNode = OsmElementFactory.createNode(osmId, osmVersion, timestamp, status, lat, lon);
                 break;
             case Way.NAME:
@@ -339,12 +409,11 @@ public class OsmParser extends DefaultHandler {
      * @param atts current set of xml attribute
      */
     private void parseTag(final Attributes atts) {
-        if (currentTags == null) {
-            currentTags = new TreeMap<>();
+        if (currentTagCount == currentTags.length) {
+            currentTags = Arrays.copyOf(currentTags, 2 * currentTags.length);
         }
-        String k = atts.getValue(OsmElement.TAG_KEY_ATTR);
-        String v = atts.getValue(OsmElement.TAG_VALUE_ATTR);
-        currentTags.put(k, v);
+        currentTags[currentTagCount++] = atts.getValue(OsmElement.TAG_KEY_ATTR);
+        currentTags[currentTagCount++] = atts.getValue(OsmElement.TAG_VALUE_ATTR);
     }
 
     /**
@@ -378,7 +447,7 @@ public class OsmParser extends DefaultHandler {
             if (currentWay == null) {
                 Log.e(DEBUG_TAG, "No currentWay set!");
             } else {
-                long nodeOsmId = Long.parseLong(atts.getValue(Way.REF));
+                long nodeOsmId = getLong(atts, Way.REF);
                 Node node = nodeIndex.get(nodeOsmId);
                 if (node == null) {
                     throw new OsmParseException("parseWayNode node " + nodeOsmId + " not in storage");
@@ -402,7 +471,7 @@ public class OsmParser extends DefaultHandler {
             if (currentRelation == null) {
                 Log.e(DEBUG_TAG, "No currentRelation set!");
             } else {
-                long ref = Long.parseLong(atts.getValue(Relation.MEMBER_REF_ATTR));
+                long ref = getLong(atts, Relation.MEMBER_REF_ATTR);
                 String type = atts.getValue(Relation.MEMBER_TYPE_ATTR);
                 String role = atts.getValue(Relation.MEMBER_ROLE_ATTR);
                 RelationMember member = null;
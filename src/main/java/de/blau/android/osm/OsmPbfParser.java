@@ -1,14 +1,26 @@
 package de.blau.android.osm;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat.DenseInfo;
 import org.openstreetmap.osmosis.osmbinary.Osmformat.DenseNodes;
+import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 
 import android.content.Context;
 import android.util.Log;
@@ -23,10 +35,47 @@ import de.blau.android.exception.UnsupportedFormatException;
 public class OsmPbfParser extends BinaryParser {
     private static final String DEBUG_TAG = "OsmPbfParser";
 
+    private static final String OSM_HEADER = "OSMHeader";
+    private static final String OSM_DATA   = "OSMData";
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE   = 32 * 1024 * 1024;
+
     final Context     context;
     final Storage     storage;
     final BoundingBox box;
 
+    private final List<UnprocessedRelationMember> relFor2ndPass = new ArrayList<>();
+
+    private DecodedBlock decoded;
+
+    /**
+     * Elements decoded from one block that haven't been added to storage yet
+     */
+    private static class DecodedBlock {
+        BoundingBox          bounds    = null;
+        final List<Node>     nodes     = new ArrayList<>();
+        final List<Way>      ways      = new ArrayList<>();
+        final List<long[]>   wayRefs   = new ArrayList<>();
+        final List<Relation> relations = new ArrayList<>();
+    }
+
+    private static class UnprocessedRelationMember {
+        final Relation       parent;
+        final RelationMember member;
+
+        /**
+         * Construct a container for unprocessed RelationMembers
+         * 
+         * @param parent the parent Relation
+         * @param member the member
+         */
+        UnprocessedRelationMember(@NonNull Relation parent, @NonNull RelationMember member) {
+            this.parent = parent;
+            this.member = member;
+        }
+    }
+
     /**
      * Construct a new parser
      * 
@@ -55,27 +104,246 @@ public class OsmPbfParser extends BinaryParser {
         this.box = box;
     }
 
+    /**
+     * Read and parse PBF data
+     * 
+     * If threads is larger than 1, blocks are inflated and decoded on a pool of worker threads, the decoded elements
+     * are added to storage in file order on the calling thread. Does not close input.
+     * 
+     * @param input the InputStream to read from
+     * @param threads the number of threads to use for decoding, if less than 2 the input is parsed sequentially
+     * @throws IOException if reading fails
+     */
+    public void parse(@NonNull InputStream input, int threads) throws IOException {
+        if (threads < 2) {
+            new BlockInputStream(input, this).process();
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<DecodedBlock>> decoding = new ArrayDeque<>();
+            DataInputStream data = new DataInputStream(input);
+            Fileformat.BlobHeader header;
+            while ((header = readBlobHeader(data)) != null) {
+                final String type = header.getType();
+                final byte[] blob = new byte[header.getDatasize()];
+                data.readFully(blob);
+                if (!OSM_DATA.equals(type) && !OSM_HEADER.equals(type)) {
+                    Log.w(DEBUG_TAG, "Skipping block of type " + type);
+                    continue;
+                }
+                // BinaryParser holds per block state so we need a new instance for every block
+                decoding.add(executor.submit(() -> new OsmPbfParser(context, storage, box).decodeBlob(type, blob)));
+                if (decoding.size() >= threads * 2) { // limit the number of blocks held in memory
+                    merge(getDecoded(decoding.remove()));
+                }
+            }
+            while (!decoding.isEmpty()) {
+                merge(getDecoded(decoding.remove()));
+            }
+            complete();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the next BlobHeader from input
+     * 
+     * @param data the input
+     * @return the BlobHeader or null if we've reached the end of input
+     * @throws IOException if reading fails or the header is invalid
+     */
+    @Nullable
+    private static Fileformat.BlobHeader readBlobHeader(@NonNull DataInputStream data) throws IOException {
+        int headerSize;
+        try {
+            headerSize = data.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+            throw new IOException("Invalid blob header size " + headerSize);
+        }
+        byte[] buffer = new byte[headerSize];
+        data.readFully(buffer);
+        Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(buffer);
+        if (header.getDatasize() < 0 || header.getDatasize() > MAX_BLOB_SIZE) {
+            throw new IOException("Invalid blob size " + header.getDatasize());
+        }
+        return header;
+    }
+
+    /**
+     * Wait for a block to be decoded
+     * 
+     * @param future the Future for the decoded block
+     * @return the DecodedBlock
+     * @throws IOException if decoding failed with an IOException or we were interrupted
+     */
+    @NonNull
+    private static DecodedBlock getDecoded(@NonNull Future<DecodedBlock> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Inflate and decode a blob
+     * 
+     * @param type the block type
+     * @param blob the serialized blob
+     * @return a DecodedBlock
+     * @throws IOException if the blob couldn't be inflated or parsed
+     */
+    @NonNull
+    private DecodedBlock decodeBlob(@NonNull String type, @NonNull byte[] blob) throws IOException {
+        byte[] raw = inflate(Fileformat.Blob.parseFrom(blob));
+        if (OSM_HEADER.equals(type)) {
+            DecodedBlock decoded = new DecodedBlock();
+            decoded.bounds = decodeBounds(Osmformat.HeaderBlock.parseFrom(raw));
+            return decoded;
+        }
+        return decode(Osmformat.PrimitiveBlock.parseFrom(raw));
+    }
+
+    /**
+     * Get the uncompressed contents of a Blob
+     * 
+     * @param blob the Blob
+     * @return the uncompressed data
+     * @throws IOException if the data couldn't be inflated
+     */
+    @NonNull
+    private static byte[] inflate(@NonNull Fileformat.Blob blob) throws IOException {
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (blob.hasZlibData()) {
+            byte[] result = new byte[blob.getRawSize()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(blob.getZlibData().toByteArray());
+                inflater.inflate(result);
+                if (!inflater.finished()) {
+                    throw new IOException("Blob larger than declared size " + blob.getRawSize());
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+            return result;
+        }
+        throw new UnsupportedFormatException("Unsupported blob compression");
+    }
+
+    /**
+     * Decode a PrimitiveBlock without touching storage
+     * 
+     * @param block the PrimitiveBlock
+     * @return a DecodedBlock containing the elements
+     */
+    @NonNull
+    private DecodedBlock decode(@NonNull Osmformat.PrimitiveBlock block) {
+        decoded = new DecodedBlock();
+        super.parse(block);
+        DecodedBlock result = decoded;
+        decoded = null;
+        return result;
+    }
+
     @Override
-    protected void parseRelations(List<Osmformat.Relation> relations) {
+    public void parse(Osmformat.PrimitiveBlock block) {
+        merge(decode(block));
+    }
 
-        class UnprocessedRelationMember {
-            Relation       parent;
-            RelationMember member;
-
-            /**
-             * Construct a container for unprocessed RelationMembers
-             * 
-             * @param parent the parent Relation
-             * @param member the member
-             */
-            UnprocessedRelationMember(@NonNull Relation parent, @NonNull RelationMember member) {
-                this.parent = parent;
-                this.member = member;
+    /**
+     * Add the contents of a decoded block to storage
+     * 
+     * This needs to be called in file order as Ways require their Nodes to be present in storage
+     * 
+     * @param block the DecodedBlock
+     */
+    private void merge(@NonNull DecodedBlock block) {
+        if (block.bounds != null) {
+            if (storage.isEmpty()) {
+                storage.setBoundingBox(block.bounds);
+            } else {
+                storage.addBoundingBox(block.bounds);
+            }
+        }
+        for (Node node : block.nodes) {
+            storage.insertElementSafe(node);
+        }
+        for (int i = 0; i < block.ways.size(); i++) {
+            mergeWay(block.ways.get(i), block.wayRefs.get(i));
+        }
+        for (Relation relation : block.relations) {
+            List<RelationMember> members = relation.getMembers();
+            if (members != null) {
+                for (RelationMember rm : members) {
+                    OsmElement element = storage.getOsmElement(rm.getType(), rm.getRef());
+                    if (element != null) {
+                        rm.setElement(element);
+                        element.addParentRelation(relation);
+                    } else if (Relation.NAME.equals(rm.getType())) {
+                        relFor2ndPass.add(new UnprocessedRelationMember(relation, rm));
+                    }
+                }
+            }
+            storage.insertElementSafe(relation);
+        }
+    }
+
+    /**
+     * Add the way nodes to a Way and add it to storage
+     * 
+     * @param way the Way
+     * @param refs the ids of the way nodes
+     */
+    private void mergeWay(@NonNull Way way, @NonNull long[] refs) {
+        for (long ref : refs) {
+            Node nd = storage.getNode(ref);
+            if (nd == null) {
+                // input is referentially broken, complain rather than fixing it up
+                Log.e(DEBUG_TAG, "Way node " + ref + " missing, not adding way " + way.getOsmId());
+                throw new UnsupportedFormatException("Way node " + ref + " missing, not adding way " + way.getOsmId());
+            }
+            way.addNode(nd);
+        }
+        if (box != null) {
+            if (storage.contains(way)) {
+                return; // no point in doing anything
+            }
+            if (!way.getBounds().intersects(box)) {
+                return;
+            }
+            // flag the Node as referenced for the ways we keep
+            // unreferenced nodes will be removed in a later step
+            // once all data has been loaded into the Storage object
+            for (Node nd : way.getNodes()) {
+                storage.addNodeRef(nd.getOsmId());
             }
         }
+        storage.insertElementSafe(way);
+    }
 
+    @Override
+    protected void parseRelations(List<Osmformat.Relation> relations) {
         int timeStampToSeconds = date_granularity / 1000; // mostly one
-        List<UnprocessedRelationMember> relFor2ndPass = new ArrayList<>();
         for (Osmformat.Relation r : relations) {
             if (!r.hasInfo()) {
                 versionMissing();
@@ -102,36 +370,19 @@ public class OsmPbfParser extends BinaryParser {
                     throw new UnsupportedFormatException(
                             context != null ? context.getString(R.string.error_pbf_unknown_relation_member_type, r.getTypes(i)) : "");
                 }
-                RelationMember rm = new RelationMember(type, ref, role);
-                OsmElement element = storage.getOsmElement(type, ref);
-                if (element != null) {
-                    rm.setElement(element);
-                    element.addParentRelation(relation);
-                } else if (Relation.NAME.equals(type)) {
-                    relFor2ndPass.add(new UnprocessedRelationMember(relation, rm));
-                }
-                relation.addMember(rm);
+                relation.addMember(new RelationMember(type, ref, role));
             }
 
             int tagCount = r.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                String[] tags = new String[2 * tagCount];
                 for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(r.getKeys(i)), (getStringById(r.getVals(i))));
+                    tags[2 * i] = getStringById(r.getKeys(i));
+                    tags[2 * i + 1] = getStringById(r.getVals(i));
                 }
-                if (tags != null && !tags.isEmpty()) {
-                    relation.setTags(tags);
-                }
-            }
-            storage.insertElementSafe(relation);
-        }
-        // 2nd pass for Relations that hadn't been parsed yet
-        for (UnprocessedRelationMember urm : relFor2ndPass) {
-            OsmElement element = storage.getOsmElement(urm.member.getType(), urm.member.getRef());
-            if (element != null) {
-                urm.member.setElement(element);
-                element.addParentRelation(urm.parent);
+                relation.setTags(TagSet.of(tags, tags.length));
             }
+            decoded.relations.add(relation);
         }
     }
 
@@ -166,24 +417,21 @@ public class OsmPbfParser extends BinaryParser {
             lastVersion = denseInfo.getVersion(i);
             Node node = OsmElementFactory.createNode(lastId, lastVersion, lastTimestamp / timeStampToSeconds, OsmElement.STATE_UNCHANGED, parseToLatE7(lastLat),
                     parseToLonE7(lastLon));
-            Map<String, String> tags = null;
             if (nodes.getKeysValsCount() > 0) {
+                int start = tagPointer;
                 while (nodes.getKeysVals(tagPointer) != 0) {
-                    String key = getStringById(nodes.getKeysVals(tagPointer++));
-                    String value = getStringById(nodes.getKeysVals(tagPointer++));
-                    if (key != null) {
-                        if (tags == null) {
-                            tags = new HashMap<>();
-                        }
-                        tags.put(key, value);
+                    tagPointer += 2;
+                }
+                if (tagPointer > start) {
+                    String[] tags = new String[tagPointer - start];
+                    for (int j = 0; j < tags.length; j++) {
+                        tags[j] = getStringById(nodes.getKeysVals(start + j));
                     }
+                    node.setTags(TagSet.of(tags, tags.length));
                 }
                 tagPointer++;
             }
-            if (tags != null && !tags.isEmpty()) {
-                node.setTags(tags);
-            }
-            storage.insertElementSafe(node);
+            decoded.nodes.add(node);
         }
     }
 
@@ -198,15 +446,14 @@ public class OsmPbfParser extends BinaryParser {
                     OsmElement.STATE_UNCHANGED, parseToLatE7(n.getLat()), parseToLonE7(n.getLon()));
             int tagCount = n.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                String[] tags = new String[2 * tagCount];
                 for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(n.getKeys(i)), (getStringById(n.getVals(i))));
-                }
-                if (!tags.isEmpty()) {
-                    node.setTags(tags);
+                    tags[2 * i] = getStringById(n.getKeys(i));
+                    tags[2 * i + 1] = getStringById(n.getVals(i));
                 }
+                node.setTags(TagSet.of(tags, tags.length));
             }
-            storage.insertElementSafe(node);
+            decoded.nodes.add(node);
         }
     }
 
@@ -219,66 +466,63 @@ public class OsmPbfParser extends BinaryParser {
             }
             Way way = OsmElementFactory.createWay(w.getId(), w.getInfo().getVersion(), w.getInfo().getTimestamp() / timeStampToSeconds,
                     OsmElement.STATE_UNCHANGED);
+            long[] refs = new long[w.getRefsCount()];
             long lastRef = 0;
-            for (long ref : w.getRefsList()) {
-                lastRef += ref;
-                Node nd = storage.getNode(lastRef);
-                if (nd == null) {
-                    // input is referentially broken, complain rather than fixing it up
-                    Log.e(DEBUG_TAG, "Way node " + lastRef + " missing, not adding way " + w.getId());
-                    throw new UnsupportedFormatException("Way node " + lastRef + " missing, not adding way " + w.getId());
-                }
-                way.addNode(nd);
-            }
-            if (box != null) {
-                if (storage.contains(way)) {
-                    continue; // no point in doing anything
-                }
-                if (!way.getBounds().intersects(box)) {
-                    continue; // trim before we add tags
-                }
-                // flag the Node as referenced for the ways we keep
-                // unreferenced nodes will be removed in a later step
-                // once all data has been loaded into the Storage object
-                for (Node nd : way.getNodes()) {
-                    storage.addNodeRef(nd.getOsmId());
-                }
+            for (int i = 0; i < refs.length; i++) {
+                lastRef += w.getRefs(i);
+                refs[i] = lastRef;
             }
             int tagCount = w.getKeysCount();
             if (tagCount > 0) {
-                Map<String, String> tags = new HashMap<>();
+                String[] tags = new String[2 * tagCount];
                 for (int i = 0; i < tagCount; i++) {
-                    tags.put(getStringById(w.getKeys(i)), (getStringById(w.getVals(i))));
-                }
-                if (tags != null && !tags.isEmpty()) {
-                    way.setTags(tags);
+                    tags[2 * i] = getStringById(w.getKeys(i));
+                    tags[2 * i + 1] = getStringById(w.getVals(i));
                 }
+                way.setTags(TagSet.of(tags, tags.length));
             }
-            storage.insertElementSafe(way);
+            decoded.ways.add(way);
+            decoded.wayRefs.add(refs);
         }
     }
 
     @Override
     protected void parse(Osmformat.HeaderBlock block) {
+        DecodedBlock header = new DecodedBlock();
+        header.bounds = decodeBounds(block);
+        merge(header);
+    }
+
+    /**
+     * Get the bounding box from a header block
+     * 
+     * @param block the HeaderBlock
+     * @return a BoundingBox or null if the header doesn't contain one
+     */
+    @Nullable
+    private BoundingBox decodeBounds(@NonNull Osmformat.HeaderBlock block) {
         if (block.hasBbox()) {
             double multiplier = .01;
             int right = (int) (block.getBbox().getRight() * multiplier);
             int left = (int) (block.getBbox().getLeft() * multiplier);
             int top = (int) (block.getBbox().getTop() * multiplier);
             int bottom = (int) (block.getBbox().getBottom() * multiplier);
-
-            BoundingBox bounds = new BoundingBox(left, bottom, right, top);
-            if (storage.isEmpty()) {
-                storage.setBoundingBox(bounds);
-            } else {
-                storage.addBoundingBox(bounds);
-            }
+            return new BoundingBox(left, bottom, right, top);
         }
+        return null;
     }
 
     @Override
     public void complete() {
-        // do nothing
+        // 2nd pass for Relations that hadn't been parsed yet
+        for (UnprocessedRelationMember urm : relFor2ndPass) {
+            OsmElement element = storage.getOsmElement(urm.member.getType(), urm.member.getRef());
+            if (element != null) {
+                urm.member.setElement(element);
+                element.addParentRelation(urm.parent);
+            }
+        }
+        relFor2ndPass.clear();
     }
 
     /**
@@ -0,0 +1,350 @@
+package de.blau.android.osm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Compact storage for the saved state of Nodes in an undo checkpoint
+ *
+ * Instead of one object per Node the state is held in parallel primitive arrays, tags are immutable and simply
+ * referenced. Lookup by Node uses an open addressing table on the identity hash code that is rebuilt on demand.
+ *
+ * @author simon
+ *
+ */
+final class PackedUndoNodes implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final byte IN_CURRENT = 1;
+    private static final byte IN_API     = 2;
+
+    /**
+     * Approximate number of bytes used per entry: Node, tags and parent references, id, version, lat, lon, state and
+     * flags, plus the lookup table
+     */
+    private static final int BYTES_PER_ENTRY = 3 * 8 + 8 + 8 + 4 + 4 + 1 + 1 + 2 * 4;
+
+    private Node[]                      nodes;
+    private long[]                      osmIds;
+    private long[]                      osmVersions;
+    private int[]                       lats;
+    private int[]                       lons;
+    private byte[]                      states;
+    private byte[]                      flags;
+    private SortedMap<String, String>[] tags;
+    private List<Relation>[]            parentRelations;
+    private int                         size = 0;
+
+    private transient int[] table;
+
+    /**
+     * Construct a new empty instance
+     */
+    PackedUndoNodes() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct a copy of an instance
+     *
+     * @param other the instance to copy
+     */
+    PackedUndoNodes(@NonNull PackedUndoNodes other) {
+        allocate(Math.max(INITIAL_CAPACITY, other.size));
+        System.arraycopy(other.nodes, 0, nodes, 0, other.size);
+        System.arraycopy(other.osmIds, 0, osmIds, 0, other.size);
+        System.arraycopy(other.osmVersions, 0, osmVersions, 0, other.size);
+        System.arraycopy(other.lats, 0, lats, 0, other.size);
+        System.arraycopy(other.lons, 0, lons, 0, other.size);
+        System.arraycopy(other.states, 0, states, 0, other.size);
+        System.arraycopy(other.flags, 0, flags, 0, other.size);
+        System.arraycopy(other.tags, 0, tags, 0, other.size);
+        System.arraycopy(other.parentRelations, 0, parentRelations, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * Allocate the arrays
+     *
+     * @param capacity the new capacity
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        nodes = new Node[capacity];
+        osmIds = new long[capacity];
+        osmVersions = new long[capacity];
+        lats = new int[capacity];
+        lons = new int[capacity];
+        states = new byte[capacity];
+        flags = new byte[capacity];
+        tags = new SortedMap[capacity];
+        parentRelations = new List[capacity];
+    }
+
+    /**
+     * Grow the arrays if necessary
+     */
+    private void ensureCapacity() {
+        if (size == nodes.length) {
+            int capacity = 2 * nodes.length;
+            nodes = Arrays.copyOf(nodes, capacity);
+            osmIds = Arrays.copyOf(osmIds, capacity);
+            osmVersions = Arrays.copyOf(osmVersions, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            states = Arrays.copyOf(states, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            parentRelations = Arrays.copyOf(parentRelations, capacity);
+        }
+    }
+
+    /**
+     * Save the state of a Node, if it hasn't been saved yet
+     *
+     * @param node the Node
+     * @param inCurrentStorage true if the Node is in the current storage
+     * @param inApiStorage true if the Node is in the api storage
+     * @return true if the state was saved
+     */
+    boolean add(@NonNull Node node, boolean inCurrentStorage, boolean inApiStorage) {
+        if (indexOf(node) >= 0) {
+            return false;
+        }
+        ensureCapacity();
+        nodes[size] = node;
+        osmIds[size] = node.osmId;
+        osmVersions[size] = node.osmVersion;
+        lats[size] = node.lat;
+        lons[size] = node.lon;
+        states[size] = node.state;
+        flags[size] = (byte) ((inCurrentStorage ? IN_CURRENT : 0) | (inApiStorage ? IN_API : 0));
+        tags[size] = TagSet.of(node.tags);
+        List<Relation> parents = node.getParentRelations();
+        parentRelations[size] = parents != null ? new ArrayList<>(parents) : null;
+        size++;
+        if (table != null) {
+            if (2 * size > table.length) {
+                table = null;
+            } else {
+                insert(size - 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the saved state of a Node
+     *
+     * @param node the Node
+     * @return true if a state was removed
+     */
+    boolean remove(@NonNull Node node) {
+        int index = indexOf(node);
+        if (index < 0) {
+            return false;
+        }
+        int last = size - 1;
+        nodes[index] = nodes[last];
+        osmIds[index] = osmIds[last];
+        osmVersions[index] = osmVersions[last];
+        lats[index] = lats[last];
+        lons[index] = lons[last];
+        states[index] = states[last];
+        flags[index] = flags[last];
+        tags[index] = tags[last];
+        parentRelations[index] = parentRelations[last];
+        nodes[last] = null;
+        tags[last] = null;
+        parentRelations[last] = null;
+        size = last;
+        table = null;
+        return true;
+    }
+
+    /**
+     * Get the index of the saved state for a Node
+     *
+     * @param node the Node
+     * @return the index or -1 if not found
+     */
+    int indexOf(@Nullable Object node) {
+        if (size == 0 || node == null) {
+            return -1;
+        }
+        if (table == null) {
+            rebuildTable();
+        }
+        int mask = table.length - 1;
+        int slot = hash(node) & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (nodes[index] == node) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the index of the saved state for a Node by id
+     *
+     * @param osmId the id of the Node at the time it was saved
+     * @return the index or -1 if not found
+     */
+    int indexOf(long osmId) {
+        for (int i = 0; i < size; i++) {
+            if (osmIds[i] == osmId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuild the lookup table
+     */
+    private void rebuildTable() {
+        int capacity = 16;
+        while (capacity < 2 * size) {
+            capacity <<= 1;
+        }
+        table = new int[2 * capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Insert an index in to the lookup table
+     *
+     * @param index the index
+     */
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int slot = hash(nodes[index]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Spread the identity hash code
+     *
+     * @param o the object
+     * @return a hash value
+     */
+    private static int hash(@NonNull Object o) {
+        int h = System.identityHashCode(o);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the number of saved Nodes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get an estimate of the memory used
+     *
+     * @return the estimated size in bytes
+     */
+    long getMemoryUsage() {
+        return (long) nodes.length * BYTES_PER_ENTRY;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved Node
+     */
+    @NonNull
+    Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved id
+     */
+    long getOsmId(int index) {
+        return osmIds[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved version
+     */
+    long getOsmVersion(int index) {
+        return osmVersions[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved WGS84*1E7 latitude
+     */
+    int getLat(int index) {
+        return lats[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved WGS84*1E7 longitude
+     */
+    int getLon(int index) {
+        return lons[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved state
+     */
+    byte getState(int index) {
+        return states[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved tags
+     */
+    @NonNull
+    SortedMap<String, String> getTags(int index) {
+        return tags[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the saved parent relations or null
+     */
+    @Nullable
+    List<Relation> getParentRelations(int index) {
+        return parentRelations[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return true if the Node was in the current storage
+     */
+    boolean inCurrentStorage(int index) {
+        return (flags[index] & IN_CURRENT) != 0;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return true if the Node was in the api storage
+     */
+    boolean inApiStorage(int index) {
+        return (flags[index] & IN_API) != 0;
+    }
+}
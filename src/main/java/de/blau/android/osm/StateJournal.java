@@ -0,0 +1,561 @@
+package de.blau.android.osm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.R;
+import de.blau.android.exception.StorageException;
+import de.blau.android.util.collections.LongHashMap;
+
+/**
+ * Append only journal of element changes made since the last full save of the {@link StorageDelegator} state
+ *
+ * Elements are added to the journal when their state is recorded in the {@link UndoStorage}, on save only the current
+ * state of these elements is appended to the journal file instead of re-serializing both storages. The journal file
+ * starts with a header that identifies the state file it belongs to, followed by segments, one per save, each
+ * protected by a checksum so that a segment that was only partially written is ignored on replay.
+ *
+ * Operations that change large parts of the data (downloads, uploads, pruning, ...) are not journaled, they require
+ * a full save which will reset the journal. The journal is compacted in to a full save when it grows beyond a
+ * fraction of the size of the state file.
+ *
+ * Changes that are recorded in the journal are exactly those that are saved in the {@link UndoStorage}, everything
+ * else requires a full save, see {@link StorageDelegator#dirty()}. The undo checkpoints themselves are not journaled,
+ * on replay the saved undo history is retained and all replayed changes are added to it as a single checkpoint, so that
+ * undoing it returns to the state the history refers to. Redo checkpoints are discarded as they are only valid for the
+ * saved state.
+ *
+ * @author simon
+ *
+ */
+final class StateJournal {
+
+    private static final String DEBUG_TAG = "StateJournal";
+
+    static final String FILENAME = StorageDelegator.FILENAME + ".journal";
+
+    private static final int MAGIC          = 0x56534a4e; // VSJN
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long  MIN_COMPACTION_SIZE = 256 * 1024L;
+    private static final float COMPACTION_RATIO    = 0.5f;
+
+    private static final byte NODE     = 0;
+    private static final byte WAY      = 1;
+    private static final byte RELATION = 2;
+
+    /**
+     * Result of replaying the journal
+     */
+    enum Replay {
+        /**
+         * Nothing was replayed, the storages haven't been changed
+         */
+        NONE,
+        /**
+         * The journal was replayed
+         */
+        REPLAYED,
+        /**
+         * Replaying failed, the storages are in an inconsistent state and need to be loaded again
+         */
+        FAILED
+    }
+
+    /**
+     * Elements changed since the last save with their id at the time of the last save
+     */
+    private final Map<OsmElement, Long> changed = new IdentityHashMap<>();
+
+    private boolean snapshotRequired = true;
+
+    /**
+     * Record an element as changed, call before the element is modified
+     *
+     * @param element the OsmElement
+     */
+    synchronized void add(@NonNull OsmElement element) {
+        if (!changed.containsKey(element)) {
+            changed.put(element, element.getOsmId());
+        }
+    }
+
+    /**
+     * Indicate that changes have been made that are not recorded in the journal and that the next save needs to be a
+     * full one
+     */
+    synchronized void requireSnapshot() {
+        snapshotRequired = true;
+    }
+
+    /**
+     * Call before a full save of the state is started
+     *
+     * Changes made while the state is being written will be recorded again and simply be replayed on top of the saved
+     * state
+     */
+    synchronized void snapshotStarting() {
+        snapshotRequired = false;
+        changed.clear();
+    }
+
+    /**
+     * Call after the full save of the state has succeeded, this starts a new empty journal
+     *
+     * @param context an Android Context
+     */
+    synchronized void snapshotWritten(@NonNull Context context) {
+        File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(context.openFileOutput(FILENAME, Context.MODE_PRIVATE)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(state.length());
+            out.writeLong(state.lastModified());
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Writing journal header failed " + e.getMessage());
+            snapshotRequired = true;
+        }
+    }
+
+    /**
+     * Call if the full save of the state has failed
+     */
+    synchronized void snapshotFailed() {
+        snapshotRequired = true;
+    }
+
+    /**
+     * Append the current state of the changed elements to the journal
+     *
+     * @param context an Android Context
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param imagery the imagery used for the current changes
+     * @return true if the changes were written, false if a full save is needed
+     */
+    synchronized boolean append(@NonNull Context context, @NonNull Storage currentStorage, @NonNull Storage apiStorage, @NonNull List<String> imagery) {
+        if (snapshotRequired) {
+            return false;
+        }
+        File journal = context.getFileStreamPath(FILENAME);
+        long stateLength = context.getFileStreamPath(StorageDelegator.FILENAME).length();
+        if (!journal.exists() || journal.length() > Math.max(MIN_COMPACTION_SIZE, (long) (stateLength * COMPACTION_RATIO))) {
+            Log.i(DEBUG_TAG, "Journal missing or too large, compacting");
+            return false;
+        }
+        if (changed.isEmpty()) {
+            return true; // all changes since the last save have been recorded and there are none
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (DataOutputStream segment = new DataOutputStream(buffer)) {
+                segment.writeInt(imagery.size());
+                for (String i : imagery) {
+                    segment.writeUTF(i);
+                }
+                segment.writeInt(changed.size());
+                for (Entry<OsmElement, Long> entry : changed.entrySet()) {
+                    writeElement(segment, entry.getKey(), entry.getValue(), currentStorage, apiStorage);
+                }
+            }
+            byte[] data = buffer.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            try (FileOutputStream fileOut = context.openFileOutput(FILENAME, Context.MODE_APPEND)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(data.length);
+                out.writeLong(crc.getValue());
+                out.write(data);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Log.i(DEBUG_TAG, "Journaled " + changed.size() + " elements, " + data.length + " bytes");
+            changed.clear();
+            return true;
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Appending to journal failed " + e.getMessage());
+            snapshotRequired = true;
+            return false;
+        }
+    }
+
+    /**
+     * Write the current state of an element
+     *
+     * @param out the output
+     * @param e the OsmElement
+     * @param previousId the id of the element at the time of the last save
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @throws IOException if writing fails
+     */
+    private static void writeElement(@NonNull DataOutputStream out, @NonNull OsmElement e, long previousId, @NonNull Storage currentStorage,
+            @NonNull Storage apiStorage) throws IOException {
+        out.writeByte(e instanceof Node ? NODE : (e instanceof Way ? WAY : RELATION));
+        out.writeLong(previousId);
+        out.writeLong(e.getOsmId());
+        out.writeLong(e.getOsmVersion());
+        out.writeByte(e.getState());
+        out.writeLong(e.getTimestamp());
+        out.writeBoolean(currentStorage.getOsmElement(e.getName(), e.getOsmId()) == e);
+        out.writeBoolean(apiStorage.getOsmElement(e.getName(), e.getOsmId()) == e);
+        if (e.tags == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(e.tags.size());
+            for (Entry<String, String> tag : e.tags.entrySet()) {
+                out.writeUTF(tag.getKey());
+                out.writeUTF(tag.getValue());
+            }
+        }
+        if (e instanceof Node) {
+            out.writeInt(((Node) e).getLat());
+            out.writeInt(((Node) e).getLon());
+        } else if (e instanceof Way) {
+            List<Node> nodes = ((Way) e).getNodes();
+            out.writeInt(nodes.size());
+            for (Node n : nodes) {
+                out.writeLong(n.getOsmId());
+            }
+        } else {
+            List<RelationMember> members = ((Relation) e).getMembers();
+            out.writeInt(members.size());
+            for (RelationMember rm : members) {
+                out.writeUTF(rm.getType());
+                out.writeLong(rm.getRef());
+                String role = rm.getRole();
+                out.writeUTF(role == null ? "" : role);
+            }
+        }
+    }
+
+    /**
+     * The last journaled state of an element
+     */
+    private static class Record {
+        byte                    type;
+        long                    previousId;
+        long                    id;
+        long                    version;
+        byte                    state;
+        long                    timestamp;
+        boolean                 inCurrent;
+        boolean                 inApi;
+        TreeMap<String, String> tags;
+        int                     lat;
+        int                     lon;
+        long[]                  nodes;
+        List<RelationMember>    members;
+    }
+
+    /**
+     * Replay the journal on top of a freshly loaded state
+     *
+     * The state of the elements before replaying is saved in a new checkpoint in undo. If FAILED is returned the state
+     * needs to be loaded again without replaying the journal, and the next save needs to be a full one.
+     *
+     * @param context an Android Context
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param undo the UndoStorage loaded with the state
+     * @param factory the OsmElementFactory, id sequences will be adjusted to cover replayed new elements
+     * @param imagery a List to receive the imagery recorded in the journal
+     * @return a Replay value indicating the outcome
+     */
+    @NonNull
+    synchronized Replay replay(@NonNull Context context, @NonNull Storage currentStorage, @NonNull Storage apiStorage, @NonNull UndoStorage undo,
+            @NonNull OsmElementFactory factory, @NonNull List<String> imagery) {
+        changed.clear();
+        snapshotRequired = true;
+        File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+        @SuppressWarnings("unchecked")
+        LongHashMap<Record>[] records = new LongHashMap[] { new LongHashMap<>(), new LongHashMap<>(), new LongHashMap<>() };
+        int segments = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(context.openFileInput(FILENAME)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != state.length() || in.readLong() != state.lastModified()) {
+                Log.w(DEBUG_TAG, "Journal doesn't match saved state, ignoring");
+                return Replay.NONE;
+            }
+            while (readSegment(in, records, imagery)) {
+                segments++;
+            }
+        } catch (FileNotFoundException e) {
+            Log.i(DEBUG_TAG, "No journal");
+            return Replay.NONE;
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Reading journal failed " + e.getMessage());
+            return Replay.NONE;
+        }
+        if (segments == 0) {
+            snapshotRequired = false;
+            return Replay.NONE;
+        }
+        Log.i(DEBUG_TAG, "Replaying " + segments + " journal segments");
+        undo.discardRedo();
+        undo.createCheckpoint(context.getString(R.string.undo_action_restore_changes));
+        try {
+            for (Record r : records[NODE].values()) {
+                Node n = (Node) getElement(r, Node.NAME, currentStorage, apiStorage, undo);
+                if (n == null) {
+                    if (!r.inCurrent && !r.inApi) {
+                        continue; // created and deleted again
+                    }
+                    n = OsmElementFactory.createNode(r.id, r.version, r.timestamp, r.state, r.lat, r.lon);
+                    undo.save(n, false, false);
+                }
+                n.setLat(r.lat);
+                n.setLon(r.lon);
+                update(n, r, currentStorage, apiStorage);
+            }
+            for (Record r : records[WAY].values()) {
+                Way w = (Way) getElement(r, Way.NAME, currentStorage, apiStorage, undo);
+                if (w == null) {
+                    if (!r.inCurrent && !r.inApi) {
+                        continue;
+                    }
+                    w = OsmElementFactory.createWay(r.id, r.version, r.timestamp, r.state);
+                    undo.save(w, false, false);
+                }
+                List<Node> nodes = w.getNodes();
+                nodes.clear();
+                for (long ref : r.nodes) {
+                    Node n = (Node) getElement(Node.NAME, ref, currentStorage, apiStorage);
+                    if (n != null) {
+                        nodes.add(n);
+                    } else {
+                        Log.e(DEBUG_TAG, "Way " + r.id + " missing node " + ref);
+                    }
+                }
+                w.invalidateBoundingBox();
+                update(w, r, currentStorage, apiStorage);
+            }
+            Map<Relation, Record> relations = new IdentityHashMap<>();
+            for (Record r : records[RELATION].values()) {
+                Relation rel = (Relation) getElement(r, Relation.NAME, currentStorage, apiStorage, undo);
+                if (rel == null) {
+                    if (!r.inCurrent && !r.inApi) {
+                        continue;
+                    }
+                    rel = OsmElementFactory.createRelation(r.id, r.version, r.timestamp, r.state);
+                    undo.save(rel, false, false);
+                }
+                update(rel, r, currentStorage, apiStorage);
+                relations.put(rel, r);
+            }
+            // members may refer to relations that have only been replayed above
+            for (Entry<Relation, Record> entry : relations.entrySet()) {
+                Relation rel = entry.getKey();
+                Record r = entry.getValue();
+                rel.members.clear();
+                for (RelationMember rm : r.members) {
+                    OsmElement e = getElement(rm.getType(), rm.getRef(), currentStorage, apiStorage);
+                    rel.members.add(e != null ? new RelationMember(rm.getRole(), e) : rm);
+                }
+            }
+            factory.setIdSequences(minId(records[NODE]), minId(records[WAY]), minId(records[RELATION]));
+        } catch (StorageException | ClassCastException e) {
+            Log.e(DEBUG_TAG, "Replaying journal failed " + e.getMessage());
+            return Replay.FAILED;
+        }
+        currentStorage.invalidateIndices();
+        apiStorage.invalidateIndices();
+        return Replay.REPLAYED;
+    }
+
+    /**
+     * Read a segment of the journal and add the records to the per type maps
+     *
+     * @param in the input
+     * @param records maps from the current id to the last Record for nodes, ways and relations
+     * @param imagery a List to receive the imagery recorded in the segment
+     * @return true if a segment was read, false at the end of the journal or if the segment is corrupt
+     * @throws IOException if reading fails
+     */
+    private static boolean readSegment(@NonNull DataInputStream in, @NonNull LongHashMap<Record>[] records, @NonNull List<String> imagery) throws IOException {
+        byte[] data;
+        try {
+            int length = in.readInt();
+            long checksum = in.readLong();
+            data = new byte[length];
+            in.readFully(data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() != checksum) {
+                Log.e(DEBUG_TAG, "Journal segment checksum error");
+                return false;
+            }
+        } catch (EOFException | NegativeArraySizeException e) {
+            return false; // end of the journal or truncated segment
+        }
+        DataInputStream segment = new DataInputStream(new ByteArrayInputStream(data));
+        int imageryCount = segment.readInt();
+        imagery.clear();
+        for (int i = 0; i < imageryCount; i++) {
+            imagery.add(segment.readUTF());
+        }
+        int count = segment.readInt();
+        for (int i = 0; i < count; i++) {
+            Record r = readRecord(segment);
+            LongHashMap<Record> map = records[r.type];
+            Record previous = map.remove(r.previousId);
+            if (previous != null) {
+                r.previousId = previous.previousId;
+            }
+            map.put(r.id, r);
+        }
+        return true;
+    }
+
+    /**
+     * Read a single Record
+     *
+     * @param in the input
+     * @return a Record
+     * @throws IOException if reading fails
+     */
+    @NonNull
+    private static Record readRecord(@NonNull DataInputStream in) throws IOException {
+        Record r = new Record();
+        r.type = in.readByte();
+        r.previousId = in.readLong();
+        r.id = in.readLong();
+        r.version = in.readLong();
+        r.state = in.readByte();
+        r.timestamp = in.readLong();
+        r.inCurrent = in.readBoolean();
+        r.inApi = in.readBoolean();
+        int tagCount = in.readInt();
+        if (tagCount > 0) {
+            r.tags = new TreeMap<>();
+            for (int i = 0; i < tagCount; i++) {
+                r.tags.put(in.readUTF(), in.readUTF());
+            }
+        }
+        switch (r.type) {
+        case NODE:
+            r.lat = in.readInt();
+            r.lon = in.readInt();
+            break;
+        case WAY:
+            r.nodes = new long[in.readInt()];
+            for (int i = 0; i < r.nodes.length; i++) {
+                r.nodes[i] = in.readLong();
+            }
+            break;
+        case RELATION:
+            int memberCount = in.readInt();
+            r.members = new ArrayList<>(memberCount);
+            for (int i = 0; i < memberCount; i++) {
+                String type = in.readUTF();
+                long ref = in.readLong();
+                String role = in.readUTF();
+                r.members.add(new RelationMember(type, ref, role));
+            }
+            break;
+        default:
+            throw new IOException("Unknown element type " + r.type);
+        }
+        return r;
+    }
+
+    /**
+     * Get the existing element a Record refers to and save its state in undo
+     *
+     * @param r the Record
+     * @param type the element type
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @param undo the UndoStorage
+     * @return the OsmElement or null if it doesn't exist
+     */
+    @Nullable
+    private static OsmElement getElement(@NonNull Record r, @NonNull String type, @NonNull Storage currentStorage, @NonNull Storage apiStorage,
+            @NonNull UndoStorage undo) {
+        OsmElement e = getElement(type, r.previousId, currentStorage, apiStorage);
+        if (e != null) {
+            undo.save(e);
+        }
+        if (e != null && r.previousId != r.id) {
+            // id has changed, remove so that the element can be re-added with the new one
+            currentStorage.removeElement(e);
+            apiStorage.removeElement(e);
+        }
+        return e;
+    }
+
+    /**
+     * Get an element from the current or api Storage
+     *
+     * @param type the element type
+     * @param id the element id
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     * @return the OsmElement or null if it doesn't exist
+     */
+    @Nullable
+    private static OsmElement getElement(@NonNull String type, long id, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
+        OsmElement e = currentStorage.getOsmElement(type, id);
+        return e != null ? e : apiStorage.getOsmElement(type, id);
+    }
+
+    /**
+     * Set the common attributes of an element and add it to or remove it from the storages
+     *
+     * @param e the OsmElement
+     * @param r the Record
+     * @param currentStorage the current Storage
+     * @param apiStorage the api Storage
+     */
+    private static void update(@NonNull OsmElement e, @NonNull Record r, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
+        e.osmId = r.id;
+        e.osmVersion = r.version;
+        e.state = r.state;
+        e.setTimestamp(r.timestamp);
+        e.setTags(r.tags != null ? r.tags : Collections.emptyMap());
+        if (r.inCurrent) {
+            currentStorage.insertElementSafe(e);
+        } else {
+            currentStorage.removeElement(e);
+        }
+        if (r.inApi) {
+            apiStorage.insertElementSafe(e);
+        } else {
+            apiStorage.removeElement(e);
+        }
+    }
+
+    /**
+     * Get the smallest id in a map of Records
+     *
+     * @param records the Records
+     * @return the smallest id or 0
+     */
+    private static long minId(@NonNull LongHashMap<Record> records) {
+        long min = 0;
+        for (long id : records.keys()) {
+            min = Math.min(min, id);
+        }
+        return min;
+    }
+}
@@ -2,6 +2,7 @@ package de.blau.android.osm;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +37,16 @@ public class Storage implements Serializable {
 
     private transient LongHashSet nodeIsRef;
 
+    private transient GridIndex gridIndex;
+
+    private transient NodeWaysIndex nodeWaysIndex;
+
+    private transient TagIndex tagIndex;
+
+    private transient UndownloadedMemberIndex memberIndex;
+
+    private transient volatile StorageSnapshot pending;
+
     /**
      * Default constructor
      * <p>
@@ -54,12 +65,54 @@ public class Storage implements Serializable {
      * @param s storage object to duplicate
      */
     Storage(Storage s) {
+        s.materialize();
         nodes = new LongOsmElementMap<>(s.nodes);
         ways = new LongOsmElementMap<>(s.ways);
         relations = new LongOsmElementMap<>(s.relations);
         bboxes = new ArrayList<>(s.bboxes);
     }
 
+    /**
+     * Replace this Storage with one containing only the elements that are not in a StorageSnapshot that is currently
+     * being written
+     * 
+     * @return the object to serialize instead of this one
+     */
+    private Object writeReplace() {
+        materialize();
+        return StorageSnapshot.replace(this);
+    }
+
+    /**
+     * Set a snapshot that the unchanged elements will be added from
+     * 
+     * Until then queries by id, by bounding box and for the element counts are answered from the snapshot, all other
+     * access adds the complete snapshot first
+     * 
+     * @param snapshot the StorageSnapshot this Storage was read with
+     */
+    void setPendingSnapshot(@NonNull StorageSnapshot snapshot) {
+        snapshot.setTarget(nodes, ways, relations);
+        pending = snapshot;
+    }
+
+    /**
+     * Add the elements from a pending snapshot, needs to be called before the element maps are accessed
+     */
+    private void materialize() {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    long start = System.currentTimeMillis();
+                    snapshot.complete();
+                    pending = null;
+                    Log.d(DEBUG_TAG, "Added " + snapshot.size() + " elements from snapshot in " + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        }
+    }
+
     /**
      * Get a specific node by id
      * 
@@ -68,6 +121,14 @@ public class Storage implements Serializable {
      */
     @Nullable
     public Node getNode(final long nodeOsmId) {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return (Node) snapshot.lookup(Node.NAME, nodeOsmId);
+                }
+            }
+        }
         return nodes.get(nodeOsmId);
     }
 
@@ -79,6 +140,14 @@ public class Storage implements Serializable {
      */
     @Nullable
     public Way getWay(final long wayOsmId) {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return (Way) snapshot.lookup(Way.NAME, wayOsmId);
+                }
+            }
+        }
         return ways.get(wayOsmId);
     }
 
@@ -90,6 +159,14 @@ public class Storage implements Serializable {
      */
     @Nullable
     public Relation getRelation(final long relationOsmId) {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return (Relation) snapshot.lookup(Relation.NAME, relationOsmId);
+                }
+            }
+        }
         return relations.get(relationOsmId);
     }
 
@@ -116,17 +193,31 @@ public class Storage implements Serializable {
     /**
      * Get a unmodifiable list of all nodes
      * 
+     * This is a copy and can be used when the Storage is changed while iterating over it
+     * 
      * @return list containing all nodes
      */
     public List<Node> getNodes() {
+        materialize();
         return Collections.unmodifiableList(nodes.values());
     }
 
     /**
-     * Return all nodes in a bounding box
+     * Get a read-only live view of all nodes
      * 
-     * Notes: - currently this does a sequential scan of all nodes - using a for loop instead of for each is twice as
-     * fast
+     * This doesn't copy anything and should be preferred for read-only access, the Storage must not be changed while
+     * the view is in use
+     * 
+     * @return list backed by the nodes in storage
+     */
+    @NonNull
+    public List<Node> getNodesView() {
+        materialize();
+        return nodes.unmodifiableValues();
+    }
+
+    /**
+     * Return all nodes in a bounding box
      * 
      * @param box bounding box to search in
      * @return a list of all nodes in box
@@ -139,8 +230,8 @@ public class Storage implements Serializable {
     /**
      * Return all nodes in a bounding box
      * 
-     * Notes: - currently this does a sequential scan of all nodes - using a for loop instead of for each is twice as
-     * fast
+     * Uses a grid based spatial index that is built on the first call, while a snapshot is pending its columns are
+     * scanned instead
      * 
      * @param box bounding box to search in
      * @param result List of Node to hold the result
@@ -148,14 +239,19 @@ public class Storage implements Serializable {
      */
     @NonNull
     public List<Node> getNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
-        List<Node> list = nodes.values();
-        int listSize = list.size();
-        for (int i = 0; i < listSize; i++) {
-            Node n = list.get(i);
-            if (box.isIn(n.getLon(), n.getLat())) {
-                result.add(n);
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    snapshot.getNodes(box, result);
+                    return result;
+                }
             }
         }
+        GridIndex index = getGridIndex();
+        synchronized (index) {
+            index.getNodes(box, result);
+        }
         return result;
     }
 
@@ -165,22 +261,45 @@ public class Storage implements Serializable {
      * @return the current Node count
      */
     public int getNodeCount() {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return snapshot.getNodeCount();
+                }
+            }
+        }
         return nodes.size();
     }
 
     /**
      * Get a unmodifiable list of all ways
      * 
+     * This is a copy and can be used when the Storage is changed while iterating over it
+     * 
      * @return list containing all ways
      */
     public List<Way> getWays() {
+        materialize();
         return Collections.unmodifiableList(ways.values());
     }
 
+    /**
+     * Get a read-only live view of all ways
+     * 
+     * This doesn't copy anything and should be preferred for read-only access, the Storage must not be changed while
+     * the view is in use
+     * 
+     * @return list backed by the ways in storage
+     */
+    @NonNull
+    public List<Way> getWaysView() {
+        materialize();
+        return ways.unmodifiableValues();
+    }
+
     /**
      * Return all ways covered or possibly intersecting a bounding box
-     * <p>
-     * Note: currently this does a sequential scan of all ways
      * 
      * @param box bounding box to search in
      * @return a list of all ways in box
@@ -193,7 +312,8 @@ public class Storage implements Serializable {
     /**
      * Return all ways covered or possibly intersecting a bounding box
      * <p>
-     * Note: currently this does a sequential scan of all ways
+     * Uses a grid based spatial index that is built on the first call, while a snapshot is pending its columns are
+     * scanned instead, ways without nodes are never returned
      * 
      * @param box bounding box to search in
      * @param result List of Way to hold the result
@@ -201,43 +321,241 @@ public class Storage implements Serializable {
      */
     @NonNull
     public List<Way> getWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
-        BoundingBox newBox = new BoundingBox(); // avoid creating new instances
-        List<Way> list = ways.values();
-        int listSize = list.size();
-        for (int i = 0; i < listSize; i++) {
-            Way w = list.get(i);
-            BoundingBox wayBox = w.getBounds(newBox);
-            if (wayBox.intersects(box)) {
-                result.add(w);
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    snapshot.getWays(box, result);
+                    return result;
+                }
             }
         }
+        GridIndex index = getGridIndex();
+        synchronized (index) {
+            index.getWays(box, result);
+        }
         return result;
     }
 
+    /**
+     * Get the spatial index, creating it if necessary
+     * 
+     * @return the GridIndex for this Storage
+     */
+    @NonNull
+    private synchronized GridIndex getGridIndex() {
+        materialize();
+        if (gridIndex == null) {
+            gridIndex = new GridIndex(nodes, ways);
+        }
+        return gridIndex;
+    }
+
+    /**
+     * Get the node to ways index, creating it if necessary
+     * 
+     * @return the NodeWaysIndex for this Storage
+     */
+    @NonNull
+    private synchronized NodeWaysIndex getNodeWaysIndex() {
+        materialize();
+        if (nodeWaysIndex == null) {
+            nodeWaysIndex = new NodeWaysIndex(ways);
+        }
+        return nodeWaysIndex;
+    }
+
+    /**
+     * Get the tag index, creating it if necessary
+     * 
+     * @return the TagIndex for this Storage
+     */
+    @NonNull
+    private synchronized TagIndex getTagIndex() {
+        materialize();
+        if (tagIndex == null) {
+            tagIndex = new TagIndex(nodes, ways, relations);
+        }
+        return tagIndex;
+    }
+
+    /**
+     * Get the undownloaded member index, creating it if necessary
+     * 
+     * @return the UndownloadedMemberIndex for this Storage
+     */
+    @NonNull
+    private synchronized UndownloadedMemberIndex getMemberIndex() {
+        materialize();
+        if (memberIndex == null) {
+            memberIndex = new UndownloadedMemberIndex(relations);
+        }
+        return memberIndex;
+    }
+
+    /**
+     * Indicate that the geometry or the tags of an element have changed or are going to change
+     * 
+     * This needs to be called for every Node that is moved, every Way whose bounding box or Nodes may change, every
+     * Relation whose members have changed and every element whose tags have changed, it is a nop for indices that
+     * haven't been built yet
+     * 
+     * @param element the changed OsmElement
+     */
+    void invalidateIndices(@NonNull OsmElement element) {
+        GridIndex index = gridIndex;
+        if (index != null) {
+            synchronized (index) {
+                index.invalidate(element);
+            }
+        }
+        NodeWaysIndex reverseIndex = nodeWaysIndex;
+        if (reverseIndex != null && element instanceof Way) {
+            synchronized (reverseIndex) {
+                reverseIndex.invalidate((Way) element);
+            }
+        }
+        if (element instanceof Relation) {
+            invalidateMembers((Relation) element);
+        }
+        invalidateTags(element);
+    }
+
+    /**
+     * Indicate that the members of a Relation, or if they have been downloaded, have changed
+     * 
+     * @param relation the changed Relation
+     */
+    void invalidateMembers(@NonNull Relation relation) {
+        UndownloadedMemberIndex index = memberIndex;
+        if (index != null) {
+            synchronized (index) {
+                index.invalidate(relation);
+            }
+        }
+    }
+
+    /**
+     * Indicate that the tags of an element have changed
+     * 
+     * @param element the changed OsmElement
+     */
+    void invalidateTags(@NonNull OsmElement element) {
+        TagIndex index = tagIndex;
+        if (index != null) {
+            synchronized (index) {
+                index.invalidate(element);
+            }
+        }
+    }
+
+    /**
+     * Throw away the indices, they will be rebuilt on the next query
+     */
+    void invalidateIndices() {
+        GridIndex index = gridIndex;
+        if (index != null) {
+            synchronized (index) {
+                index.invalidateAll();
+            }
+        }
+        NodeWaysIndex reverseIndex = nodeWaysIndex;
+        if (reverseIndex != null) {
+            synchronized (reverseIndex) {
+                reverseIndex.invalidateAll();
+            }
+        }
+        TagIndex tags = tagIndex;
+        if (tags != null) {
+            synchronized (tags) {
+                tags.invalidateAll();
+            }
+        }
+        UndownloadedMemberIndex members = memberIndex;
+        if (members != null) {
+            synchronized (members) {
+                members.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Remove an element from the indices
+     * 
+     * @param element the removed OsmElement
+     */
+    private void removeFromIndices(@NonNull OsmElement element) {
+        GridIndex index = gridIndex;
+        if (index != null) {
+            synchronized (index) {
+                index.remove(element);
+            }
+        }
+        NodeWaysIndex reverseIndex = nodeWaysIndex;
+        if (reverseIndex != null && element instanceof Way) {
+            synchronized (reverseIndex) {
+                reverseIndex.remove((Way) element);
+            }
+        }
+    }
+
     /**
      * Get how many ways there are in storage
      * 
      * @return the current Way count
      */
     public int getWayCount() {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return snapshot.getWayCount();
+                }
+            }
+        }
         return ways.size();
     }
 
     /**
      * Get a unmodifiable list of all relations
      * 
+     * This is a copy and can be used when the Storage is changed while iterating over it
+     * 
      * @return list containing all relations
      */
     public List<Relation> getRelations() {
+        materialize();
         return Collections.unmodifiableList(relations.values());
     }
 
+    /**
+     * Get a read-only live view of all relations
+     * 
+     * This doesn't copy anything and should be preferred for read-only access, the Storage must not be changed while
+     * the view is in use
+     * 
+     * @return list backed by the relations in storage
+     */
+    @NonNull
+    public List<Relation> getRelationsView() {
+        materialize();
+        return relations.unmodifiableValues();
+    }
+
     /**
      * Get how many relations there are in storage
      * 
      * @return the current Relation count
      */
     public int getRelationCount() {
+        if (pending != null) {
+            synchronized (this) {
+                StorageSnapshot snapshot = pending;
+                if (snapshot != null) {
+                    return snapshot.getRelationCount();
+                }
+            }
+        }
         return relations.size();
     }
 
@@ -248,10 +566,11 @@ public class Storage implements Serializable {
      */
     @NonNull
     public List<OsmElement> getElements() {
-        List<OsmElement> l = new ArrayList<>();
-        l.addAll(nodes.values());
-        l.addAll(ways.values());
-        l.addAll(relations.values());
+        materialize();
+        List<OsmElement> l = new ArrayList<>(nodes.size() + ways.size() + relations.size());
+        l.addAll(nodes.unmodifiableValues());
+        l.addAll(ways.unmodifiableValues());
+        l.addAll(relations.unmodifiableValues());
         return Collections.unmodifiableList(l);
     }
 
@@ -262,6 +581,7 @@ public class Storage implements Serializable {
      * @return true if element is in storage
      */
     public boolean contains(@Nullable final OsmElement element) {
+        materialize();
         if (element instanceof Way) {
             return ways.containsKey(element.getOsmId());
         } else if (element instanceof Node) {
@@ -278,8 +598,10 @@ public class Storage implements Serializable {
      * @param node node to insert
      */
     void insertNodeUnsafe(@NonNull final Node node) {
+        materialize();
         try {
             nodes.put(node.getOsmId(), node);
+            invalidateIndices(node);
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -292,8 +614,10 @@ public class Storage implements Serializable {
      * @param way way to insert
      */
     void insertWayUnsafe(@NonNull final Way way) {
+        materialize();
         try {
             ways.put(way.getOsmId(), way);
+            invalidateIndices(way);
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -305,8 +629,11 @@ public class Storage implements Serializable {
      * @param relation relation to insert
      */
     void insertRelationUnsafe(@NonNull final Relation relation) {
+        materialize();
         try {
             relations.put(relation.getOsmId(), relation);
+            invalidateMembers(relation);
+            invalidateTags(relation);
         } catch (OutOfMemoryError err) {
             throw new StorageException(StorageException.OOM);
         }
@@ -347,6 +674,8 @@ public class Storage implements Serializable {
      * @return true if the node was in storage
      */
     boolean removeNode(@NonNull final Node node) {
+        materialize();
+        removeFromIndices(node);
         return nodes.remove(node.getOsmId()) != null;
     }
 
@@ -357,6 +686,8 @@ public class Storage implements Serializable {
      * @return true if the way was in storage
      */
     boolean removeWay(@NonNull final Way way) {
+        materialize();
+        removeFromIndices(way);
         return ways.remove(way.getOsmId()) != null;
     }
 
@@ -367,6 +698,7 @@ public class Storage implements Serializable {
      * @return true if the relation was in storage
      */
     boolean removeRelation(@NonNull final Relation relation) {
+        materialize();
         return relations.remove(relation.getOsmId()) != null;
     }
 
@@ -377,10 +709,11 @@ public class Storage implements Serializable {
      * @return true if the element was in storage
      */
     boolean removeElement(@Nullable final OsmElement element) {
+        materialize();
         if (element instanceof Way) {
-            return ways.remove(element.getOsmId()) != null;
+            return removeWay((Way) element);
         } else if (element instanceof Node) {
-            return nodes.remove(element.getOsmId()) != null;
+            return removeNode((Node) element);
         } else if (element instanceof Relation) {
             return relations.remove(element.getOsmId()) != null;
         }
@@ -466,14 +799,13 @@ public class Storage implements Serializable {
      * @return true if empty
      */
     public boolean isEmpty() {
-        return nodes.isEmpty() && ways.isEmpty() && relations.isEmpty();
+        return getNodeCount() == 0 && getWayCount() == 0 && getRelationCount() == 0;
     }
 
     /**
      * Get all ways that node is a vertex of
      * 
-     * This method currently does a sequential scan of all ways in storage and should be avoided, note checking against
-     * the ways bounding boxes is slower than this
+     * Uses a reverse index from node ids to ways that is built on the first call
      * 
      * @param node node to search for
      * @return list containing all ways containing node
@@ -481,14 +813,63 @@ public class Storage implements Serializable {
     @NonNull
     public List<Way> getWays(@NonNull final Node node) {
         List<Way> mWays = new ArrayList<>();
-        for (Way way : ways) {
-            if (way.hasNode(node)) {
-                mWays.add(way);
-            }
+        NodeWaysIndex index = getNodeWaysIndex();
+        synchronized (index) {
+            index.getWays(node, mWays);
         }
         return mWays;
     }
 
+    /**
+     * Get the elements that may have a tag
+     * 
+     * Uses an inverted index that is built on the first call, the result contains all elements that have the tag,
+     * ignoring case, but may contain elements that don't, callers need to check
+     * 
+     * @param key the tag key
+     * @param value the tag value or null for any value
+     * @param result List of OsmElement to hold the result
+     * @return the result List
+     */
+    @NonNull
+    public List<OsmElement> getElementsWithTag(@NonNull String key, @Nullable String value, @NonNull List<OsmElement> result) {
+        TagIndex index = getTagIndex();
+        synchronized (index) {
+            index.getElements(key, value, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get an upper bound of the number of elements that have a tag
+     * 
+     * @param key the tag key
+     * @param value the tag value or null for any value
+     * @return the maximum number of elements that {@link #getElementsWithTag(String, String, List)} will return
+     */
+    public int countElementsWithTag(@NonNull String key, @Nullable String value) {
+        TagIndex index = getTagIndex();
+        synchronized (index) {
+            return index.count(key, value);
+        }
+    }
+
+    /**
+     * Get the Relations that have a member that hasn't been downloaded
+     * 
+     * Uses an index from the member ids to the Relations that is built on the first call
+     * 
+     * @param type the member type
+     * @param id the member id
+     * @param result a Collection to add the Relations to
+     */
+    void getRelationsWithUndownloadedMember(@NonNull String type, long id, @NonNull Collection<Relation> result) {
+        UndownloadedMemberIndex index = getMemberIndex();
+        synchronized (index) {
+            index.getRelations(type, id, result);
+        }
+    }
+
     /**
      * Get all nodes that are vertexes in a way
      * <p>
@@ -498,6 +879,7 @@ public class Storage implements Serializable {
      */
     @NonNull
     public List<Node> getWayNodes() {
+        materialize();
         Set<Node> waynodes = new HashSet<>();
         for (Way way : ways) {
             waynodes.addAll(way.getNodes());
@@ -507,19 +889,18 @@ public class Storage implements Serializable {
 
     /**
      * Tests if node is first or last node of any way in storage
-     * <p>
-     * This method currently does a sequential scan of all ways in storage and should be avoided
      * 
      * @param node node to check
      * @return true if node is the first or last node of at least one way
      */
     public boolean isEndNode(@Nullable final Node node) {
-        for (Way way : ways) {
-            if (way.isEndNode(node)) {
-                return true;
-            }
+        if (node == null) {
+            return false;
+        }
+        NodeWaysIndex index = getNodeWaysIndex();
+        synchronized (index) {
+            return index.isEndNode(node);
         }
-        return false;
     }
 
     /**
@@ -530,6 +911,7 @@ public class Storage implements Serializable {
      */
     @NonNull
     public BoundingBox calcBoundingBoxFromData() throws OsmException {
+        materialize();
         BoundingBox result = null;
         if (nodes != null) {
             for (Node n : nodes) {
@@ -553,6 +935,7 @@ public class Storage implements Serializable {
      */
     @NonNull
     public LongOsmElementMap<Node> getNodeIndex() {
+        materialize();
         return nodes;
     }
 
@@ -563,6 +946,7 @@ public class Storage implements Serializable {
      */
     @NonNull
     public LongOsmElementMap<Way> getWayIndex() {
+        materialize();
         return ways;
     }
 
@@ -573,6 +957,7 @@ public class Storage implements Serializable {
      */
     @NonNull
     public LongOsmElementMap<Relation> getRelationIndex() {
+        materialize();
         return relations;
     }
 
@@ -582,15 +967,18 @@ public class Storage implements Serializable {
      * This is required since elements will change their id when being saved to the OSM database the first time.
      */
     public void rehash() {
+        materialize();
         nodes.rehash();
         ways.rehash();
         relations.rehash();
+        invalidateIndices();
     }
 
     /**
      * Log the contents
      */
     public void logStorage() {
+        materialize();
         //
         for (Node n : nodes) {
             Log.d(DEBUG_TAG, "Node " + n.getOsmId());
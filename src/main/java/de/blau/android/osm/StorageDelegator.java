@@ -1,5 +1,6 @@
 package de.blau.android.osm;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -49,6 +50,7 @@ import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.util.collections.LongOsmElementMap;
 import de.blau.android.util.collections.MultiHashMap;
 import de.blau.android.validation.BaseValidator;
+import de.blau.android.validation.ValidationEngine;
 
 public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
@@ -87,6 +89,21 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
     private transient SavingHelper<StorageDelegator> savingHelper = new SavingHelper<>();
 
+    /**
+     * Changes since the last full save of the state
+     */
+    private final transient StateJournal journal = new StateJournal();
+
+    /**
+     * The snapshot of unchanged elements the state file refers to
+     */
+    private transient StorageSnapshot snapshot;
+
+    /**
+     * Memory budget for the undo checkpoints in MB
+     */
+    private transient int undoMemoryBudget = UndoStorage.DEFAULT_MEMORY_BUDGET;
+
     /**
      * A OsmElementFactory that is used to create new elements. Needs to be persisted together with
      * currentStorage/apiStorage to avoid duplicate IDs when the application is restarted after some elements have been
@@ -115,6 +132,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         apiStorage = new Storage();
         currentStorage = new Storage();
         undo = new UndoStorage(currentStorage, apiStorage);
+        undo.setMemoryBudget(undoMemoryBudget);
+        undo.setJournal(journal);
+        journal.requireSnapshot();
         factory = new OsmElementFactory();
         imagery = new ArrayList<>();
     }
@@ -129,6 +149,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         apiStorage = new Storage();
         this.currentStorage = currentStorage;
         undo = new UndoStorage(currentStorage, apiStorage);
+        undo.setMemoryBudget(undoMemoryBudget);
+        undo.setJournal(journal);
+        journal.requireSnapshot();
     }
 
     /**
@@ -142,8 +165,23 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
     /**
      * set dirty to true
+     * 
+     * As the changes are not known to have been recorded in the journal the next save will be a full one
      */
     public void dirty() {
+        dirty(false);
+    }
+
+    /**
+     * set dirty to true
+     * 
+     * @param recorded true if all changes have been saved in the UndoStorage and are thus recorded in the journal, if
+     *            false the next save will be a full one
+     */
+    public void dirty(boolean recorded) {
+        if (!recorded) {
+            journal.requireSnapshot();
+        }
         dirty = true;
         Log.d(DEBUG_TAG, "setting delegator to dirty");
     }
@@ -157,11 +195,23 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         return undo;
     }
 
+    /**
+     * Set the memory budget for the undo and redo checkpoints, older checkpoints will be discarded if it is exceeded
+     * 
+     * @param megaBytes the budget in MB
+     */
+    public synchronized void setUndoMemoryBudget(int megaBytes) {
+        undoMemoryBudget = megaBytes;
+        undo.setMemoryBudget(megaBytes);
+    }
+
     /**
      * Clears the undo storage.
      */
     public synchronized void clearUndo() {
         undo = new UndoStorage(currentStorage, apiStorage);
+        undo.setMemoryBudget(undoMemoryBudget);
+        undo.setJournal(journal);
     }
 
     /**
@@ -269,21 +319,30 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 e.resetHasProblem();
                 if (Way.NAME.equals(e.getName())) {
                     ((Way) e).invalidateBoundingBox();
+                    invalidateIndices(e);
                 } else if (Node.NAME.equals(e.getName())) {
+                    invalidateIndices(e);
                     nodeChanged = true;
                     if (changed == null) {
                         changed = e.getBounds();
                     } else {
                         changed.union(e.getBounds());
                     }
+                } else {
+                    invalidateIndices(e);
                 }
             }
             if (nodeChanged) {
                 for (Way w : currentStorage.getWays(changed)) {
                     w.invalidateBoundingBox();
+                    invalidateIndices(w);
                     w.resetHasProblem();
                 }
             }
+            ValidationEngine engine = App.getValidationEngine();
+            if (engine != null) {
+                engine.invalidate(currentStorage, post);
+            }
         }
         Logic logic = App.getLogic();
         if (logic != null) { // this might be null in testing
@@ -361,12 +420,24 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     private void invalidateWay(@NonNull Way w) {
         w.invalidateBoundingBox();
+        invalidateIndices(w);
         if (w.hasTagKey(Tags.KEY_HIGHWAY)) {
             // we only validate way connections for highways currently
             w.resetHasProblem();
         }
     }
 
+    /**
+     * Indicate to the indices of both storages that the geometry, the Nodes or the tags of an element are going to
+     * change or have changed
+     * 
+     * @param e the OsmElement
+     */
+    void invalidateIndices(@NonNull OsmElement e) {
+        currentStorage.invalidateIndices(e);
+        apiStorage.invalidateIndices(e);
+    }
+
     /**
      * Way geometry has to be invalidated -before- nodes are moved
      * 
@@ -412,10 +483,17 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
     /**
      * Reset the cached "problems" for all OsmElements
+     * 
+     * If background validation is in use the elements in the current storage are re-validated by it
      */
     public void resetProblems() {
-        for (OsmElement e : currentStorage.getElements()) {
-            e.resetHasProblem();
+        ValidationEngine engine = App.getValidationEngine();
+        if (engine != null) {
+            engine.invalidateAll(currentStorage.getElements());
+        } else {
+            for (OsmElement e : currentStorage.getElements()) {
+                e.resetHasProblem();
+            }
         }
         for (OsmElement e : apiStorage.getElements()) {
             e.resetHasProblem();
@@ -427,6 +505,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * apiStorage is empty. As a side effect it updates the id sequences for the creation of new elements.
      */
     public synchronized void fixupApiStorage() {
+        journal.requireSnapshot();
         try {
             long minNodeId = 0;
             long minWayId = 0;
@@ -660,6 +739,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         apiStorage.insertElementSafe(node);
         node.setLat(latE7);
         node.setLon(lonE7);
+        invalidateIndices(node);
         node.updateState(OsmElement.STATE_MODIFIED);
     }
 
@@ -1477,7 +1557,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
         way.updateState(OsmElement.STATE_MODIFIED);
         apiStorage.insertElementSafe(way);
-        onElementChanged(null, way);
+        onElementChanged(node, way);
         if (!node.hasTags() && getCurrentStorage().getWays(node).isEmpty()) {
             removeNode(node);
         }
@@ -1508,7 +1588,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             way.updateState(OsmElement.STATE_MODIFIED);
             apiStorage.insertElementSafe(way);
         }
-        onElementChanged(null, way);
+        onElementChanged(node, way);
         if (deleteNode) {
             removeNode(node);
         }
@@ -1777,7 +1857,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 removeWay(way);
             } else {
                 apiStorage.insertElementSafe(way);
-                onElementChanged(null, way);
+                onElementChanged(existingNode, way);
             }
         } catch (StorageException e) {
             // TODO handle OOM
@@ -2288,6 +2368,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void copyToClipboard(@NonNull List<OsmElement> elements, int lat, int lon) {
         dirty = true; // otherwise clipboard will not get saved without other changes
+        journal.requireSnapshot();
         List<OsmElement> toCopy = new ArrayList<>();
         Map<Long, Node> processedNodes = new HashMap<>();
         for (OsmElement e : elements) {
@@ -2325,6 +2406,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void cutToClipboard(@NonNull List<OsmElement> elements, int lat, int lon) {
         dirty = true; // otherwise clipboard will not get saved without other changes
+        journal.requireSnapshot();
         List<OsmElement> toCut = new ArrayList<>();
         Map<Long, Node> replacedNodes = new HashMap<>();
         for (OsmElement e : elements) {
@@ -2395,6 +2477,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         if (elements.isEmpty()) {
             return null;
         }
+        journal.requireSnapshot(); // clipboard content may have changed
         Collections.sort(elements, new NwrComparator()); // enforce NWR order
         List<OsmElement> result = new ArrayList<>();
         boolean copy = !clipboard.isEmpty();
@@ -2451,6 +2534,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             undo.save(nd);
                             nd.setLat(nd.getLat() + deltaLat);
                             nd.setLon(nd.getLon() + deltaLon);
+                            invalidateIndices(nd);
                             nd.updateState(nd.getOsmId() < 0 ? OsmElement.STATE_CREATED : OsmElement.STATE_MODIFIED);
                             insertElementSafe(nd);
                             newNodes.put(nd, null);
@@ -2458,6 +2542,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                     }
                     ((Way) e).invalidateBoundingBox();
                 }
+                invalidateIndices(e);
                 insertElementSafe(e);
                 e.updateState(e.getOsmId() < 0 ? OsmElement.STATE_CREATED : OsmElement.STATE_MODIFIED);
             }
@@ -2489,6 +2574,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public void clearClipboard() {
         clipboard.reset();
+        journal.requireSnapshot();
         dirty();
     }
 
@@ -2525,12 +2611,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public synchronized void setOriginalBox(@NonNull final BoundingBox box) {
         dirty = true;
+        journal.requireSnapshot();
         currentStorage.setBoundingBox(box);
     }
 
     @Override
     public synchronized void addBoundingBox(@NonNull BoundingBox box) {
         dirty = true;
+        journal.requireSnapshot();
         currentStorage.addBoundingBox(box);
     }
 
@@ -2541,6 +2629,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public synchronized void deleteBoundingBox(@NonNull BoundingBox box) {
         dirty = true;
+        journal.requireSnapshot();
         currentStorage.deleteBoundingBox(box);
     }
 
@@ -2555,6 +2644,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public synchronized void mergeBoundingBox(@NonNull BoundingBox box) {
         // if we are simply expanding the area no need keep the old bounding boxes
         dirty = true;
+        journal.requireSnapshot();
         List<BoundingBox> bbs = new ArrayList<>(currentStorage.getBoundingBoxes());
         for (BoundingBox bb : bbs) {
             if (bb != null) {
@@ -2647,6 +2737,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     /**
      * Stores the current storage data to the default storage file
      * 
+     * If possible only the elements changed since the last save are appended to a journal, otherwise the complete
+     * state is written and the journal restarted.
+     * 
      * @param ctx Android Context
      * @throws IOException if saving failed
      */
@@ -2663,9 +2756,39 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
         if (readingLock.tryLock()) {
             // TODO this doesn't really help with error conditions need to throw exception
-            if (savingHelper.save(ctx, FILENAME, this, true)) {
+            if (journal.append(ctx, currentStorage, apiStorage, imagery)) {
+                dirty = false;
+                readingLock.unlock();
+                return;
+            }
+            journal.snapshotStarting();
+            File current = ctx.getFileStreamPath(FILENAME + StorageSnapshot.EXTENSION);
+            File snapshotFile = ctx.getFileStreamPath(FILENAME + StorageSnapshot.EXTENSION + "." + System.currentTimeMillis());
+            boolean reuse = snapshot != null && snapshot.getFile().equals(current) && current.exists() && snapshot.isReusableFor(currentStorage);
+            StorageSnapshot newSnapshot = reuse ? snapshot : writeSnapshot(snapshotFile);
+            boolean saved = savingHelper.save(ctx, FILENAME, this, true, false,
+                    newSnapshot != null ? StorageSnapshot.writing(newSnapshot, currentStorage) : null);
+            if (saved) {
+                snapshot = newSnapshot;
+                if (newSnapshot != null && !reuse) {
+                    // keep the snapshot belonging to the backup state file
+                    if (current.exists() && !current.renameTo(ctx.getFileStreamPath(FILENAME + ".backup" + StorageSnapshot.EXTENSION))) {
+                        Log.e(DEBUG_TAG, "Renaming snapshot failed");
+                    }
+                    snapshot = null;
+                    if (snapshotFile.renameTo(current)) {
+                        snapshot = mapSnapshot(current);
+                    } else {
+                        Log.e(DEBUG_TAG, "Renaming new snapshot failed");
+                    }
+                }
+                journal.snapshotWritten(ctx);
                 dirty = false;
             } else {
+                if (snapshotFile.exists() && !snapshotFile.delete()) {
+                    Log.e(DEBUG_TAG, "Deleting snapshot failed");
+                }
+                journal.snapshotFailed();
                 // this is essentially catastrophic and can only happen if something went really wrong
                 // running out of memory or disk, or HW failure
                 if (ctx instanceof Activity) {
@@ -2686,6 +2809,62 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         }
     }
 
+    /**
+     * Write a snapshot of the unchanged elements in current storage
+     * 
+     * @param file the File to write to
+     * @return the snapshot or null if writing failed
+     */
+    @Nullable
+    private StorageSnapshot writeSnapshot(@NonNull File file) {
+        try {
+            long start = System.currentTimeMillis();
+            StorageSnapshot snapshot = StorageSnapshot.write(file, currentStorage);
+            Log.d(DEBUG_TAG, "Wrote snapshot of " + snapshot.size() + " elements in " + (System.currentTimeMillis() - start) + " ms");
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            Log.e(DEBUG_TAG, "Writing snapshot failed " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Map the snapshots that the current and the backup state files may refer to
+     * 
+     * @param context an Android Context
+     * @return a List of StorageSnapshot
+     */
+    @NonNull
+    private static List<StorageSnapshot> mapSnapshots(@NonNull Context context) {
+        List<StorageSnapshot> snapshots = new ArrayList<>();
+        for (String name : new String[] { FILENAME + StorageSnapshot.EXTENSION, FILENAME + ".backup" + StorageSnapshot.EXTENSION }) {
+            File file = context.getFileStreamPath(name);
+            if (file.exists()) {
+                StorageSnapshot snapshot = mapSnapshot(file);
+                if (snapshot != null) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Map a snapshot file
+     * 
+     * @param file the File
+     * @return the StorageSnapshot or null if it couldn't be mapped
+     */
+    @Nullable
+    private static StorageSnapshot mapSnapshot(@NonNull File file) {
+        try {
+            return StorageSnapshot.map(file);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "Mapping snapshot " + file.getName() + " failed " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Read save data from standard file
      * 
@@ -2701,6 +2880,10 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     /**
      * Read save data from file
      * 
+     * If filename is the default state file, changes recorded in the journal are replayed on top of the saved state,
+     * the replayed changes are added to the undo history as a single checkpoint. If replaying fails the saved state is
+     * loaded without the journal.
+     * 
      * @param context Android context
      * @param filename the file to read
      * @return true if the state was read successfully
@@ -2708,30 +2891,75 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     public boolean readFromFile(Context context, String filename) {
         try {
             lock();
-            StorageDelegator newDelegator = savingHelper.load(context, filename, true);
+            return readFromFile(context, filename, FILENAME.equals(filename));
+        } finally {
+            unlock();
+        }
+    }
 
-            if (newDelegator != null) {
-                Log.d(DEBUG_TAG, "read saved state");
-                currentStorage = newDelegator.currentStorage;
-                if (currentStorage.getBoundingBoxes().isEmpty()) { // can happen if data was added before load
-                    try {
-                        currentStorage.setBoundingBox(currentStorage.calcBoundingBoxFromData());
-                    } catch (OsmException e) {
-                        Log.e(DEBUG_TAG, "readFromFile got " + e.getMessage());
-                    }
+    /**
+     * Read save data from file, the lock needs to be held by the caller
+     * 
+     * @param context Android context
+     * @param filename the file to read
+     * @param replayJournal if true replay the changes in the journal
+     * @return true if the state was read successfully
+     */
+    private boolean readFromFile(@NonNull Context context, @NonNull String filename, boolean replayJournal) {
+        List<StorageSnapshot> snapshots = mapSnapshots(context);
+        StorageDelegator newDelegator = savingHelper.load(context, filename, true, false, false, StorageSnapshot.reading(snapshots));
+
+        if (newDelegator != null) {
+            Log.d(DEBUG_TAG, "read saved state");
+            currentStorage = newDelegator.currentStorage;
+            boolean replayed = false;
+            snapshot = null;
+            for (StorageSnapshot candidate : snapshots) {
+                if (candidate.getReferencingStorage() == currentStorage) {
+                    // unchanged elements are only added when the storage is first accessed
+                    currentStorage.setPendingSnapshot(candidate);
+                    snapshot = candidate;
                 }
-                apiStorage = newDelegator.apiStorage;
-                undo = newDelegator.undo;
-                clipboard = newDelegator.clipboard;
-                factory = newDelegator.factory;
-                dirty = false; // data was just read, i.e. memory and file are in sync
-                return true;
-            } else {
-                Log.d(DEBUG_TAG, "saved state null");
-                return false;
             }
-        } finally {
-            unlock();
+            if (currentStorage.getBoundingBoxes().isEmpty()) { // can happen if data was added before load
+                try {
+                    currentStorage.setBoundingBox(currentStorage.calcBoundingBoxFromData());
+                } catch (OsmException e) {
+                    Log.e(DEBUG_TAG, "readFromFile got " + e.getMessage());
+                }
+            }
+            apiStorage = newDelegator.apiStorage;
+            undo = newDelegator.undo;
+            undo.setMemoryBudget(undoMemoryBudget);
+            clipboard = newDelegator.clipboard;
+            factory = newDelegator.factory;
+            journal.requireSnapshot();
+            if (replayJournal) {
+                List<String> replayedImagery = new ArrayList<>(imagery);
+                switch (journal.replay(context, currentStorage, apiStorage, undo, factory, replayedImagery)) {
+                case REPLAYED:
+                    replayed = true;
+                    imagery.clear();
+                    imagery.addAll(replayedImagery);
+                    break;
+                case FAILED:
+                    Log.e(DEBUG_TAG, "Replaying journal failed, reloading saved state");
+                    boolean reloaded = readFromFile(context, filename, false);
+                    dirty = reloaded; // force a full save replacing the journal
+                    return reloaded;
+                default:
+                    // nothing replayed
+                }
+            }
+            if (replayed) {
+                fixupBacklinks();
+            }
+            undo.setJournal(journal);
+            dirty = false; // data was just read, i.e. memory and file are in sync
+            return true;
+        } else {
+            Log.d(DEBUG_TAG, "saved state null");
+            return false;
         }
     }
 
@@ -2815,6 +3043,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             boolean closeChangeset, @Nullable Map<String, String> extraTags, @Nullable List<OsmElement> elements) throws IOException {
 
         dirty = true; // storages will get modified as data is uploaded, these changes need to be saved to file
+        journal.requireSnapshot();
         removeUnchanged();
         // upload methods set dirty flag too, in case the file is saved during an upload
         boolean fullUpload = elements == null;
@@ -2883,7 +3112,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     }
 
     /**
-     * Merge additional data with existing, copy to a new storage because this may fail
+     * Merge additional data with existing
+     * 
+     * The downloaded elements are first staged in a StorageOverlay and checked for conflicts, nothing in the current
+     * data is changed until all checks have succeeded, so that we can simply abort. Only the elements affected by the
+     * merge are touched when committing, the indices of the current Storage are updated incrementally.
      * 
      * This may throw an IllegalStateException if existing data was inconsistent
      * 
@@ -2893,6 +3126,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public boolean mergeData(@NonNull Storage storage, @Nullable PostMergeHandler postMerge) {
         Log.d(DEBUG_TAG, "mergeData called");
+        journal.requireSnapshot();
 
         if (storage.isEmpty()) { // no point in doing anything
             return true;
@@ -2902,13 +3136,11 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
         synchronized (this) {
 
-            // make temp copy of current storage (we may have to abort
-            Storage temp = new Storage(currentStorage);
-
-            // retrieve the maps
-            LongOsmElementMap<Node> nodeIndex = temp.getNodeIndex();
-            LongOsmElementMap<Way> wayIndex = temp.getWayIndex();
-            LongOsmElementMap<Relation> relationIndex = temp.getRelationIndex();
+            // stage the new elements, we may have to abort
+            StorageOverlay overlay = new StorageOverlay(currentStorage);
+            List<OsmElement> replaced = new ArrayList<>(); // current elements that will be replaced by newer versions
+            List<Node> undeleted = new ArrayList<>(); // deleted nodes that need to be reinstated
+            List<Node> undeletedUnchanged = new ArrayList<>(); // sub-set of the above that can be removed from the upload
 
             Log.d(DEBUG_TAG, "mergeData finished init");
 
@@ -2916,8 +3148,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 // add nodes
                 for (Node n : storage.getNodes()) {
                     Node apiNode = apiStorage.getNode(n.getOsmId()); // can contain deleted elements
-                    if (!nodeIndex.containsKey(n.getOsmId()) && apiNode == null) { // new node no problem
-                        temp.insertNodeUnsafe(n);
+                    Node existingNode = currentStorage.getNode(n.getOsmId());
+                    if (existingNode == null && apiNode == null) { // new node no problem
+                        overlay.insertNode(n);
                         newElements.add(n);
                     } else {
                         if (apiNode != null && apiNode.getState() == OsmElement.STATE_DELETED) {
@@ -2927,14 +3160,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                                 return false; // can't resolve conflicts, upload first
                             }
                         }
-                        Node existingNode = nodeIndex.get(n.getOsmId());
                         if (existingNode != null) {
                             if (existingNode.getOsmVersion() >= n.getOsmVersion()) { // larger just to be on the safe
                                                                                      // side
                                 continue; // can use node we already have
                             } else {
                                 if (existingNode.isUnchanged()) {
-                                    temp.insertNodeUnsafe(n);
+                                    overlay.insertNode(n);
+                                    replaced.add(existingNode);
                                     newElements.add(n);
                                 } else {
                                     return false; // can't resolve conflicts, upload first
@@ -2942,8 +3175,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             }
                         } else {
                             // this shouldn't be able to happen
-                            String debugString = "mergeData null existing node " + n.getOsmId() + " containsKey is " + nodeIndex.containsKey(n.getOsmId())
-                                    + " apiNode is " + apiNode;
+                            String debugString = "mergeData null existing node " + n.getOsmId() + " apiNode is " + apiNode;
                             Log.e(DEBUG_TAG, debugString);
                             ACRAHelper.nocrashReport(null, debugString);
                             return false;
@@ -2956,8 +3188,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 // add ways
                 for (Way w : storage.getWays()) {
                     Way apiWay = apiStorage.getWay(w.getOsmId()); // can contain deleted elements
-                    if (!wayIndex.containsKey(w.getOsmId()) && apiWay == null) { // new way no problem
-                        temp.insertWayUnsafe(w);
+                    Way existingWay = currentStorage.getWay(w.getOsmId());
+                    if (existingWay == null && apiWay == null) { // new way no problem
+                        overlay.insertWay(w);
                         newElements.add(w);
                     } else {
                         if (apiWay != null && apiWay.getState() == OsmElement.STATE_DELETED) {
@@ -2967,13 +3200,13 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                                 return false; // can't resolve conflicts, upload first
                             }
                         }
-                        Way existingWay = wayIndex.get(w.getOsmId());
                         if (existingWay != null) {
                             if (existingWay.getOsmVersion() >= w.getOsmVersion()) {// larger just to be on the safe side
                                 continue; // can use way we already have
                             } else {
                                 if (existingWay.isUnchanged()) {
-                                    temp.insertWayUnsafe(w);
+                                    overlay.insertWay(w);
+                                    replaced.add(existingWay);
                                     newElements.add(w);
                                 } else {
                                     return false; // can't resolve conflicts, upload first
@@ -2981,8 +3214,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             }
                         } else {
                             // this shouldn't be able to happen
-                            String debugString = "mergeData null existing way " + w.getOsmId() + " containsKey is " + wayIndex.containsKey(w.getOsmId())
-                                    + " apiWay is " + apiWay;
+                            String debugString = "mergeData null existing way " + w.getOsmId() + " apiWay is " + apiWay;
                             Log.e(DEBUG_TAG, debugString);
                             ACRAHelper.nocrashReport(null, debugString);
                             return false;
@@ -2993,13 +3225,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 Log.d(DEBUG_TAG, "mergeData added ways");
 
                 // fix up way nodes
-                // all nodes should be in storage now, however new ways will have references to copies not in storage
-                for (Way w : wayIndex) {
+                // the new ways will have references to copies not in storage, existing ways that reference replaced
+                // nodes are fixed up when committing
+                for (Way w : overlay.getWays()) {
                     List<Node> nodes = w.getNodes();
                     for (int i = 0; i < nodes.size(); i++) {
                         Node wayNode = nodes.get(i);
                         long wayNodeId = wayNode.getOsmId();
-                        Node n = nodeIndex.get(wayNodeId);
+                        Node n = overlay.getNode(wayNodeId);
                         if (n != null) {
                             nodes.set(i, n);
                         } else {
@@ -3009,17 +3242,15 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             Node apiNode = apiStorage.getNode(wayNodeId);
                             if (apiNode != null && apiNode.getState() == OsmElement.STATE_DELETED) {
                                 // attempt to fix this up, reinstate the original node so that any existing references
-                                // remain
+                                // remain, the state is only changed when committing
                                 // FIXME undoing the original delete will likely cause havoc
                                 Log.e(DEBUG_TAG, "mergeData null undeleting node " + wayNodeId);
                                 if (apiNode.getOsmVersion() == wayNode.getOsmVersion() && (apiNode.isTagged() && apiNode.getTags().equals(wayNode.getTags()))
                                         && apiNode.getLat() == wayNode.getLat() && apiNode.getLon() == wayNode.getLon()) {
-                                    apiNode.setState(OsmElement.STATE_UNCHANGED);
-                                    apiStorage.removeNode(apiNode);
-                                } else {
-                                    apiNode.setState(OsmElement.STATE_MODIFIED);
+                                    undeletedUnchanged.add(apiNode);
                                 }
-                                temp.insertNodeUnsafe(apiNode);
+                                undeleted.add(apiNode);
+                                overlay.insertNode(apiNode);
                                 nodes.set(i, apiNode);
                             } else {
                                 String debugString = "mergeData null way node for way " + w.getOsmId() + " v" + w.getOsmVersion() + " node " + wayNodeId
@@ -3037,8 +3268,9 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 // add relations
                 for (Relation r : storage.getRelations()) {
                     Relation apiRelation = apiStorage.getRelation(r.getOsmId()); // can contain deleted elements
-                    if (!relationIndex.containsKey(r.getOsmId()) && apiRelation == null) { // new relation no problem
-                        temp.insertRelationUnsafe(r);
+                    Relation existingRelation = currentStorage.getRelation(r.getOsmId());
+                    if (existingRelation == null && apiRelation == null) { // new relation no problem
+                        overlay.insertRelation(r);
                         newElements.add(r);
                     } else {
                         if (apiRelation != null && apiRelation.getState() == OsmElement.STATE_DELETED) {
@@ -3048,14 +3280,14 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                                 return false; // can't resolve conflicts, upload first
                             }
                         }
-                        Relation existingRelation = relationIndex.get(r.getOsmId());
                         if (existingRelation != null) {
                             if (existingRelation.getOsmVersion() >= r.getOsmVersion()) { // larger just to be on the
                                                                                          // safe side
                                 continue; // can use relation we already have
                             } else {
                                 if (existingRelation.isUnchanged()) {
-                                    temp.insertRelationUnsafe(r);
+                                    overlay.insertRelation(r);
+                                    replaced.add(existingRelation);
                                     newElements.add(r);
                                 } else {
                                     return false; // can't resolve conflicts, upload first
@@ -3063,8 +3295,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                             }
                         } else {
                             // this shouldn't be able to happen
-                            String debugString = "mergeData null existing relation " + r.getOsmId() + " containsKey is "
-                                    + relationIndex.containsKey(r.getOsmId()) + " apiRelation is " + apiRelation;
+                            String debugString = "mergeData null existing relation " + r.getOsmId() + " apiRelation is " + apiRelation;
                             Log.e(DEBUG_TAG, debugString);
                             ACRAHelper.nocrashReport(null, debugString);
                             return false;
@@ -3074,23 +3305,35 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
 
                 Log.d(DEBUG_TAG, "mergeData added relations");
 
-                // fixup relation back links and memberships
+                // determine the relations that need their memberships redone and check them
+                Set<Relation> relink = relationsToRelink(overlay, replaced);
+                for (Relation r : relink) {
+                    if (!checkMembers(overlay, r)) {
+                        Log.e(DEBUG_TAG, "mergeData checkMembers failed");
+                        return false;
+                    }
+                }
+
+                Log.d(DEBUG_TAG, "mergeData checked " + relink.size() + " relations");
 
-                if (!redoBacklinks(temp, nodeIndex, wayIndex, relationIndex)) {
-                    Log.e(DEBUG_TAG, "mergeData redoBacklinks failed");
-                    return false;
+                // nothing can go wrong from here on, with the exception of running out of memory
+                commitMerge(overlay, replaced, relink);
+                for (Node n : undeleted) {
+                    if (undeletedUnchanged.contains(n)) {
+                        n.setState(OsmElement.STATE_UNCHANGED);
+                        apiStorage.removeNode(n);
+                    } else {
+                        n.setState(OsmElement.STATE_MODIFIED);
+                    }
                 }
 
-                Log.d(DEBUG_TAG, "mergeData fixuped relations");
+                Log.d(DEBUG_TAG, "mergeData committed");
 
             } catch (StorageException sex) {
                 // ran out of memory
                 Log.e(DEBUG_TAG, "mergeData exception " + sex.getMessage());
                 return false;
             }
-
-            currentStorage = temp;
-            undo.setCurrentStorage(temp);
         }
         // no need to do this in the synchronized block
         if (postMerge != null) {
@@ -3102,6 +3345,169 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         return true; // Success
     }
 
+    /**
+     * Determine the relations whose members need to be linked again after merging
+     * 
+     * These are the staged relations, the current parents of elements that are going to be replaced and current
+     * relations with members that haven't been downloaded before, but are now. The latter are looked up by the ids of
+     * the staged elements in the index of undownloaded members of the current storage.
+     * 
+     * @param overlay the StorageOverlay with the staged elements
+     * @param replaced the elements that are going to be replaced
+     * @return a Set of Relations, either staged or current
+     */
+    @NonNull
+    private Set<Relation> relationsToRelink(@NonNull StorageOverlay overlay, @NonNull List<OsmElement> replaced) {
+        Set<Relation> relink = new HashSet<>();
+        if (overlay.isEmpty()) {
+            return relink;
+        }
+        for (Relation r : overlay.getRelations()) {
+            relink.add(r);
+        }
+        for (OsmElement e : replaced) {
+            List<Relation> parents = e.getParentRelations();
+            if (parents != null) {
+                for (Relation parent : parents) {
+                    Relation r = overlay.getRelation(parent.getOsmId());
+                    if (r != null) {
+                        relink.add(r);
+                    }
+                }
+            }
+        }
+        List<Relation> candidates = new ArrayList<>();
+        for (Node n : overlay.getNodes()) {
+            currentStorage.getRelationsWithUndownloadedMember(Node.NAME, n.getOsmId(), candidates);
+        }
+        for (Way w : overlay.getWays()) {
+            currentStorage.getRelationsWithUndownloadedMember(Way.NAME, w.getOsmId(), candidates);
+        }
+        for (Relation r : overlay.getRelations()) {
+            currentStorage.getRelationsWithUndownloadedMember(Relation.NAME, r.getOsmId(), candidates);
+        }
+        for (Relation r : candidates) {
+            if (!overlay.getRelations().containsKey(r.getOsmId())) {
+                relink.add(r);
+            }
+        }
+        return relink;
+    }
+
+    /**
+     * Check that all members of a Relation can be resolved after merging
+     * 
+     * @param overlay the StorageOverlay with the staged elements
+     * @param r the Relation
+     * @return true if no member is deleted locally
+     */
+    private boolean checkMembers(@NonNull StorageOverlay overlay, @NonNull Relation r) {
+        final List<RelationMember> members = r.getMembers();
+        if (members == null) {
+            Log.e(DEBUG_TAG, "Relation has no members " + r.getOsmId());
+            return true;
+        }
+        for (RelationMember rm : members) {
+            checkMember(r.getOsmId(), rm);
+            if (overlay.getOsmElement(rm.getType(), rm.getRef()) == null && isDeletedInApi(r, rm)) {
+                Log.e(DEBUG_TAG, "checkMembers relation " + r.getOsmId() + " member " + rm.getType() + " " + rm.getRef() + " missing");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move the staged elements to the current Storage and fix up all references to them
+     * 
+     * @param overlay the StorageOverlay with the staged elements
+     * @param replaced the elements that are going to be replaced
+     * @param relink the relations that need their members to be linked again
+     */
+    private void commitMerge(@NonNull StorageOverlay overlay, @NonNull List<OsmElement> replaced, @NonNull Set<Relation> relink) {
+        // current ways that reference replaced nodes and are not replaced themselves
+        Set<Way> affectedWays = new HashSet<>();
+        for (OsmElement e : replaced) {
+            if (e instanceof Node) {
+                for (Way w : currentStorage.getWays((Node) e)) {
+                    if (!overlay.getWays().containsKey(w.getOsmId())) {
+                        affectedWays.add(w);
+                    }
+                }
+            } else if (e instanceof Relation && ((Relation) e).getMembers() != null) {
+                // remove the back links to the replaced relation
+                for (RelationMember rm : ((Relation) e).getMembers()) {
+                    OsmElement member = rm.getElement();
+                    if (member != null) {
+                        member.removeParentRelation((Relation) e);
+                    }
+                }
+            }
+        }
+        // the staged elements get all their back links from relink
+        for (Node n : overlay.getNodes()) {
+            n.clearParentRelations();
+        }
+        for (Way w : overlay.getWays()) {
+            w.clearParentRelations();
+        }
+        for (Relation r : overlay.getRelations()) {
+            r.clearParentRelations();
+        }
+
+        overlay.commit();
+
+        for (Way w : affectedWays) {
+            invalidateWay(w);
+            List<Node> nodes = w.getNodes();
+            for (int i = 0; i < nodes.size(); i++) {
+                Node n = currentStorage.getNode(nodes.get(i).getOsmId());
+                if (n != null) {
+                    nodes.set(i, n);
+                }
+            }
+        }
+
+        for (Relation r : relink) {
+            final List<RelationMember> members = r.getMembers();
+            if (members == null) {
+                continue;
+            }
+            for (RelationMember rm : members) {
+                OsmElement old = rm.getElement();
+                if (old != null) {
+                    old.removeParentRelation(r);
+                }
+                OsmElement e = currentStorage.getOsmElement(rm.getType(), rm.getRef());
+                if (e != null) {
+                    rm.setElement(e);
+                    e.addParentRelation(r);
+                } else if (rm.downloaded()) {
+                    Log.w(DEBUG_TAG, "commitMerge relation " + r.getOsmId() + " member " + rm.getType() + " " + rm.getRef() + " not in target storage");
+                    rm.setElement(null);
+                }
+            }
+            invalidateIndices(r);
+        }
+        // the filter caches are keyed by id and would still contain the values for the replaced elements
+        clearFilterCache();
+    }
+
+    /**
+     * Empty the caches of the current Filter if any
+     * 
+     * This needs to be called when elements have been replaced without calling onElementChanged
+     */
+    private static void clearFilterCache() {
+        Logic logic = App.getLogic();
+        if (logic != null) { // this might be null in testing
+            Filter filter = logic.getFilter();
+            if (filter != null) {
+                filter.clear();
+            }
+        }
+    }
+
     /**
      * Redo all backlinks
      * 
@@ -3116,7 +3522,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
     private boolean redoBacklinks(@NonNull Storage tempCurrent, @NonNull LongOsmElementMap<Node> nodeIndex, @NonNull LongOsmElementMap<Way> wayIndex,
             @NonNull LongOsmElementMap<Relation> relationIndex) {
         // zap all existing backlinks for our "old" relations
-        for (Relation r : currentStorage.getRelations()) {
+        for (Relation r : currentStorage.getRelationsView()) {
             final List<RelationMember> members = r.getMembers();
             if (members != null) {
                 for (RelationMember rm : members) {
@@ -3228,7 +3634,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
             }
         }
         // then add them back
-        for (Relation r : currentStorage.getRelations()) {
+        for (Relation r : currentStorage.getRelationsView()) {
             final List<RelationMember> members = r.getMembers();
             if (members != null) {
                 for (RelationMember rm : r.getMembers()) {
@@ -3279,6 +3685,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @param box the BoundingBox
      */
     protected void prune(@Nullable Logic logic, @NonNull BoundingBox box) {
+        journal.requireSnapshot();
         LongHashSet keepNodes = new LongHashSet();
         LongHashSet keepWays = new LongHashSet();
         LongHashSet keepRelations = new LongHashSet();
@@ -3354,6 +3761,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
                 for (RelationMember member : members) {
                     member.setElement(null);
                 }
+                invalidateIndices(parent);
             }
             if (logic != null) {
                 logic.removeSelectedRelationElement(e);
@@ -3367,6 +3775,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * Note this doesn't handle selected elements and should only be called when nothing is selected
      */
     public synchronized void pruneAll() {
+        journal.requireSnapshot();
         LongHashSet keepNodes = new LongHashSet();
         LongHashSet keepRelations = new LongHashSet();
 
@@ -3436,6 +3845,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      */
     public synchronized boolean applyOsc(@NonNull Storage osc, @Nullable PostMergeHandler postMerge) {
         Log.d(DEBUG_TAG, "applyOsc called");
+        journal.requireSnapshot();
         final String ABORTMESSAGE = "applyOsc aborting %s is unchanged/created";
 
         // make temp copy of current storage (we may have to abort
@@ -3639,6 +4049,7 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
         undo = tempUndo;
         currentStorage = tempCurrent;
         apiStorage = tempApi;
+        clearFilterCache();
         return true; // Success
     }
 
@@ -3650,13 +4061,27 @@ public class StorageDelegator implements Serializable, Exportable, DataStorage {
      * @return true if deleted
      */
     private boolean memberIsDeleted(@NonNull Relation r, @NonNull RelationMember rm) {
+        if (isDeletedInApi(r, rm)) {
+            fixupBacklinks(); // nexessary as we've removed the original ones from the elements
+            return true; // can't resolve conflicts, upload first
+        }
+        return false;
+    }
+
+    /**
+     * Check if a referenced relation member is deleted without touching any back links
+     * 
+     * @param r the Relation
+     * @param rm the RelationMember
+     * @return true if deleted
+     */
+    private boolean isDeletedInApi(@NonNull Relation r, @NonNull RelationMember rm) {
         OsmElement apiElement = apiStorage.getOsmElement(rm.getType(), rm.getRef());
         if (apiElement != null && apiElement.getState() == OsmElement.STATE_DELETED) {
             String debugString = "mergeData/applyOsc deleted " + rm.getType() + " in downloaded relation " + r.getOsmId();
             Log.e(DEBUG_TAG, debugString);
             ACRAHelper.nocrashReport(null, debugString);
-            fixupBacklinks(); // nexessary as we've removed the original ones from the elements
-            return true; // can't resolve conflicts, upload first
+            return true;
         }
         return false;
     }
@@ -0,0 +1,176 @@
+package de.blau.android.osm;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Staging area for inserting elements in to a Storage
+ *
+ * Inserted elements are kept in small delta maps, lookups check these first and then the underlying Storage. Nothing
+ * is changed in the underlying Storage until {@link #commit()} is called, if the changes need to be abandoned the
+ * overlay can simply be dropped. This avoids having to copy the indices of the complete Storage for operations that
+ * may fail half way.
+ *
+ * This class is not thread safe, callers need to synchronize.
+ *
+ * @author simon
+ *
+ */
+final class StorageOverlay {
+
+    private final Storage base;
+
+    private final LongOsmElementMap<Node>     nodes     = new LongOsmElementMap<>();
+    private final LongOsmElementMap<Way>      ways      = new LongOsmElementMap<>();
+    private final LongOsmElementMap<Relation> relations = new LongOsmElementMap<>();
+
+    /**
+     * Construct a new overlay
+     *
+     * @param base the Storage the changes will be committed to
+     */
+    StorageOverlay(@NonNull Storage base) {
+        this.base = base;
+    }
+
+    /**
+     * Get a Node, staged or from the underlying Storage
+     *
+     * @param id the OSM id
+     * @return the Node or null if not found
+     */
+    @Nullable
+    Node getNode(long id) {
+        Node n = nodes.get(id);
+        return n != null ? n : base.getNode(id);
+    }
+
+    /**
+     * Get a Way, staged or from the underlying Storage
+     *
+     * @param id the OSM id
+     * @return the Way or null if not found
+     */
+    @Nullable
+    Way getWay(long id) {
+        Way w = ways.get(id);
+        return w != null ? w : base.getWay(id);
+    }
+
+    /**
+     * Get a Relation, staged or from the underlying Storage
+     *
+     * @param id the OSM id
+     * @return the Relation or null if not found
+     */
+    @Nullable
+    Relation getRelation(long id) {
+        Relation r = relations.get(id);
+        return r != null ? r : base.getRelation(id);
+    }
+
+    /**
+     * Get an element, staged or from the underlying Storage
+     *
+     * @param type the element type
+     * @param id the OSM id
+     * @return the element or null if not found or type is unknown
+     */
+    @Nullable
+    OsmElement getOsmElement(@NonNull String type, long id) {
+        switch (type) {
+        case Node.NAME:
+            return getNode(id);
+        case Way.NAME:
+            return getWay(id);
+        case Relation.NAME:
+            return getRelation(id);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Stage a Node, replacing any with the same id
+     *
+     * @param node the Node
+     */
+    void insertNode(@NonNull Node node) {
+        nodes.put(node.getOsmId(), node);
+    }
+
+    /**
+     * Stage a Way, replacing any with the same id
+     *
+     * @param way the Way
+     */
+    void insertWay(@NonNull Way way) {
+        ways.put(way.getOsmId(), way);
+    }
+
+    /**
+     * Stage a Relation, replacing any with the same id
+     *
+     * @param relation the Relation
+     */
+    void insertRelation(@NonNull Relation relation) {
+        relations.put(relation.getOsmId(), relation);
+    }
+
+    /**
+     * Check if nothing has been staged
+     *
+     * @return true if no elements have been staged
+     */
+    boolean isEmpty() {
+        return nodes.isEmpty() && ways.isEmpty() && relations.isEmpty();
+    }
+
+    /**
+     * Get the staged Nodes
+     *
+     * @return a map of the staged Nodes
+     */
+    @NonNull
+    LongOsmElementMap<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the staged Ways
+     *
+     * @return a map of the staged Ways
+     */
+    @NonNull
+    LongOsmElementMap<Way> getWays() {
+        return ways;
+    }
+
+    /**
+     * Get the staged Relations
+     *
+     * @return a map of the staged Relations
+     */
+    @NonNull
+    LongOsmElementMap<Relation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * Insert all staged elements in to the underlying Storage
+     *
+     * The overlay should not be used afterwards.
+     */
+    void commit() {
+        for (Node n : nodes) {
+            base.insertNodeUnsafe(n);
+        }
+        for (Way w : ways) {
+            base.insertWayUnsafe(w);
+        }
+        for (Relation r : relations) {
+            base.insertRelationUnsafe(r);
+        }
+    }
+}
@@ -0,0 +1,1510 @@
+package de.blau.android.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.SavingHelper;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongHashSet;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Compact read only binary snapshot of the unchanged elements in a Storage
+ *
+ * The snapshot is written next to the serialized StorageDelegator state, while the state is being serialized unchanged
+ * elements are replaced by references to the snapshot so that only the (small) changed part of the object graph needs
+ * to be handled by the generic serialization. The replacement is limited to the serialization run in the
+ * {@link SavingHelper.SerializationScope} returned by {@link #writing(StorageSnapshot, Storage)}. A snapshot that still
+ * covers most of the Storage is reused for further saves, elements removed from the Storage since are recorded with
+ * the state.
+ *
+ * On load the snapshot is memory mapped and elements are materialized directly from the columns when they are first
+ * referenced. Until the Storage needs all its elements, queries by id and by bounding box are answered from the
+ * columns, materializing only the elements returned together with their Way Nodes, Relation members and parent
+ * Relations. The remainder is added to the Storage when it is first needed, see {@link #complete()}.
+ *
+ * Layout: a header with the counts and a token identifying the snapshot, a shared string table for tag keys, values
+ * and roles, and per element type columns for ids (sorted), versions, timestamps, coordinates (E7), way bounding boxes
+ * (E7), tag pairs, zig-zag varint delta encoded way node refs and relation members.
+ *
+ * @author simon
+ *
+ */
+final class StorageSnapshot {
+
+    private static final String DEBUG_TAG = "StorageSnapshot";
+
+    static final String EXTENSION = ".base";
+
+    private static final int MAGIC          = 0x56535353; // VSSS
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 5 * 4;
+
+    private static final byte NODE     = 0;
+    private static final byte WAY      = 1;
+    private static final byte RELATION = 2;
+
+    private static final int MEMBER_SIZE = 1 + 8 + 4;
+    private static final int NO_STRING   = -1;
+
+    private static final Charset UTF_8 = Charset.forName(OsmXml.UTF_8);
+
+    /**
+     * Reuse the snapshot as long as the elements not contained in it are less than this fraction of its size
+     */
+    private static final float REUSE_RATIO = 0.1f;
+    private static final int   MIN_REUSE   = 1000;
+
+    private static final ThreadLocal<StorageSnapshot>       currentWriting = new ThreadLocal<>();
+    private static final ThreadLocal<List<StorageSnapshot>> currentReading = new ThreadLocal<>();
+
+    private final File       file;
+    private final ByteBuffer buffer;
+    private final long       token;
+
+    private final int nodeCount;
+    private final int wayCount;
+    private final int relationCount;
+
+    // column offsets
+    private final int stringOffsets;
+    private final int stringData;
+    private final int nodeIds;
+    private final int nodeVersions;
+    private final int nodeTimestamps;
+    private final int nodeLats;
+    private final int nodeLons;
+    private final int nodeTagStarts;
+    private final int nodeTags;
+    private final int wayIds;
+    private final int wayVersions;
+    private final int wayTimestamps;
+    private final int wayBoxes;
+    private final int wayTagStarts;
+    private final int wayRefStarts;
+    private final int wayTags;
+    private final int wayRefs;
+    private final int relationIds;
+    private final int relationVersions;
+    private final int relationTimestamps;
+    private final int relationTagStarts;
+    private final int relationMemberStarts;
+    private final int relationTags;
+    private final int relationMembers;
+
+    private final String[]   strings;
+    private final Node[]     nodes;
+    private final Way[]      ways;
+    private final Relation[] relations;
+
+    private Storage storage;
+    private boolean used = false;
+    private long[]  removedNodes;
+    private long[]  removedWays;
+    private long[]  removedRelations;
+
+    // the maps of the Storage the elements are added to
+    private LongOsmElementMap<Node>     nodeMap;
+    private LongOsmElementMap<Way>      wayMap;
+    private LongOsmElementMap<Relation> relationMap;
+
+    // state for answering queries before the snapshot has been added to the Storage
+    private boolean             prepared = false;
+    private LongHashMap<int[]>  nodeParents;
+    private LongHashMap<int[]>  wayParents;
+    private LongHashMap<int[]>  relationParents;
+    private boolean[]           changedWays;
+    private int                 nodeOverlap;
+    private int                 wayOverlap;
+    private int                 relationOverlap;
+    private long[]              work     = new long[64];
+    private int                 workSize = 0;
+    private long[]              refs     = new long[64];
+    private final BoundingBox   tempBox  = new BoundingBox();
+
+    /**
+     * Construct a new instance on top of a buffer containing a snapshot
+     *
+     * @param file the File the snapshot was read from
+     * @param buffer the buffer
+     * @throws IOException if the buffer doesn't contain a valid snapshot
+     */
+    private StorageSnapshot(@NonNull File file, @NonNull ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a storage snapshot or unsupported version");
+        }
+        token = buffer.getLong(8);
+        int stringCount = buffer.getInt(16);
+        nodeCount = buffer.getInt(20);
+        wayCount = buffer.getInt(24);
+        relationCount = buffer.getInt(28);
+        int stringDataLength = buffer.getInt(32);
+
+        stringOffsets = HEADER_SIZE;
+        stringData = stringOffsets + 4 * (stringCount + 1);
+        nodeIds = stringData + stringDataLength;
+        nodeVersions = nodeIds + 8 * nodeCount;
+        nodeTimestamps = nodeVersions + 8 * nodeCount;
+        nodeLats = nodeTimestamps + 8 * nodeCount;
+        nodeLons = nodeLats + 4 * nodeCount;
+        nodeTagStarts = nodeLons + 4 * nodeCount;
+        nodeTags = nodeTagStarts + 4 * (nodeCount + 1);
+        wayIds = nodeTags + 8 * buffer.getInt(nodeTagStarts + 4 * nodeCount);
+        wayVersions = wayIds + 8 * wayCount;
+        wayTimestamps = wayVersions + 8 * wayCount;
+        wayBoxes = wayTimestamps + 8 * wayCount;
+        wayTagStarts = wayBoxes + 16 * wayCount;
+        wayRefStarts = wayTagStarts + 4 * (wayCount + 1);
+        wayTags = wayRefStarts + 4 * (wayCount + 1);
+        wayRefs = wayTags + 8 * buffer.getInt(wayTagStarts + 4 * wayCount);
+        relationIds = wayRefs + buffer.getInt(wayRefStarts + 4 * wayCount);
+        relationVersions = relationIds + 8 * relationCount;
+        relationTimestamps = relationVersions + 8 * relationCount;
+        relationTagStarts = relationTimestamps + 8 * relationCount;
+        relationMemberStarts = relationTagStarts + 4 * (relationCount + 1);
+        relationTags = relationMemberStarts + 4 * (relationCount + 1);
+        relationMembers = relationTags + 8 * buffer.getInt(relationTagStarts + 4 * relationCount);
+        if (relationMembers + MEMBER_SIZE * buffer.getInt(relationMemberStarts + 4 * relationCount) != buffer.capacity()) {
+            throw new IOException("Storage snapshot truncated");
+        }
+
+        strings = new String[stringCount];
+        nodes = new Node[nodeCount];
+        ways = new Way[wayCount];
+        relations = new Relation[relationCount];
+    }
+
+    /**
+     * Memory map a snapshot file
+     *
+     * @param file the File
+     * @return a StorageSnapshot
+     * @throws IOException if the file can't be read or doesn't contain a valid snapshot
+     */
+    @NonNull
+    static StorageSnapshot map(@NonNull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new StorageSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the file the snapshot was read from
+     *
+     * @return the File
+     */
+    @NonNull
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of elements in the snapshot
+     *
+     * @return the element count
+     */
+    int size() {
+        return nodeCount + wayCount + relationCount;
+    }
+
+    /**
+     * Write a snapshot of the unchanged elements in storage
+     *
+     * The snapshot is returned memory mapped and can be used with {@link #writing(StorageSnapshot, Storage)}
+     *
+     * @param file the File to write to
+     * @param storage the Storage
+     * @return the written snapshot
+     * @throws IOException if writing fails
+     */
+    @NonNull
+    static StorageSnapshot write(@NonNull File file, @NonNull Storage storage) throws IOException {
+        List<Node> nodeList = unchanged(storage.getNodesView());
+        List<Way> wayList = unchanged(storage.getWaysView());
+        List<Relation> relationList = unchanged(storage.getRelationsView());
+
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> stringList = new ArrayList<>();
+        ByteArrayOutputStream refBytes = new ByteArrayOutputStream();
+        int nodeTagCount = addTags(nodeList, stringIndex, stringList);
+        int wayTagCount = addTags(wayList, stringIndex, stringList);
+        int relationTagCount = addTags(relationList, stringIndex, stringList);
+        int memberCount = 0;
+        for (Relation r : relationList) {
+            for (RelationMember rm : r.getMembers()) {
+                addString(rm.getRole(), stringIndex, stringList);
+                memberCount++;
+            }
+        }
+        byte[][] encodedStrings = new byte[stringList.size()][];
+        int stringDataLength = 0;
+        for (int i = 0; i < encodedStrings.length; i++) {
+            encodedStrings[i] = stringList.get(i).getBytes(UTF_8);
+            stringDataLength += encodedStrings[i].length;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis() ^ System.nanoTime());
+            out.writeInt(encodedStrings.length);
+            out.writeInt(nodeList.size());
+            out.writeInt(wayList.size());
+            out.writeInt(relationList.size());
+            out.writeInt(stringDataLength);
+            // string table
+            int offset = 0;
+            for (byte[] s : encodedStrings) {
+                out.writeInt(offset);
+                offset += s.length;
+            }
+            out.writeInt(offset);
+            for (byte[] s : encodedStrings) {
+                out.write(s);
+            }
+            // nodes
+            writeCommon(out, nodeList);
+            for (Node n : nodeList) {
+                out.writeInt(n.getLat());
+            }
+            for (Node n : nodeList) {
+                out.writeInt(n.getLon());
+            }
+            writeTagStarts(out, nodeList);
+            writeTags(out, nodeList, nodeTagCount, stringIndex);
+            // ways
+            writeCommon(out, wayList);
+            for (Way w : wayList) {
+                writeBox(out, w);
+            }
+            writeTagStarts(out, wayList);
+            int refOffset = 0;
+            for (Way w : wayList) {
+                out.writeInt(refOffset);
+                long previous = 0;
+                for (Node n : w.getNodes()) {
+                    long ref = n.getOsmId();
+                    refOffset += writeVarLong(refBytes, ref - previous);
+                    previous = ref;
+                }
+            }
+            out.writeInt(refOffset);
+            writeTags(out, wayList, wayTagCount, stringIndex);
+            refBytes.writeTo(out);
+            // relations
+            writeCommon(out, relationList);
+            writeTagStarts(out, relationList);
+            int memberOffset = 0;
+            for (Relation r : relationList) {
+                out.writeInt(memberOffset);
+                memberOffset += r.getMembers().size();
+            }
+            out.writeInt(memberOffset);
+            writeTags(out, relationList, relationTagCount, stringIndex);
+            for (Relation r : relationList) {
+                for (RelationMember rm : r.getMembers()) {
+                    out.writeByte(typeCode(rm.getType()));
+                    out.writeLong(rm.getRef());
+                    String role = rm.getRole();
+                    out.writeInt(role == null ? NO_STRING : stringIndex.get(role));
+                }
+            }
+            if (memberOffset != memberCount) {
+                throw new IOException("Relation members changed while writing");
+            }
+        }
+        return map(file);
+    }
+
+    /**
+     * Get the unchanged elements sorted by id
+     *
+     * @param <T> the element type
+     * @param elements all elements
+     * @return a List of the unchanged elements
+     */
+    @NonNull
+    private static <T extends OsmElement> List<T> unchanged(@NonNull List<T> elements) {
+        List<T> result = new ArrayList<>(elements.size());
+        for (T e : elements) {
+            if (e.getState() == OsmElement.STATE_UNCHANGED) {
+                result.add(e);
+            }
+        }
+        Collections.sort(result, ID_ORDER);
+        return result;
+    }
+
+    private static final Comparator<OsmElement> ID_ORDER = (e1, e2) -> Long.compare(e1.getOsmId(), e2.getOsmId());
+
+    /**
+     * Add the tag keys and values of the elements to the string table
+     *
+     * @param elements the elements
+     * @param stringIndex map from String to index in the table
+     * @param stringList the table
+     * @return the total number of tags
+     */
+    private static int addTags(@NonNull List<? extends OsmElement> elements, @NonNull Map<String, Integer> stringIndex, @NonNull List<String> stringList) {
+        int count = 0;
+        for (OsmElement e : elements) {
+            if (e.tags != null) {
+                for (Entry<String, String> tag : e.tags.entrySet()) {
+                    addString(tag.getKey(), stringIndex, stringList);
+                    addString(tag.getValue(), stringIndex, stringList);
+                }
+                count += e.tags.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add a String to the string table if it isn't already present
+     *
+     * @param s the String, null is ignored
+     * @param stringIndex map from String to index in the table
+     * @param stringList the table
+     */
+    private static void addString(@Nullable String s, @NonNull Map<String, Integer> stringIndex, @NonNull List<String> stringList) {
+        if (s != null && !stringIndex.containsKey(s)) {
+            stringIndex.put(s, stringList.size());
+            stringList.add(s);
+        }
+    }
+
+    /**
+     * Write the id, version and timestamp columns
+     *
+     * @param out the output
+     * @param elements the elements
+     * @throws IOException if writing fails
+     */
+    private static void writeCommon(@NonNull DataOutputStream out, @NonNull List<? extends OsmElement> elements) throws IOException {
+        for (OsmElement e : elements) {
+            out.writeLong(e.getOsmId());
+        }
+        for (OsmElement e : elements) {
+            out.writeLong(e.getOsmVersion());
+        }
+        for (OsmElement e : elements) {
+            out.writeLong(e.getTimestamp());
+        }
+    }
+
+    /**
+     * Write the bounding box of a Way, Ways without Nodes get a box that doesn't intersect anything
+     *
+     * @param out the output
+     * @param w the Way
+     * @throws IOException if writing fails
+     */
+    private static void writeBox(@NonNull DataOutputStream out, @NonNull Way w) throws IOException {
+        int left = Integer.MAX_VALUE;
+        int bottom = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int top = Integer.MIN_VALUE;
+        for (Node n : w.getNodes()) {
+            left = Math.min(left, n.getLon());
+            bottom = Math.min(bottom, n.getLat());
+            right = Math.max(right, n.getLon());
+            top = Math.max(top, n.getLat());
+        }
+        out.writeInt(left);
+        out.writeInt(bottom);
+        out.writeInt(right);
+        out.writeInt(top);
+    }
+
+    /**
+     * Write the column of start indices in to the tag pairs
+     *
+     * @param out the output
+     * @param elements the elements
+     * @throws IOException if writing fails
+     */
+    private static void writeTagStarts(@NonNull DataOutputStream out, @NonNull List<? extends OsmElement> elements) throws IOException {
+        int start = 0;
+        for (OsmElement e : elements) {
+            out.writeInt(start);
+            start += e.tags != null ? e.tags.size() : 0;
+        }
+        out.writeInt(start);
+    }
+
+    /**
+     * Write the tag pairs
+     *
+     * @param out the output
+     * @param elements the elements
+     * @param count the expected number of tags
+     * @param stringIndex map from String to index in the string table
+     * @throws IOException if writing fails
+     */
+    private static void writeTags(@NonNull DataOutputStream out, @NonNull List<? extends OsmElement> elements, int count,
+            @NonNull Map<String, Integer> stringIndex) throws IOException {
+        int written = 0;
+        for (OsmElement e : elements) {
+            if (e.tags != null) {
+                for (Entry<String, String> tag : e.tags.entrySet()) {
+                    out.writeInt(stringIndex.get(tag.getKey()));
+                    out.writeInt(stringIndex.get(tag.getValue()));
+                    written++;
+                }
+            }
+        }
+        if (written != count) {
+            throw new IOException("Tags changed while writing");
+        }
+    }
+
+    /**
+     * Write a zig-zag encoded variable length long
+     *
+     * @param out the output
+     * @param value the value
+     * @return the number of bytes written
+     */
+    private static int writeVarLong(@NonNull ByteArrayOutputStream out, long value) {
+        long v = (value << 1) ^ (value >> 63);
+        int count = 1;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+            count++;
+        }
+        out.write((int) v);
+        return count;
+    }
+
+    /**
+     * Get the code for an element type
+     *
+     * @param type the type name
+     * @return the code
+     */
+    private static byte typeCode(@NonNull String type) {
+        switch (type) {
+        case Node.NAME:
+            return NODE;
+        case Way.NAME:
+            return WAY;
+        default:
+            return RELATION;
+        }
+    }
+
+    /**
+     * Binary search the id column
+     *
+     * @param ids offset of the id column
+     * @param count number of entries
+     * @param id the id to search for
+     * @return the index or a negative value if not found
+     */
+    private int find(int ids, int count, long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = buffer.getLong(ids + 8 * mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get a String from the table
+     *
+     * @param index the index in the table
+     * @return the String or null
+     */
+    @Nullable
+    private String getString(int index) {
+        if (index == NO_STRING) {
+            return null;
+        }
+        String s = strings[index];
+        if (s == null) {
+            int start = buffer.getInt(stringOffsets + 4 * index);
+            int end = buffer.getInt(stringOffsets + 4 * (index + 1));
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(stringData + start + i);
+            }
+            s = new String(bytes, UTF_8);
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Set the tags of a materialized element
+     *
+     * @param e the element
+     * @param tagStarts offset of the tag start column
+     * @param tags offset of the tag pairs
+     * @param index the index of the element
+     */
+    private void setTags(@NonNull OsmElement e, int tagStarts, int tags, int index) {
+        int start = buffer.getInt(tagStarts + 4 * index);
+        int end = buffer.getInt(tagStarts + 4 * (index + 1));
+        if (end > start) {
+            String[] kv = new String[2 * (end - start)];
+            for (int i = start; i < end; i++) {
+                kv[2 * (i - start)] = getString(buffer.getInt(tags + 8 * i));
+                kv[2 * (i - start) + 1] = getString(buffer.getInt(tags + 8 * i + 4));
+            }
+            e.tags = TagSet.of(kv, kv.length);
+        }
+    }
+
+    /**
+     * Get the Node at an index, materializing it if necessary
+     *
+     * @param index the index
+     * @return the Node
+     */
+    @NonNull
+    private Node getNode(int index) {
+        Node n = nodes[index];
+        if (n == null) {
+            n = OsmElementFactory.createNode(buffer.getLong(nodeIds + 8 * index), buffer.getLong(nodeVersions + 8 * index),
+                    buffer.getLong(nodeTimestamps + 8 * index), OsmElement.STATE_UNCHANGED, buffer.getInt(nodeLats + 4 * index),
+                    buffer.getInt(nodeLons + 4 * index));
+            setTags(n, nodeTagStarts, nodeTags, index);
+            nodes[index] = n;
+        }
+        return n;
+    }
+
+    /**
+     * Get the Way at an index, materializing it if necessary
+     *
+     * The Way Nodes are only added when the Way is linked or in {@link #complete()}
+     *
+     * @param index the index
+     * @return the Way
+     */
+    @NonNull
+    private Way getWay(int index) {
+        Way w = ways[index];
+        if (w == null) {
+            w = OsmElementFactory.createWay(buffer.getLong(wayIds + 8 * index), buffer.getLong(wayVersions + 8 * index),
+                    buffer.getLong(wayTimestamps + 8 * index), OsmElement.STATE_UNCHANGED);
+            setTags(w, wayTagStarts, wayTags, index);
+            ways[index] = w;
+        }
+        return w;
+    }
+
+    /**
+     * Get the Relation at an index, materializing it if necessary
+     *
+     * The member elements are only set when the Relation is linked or in {@link #complete()}
+     *
+     * @param index the index
+     * @return the Relation
+     */
+    @NonNull
+    private Relation getRelation(int index) {
+        Relation r = relations[index];
+        if (r == null) {
+            r = OsmElementFactory.createRelation(buffer.getLong(relationIds + 8 * index), buffer.getLong(relationVersions + 8 * index),
+                    buffer.getLong(relationTimestamps + 8 * index), OsmElement.STATE_UNCHANGED);
+            setTags(r, relationTagStarts, relationTags, index);
+            int start = buffer.getInt(relationMemberStarts + 4 * index);
+            int end = buffer.getInt(relationMemberStarts + 4 * (index + 1));
+            for (int i = start; i < end; i++) {
+                int pos = relationMembers + MEMBER_SIZE * i;
+                byte type = buffer.get(pos);
+                String typeName = type == NODE ? Node.NAME : (type == WAY ? Way.NAME : Relation.NAME);
+                r.members.add(new RelationMember(typeName, buffer.getLong(pos + 1), getString(buffer.getInt(pos + 9))));
+            }
+            relations[index] = r;
+        }
+        return r;
+    }
+
+    /**
+     * Get an element by type and id
+     *
+     * @param type the type code
+     * @param id the id
+     * @return the materialized element or null if it isn't in the snapshot
+     */
+    @Nullable
+    private OsmElement getElement(byte type, long id) {
+        int index;
+        switch (type) {
+        case NODE:
+            index = find(nodeIds, nodeCount, id);
+            return index >= 0 ? getNode(index) : null;
+        case WAY:
+            index = find(wayIds, wayCount, id);
+            return index >= 0 ? getWay(index) : null;
+        case RELATION:
+            index = find(relationIds, relationCount, id);
+            return index >= 0 ? getRelation(index) : null;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Check if an element is contained in this snapshot
+     *
+     * @param target the Storage that is being written
+     * @param e the OsmElement
+     * @return true if the element is unchanged, in the snapshot with the same version and in target
+     */
+    private boolean contains(@NonNull Storage target, @NonNull OsmElement e) {
+        if (e.getState() != OsmElement.STATE_UNCHANGED || target.getOsmElement(e.getName(), e.getOsmId()) != e) {
+            return false;
+        }
+        int index;
+        if (e instanceof Node) {
+            index = find(nodeIds, nodeCount, e.getOsmId());
+            return index >= 0 && buffer.getLong(nodeVersions + 8 * index) == e.getOsmVersion();
+        } else if (e instanceof Way) {
+            index = find(wayIds, wayCount, e.getOsmId());
+            return index >= 0 && buffer.getLong(wayVersions + 8 * index) == e.getOsmVersion();
+        }
+        index = find(relationIds, relationCount, e.getOsmId());
+        return index >= 0 && buffer.getLong(relationVersions + 8 * index) == e.getOsmVersion();
+    }
+
+    /**
+     * Get the ids of the elements in the snapshot that are no longer in a Storage
+     *
+     * @param ids offset of the id column
+     * @param count number of entries
+     * @param map the element map of the Storage
+     * @return a sorted array of the ids
+     */
+    @NonNull
+    private long[] removed(int ids, int count, @NonNull LongOsmElementMap<? extends OsmElement> map) {
+        long[] result = new long[0];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            long id = buffer.getLong(ids + 8 * i);
+            if (!map.containsKey(id)) {
+                if (found == result.length) {
+                    result = Arrays.copyOf(result, Math.max(16, 2 * found));
+                }
+                result[found++] = id;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Check if this snapshot can be used for writing the state of a Storage instead of writing a new one
+     *
+     * @param target the Storage
+     * @return true if only few elements of target aren't contained in the snapshot and only few elements of the
+     *         snapshot have been removed from target
+     */
+    boolean isReusableFor(@NonNull Storage target) {
+        long limit = Math.max(MIN_REUSE, (long) (size() * REUSE_RATIO));
+        long missing = 0;
+        for (List<? extends OsmElement> elements : Arrays.asList(target.getNodesView(), target.getWaysView(), target.getRelationsView())) {
+            for (OsmElement e : elements) {
+                if (!contains(target, e) && ++missing > limit) {
+                    return false;
+                }
+            }
+        }
+        missing += removed(nodeIds, nodeCount, target.getNodeIndex()).length + removed(wayIds, wayCount, target.getWayIndex()).length
+                + removed(relationIds, relationCount, target.getRelationIndex()).length;
+        return missing <= limit;
+    }
+
+    /**
+     * Set the maps of the Storage that the elements of the snapshot are going to be added to
+     *
+     * @param nodes the Node map of the Storage that the snapshot was written from
+     * @param ways the Way map
+     * @param relations the Relation map
+     */
+    void setTarget(@NonNull LongOsmElementMap<Node> nodes, @NonNull LongOsmElementMap<Way> ways, @NonNull LongOsmElementMap<Relation> relations) {
+        nodeMap = nodes;
+        wayMap = ways;
+        relationMap = relations;
+    }
+
+    /**
+     * Add all elements from the snapshot that are not already present to the maps of the target Storage, resolve Way
+     * Nodes and Relation members and add backlinks from the elements in the snapshot to their parent relations
+     *
+     * Elements that have already been linked by a query are complete and are only added to the maps
+     */
+    void complete() {
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = getNode(i);
+            if (!nodeMap.containsKey(n.getOsmId()) && !isRemoved(removedNodes, n.getOsmId())) {
+                nodeMap.put(n.getOsmId(), n);
+            }
+        }
+        for (int i = 0; i < wayCount; i++) {
+            boolean linked = prepared && ways[i] != null;
+            Way w = getWay(i);
+            if (!linked) {
+                List<Node> wayNodes = w.getNodes();
+                int count = decodeRefs(i);
+                for (int j = 0; j < count; j++) {
+                    Node n = nodeMap.get(refs[j]);
+                    if (n != null) {
+                        wayNodes.add(n);
+                    } else {
+                        Log.e(DEBUG_TAG, "Way " + w.getOsmId() + " node " + refs[j] + " missing");
+                    }
+                }
+            }
+            if (!wayMap.containsKey(w.getOsmId()) && !isRemoved(removedWays, w.getOsmId())) {
+                wayMap.put(w.getOsmId(), w);
+            }
+        }
+        // Relations can have later Relations as members, so add them all before resolving members
+        List<Relation> unlinked = new ArrayList<>();
+        List<Relation> added = new ArrayList<>();
+        for (int i = 0; i < relationCount; i++) {
+            boolean linked = prepared && relations[i] != null;
+            Relation r = getRelation(i);
+            if (!linked) {
+                unlinked.add(r);
+            }
+            if (!relationMap.containsKey(r.getOsmId()) && !isRemoved(removedRelations, r.getOsmId())) {
+                relationMap.put(r.getOsmId(), r);
+                if (!linked) {
+                    added.add(r);
+                }
+            }
+        }
+        for (Relation r : unlinked) {
+            for (RelationMember rm : r.getMembers()) {
+                OsmElement e = getElement(rm.getType(), rm.getRef(), nodeMap, wayMap, relationMap);
+                if (e != null) {
+                    rm.setElement(e);
+                }
+            }
+        }
+        // elements from the snapshot don't have their backlinks set yet, linked elements and the elements referenced
+        // by the changed relations got theirs when preparing
+        if (prepared) {
+            for (Relation r : added) {
+                addBacklinks(r);
+            }
+        } else {
+            for (Relation r : relationMap) {
+                addBacklinks(r);
+            }
+        }
+        Arrays.fill(this.nodes, null);
+        Arrays.fill(this.ways, null);
+        Arrays.fill(this.relations, null);
+        prepared = false;
+        nodeParents = null;
+        wayParents = null;
+        relationParents = null;
+        changedWays = null;
+    }
+
+    /**
+     * Add backlinks from the members of a Relation that have been materialized from the snapshot to it
+     *
+     * @param r the Relation
+     */
+    private void addBacklinks(@NonNull Relation r) {
+        for (RelationMember rm : r.getMembers()) {
+            OsmElement e = rm.getElement();
+            if (e != null && isMaterialized(e)) {
+                e.addParentRelation(r);
+            }
+        }
+    }
+
+    /**
+     * Decode the Node refs of a Way in to refs
+     *
+     * @param index the index of the Way
+     * @return the number of refs
+     */
+    private int decodeRefs(int index) {
+        int pos = wayRefs + buffer.getInt(wayRefStarts + 4 * index);
+        int end = wayRefs + buffer.getInt(wayRefStarts + 4 * (index + 1));
+        int count = 0;
+        long ref = 0;
+        while (pos < end) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            ref += (v >>> 1) ^ -(v & 1);
+            if (count == refs.length) {
+                refs = Arrays.copyOf(refs, 2 * count);
+            }
+            refs[count++] = ref;
+        }
+        return count;
+    }
+
+    /**
+     * Set up answering queries before the snapshot has been added to the Storage
+     *
+     * The elements that have already been materialized, when the state was read, are linked, the changed Relations get
+     * their backlinks to them. An index from members to their parent Relations in the snapshot is built and the Ways
+     * that have a changed Node are linked too as their stored bounding box may no longer be correct.
+     */
+    private void prepare() {
+        if (prepared) {
+            return;
+        }
+        prepared = true;
+        long start = System.currentTimeMillis();
+        for (Relation r : relationMap) {
+            addBacklinks(r);
+        }
+        nodeParents = new LongHashMap<>();
+        wayParents = new LongHashMap<>();
+        relationParents = new LongHashMap<>();
+        for (int i = 0; i < relationCount; i++) {
+            int end = buffer.getInt(relationMemberStarts + 4 * (i + 1));
+            for (int m = buffer.getInt(relationMemberStarts + 4 * i); m < end; m++) {
+                int pos = relationMembers + MEMBER_SIZE * m;
+                LongHashMap<int[]> index = getParents(buffer.get(pos));
+                long ref = buffer.getLong(pos + 1);
+                int[] current = index.get(ref);
+                if (current == null) {
+                    index.put(ref, new int[] { i });
+                } else {
+                    int[] temp = Arrays.copyOf(current, current.length + 1);
+                    temp[current.length] = i;
+                    index.put(ref, temp);
+                }
+            }
+        }
+        LongHashSet changedNodes = new LongHashSet();
+        for (Node n : nodeMap) {
+            if (find(nodeIds, nodeCount, n.getOsmId()) >= 0) {
+                changedNodes.put(n.getOsmId());
+            }
+        }
+        nodeOverlap = changedNodes.size();
+        wayOverlap = countOverlap(wayMap, wayIds, wayCount);
+        relationOverlap = countOverlap(relationMap, relationIds, relationCount);
+        if (!changedNodes.isEmpty()) {
+            changedWays = new boolean[wayCount];
+            for (int i = 0; i < wayCount; i++) {
+                int count = decodeRefs(i);
+                for (int j = 0; j < count; j++) {
+                    if (changedNodes.contains(refs[j])) {
+                        changedWays[i] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            if (nodes[i] != null) {
+                push(NODE, i);
+            }
+        }
+        for (int i = 0; i < wayCount; i++) {
+            if (ways[i] != null) {
+                push(WAY, i);
+            } else if (changedWays != null && changedWays[i] && isEffective(wayMap, removedWays, buffer.getLong(wayIds + 8 * i))) {
+                link(WAY, i);
+            }
+        }
+        for (int i = 0; i < relationCount; i++) {
+            if (relations[i] != null) {
+                push(RELATION, i);
+            }
+        }
+        drain();
+        Log.d(DEBUG_TAG, "Prepared snapshot queries in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Count the elements in a map that replace an element in the snapshot
+     *
+     * @param map the element map
+     * @param ids offset of the id column
+     * @param count number of entries
+     * @return the number of elements with an id that is also in the snapshot
+     */
+    private int countOverlap(@NonNull LongOsmElementMap<? extends OsmElement> map, int ids, int count) {
+        int overlap = 0;
+        for (OsmElement e : map) {
+            if (find(ids, count, e.getOsmId()) >= 0) {
+                overlap++;
+            }
+        }
+        return overlap;
+    }
+
+    /**
+     * Get the index from member id to the indices of the parent Relations for a type
+     *
+     * @param type the type code
+     * @return the index
+     */
+    @NonNull
+    private LongHashMap<int[]> getParents(byte type) {
+        switch (type) {
+        case NODE:
+            return nodeParents;
+        case WAY:
+            return wayParents;
+        default:
+            return relationParents;
+        }
+    }
+
+    /**
+     * Check if the element in the snapshot with an id is the one in the Storage
+     *
+     * @param map the element map of the Storage
+     * @param removed sorted ids of the removed elements or null
+     * @param id the element id
+     * @return true if the element hasn't been replaced or removed
+     */
+    private static boolean isEffective(@NonNull LongOsmElementMap<? extends OsmElement> map, @Nullable long[] removed, long id) {
+        return !map.containsKey(id) && !isRemoved(removed, id);
+    }
+
+    /**
+     * Queue an element for having its Way Nodes or Relation members and its parent Relations set
+     *
+     * @param type the type code
+     * @param index the index of the element
+     */
+    private void push(byte type, int index) {
+        if (workSize == work.length) {
+            work = Arrays.copyOf(work, 2 * workSize);
+        }
+        work[workSize++] = ((long) type << 32) | index;
+    }
+
+    /**
+     * Get an element, materializing and queuing it for linking if necessary
+     *
+     * As all elements materialized after {@link #prepare()} are queued, they are either linked or will be when
+     * {@link #drain()} is next called
+     *
+     * @param type the type code
+     * @param index the index of the element
+     * @return the OsmElement
+     */
+    @NonNull
+    private OsmElement link(byte type, int index) {
+        switch (type) {
+        case NODE:
+            if (nodes[index] == null) {
+                push(NODE, index);
+            }
+            return getNode(index);
+        case WAY:
+            if (ways[index] == null) {
+                push(WAY, index);
+            }
+            return getWay(index);
+        default:
+            if (relations[index] == null) {
+                push(RELATION, index);
+            }
+            return getRelation(index);
+        }
+    }
+
+    /**
+     * Get the element with an id that is current for the Storage
+     *
+     * @param type the type code
+     * @param id the element id
+     * @return the element from the Storage, a linked element from the snapshot or null if neither has it
+     */
+    @Nullable
+    private OsmElement resolve(byte type, long id) {
+        OsmElement e;
+        int index;
+        switch (type) {
+        case NODE:
+            e = nodeMap.get(id);
+            if (e == null && !isRemoved(removedNodes, id) && (index = find(nodeIds, nodeCount, id)) >= 0) {
+                e = link(NODE, index);
+            }
+            return e;
+        case WAY:
+            e = wayMap.get(id);
+            if (e == null && !isRemoved(removedWays, id) && (index = find(wayIds, wayCount, id)) >= 0) {
+                e = link(WAY, index);
+            }
+            return e;
+        default:
+            e = relationMap.get(id);
+            if (e == null && !isRemoved(removedRelations, id) && (index = find(relationIds, relationCount, id)) >= 0) {
+                e = link(RELATION, index);
+            }
+            return e;
+        }
+    }
+
+    /**
+     * Link all queued elements
+     *
+     * Way Nodes and Relation members are set to the current elements, and the element is added to its parent
+     * Relations, linking the Nodes, members and parents that come from the snapshot in turn
+     */
+    private void drain() {
+        while (workSize > 0) {
+            long item = work[--workSize];
+            byte type = (byte) (item >>> 32);
+            int index = (int) item;
+            OsmElement e;
+            if (type == NODE) {
+                e = nodes[index];
+            } else if (type == WAY) {
+                Way w = ways[index];
+                List<Node> wayNodes = w.getNodes();
+                int count = decodeRefs(index);
+                for (int j = 0; j < count; j++) {
+                    Node n = (Node) resolve(NODE, refs[j]);
+                    if (n != null) {
+                        wayNodes.add(n);
+                    } else {
+                        Log.e(DEBUG_TAG, "Way " + w.getOsmId() + " node " + refs[j] + " missing");
+                    }
+                }
+                e = w;
+            } else {
+                Relation r = relations[index];
+                for (RelationMember rm : r.getMembers()) {
+                    OsmElement member = resolve(typeCode(rm.getType()), rm.getRef());
+                    if (member != null) {
+                        rm.setElement(member);
+                    }
+                }
+                e = r;
+            }
+            int[] parents = getParents(type).get(e.getOsmId());
+            if (parents != null) {
+                for (int p : parents) {
+                    if (isEffective(relationMap, removedRelations, buffer.getLong(relationIds + 8 * p))) {
+                        e.addParentRelation((Relation) link(RELATION, p));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get an element without adding the snapshot to the Storage
+     *
+     * @param type the element type name
+     * @param id the element id
+     * @return the OsmElement or null if it isn't in the Storage
+     */
+    @Nullable
+    OsmElement lookup(@NonNull String type, long id) {
+        prepare();
+        OsmElement e = resolve(typeCode(type), id);
+        drain();
+        return e;
+    }
+
+    /**
+     * Get the Nodes in a bounding box without adding the snapshot to the Storage
+     *
+     * @param box the bounding box
+     * @param result a List to add the Nodes to
+     */
+    void getNodes(@NonNull BoundingBox box, @NonNull List<Node> result) {
+        prepare();
+        for (Node n : nodeMap) {
+            if (box.isIn(n.getLon(), n.getLat())) {
+                result.add(n);
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = nodes[i];
+            // materialized Nodes may have been moved
+            boolean in = n != null ? box.isIn(n.getLon(), n.getLat()) : box.isIn(buffer.getInt(nodeLons + 4 * i), buffer.getInt(nodeLats + 4 * i));
+            if (in && isEffective(nodeMap, removedNodes, buffer.getLong(nodeIds + 8 * i))) {
+                result.add((Node) link(NODE, i));
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Get the Ways with Nodes that intersect a bounding box without adding the snapshot to the Storage
+     *
+     * @param box the bounding box
+     * @param result a List to add the Ways to
+     */
+    void getWays(@NonNull BoundingBox box, @NonNull List<Way> result) {
+        prepare();
+        for (Way w : wayMap) {
+            if (w.nodeCount() > 0 && w.getBounds(tempBox).intersects(box)) {
+                result.add(w);
+            }
+        }
+        for (int i = 0; i < wayCount; i++) {
+            Way w = ways[i];
+            boolean in;
+            if (w != null) {
+                // materialized Ways are linked and may have been changed
+                in = w.nodeCount() > 0 && w.getBounds(tempBox).intersects(box);
+            } else {
+                int pos = wayBoxes + 16 * i;
+                tempBox.set(buffer.getInt(pos), buffer.getInt(pos + 4), buffer.getInt(pos + 8), buffer.getInt(pos + 12));
+                in = tempBox.intersects(box);
+            }
+            if (in && isEffective(wayMap, removedWays, buffer.getLong(wayIds + 8 * i))) {
+                result.add((Way) link(WAY, i));
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Get the number of Nodes in the Storage without adding the snapshot
+     *
+     * @return the Node count
+     */
+    int getNodeCount() {
+        prepare();
+        return nodeMap.size() + nodeCount - nodeOverlap - length(removedNodes);
+    }
+
+    /**
+     * Get the number of Ways in the Storage without adding the snapshot
+     *
+     * @return the Way count
+     */
+    int getWayCount() {
+        prepare();
+        return wayMap.size() + wayCount - wayOverlap - length(removedWays);
+    }
+
+    /**
+     * Get the number of Relations in the Storage without adding the snapshot
+     *
+     * @return the Relation count
+     */
+    int getRelationCount() {
+        prepare();
+        return relationMap.size() + relationCount - relationOverlap - length(removedRelations);
+    }
+
+    /**
+     * Get the length of an array that may be null
+     *
+     * @param array the array
+     * @return the length or 0
+     */
+    private static int length(@Nullable long[] array) {
+        return array != null ? array.length : 0;
+    }
+
+    /**
+     * Check if an element was removed from the Storage after the snapshot was written
+     *
+     * @param removed sorted ids of the removed elements or null
+     * @param id the element id
+     * @return true if the element was removed
+     */
+    private static boolean isRemoved(@Nullable long[] removed, long id) {
+        return removed != null && Arrays.binarySearch(removed, id) >= 0;
+    }
+
+    /**
+     * Get an element from the maps of a Storage
+     *
+     * @param type the element type name
+     * @param id the element id
+     * @param nodes the Node map
+     * @param ways the Way map
+     * @param relations the Relation map
+     * @return the OsmElement or null if not present
+     */
+    @Nullable
+    private static OsmElement getElement(@NonNull String type, long id, @NonNull LongOsmElementMap<Node> nodes, @NonNull LongOsmElementMap<Way> ways,
+            @NonNull LongOsmElementMap<Relation> relations) {
+        switch (type) {
+        case Node.NAME:
+            return nodes.get(id);
+        case Way.NAME:
+            return ways.get(id);
+        default:
+            return relations.get(id);
+        }
+    }
+
+    /**
+     * Check if an element has been materialized from this snapshot
+     *
+     * @param e the OsmElement
+     * @return true if e was created from the snapshot
+     */
+    private boolean isMaterialized(@NonNull OsmElement e) {
+        int index;
+        if (e instanceof Node) {
+            index = find(nodeIds, nodeCount, e.getOsmId());
+            return index >= 0 && nodes[index] == e;
+        } else if (e instanceof Way) {
+            index = find(wayIds, wayCount, e.getOsmId());
+            return index >= 0 && ways[index] == e;
+        }
+        index = find(relationIds, relationCount, e.getOsmId());
+        return index >= 0 && relations[index] == e;
+    }
+
+    /**
+     * Check if this snapshot was referenced by the state that has just been read
+     *
+     * @return the Storage that needs to be completed from this snapshot or null
+     */
+    @Nullable
+    Storage getReferencingStorage() {
+        return used ? storage : null;
+    }
+
+    /**
+     * Get a scope for serializing with unchanged elements in storage replaced by references to the snapshot
+     *
+     * The replacement only applies while the scope is entered on the thread doing the serialization
+     *
+     * @param snapshot the snapshot
+     * @param storage the Storage that is being written
+     * @return a SerializationScope
+     */
+    @NonNull
+    static SavingHelper.SerializationScope writing(@NonNull StorageSnapshot snapshot, @NonNull Storage storage) {
+        return new SavingHelper.SerializationScope() {
+            @Override
+            public void enter() {
+                snapshot.storage = storage;
+                currentWriting.set(snapshot);
+            }
+
+            @Override
+            public void exit() {
+                currentWriting.remove();
+            }
+        };
+    }
+
+    /**
+     * Get a scope for deserializing, references will be resolved against the provided snapshots
+     *
+     * @param snapshots the candidate snapshots
+     * @return a SerializationScope
+     */
+    @NonNull
+    static SavingHelper.SerializationScope reading(@NonNull List<StorageSnapshot> snapshots) {
+        return new SavingHelper.SerializationScope() {
+            @Override
+            public void enter() {
+                currentReading.set(snapshots);
+            }
+
+            @Override
+            public void exit() {
+                currentReading.remove();
+            }
+        };
+    }
+
+    /**
+     * Get the replacement for an element during serialization
+     *
+     * @param e the OsmElement
+     * @return a reference to the snapshot or the element itself
+     */
+    @NonNull
+    static Object replace(@NonNull OsmElement e) {
+        StorageSnapshot snapshot = currentWriting.get();
+        if (snapshot != null && snapshot.contains(snapshot.storage, e)) {
+            return new ElementRef(snapshot.token, e instanceof Node ? NODE : (e instanceof Way ? WAY : RELATION), e.getOsmId());
+        }
+        return e;
+    }
+
+    /**
+     * Get the replacement for a Storage during serialization
+     *
+     * @param s the Storage
+     * @return a reference to the snapshot with the changed elements or the Storage itself
+     */
+    @NonNull
+    static Object replace(@NonNull Storage s) {
+        StorageSnapshot snapshot = currentWriting.get();
+        if (snapshot != null && snapshot.storage == s) {
+            Storage delta = new Storage();
+            for (Node n : s.getNodesView()) {
+                if (!snapshot.contains(s, n)) {
+                    delta.insertNodeUnsafe(n);
+                }
+            }
+            for (Way w : s.getWaysView()) {
+                if (!snapshot.contains(s, w)) {
+                    delta.insertWayUnsafe(w);
+                }
+            }
+            for (Relation r : s.getRelationsView()) {
+                if (!snapshot.contains(s, r)) {
+                    delta.insertRelationUnsafe(r);
+                }
+            }
+            for (BoundingBox box : s.getBoundingBoxes()) {
+                delta.addBoundingBox(box);
+            }
+            return new StorageRef(snapshot.token, delta, snapshot.removed(snapshot.nodeIds, snapshot.nodeCount, s.getNodeIndex()),
+                    snapshot.removed(snapshot.wayIds, snapshot.wayCount, s.getWayIndex()),
+                    snapshot.removed(snapshot.relationIds, snapshot.relationCount, s.getRelationIndex()));
+        }
+        return s;
+    }
+
+    /**
+     * Find the snapshot with a specific token in the ones currently being read
+     *
+     * @param token the token
+     * @return the StorageSnapshot
+     * @throws InvalidObjectException if the snapshot is not available
+     */
+    @NonNull
+    private static StorageSnapshot getSnapshot(long token) throws InvalidObjectException {
+        List<StorageSnapshot> snapshots = currentReading.get();
+        if (snapshots != null) {
+            for (StorageSnapshot snapshot : snapshots) {
+                if (snapshot.token == token) {
+                    return snapshot;
+                }
+            }
+        }
+        throw new InvalidObjectException("Storage snapshot " + token + " not available");
+    }
+
+    /**
+     * Serialized reference to an element in a snapshot
+     */
+    static final class ElementRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long token;
+        private final byte type;
+        private final long id;
+
+        /**
+         * Construct a new reference
+         *
+         * @param token the snapshot token
+         * @param type the element type code
+         * @param id the element id
+         */
+        ElementRef(long token, byte type, long id) {
+            this.token = token;
+            this.type = type;
+            this.id = id;
+        }
+
+        /**
+         * Replace the reference with the element from the snapshot
+         *
+         * @return the OsmElement
+         * @throws ObjectStreamException if the element can't be found
+         */
+        private Object readResolve() throws ObjectStreamException {
+            OsmElement e = getSnapshot(token).getElement(type, id);
+            if (e == null) {
+                throw new InvalidObjectException("Element " + type + " " + id + " not in snapshot");
+            }
+            return e;
+        }
+    }
+
+    /**
+     * Serialized reference to a Storage that needs to be completed from a snapshot
+     */
+    static final class StorageRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long    token;
+        private final Storage delta;
+        private final long[]  removedNodes;
+        private final long[]  removedWays;
+        private final long[]  removedRelations;
+
+        /**
+         * Construct a new reference
+         *
+         * @param token the snapshot token
+         * @param delta the Storage with the elements that are not in the snapshot
+         * @param removedNodes sorted ids of the Nodes in the snapshot that are no longer in the Storage
+         * @param removedWays sorted ids of the removed Ways
+         * @param removedRelations sorted ids of the removed Relations
+         */
+        StorageRef(long token, @NonNull Storage delta, @NonNull long[] removedNodes, @NonNull long[] removedWays, @NonNull long[] removedRelations) {
+            this.token = token;
+            this.delta = delta;
+            this.removedNodes = removedNodes;
+            this.removedWays = removedWays;
+            this.removedRelations = removedRelations;
+        }
+
+        /**
+         * Replace the reference with the Storage containing the changed elements
+         *
+         * @return the Storage
+         * @throws ObjectStreamException if the snapshot can't be found
+         */
+        private Object readResolve() throws ObjectStreamException {
+            StorageSnapshot snapshot = getSnapshot(token);
+            snapshot.storage = delta;
+            snapshot.used = true;
+            snapshot.removedNodes = removedNodes;
+            snapshot.removedWays = removedWays;
+            snapshot.removedRelations = removedRelations;
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,906 @@
+package de.blau.android.osm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Minimal streaming XML parser for OSM data
+ *
+ * Scans UTF-8 encoded input directly and drives a SAX DefaultHandler. Element and attribute names and short attribute
+ * values are interned for the duration of the parse, numeric attributes and timestamps can be retrieved without
+ * creating Strings via {@link FastAttributes}.
+ *
+ * Supports the subset of XML used in OSM data files and API responses: elements, attributes, character data, the
+ * predefined and numeric character entities and CDATA sections. Comments, processing instructions and DOCTYPE
+ * declarations are skipped, character data consisting only of white space is not reported. Attribute values are
+ * normalized as required by the XML specification, that is literal tabs and line ends are replaced by spaces.
+ * Namespaces are not resolved, the local name is the qualified name with any prefix removed, and namespace
+ * declarations are not reported as attributes.
+ *
+ * @author simon
+ *
+ */
+final class StreamingXmlParser {
+
+    private static final Charset UTF_8 = Charset.forName(OsmXml.UTF_8);
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final String XMLNS        = "xmlns";
+    private static final String XMLNS_PREFIX = "xmlns:";
+
+    private final InputStream    in;
+    private final DefaultHandler handler;
+
+    private byte[]  buf   = new byte[INITIAL_BUFFER_SIZE];
+    private int     pos   = 0;
+    private int     limit = 0;
+    private boolean eof   = false;
+    private long    discarded;
+
+    private final StringPool     names      = new StringPool();
+    private final StringPool     values     = new StringPool();
+    private final FastAttributes attributes = new FastAttributes();
+    private final Deque<String>  open       = new ArrayDeque<>();
+
+    private byte[] scratch = new byte[256];
+    private char[] text    = new char[256];
+
+    /**
+     * Construct a new parser
+     *
+     * @param in the InputStream to read from, should be buffered
+     * @param handler the handler that will receive the SAX events
+     */
+    StreamingXmlParser(@NonNull InputStream in, @NonNull DefaultHandler handler) {
+        this.in = in;
+        this.handler = handler;
+    }
+
+    /**
+     * Parse the input
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the input is not well formed or the handler throws an exception
+     */
+    void parse() throws IOException, SAXException {
+        handler.startDocument();
+        if (ensure(3) && buf[0] == (byte) 0xEF && buf[1] == (byte) 0xBB && buf[2] == (byte) 0xBF) { // BOM
+            pos = 3;
+        }
+        while (ensure(1)) {
+            if (buf[pos] == '<') {
+                parseMarkup();
+            } else {
+                parseText();
+            }
+        }
+        if (!open.isEmpty()) {
+            throw error("Unexpected end of input, unclosed element " + open.peek());
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Make sure that at least n bytes starting at pos are available in the buffer
+     *
+     * This may move the data in the buffer, offsets need to be relative to pos
+     *
+     * @param n the number of bytes required
+     * @return false if the end of input was reached before n bytes were available
+     * @throws IOException if reading fails
+     */
+    private boolean ensure(int n) throws IOException {
+        while (limit - pos < n) {
+            if (eof) {
+                return false;
+            }
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                discarded += pos;
+                pos = 0;
+            }
+            if (limit == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read == -1) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create an exception with the current position in the input
+     *
+     * @param message the message
+     * @return a SAXException
+     */
+    @NonNull
+    private SAXException error(@NonNull String message) {
+        return new SAXException(message + " at byte " + (discarded + pos));
+    }
+
+    /**
+     * Check if the input at pos starts with a string
+     *
+     * @param s the ASCII string to check for
+     * @return true if the input starts with s
+     * @throws IOException if reading fails
+     */
+    private boolean startsWith(@NonNull String s) throws IOException {
+        final int length = s.length();
+        if (!ensure(length)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find a string in the input
+     *
+     * @param s the ASCII string to search for
+     * @param from offset relative to pos to start searching at
+     * @return the offset of s relative to pos
+     * @throws IOException if reading fails
+     * @throws SAXException if s couldn't be found
+     */
+    private int find(@NonNull String s, int from) throws IOException, SAXException {
+        final int length = s.length();
+        for (int i = from;; i++) {
+            if (!ensure(i + length)) {
+                throw error("Unexpected end of input, missing " + s);
+            }
+            int j = 0;
+            while (j < length && buf[pos + i + j] == s.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Parse anything starting with a &lt;
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the input is not well formed or the handler throws an exception
+     */
+    private void parseMarkup() throws IOException, SAXException {
+        if (!ensure(2)) {
+            throw error("Unexpected end of input");
+        }
+        switch (buf[pos + 1]) {
+        case '?':
+            int piEnd = find("?>", 2); // this may move pos
+            pos += piEnd + 2;
+            break;
+        case '!':
+            if (startsWith("<!--")) {
+                int commentEnd = find("-->", 4); // this may move pos
+                pos += commentEnd + 3;
+            } else if (startsWith("<![CDATA[")) {
+                int end = find("]]>", 9);
+                reportText(pos + 9, end - 9, false);
+                pos += end + 3;
+            } else {
+                skipDeclaration();
+            }
+            break;
+        case '/':
+            parseEndTag();
+            break;
+        default:
+            parseStartTag();
+        }
+    }
+
+    /**
+     * Skip a DOCTYPE or other declaration including any internal subset
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the end of the declaration couldn't be found
+     */
+    private void skipDeclaration() throws IOException, SAXException {
+        int depth = 0;
+        for (int i = 2;; i++) {
+            if (!ensure(i + 1)) {
+                throw error("Unexpected end of input in declaration");
+            }
+            byte b = buf[pos + i];
+            if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                depth--;
+            } else if (b == '>' && depth <= 0) {
+                pos += i + 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the closing &gt; of a tag, ignoring any in quoted attribute values
+     *
+     * @return the offset of the &gt; relative to pos
+     * @throws IOException if reading fails
+     * @throws SAXException if the end of the tag couldn't be found
+     */
+    private int findTagEnd() throws IOException, SAXException {
+        byte quote = 0;
+        for (int i = 1;; i++) {
+            if (!ensure(i + 1)) {
+                throw error("Unexpected end of input in tag");
+            }
+            byte b = buf[pos + i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Check if a byte is XML white space
+     *
+     * @param b the byte
+     * @return true if white space
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Parse a start tag including its attributes
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the input is not well formed or the handler throws an exception
+     */
+    private void parseStartTag() throws IOException, SAXException {
+        final int offset = findTagEnd(); // this may move pos
+        final int tagEnd = pos + offset;
+        final boolean empty = buf[tagEnd - 1] == '/';
+        final int end = empty ? tagEnd - 1 : tagEnd;
+        int i = pos + 1;
+        while (i < end && !isWhitespace(buf[i])) {
+            i++;
+        }
+        if (i == pos + 1) {
+            throw error("Missing element name");
+        }
+        final String qName = names.get(buf, pos + 1, i - pos - 1);
+        attributes.clear();
+        while (true) {
+            while (i < end && isWhitespace(buf[i])) {
+                i++;
+            }
+            if (i >= end) {
+                break;
+            }
+            int nameStart = i;
+            while (i < end && buf[i] != '=' && !isWhitespace(buf[i])) {
+                i++;
+            }
+            String name = names.get(buf, nameStart, i - nameStart);
+            while (i < end && isWhitespace(buf[i])) {
+                i++;
+            }
+            if (i >= end || buf[i] != '=') {
+                throw error("Missing value for attribute " + name);
+            }
+            i++;
+            while (i < end && isWhitespace(buf[i])) {
+                i++;
+            }
+            if (i >= end || (buf[i] != '"' && buf[i] != '\'')) {
+                throw error("Unquoted value for attribute " + name);
+            }
+            final byte quote = buf[i++];
+            final int valueStart = i;
+            boolean escaped = false;
+            boolean normalize = false;
+            while (buf[i] != quote) { // findTagEnd guarantees that the closing quote is present
+                byte b = buf[i];
+                if (b == '&') {
+                    escaped = true;
+                } else if (b == '\t' || b == '\n' || b == '\r') {
+                    normalize = true;
+                }
+                i++;
+            }
+            if (!XMLNS.equals(name) && !name.startsWith(XMLNS_PREFIX)) { // like SAX don't report namespace declarations
+                attributes.add(name, valueStart, i - valueStart, escaped, normalize);
+            }
+            i++;
+        }
+        final String localName = localName(qName);
+        handler.startElement("", localName, qName, attributes);
+        if (empty) {
+            handler.endElement("", localName, qName);
+        } else {
+            open.push(qName);
+        }
+        // startElement may have retrieved values from the buffer, so only move on now
+        pos = tagEnd + 1;
+    }
+
+    /**
+     * Parse an end tag
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the input is not well formed or the handler throws an exception
+     */
+    private void parseEndTag() throws IOException, SAXException {
+        final int offset = findTagEnd(); // this may move pos
+        final int tagEnd = pos + offset;
+        int end = tagEnd;
+        while (end > pos + 2 && isWhitespace(buf[end - 1])) {
+            end--;
+        }
+        final String qName = names.get(buf, pos + 2, end - pos - 2);
+        final String expected = open.poll();
+        if (!qName.equals(expected)) {
+            throw error("Unexpected end tag " + qName + " expected " + expected);
+        }
+        pos = tagEnd + 1;
+        handler.endElement("", localName(qName), qName);
+    }
+
+    /**
+     * Remove any namespace prefix from a name
+     *
+     * @param qName the qualified name
+     * @return the local name
+     */
+    @NonNull
+    private String localName(@NonNull String qName) {
+        int colon = qName.indexOf(':');
+        return colon < 0 ? qName : qName.substring(colon + 1);
+    }
+
+    /**
+     * Parse character data up to the next &lt; or end of input
+     *
+     * @throws IOException if reading fails
+     * @throws SAXException if the handler throws an exception
+     */
+    private void parseText() throws IOException, SAXException {
+        boolean whitespace = true;
+        boolean escaped = false;
+        int i = 0;
+        while (ensure(i + 1)) {
+            byte b = buf[pos + i];
+            if (b == '<') {
+                break;
+            }
+            if (b == '&') {
+                escaped = true;
+            }
+            if (whitespace && !isWhitespace(b)) {
+                whitespace = false;
+            }
+            i++;
+        }
+        if (!whitespace) {
+            if (open.isEmpty()) {
+                throw error("Character data outside of document element");
+            }
+            reportText(pos, i, escaped);
+        }
+        pos += i;
+    }
+
+    /**
+     * Decode character data and pass it on to the handler
+     *
+     * @param start start of the data in the buffer
+     * @param length length of the data
+     * @param escaped true if the data contains entities
+     * @throws SAXException if an entity is invalid or the handler throws an exception
+     */
+    private void reportText(int start, int length, boolean escaped) throws SAXException {
+        String s;
+        if (escaped) {
+            int unescapedLength = unescape(start, length, false); // this may replace scratch
+            s = new String(scratch, 0, unescapedLength, UTF_8);
+        } else {
+            s = new String(buf, start, length, UTF_8);
+        }
+        final int textLength = s.length();
+        if (text.length < textLength) {
+            text = new char[textLength];
+        }
+        s.getChars(0, textLength, text, 0);
+        handler.characters(text, 0, textLength);
+    }
+
+    /**
+     * Replace entities in the buffer and copy the result to scratch
+     *
+     * If normalize is true literal tabs, line feeds and carriage returns are replaced by a space, with a CR LF sequence
+     * counting as a single line end, characters produced by character references are not changed.
+     *
+     * @param start start of the data in the buffer
+     * @param length length of the data
+     * @param normalize if true normalize white space as required for attribute values
+     * @return the length of the result in scratch
+     * @throws SAXException if an entity is invalid
+     */
+    private int unescape(int start, int length, boolean normalize) throws SAXException {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        final int end = start + length;
+        int out = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b != '&') {
+                if (normalize && (b == '\t' || b == '\n' || b == '\r')) {
+                    if (b == '\r' && i + 1 < end && buf[i + 1] == '\n') {
+                        i++;
+                    }
+                    b = ' ';
+                }
+                scratch[out++] = b;
+                continue;
+            }
+            int semicolon = i + 1;
+            while (semicolon < end && buf[semicolon] != ';') {
+                semicolon++;
+            }
+            if (semicolon == end) {
+                throw error("Unterminated entity");
+            }
+            String entity = new String(buf, i + 1, semicolon - i - 1, UTF_8);
+            int codePoint;
+            switch (entity) {
+            case "lt":
+                codePoint = '<';
+                break;
+            case "gt":
+                codePoint = '>';
+                break;
+            case "amp":
+                codePoint = '&';
+                break;
+            case "quot":
+                codePoint = '"';
+                break;
+            case "apos":
+                codePoint = '\'';
+                break;
+            default:
+                try {
+                    if (entity.startsWith("#x")) {
+                        codePoint = Integer.parseInt(entity.substring(2), 16);
+                    } else if (entity.startsWith("#")) {
+                        codePoint = Integer.parseInt(entity.substring(1));
+                    } else {
+                        throw error("Unknown entity " + entity);
+                    }
+                } catch (NumberFormatException e) {
+                    throw error("Invalid character reference " + entity);
+                }
+                if (!Character.isValidCodePoint(codePoint)) {
+                    throw error("Invalid character reference " + entity);
+                }
+            }
+            // the UTF-8 encoding is never longer than the reference
+            byte[] encoded = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+            System.arraycopy(encoded, 0, scratch, out, encoded.length);
+            out += encoded.length;
+            i = semicolon;
+        }
+        return out;
+    }
+
+    /**
+     * SAX Attributes backed by the input buffer
+     *
+     * Values are only converted to Strings when they are requested, the numeric accessors avoid this completely. Only
+     * valid during the startElement call.
+     */
+    final class FastAttributes implements Attributes {
+        private static final String CDATA = "CDATA";
+
+        private String[]  attrNames  = new String[16];
+        private String[]  attrValues = new String[16];
+        private int[]     starts     = new int[16];
+        private int[]     lengths    = new int[16];
+        private boolean[] escapes    = new boolean[16];
+        private boolean[] normalize  = new boolean[16];
+        private int       count;
+
+        /**
+         * Remove all attributes
+         */
+        private void clear() {
+            Arrays.fill(attrValues, 0, count, null);
+            count = 0;
+        }
+
+        /**
+         * Add an attribute
+         *
+         * @param name the attribute name
+         * @param start start of the value in the buffer
+         * @param length length of the value
+         * @param escaped true if the value contains entities
+         * @param whitespace true if the value contains white space that needs to be normalized
+         */
+        private void add(@NonNull String name, int start, int length, boolean escaped, boolean whitespace) {
+            if (count == attrNames.length) {
+                int size = count * 2;
+                attrNames = Arrays.copyOf(attrNames, size);
+                attrValues = Arrays.copyOf(attrValues, size);
+                starts = Arrays.copyOf(starts, size);
+                lengths = Arrays.copyOf(lengths, size);
+                escapes = Arrays.copyOf(escapes, size);
+                normalize = Arrays.copyOf(normalize, size);
+            }
+            attrNames[count] = name;
+            starts[count] = start;
+            lengths[count] = length;
+            escapes[count] = escaped;
+            normalize[count] = whitespace;
+            count++;
+        }
+
+        @Override
+        public int getLength() {
+            return count;
+        }
+
+        @Override
+        public String getURI(int index) {
+            return index >= 0 && index < count ? "" : null;
+        }
+
+        @Override
+        public String getLocalName(int index) {
+            return index >= 0 && index < count ? localName(attrNames[index]) : null;
+        }
+
+        @Override
+        public String getQName(int index) {
+            return index >= 0 && index < count ? attrNames[index] : null;
+        }
+
+        @Override
+        public String getType(int index) {
+            return index >= 0 && index < count ? CDATA : null;
+        }
+
+        @Override
+        public String getValue(int index) {
+            if (index < 0 || index >= count) {
+                return null;
+            }
+            if (attrValues[index] == null) {
+                try {
+                    if (escapes[index] || normalize[index]) {
+                        int length = unescape(starts[index], lengths[index], normalize[index]); // this may replace scratch
+                        attrValues[index] = values.get(scratch, 0, length);
+                    } else {
+                        attrValues[index] = values.get(buf, starts[index], lengths[index]);
+                    }
+                } catch (SAXException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            }
+            return attrValues[index];
+        }
+
+        @Override
+        public int getIndex(String uri, String localName) {
+            return getIndex(localName);
+        }
+
+        @Override
+        public int getIndex(String qName) {
+            for (int i = 0; i < count; i++) {
+                String name = attrNames[i];
+                if (name == qName || name.equals(qName)) { // NOSONAR names are interned
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String getType(String uri, String localName) {
+            return getType(getIndex(localName));
+        }
+
+        @Override
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        @Override
+        public String getValue(String uri, String localName) {
+            return getValue(getIndex(localName));
+        }
+
+        @Override
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+
+        /**
+         * Get the index of an attribute, throwing an exception if it isn't present
+         *
+         * @param qName the attribute name
+         * @return the index
+         * @throws NumberFormatException if the attribute is missing
+         */
+        private int getRequiredIndex(@NonNull String qName) {
+            int index = getIndex(qName);
+            if (index < 0) {
+                throw new NumberFormatException("Missing attribute " + qName);
+            }
+            return index;
+        }
+
+        /**
+         * Parse an integer attribute value
+         *
+         * @param qName the attribute name
+         * @return the value
+         * @throws NumberFormatException if the attribute is missing or not a valid long
+         */
+        long getLong(@NonNull String qName) {
+            final int index = getRequiredIndex(qName);
+            int i = starts[index];
+            final int end = i + lengths[index];
+            boolean negative = false;
+            if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+                negative = buf[i] == '-';
+                i++;
+            }
+            if (escapes[index] || normalize[index] || i == end || end - i > 18) { // 18 digits can't overflow
+                return Long.parseLong(getValue(index));
+            }
+            long result = 0;
+            for (; i < end; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Invalid number " + getValue(index));
+                }
+                result = result * 10 + digit;
+            }
+            return negative ? -result : result;
+        }
+
+        /**
+         * Parse a decimal degree attribute value to an int scaled by 1E7, truncating any further digits
+         *
+         * @param qName the attribute name
+         * @return the value times 1E7
+         * @throws NumberFormatException if the attribute is missing or not a valid number
+         */
+        int getE7(@NonNull String qName) {
+            final int index = getRequiredIndex(qName);
+            int i = starts[index];
+            final int end = i + lengths[index];
+            boolean negative = false;
+            if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+                negative = buf[i] == '-';
+                i++;
+            }
+            long integer = 0;
+            long fraction = 0;
+            int integerDigits = 0;
+            int fractionDigits = 0;
+            boolean decimalPoint = false;
+            for (; i < end; i++) {
+                byte b = buf[i];
+                if (b == '.' && !decimalPoint) {
+                    decimalPoint = true;
+                    continue;
+                }
+                int digit = b - '0';
+                if (digit < 0 || digit > 9 || integerDigits > 9) {
+                    // exponents etc, let BigDecimal handle it
+                    return (new BigDecimal(getValue(index)).scaleByPowerOfTen(Node.COORDINATE_SCALE)).intValue();
+                }
+                if (!decimalPoint) {
+                    integer = integer * 10 + digit;
+                    integerDigits++;
+                } else if (fractionDigits < Node.COORDINATE_SCALE) {
+                    fraction = fraction * 10 + digit;
+                    fractionDigits++;
+                }
+            }
+            if (integerDigits == 0 && fractionDigits == 0) {
+                throw new NumberFormatException("Invalid number " + getValue(index));
+            }
+            for (; fractionDigits < Node.COORDINATE_SCALE; fractionDigits++) {
+                fraction *= 10;
+            }
+            long result = integer * 10000000L + fraction;
+            return (int) (negative ? -result : result);
+        }
+
+        /**
+         * Parse a timestamp in yyyy-MM-ddTHH:mm:ssZ format
+         *
+         * @param qName the attribute name
+         * @return seconds since the epoch or Long.MIN_VALUE if the attribute is missing or isn't in the expected format
+         */
+        long getTimestamp(@NonNull String qName) {
+            final int index = getIndex(qName);
+            if (index < 0 || lengths[index] != 20) {
+                return Long.MIN_VALUE;
+            }
+            final int s = starts[index];
+            if (buf[s + 4] != '-' || buf[s + 7] != '-' || buf[s + 10] != 'T' || buf[s + 13] != ':' || buf[s + 16] != ':' || buf[s + 19] != 'Z') {
+                return Long.MIN_VALUE;
+            }
+            int year = digits(s, 4);
+            int month = digits(s + 5, 2);
+            int day = digits(s + 8, 2);
+            int hour = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = digits(s + 17, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0
+                    || second > 60) {
+                return Long.MIN_VALUE;
+            }
+            // days from civil, see http://howardhinnant.github.io/date_algorithms.html
+            int y = month <= 2 ? year - 1 : year;
+            long era = y / 400;
+            long yoe = y - era * 400;
+            long doy = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            long days = era * 146097 + doe - 719468;
+            return days * 86400 + hour * 3600L + minute * 60L + second;
+        }
+
+        /**
+         * Parse a fixed number of decimal digits
+         *
+         * @param start start in the buffer
+         * @param count number of digits
+         * @return the value or -1 if a non digit was encountered
+         */
+        private int digits(int start, int count) {
+            int result = 0;
+            for (int i = start; i < start + count; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Simple String pool keyed by the UTF-8 encoding
+     *
+     * Avoids creating String objects for names and values that we have already seen
+     */
+    private static final class StringPool {
+        private static final int MAX_LENGTH  = 64;
+        private static final int MAX_ENTRIES = 1 << 16;
+
+        private byte[][] keys    = new byte[1024][];
+        private String[] strings = new String[1024];
+        private int      size    = 0;
+
+        /**
+         * Get the String for a sequence of bytes, adding it to the pool if necessary
+         *
+         * @param data the array containing the bytes
+         * @param start start of the bytes
+         * @param length length
+         * @return a String
+         */
+        @NonNull
+        String get(@NonNull byte[] data, int start, int length) {
+            if (length > MAX_LENGTH) {
+                return new String(data, start, length, UTF_8);
+            }
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + data[i];
+            }
+            hash ^= hash >>> 16;
+            final int mask = keys.length - 1;
+            int ptr = hash & mask;
+            byte[] key;
+            while ((key = keys[ptr]) != null) {
+                if (equals(key, data, start, length)) {
+                    return strings[ptr];
+                }
+                ptr = (ptr + 1) & mask;
+            }
+            String result = new String(data, start, length, UTF_8);
+            if (size < MAX_ENTRIES) {
+                keys[ptr] = Arrays.copyOfRange(data, start, start + length);
+                strings[ptr] = result;
+                size++;
+                if (size * 2 > keys.length) {
+                    rehash();
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Compare a key with a sequence of bytes
+         *
+         * @param key the key
+         * @param data the array containing the bytes
+         * @param start start of the bytes
+         * @param length length
+         * @return true if equal
+         */
+        private static boolean equals(@NonNull byte[] key, @NonNull byte[] data, int start, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != data[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Double the size of the table
+         */
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            String[] oldStrings = strings;
+            keys = new byte[oldKeys.length * 2][];
+            strings = new String[oldKeys.length * 2];
+            final int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                byte[] key = oldKeys[i];
+                if (key != null) {
+                    int hash = 0;
+                    for (byte b : key) {
+                        hash = 31 * hash + b;
+                    }
+                    hash ^= hash >>> 16;
+                    int ptr = hash & mask;
+                    while (keys[ptr] != null) {
+                        ptr = (ptr + 1) & mask;
+                    }
+                    keys[ptr] = key;
+                    strings[ptr] = oldStrings[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Inverted index from tag keys and key=value combinations to the elements in a Storage instance
+ *
+ * Keys and values are indexed in lower case so that lookups return a superset of the elements that match exactly and
+ * of those that match ignoring case. Values are only indexed for keys with less than {@link #MAX_VALUES} distinct
+ * values, for keys like name lookups fall back to all elements with the key.
+ *
+ * Elements that have had their tags changed need to be re-added with {@link #invalidate(OsmElement)}, the actual work
+ * is deferred to the next query. Entries for the previous tags of changed elements are not removed, nor are entries
+ * for elements that are no longer in storage, the latter are dropped when they are encountered in a query. As a
+ * consequence callers need to check that the returned elements actually have the tag.
+ *
+ * This class is not thread safe, callers need to synchronize.
+ *
+ * @author simon
+ *
+ */
+final class TagIndex {
+
+    private static final int MIN_PENDING = 1000;
+
+    static final int MAX_VALUES = 1000;
+
+    /**
+     * A list of elements
+     */
+    private static final class Elements {
+        OsmElement[] elements = new OsmElement[4];
+        int          size     = 0;
+
+        /**
+         * Add an element to the list
+         *
+         * @param e the OsmElement
+         */
+        void add(@NonNull OsmElement e) {
+            if (size == elements.length) {
+                OsmElement[] temp = new OsmElement[size * 2];
+                System.arraycopy(elements, 0, temp, 0, size);
+                elements = temp;
+            }
+            elements[size++] = e;
+        }
+
+        /**
+         * Remove the element at position i, this replaces it with the last element
+         *
+         * @param i the position
+         */
+        void remove(int i) {
+            size--;
+            elements[i] = elements[size];
+            elements[size] = null;
+        }
+    }
+
+    /**
+     * The entry for a key, values is set to null when there are too many distinct values
+     */
+    private static final class KeyEntry {
+        final Elements        all    = new Elements();
+        Map<String, Elements> values = new HashMap<>();
+    }
+
+    private final LongOsmElementMap<Node>     nodes;
+    private final LongOsmElementMap<Way>      ways;
+    private final LongOsmElementMap<Relation> relations;
+
+    private final Map<String, KeyEntry> index   = new HashMap<>();
+    private final List<OsmElement>      pending = new ArrayList<>();
+    private final Set<OsmElement>       readded = new HashSet<>();
+    private boolean                     rebuild = true;
+
+    /**
+     * Construct a new index for the contents of the maps
+     *
+     * The index is built on the first query
+     *
+     * @param nodes the Node map
+     * @param ways the Way map
+     * @param relations the Relation map
+     */
+    TagIndex(@NonNull LongOsmElementMap<Node> nodes, @NonNull LongOsmElementMap<Way> ways, @NonNull LongOsmElementMap<Relation> relations) {
+        this.nodes = nodes;
+        this.ways = ways;
+        this.relations = relations;
+    }
+
+    /**
+     * Mark an element as having changed tags or having been added
+     *
+     * @param e the OsmElement
+     */
+    void invalidate(@NonNull OsmElement e) {
+        if (rebuild) {
+            return;
+        }
+        if (pending.size() + readded.size() > Math.max(MIN_PENDING, (nodes.size() + ways.size() + relations.size()) / 4)) {
+            // cheaper to start from scratch
+            invalidateAll();
+            return;
+        }
+        pending.add(e);
+    }
+
+    /**
+     * Throw away the index, it will be rebuilt on the next query
+     */
+    void invalidateAll() {
+        rebuild = true;
+        pending.clear();
+        readded.clear();
+        index.clear();
+    }
+
+    /**
+     * Make sure that the index reflects the current state of the Storage
+     */
+    private void update() {
+        if (rebuild) {
+            for (Node n : nodes) {
+                add(n);
+            }
+            for (Way w : ways) {
+                add(w);
+            }
+            for (Relation r : relations) {
+                add(r);
+            }
+            rebuild = false;
+        } else if (!pending.isEmpty()) {
+            Set<OsmElement> added = new HashSet<>();
+            for (OsmElement e : pending) {
+                if (added.add(e) && isCurrent(e)) {
+                    // existing entries are not removed, duplicates are filtered out in queries
+                    readded.add(e);
+                    add(e);
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Add entries for all tags of an element
+     *
+     * @param e the OsmElement
+     */
+    private void add(@NonNull OsmElement e) {
+        if (!e.hasTags()) {
+            return;
+        }
+        for (Entry<String, String> tag : e.getTags().entrySet()) {
+            String key = tag.getKey().toLowerCase(Locale.US);
+            KeyEntry entry = index.get(key);
+            if (entry == null) {
+                entry = new KeyEntry();
+                index.put(key, entry);
+            }
+            entry.all.add(e);
+            if (entry.values != null) {
+                String value = tag.getValue().toLowerCase(Locale.US);
+                Elements elements = entry.values.get(value);
+                if (elements == null) {
+                    if (entry.values.size() >= MAX_VALUES) {
+                        entry.values = null;
+                        continue;
+                    }
+                    elements = new Elements();
+                    entry.values.put(value, elements);
+                }
+                elements.add(e);
+            }
+        }
+    }
+
+    /**
+     * Check if an element is still in storage
+     *
+     * @param e the OsmElement
+     * @return true if the element is in the storage
+     */
+    private boolean isCurrent(@NonNull OsmElement e) {
+        if (e instanceof Node) {
+            return nodes.get(e.getOsmId()) == e;
+        } else if (e instanceof Way) {
+            return ways.get(e.getOsmId()) == e;
+        }
+        return relations.get(e.getOsmId()) == e;
+    }
+
+    /**
+     * Get the list of elements for a key and optional value
+     *
+     * @param key the key
+     * @param value the value or null for any value
+     * @return the list or null if there are no elements with the tag
+     */
+    @Nullable
+    private Elements getElements(@NonNull String key, @Nullable String value) {
+        update();
+        KeyEntry entry = index.get(key.toLowerCase(Locale.US));
+        if (entry == null) {
+            return null;
+        }
+        if (value == null || entry.values == null) {
+            return entry.all;
+        }
+        return entry.values.get(value.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Get an upper bound of the number of elements with a tag
+     *
+     * @param key the key
+     * @param value the value or null for any value
+     * @return the number of elements that may have the tag
+     */
+    int count(@NonNull String key, @Nullable String value) {
+        Elements elements = getElements(key, value);
+        return elements != null ? elements.size : 0;
+    }
+
+    /**
+     * Get the elements that may have a tag
+     *
+     * The result contains all elements with the tag ignoring case, but may contain elements that don't have it
+     *
+     * @param key the key
+     * @param value the value or null for any value
+     * @param result a List to add the elements to
+     */
+    void getElements(@NonNull String key, @Nullable String value, @NonNull List<OsmElement> result) {
+        Elements elements = getElements(key, value);
+        if (elements == null) {
+            return;
+        }
+        Set<OsmElement> seen = readded.isEmpty() ? null : new HashSet<>();
+        for (int i = 0; i < elements.size;) {
+            OsmElement e = elements.elements[i];
+            if (!isCurrent(e)) {
+                elements.remove(i);
+                continue;
+            }
+            i++;
+            if (seen != null && readded.contains(e) && !seen.add(e)) {
+                continue;
+            }
+            result.add(e);
+        }
+    }
+}
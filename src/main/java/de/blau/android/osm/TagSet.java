@@ -0,0 +1,469 @@
+package de.blau.android.osm;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.WeakHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Compact immutable tag storage
+ *
+ * Keys and values are held in a single array sorted by key. Instances and the strings they contain are interned in a
+ * global pool, as a result elements with identical tags share the same TagSet object. The pool only holds weak
+ * references and doesn't prevent garbage collection of tags that are no longer in use. To avoid contention between the
+ * parser and other threads the pool is striped by hash code, each stripe is locked separately.
+ *
+ * @author simon
+ *
+ */
+public final class TagSet extends AbstractMap<String, String> implements SortedMap<String, String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int STRIPES = 16; // needs to be a power of 2
+
+    private static final Pool<String> stringPool = new Pool<>();
+    private static final Pool<TagSet> tagPool    = new Pool<>();
+
+    public static final TagSet EMPTY = new TagSet(new String[0]);
+
+    private final String[] keysAndValues;
+
+    private transient int hash;
+
+    /**
+     * Construct a new instance
+     *
+     * @param keysAndValues array of alternating keys and values sorted by key
+     */
+    private TagSet(@NonNull String[] keysAndValues) {
+        this.keysAndValues = keysAndValues;
+    }
+
+    /**
+     * Get an interned TagSet with the contents of map
+     *
+     * @param map the source Map
+     * @return a shared TagSet
+     */
+    @NonNull
+    public static TagSet of(@Nullable Map<String, String> map) {
+        if (map instanceof TagSet) {
+            return (TagSet) map;
+        }
+        if (map == null || map.isEmpty()) {
+            return EMPTY;
+        }
+        String[] kv = new String[2 * map.size()];
+        int i = 0;
+        for (Entry<String, String> entry : map.entrySet()) {
+            kv[i++] = entry.getKey();
+            kv[i++] = entry.getValue();
+        }
+        return of(kv, kv.length);
+    }
+
+    /**
+     * Get an interned TagSet from alternating keys and values
+     *
+     * If a key is present more than once the last value wins. The array may be modified and retained, so it must not be
+     * reused by the caller.
+     *
+     * @param keysAndValues array of alternating keys and values, null keys are ignored
+     * @param length the number of used entries in keysAndValues
+     * @return a shared TagSet
+     */
+    @NonNull
+    static TagSet of(@NonNull String[] keysAndValues, int length) {
+        int pairs = length / 2;
+        if (pairs == 0) {
+            return EMPTY;
+        }
+        if (!isSorted(keysAndValues, pairs)) {
+            final String[] unsorted = keysAndValues;
+            Integer[] order = new Integer[pairs];
+            for (int i = 0; i < pairs; i++) {
+                order[i] = i;
+            }
+            // stable sort so that the last duplicate key ends up last
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return compareKeys(unsorted[2 * i1], unsorted[2 * i2]);
+                }
+            });
+            String[] sorted = new String[2 * pairs];
+            for (int i = 0; i < pairs; i++) {
+                sorted[2 * i] = unsorted[2 * order[i]];
+                sorted[2 * i + 1] = unsorted[2 * order[i] + 1];
+            }
+            keysAndValues = sorted;
+        }
+        // remove null keys and duplicates
+        int count = 0;
+        for (int i = 0; i < pairs; i++) {
+            String key = keysAndValues[2 * i];
+            if (key == null) {
+                continue;
+            }
+            if (count > 0 && key.equals(keysAndValues[2 * (count - 1)])) {
+                count--;
+            }
+            keysAndValues[2 * count] = key;
+            keysAndValues[2 * count + 1] = keysAndValues[2 * i + 1];
+            count++;
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        return intern(new TagSet(keysAndValues.length == 2 * count ? keysAndValues : Arrays.copyOf(keysAndValues, 2 * count)));
+    }
+
+    /**
+     * Check if the keys are already in ascending order
+     *
+     * @param keysAndValues array of alternating keys and values
+     * @param pairs the number of key value pairs
+     * @return true if sorted
+     */
+    private static boolean isSorted(@NonNull String[] keysAndValues, int pairs) {
+        for (int i = 1; i < pairs; i++) {
+            if (compareKeys(keysAndValues[2 * (i - 1)], keysAndValues[2 * i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare two keys, null sorts first
+     *
+     * @param k1 first key
+     * @param k2 second key
+     * @return the usual comparison result
+     */
+    private static int compareKeys(@Nullable String k1, @Nullable String k2) {
+        if (k1 == null) {
+            return k2 == null ? 0 : -1;
+        }
+        return k2 == null ? 1 : k1.compareTo(k2);
+    }
+
+    /**
+     * Return the shared instance equal to set, adding it to the pool if not present
+     *
+     * @param set the TagSet
+     * @return the shared instance
+     */
+    @NonNull
+    private static TagSet intern(@NonNull TagSet set) {
+        TagSet shared = tagPool.get(set);
+        if (shared != null) {
+            return shared;
+        }
+        String[] kv = set.keysAndValues;
+        for (int i = 0; i < kv.length; i++) {
+            kv[i] = intern(kv[i]);
+        }
+        return tagPool.intern(set);
+    }
+
+    /**
+     * Return the shared instance of a String
+     *
+     * @param s the String
+     * @return the shared instance
+     */
+    @Nullable
+    private static String intern(@Nullable String s) {
+        if (s == null) {
+            return null;
+        }
+        return stringPool.intern(s);
+    }
+
+    /**
+     * Get the number of pooled TagSets, for statistics
+     *
+     * @return the number of distinct TagSets in use
+     */
+    public static int poolSize() {
+        return tagPool.size();
+    }
+
+    /**
+     * Weakly referencing pool of shared instances, striped by hash code
+     *
+     * @param <T> the type of the pooled objects
+     */
+    private static final class Pool<T> {
+
+        private final Map<T, WeakReference<T>>[] stripes;
+
+        /**
+         * Construct a new empty pool
+         */
+        @SuppressWarnings("unchecked")
+        Pool() {
+            stripes = new Map[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new WeakHashMap<>();
+            }
+        }
+
+        /**
+         * Get the stripe an object belongs to
+         *
+         * @param o the object
+         * @return the stripe, callers need to synchronize on it
+         */
+        @NonNull
+        private Map<T, WeakReference<T>> stripe(@NonNull Object o) {
+            int h = o.hashCode();
+            return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        }
+
+        /**
+         * Get the shared instance equal to o
+         *
+         * @param o the object
+         * @return the shared instance or null if there is none
+         */
+        @Nullable
+        T get(@NonNull T o) {
+            Map<T, WeakReference<T>> stripe = stripe(o);
+            synchronized (stripe) {
+                WeakReference<T> ref = stripe.get(o);
+                return ref != null ? ref.get() : null;
+            }
+        }
+
+        /**
+         * Get the shared instance equal to o, adding o if there is none
+         *
+         * @param o the object
+         * @return the shared instance
+         */
+        @NonNull
+        T intern(@NonNull T o) {
+            Map<T, WeakReference<T>> stripe = stripe(o);
+            synchronized (stripe) {
+                WeakReference<T> ref = stripe.get(o);
+                T shared = ref != null ? ref.get() : null;
+                if (shared != null) {
+                    return shared;
+                }
+                stripe.put(o, new WeakReference<>(o));
+                return o;
+            }
+        }
+
+        /**
+         * Get the number of pooled objects
+         *
+         * @return the number of objects, may include ones that are about to be garbage collected
+         */
+        int size() {
+            int size = 0;
+            for (Map<T, WeakReference<T>> stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.size();
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Find the position of a key
+     *
+     * @param key the key
+     * @return the index of the pair if found, otherwise (-(insertion point) - 1)
+     */
+    private int indexOf(@NonNull String key) {
+        int low = 0;
+        int high = keysAndValues.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keysAndValues[2 * mid].compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Get the index of the first key that is not smaller than key
+     *
+     * @param key the key
+     * @return the index of the pair
+     */
+    private int lowerBound(@NonNull String key) {
+        int index = indexOf(key);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * Create a new TagSet from a range of pairs
+     *
+     * @param from first pair (inclusive)
+     * @param to last pair (exclusive)
+     * @return a TagSet
+     */
+    @NonNull
+    private TagSet range(int from, int to) {
+        if (from == 0 && to == size()) {
+            return this;
+        }
+        if (to <= from) {
+            return EMPTY;
+        }
+        return intern(new TagSet(Arrays.copyOfRange(keysAndValues, 2 * from, 2 * to)));
+    }
+
+    @Override
+    public int size() {
+        return keysAndValues.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keysAndValues.length == 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (key instanceof String) {
+            int index = indexOf((String) key);
+            if (index >= 0) {
+                return keysAndValues[2 * index + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keysAndValues.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (index >= keysAndValues.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(keysAndValues[index], keysAndValues[index + 1]);
+                        index += 2;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return TagSet.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(String fromKey, String toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return range(lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(String toKey) {
+        return range(0, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(String fromKey) {
+        return range(lowerBound(fromKey), size());
+    }
+
+    @Override
+    public String firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keysAndValues[0];
+    }
+
+    @Override
+    public String lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keysAndValues[keysAndValues.length - 2];
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                String value = keysAndValues[i + 1];
+                h += keysAndValues[i].hashCode() ^ (value == null ? 0 : value.hashCode());
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof TagSet) {
+            return hashCode() == o.hashCode() && Arrays.equals(keysAndValues, ((TagSet) o).keysAndValues);
+        }
+        return super.equals(o);
+    }
+
+    /**
+     * Replace a deserialized instance with the shared one
+     *
+     * @return the shared TagSet
+     */
+    private Object readResolve() {
+        return keysAndValues.length == 0 ? EMPTY : intern(this);
+    }
+}
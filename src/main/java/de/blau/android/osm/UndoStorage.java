@@ -2,13 +2,14 @@ package de.blau.android.osm;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.SortedMap;
 
 import android.content.Context;
 import android.util.Log;
@@ -46,6 +47,8 @@ public class UndoStorage implements Serializable {
 
     private static final String DEBUG_TAG = "UndoStorage";
 
+    public static final int DEFAULT_MEMORY_BUDGET = 32; // MB
+
     // Original storages for "contains" checks and restoration
     private Storage currentStorage;
     private Storage apiStorage;
@@ -53,6 +56,13 @@ public class UndoStorage implements Serializable {
     private final LinkedList<Checkpoint> undoCheckpoints = new LinkedList<>();
     private final LinkedList<Checkpoint> redoCheckpoints = new LinkedList<>();
 
+    private transient StateJournal journal;
+
+    /**
+     * Memory budget in bytes, 0 after deserialization in which case the default is used
+     */
+    private transient long memoryBudget = DEFAULT_MEMORY_BUDGET * 1024L * 1024L;
+
     static final Comparator<UndoElement> elementOrder = (ue1, ue2) -> {
         OsmElement e1 = ue1.element;
         OsmElement e2 = ue2.element;
@@ -110,6 +120,7 @@ public class UndoStorage implements Serializable {
     public UndoStorage(@NonNull UndoStorage undoStorage, @NonNull Storage currentStorage, @NonNull Storage apiStorage) {
         this.currentStorage = currentStorage;
         this.apiStorage = apiStorage;
+        memoryBudget = undoStorage.memoryBudget;
         for (Checkpoint cp : undoStorage.undoCheckpoints) {
             undoCheckpoints.add(new Checkpoint(cp));
         }
@@ -136,6 +147,24 @@ public class UndoStorage implements Serializable {
         this.apiStorage = apiStorage;
     }
 
+    /**
+     * Set the memory budget for all undo and redo checkpoints, older checkpoints will be discarded if it is exceeded
+     * 
+     * @param megaBytes the budget in MB
+     */
+    public void setMemoryBudget(int megaBytes) {
+        memoryBudget = megaBytes * 1024L * 1024L;
+    }
+
+    /**
+     * Set the journal that changed elements should be recorded in
+     * 
+     * @param journal the StateJournal or null
+     */
+    void setJournal(@Nullable StateJournal journal) {
+        this.journal = journal;
+    }
+
     /**
      * Call to create a new checkpoint. When the user performs an undo operation, the state will be reverted to what it
      * was at the last checkpoint. Checkpoints should NOT be created for changes that are made as part of other
@@ -146,6 +175,7 @@ public class UndoStorage implements Serializable {
      */
     public void createCheckpoint(@NonNull String name) {
         if (undoCheckpoints.isEmpty() || !undoCheckpoints.getLast().isEmpty()) {
+            enforceMemoryBudget();
             undoCheckpoints.add(new Checkpoint(name));
         } else {
             // Empty checkpoint exists, just rename it
@@ -153,6 +183,52 @@ public class UndoStorage implements Serializable {
         }
     }
 
+    /**
+     * Discard all redo checkpoints, used when changes that are not the result of an undo have been applied
+     */
+    void discardRedo() {
+        redoCheckpoints.clear();
+    }
+
+    /**
+     * Discard the oldest checkpoints while the estimated memory usage is larger than the budget
+     * 
+     * Redo checkpoints are discarded first, the most recent undo checkpoint is always retained.
+     */
+    private void enforceMemoryBudget() {
+        final long budget = memoryBudget > 0 ? memoryBudget : DEFAULT_MEMORY_BUDGET * 1024L * 1024L;
+        long usage = getMemoryUsage();
+        if (usage <= budget) {
+            return;
+        }
+        int discarded = 0;
+        while (usage > budget && !redoCheckpoints.isEmpty()) {
+            usage -= redoCheckpoints.removeFirst().getMemoryUsage();
+            discarded++;
+        }
+        while (usage > budget && undoCheckpoints.size() > 1) {
+            usage -= undoCheckpoints.removeFirst().getMemoryUsage();
+            discarded++;
+        }
+        Log.w(DEBUG_TAG, "Discarded " + discarded + " checkpoints, estimated usage now " + usage / 1024 + " kB");
+    }
+
+    /**
+     * Get an estimate of the memory used by all checkpoints
+     * 
+     * @return the estimated size in bytes
+     */
+    public long getMemoryUsage() {
+        long usage = 0;
+        for (Checkpoint checkpoint : undoCheckpoints) {
+            usage += checkpoint.getMemoryUsage();
+        }
+        for (Checkpoint checkpoint : redoCheckpoints) {
+            usage += checkpoint.getMemoryUsage();
+        }
+        return usage;
+    }
+
     /**
      * remove checkpoint from list. typically called when we otherwise would have an empty checkpoint at the top
      * 
@@ -188,6 +264,9 @@ public class UndoStorage implements Serializable {
                 return;
             }
             undoCheckpoints.getLast().add(element);
+            if (journal != null) {
+                journal.add(element);
+            }
         } catch (Exception ex) {
             ACRAHelper.nocrashReport(ex, ex.getMessage());
         }
@@ -209,6 +288,9 @@ public class UndoStorage implements Serializable {
                 return;
             }
             undoCheckpoints.getLast().add(element, inCurrentStorage, inApiStorage);
+            if (journal != null) {
+                journal.add(element);
+            }
         } catch (Exception ex) {
             ACRAHelper.nocrashReport(ex, ex.getMessage());
         }
@@ -238,7 +320,7 @@ public class UndoStorage implements Serializable {
         }
         Checkpoint checkpoint = undoCheckpoints.getLast();
         BoundingBox result = null;
-        for (UndoElement ue : checkpoint.elements.values()) {
+        for (UndoElement ue : checkpoint.getElements()) {
             BoundingBox box = ue.element.getBounds();
             if (box != null) {
                 if (result == null) {
@@ -294,7 +376,7 @@ public class UndoStorage implements Serializable {
     @Nullable
     public BoundingBox getBounds(@NonNull Checkpoint checkpoint) {
         BoundingBox result = null;
-        for (UndoElement ue : checkpoint.elements.values()) {
+        for (UndoElement ue : checkpoint.getElements()) {
             BoundingBox box = ue.getBounds(checkpoint);
             if (box != null) {
                 if (result == null) {
@@ -423,12 +505,23 @@ public class UndoStorage implements Serializable {
      * on each change - repeated changes are ignored.)
      * 
      * The checkpoint can later be restored using {@link #restore(Checkpoint)}.
+     * 
+     * The state of Nodes is held in packed form and only turned in to UndoNode objects on access, this keeps large
+     * operations that move many Nodes cheap.
      */
     private class Checkpoint implements Serializable {
-        private static final long serialVersionUID = 2L;
+        private static final long serialVersionUID = 3L;
+
+        /**
+         * Rough estimates of the memory used for way and relation state objects
+         */
+        private static final int ELEMENT_BYTES = 128;
+        private static final int MEMBER_BYTES  = 48;
 
         private final Map<OsmElement, UndoElement> elements = new HashMap<>();
+        private final PackedUndoNodes              nodes;
         private String                             name;
+        private long                               memoryUsage;
 
         /**
          * Construct a new checkpoint
@@ -437,6 +530,7 @@ public class UndoStorage implements Serializable {
          */
         public Checkpoint(@NonNull String name) {
             this.name = name;
+            nodes = new PackedUndoNodes();
         }
 
         /**
@@ -447,6 +541,8 @@ public class UndoStorage implements Serializable {
         public Checkpoint(@NonNull Checkpoint cp) {
             name = cp.name;
             elements.putAll(cp.elements);
+            nodes = new PackedUndoNodes(cp.nodes);
+            memoryUsage = cp.memoryUsage;
         }
 
         /**
@@ -468,18 +564,109 @@ public class UndoStorage implements Serializable {
          * @param inApiStorage if true the elements should be restored to the api storage
          */
         public void add(@NonNull OsmElement element, boolean inCurrentStorage, boolean inApiStorage) {
+            if (element instanceof Node) {
+                nodes.add((Node) element, inCurrentStorage, inApiStorage);
+                return;
+            }
             if (elements.containsKey(element)) {
                 return;
             }
-            if (element instanceof Node) {
-                elements.put(element, new UndoNode((Node) element, inCurrentStorage, inApiStorage));
-            } else if (element instanceof Way) {
-                elements.put(element, new UndoWay((Way) element, inCurrentStorage, inApiStorage));
+            UndoElement ue;
+            if (element instanceof Way) {
+                ue = new UndoWay((Way) element, inCurrentStorage, inApiStorage);
             } else if (element instanceof Relation) {
-                elements.put(element, new UndoRelation((Relation) element, inCurrentStorage, inApiStorage));
+                ue = new UndoRelation((Relation) element, inCurrentStorage, inApiStorage);
             } else {
                 throw new IllegalArgumentException("Unsupported element type");
             }
+            elements.put(element, ue);
+            memoryUsage += estimateMemoryUsage(ue);
+        }
+
+        /**
+         * Get an estimate of the memory used by the state of a Way or Relation
+         * 
+         * @param ue the UndoElement
+         * @return the estimated size in bytes
+         */
+        private long estimateMemoryUsage(@NonNull UndoElement ue) {
+            long usage = ELEMENT_BYTES;
+            if (ue instanceof UndoWay) {
+                usage += 8L * ((UndoWay) ue).nodeCount();
+            } else if (ue instanceof UndoRelation) {
+                usage += (long) MEMBER_BYTES * ((UndoRelation) ue).members.size();
+            }
+            return usage;
+        }
+
+        /**
+         * Get an estimate of the memory used by this checkpoint
+         * 
+         * @return the estimated size in bytes
+         */
+        public long getMemoryUsage() {
+            return memoryUsage + nodes.getMemoryUsage();
+        }
+
+        /**
+         * Get the saved state of an element
+         * 
+         * @param element the OsmElement
+         * @return an UndoElement or null if the element isn't in this checkpoint
+         */
+        @Nullable
+        public UndoElement get(@Nullable OsmElement element) {
+            if (element instanceof Node) {
+                int index = nodes.indexOf(element);
+                return index >= 0 ? new UndoNode(nodes, index) : null;
+            }
+            return elements.get(element);
+        }
+
+        /**
+         * Get the saved state of a Node
+         * 
+         * @param node the Node
+         * @return the index of the state in the packed storage or -1 if not present
+         */
+        int indexOf(@NonNull Node node) {
+            return nodes.indexOf(node);
+        }
+
+        /**
+         * Get the saved state of all elements in this checkpoint
+         * 
+         * @return a List of UndoElement
+         */
+        @NonNull
+        public List<UndoElement> getElements() {
+            List<UndoElement> result = new ArrayList<>(nodes.size() + elements.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                result.add(new UndoNode(nodes, i));
+            }
+            result.addAll(elements.values());
+            return result;
+        }
+
+        /**
+         * Get the saved state of an element by type and id
+         * 
+         * @param name the name of the element type
+         * @param osmId the id of the element when its state was saved
+         * @return an UndoElement or null if not found
+         */
+        @Nullable
+        public UndoElement get(@NonNull String name, long osmId) {
+            if (Node.NAME.equals(name)) {
+                int index = nodes.indexOf(osmId);
+                return index >= 0 ? new UndoNode(nodes, index) : null;
+            }
+            for (UndoElement undoElement : elements.values()) {
+                if (undoElement.element.getName().equals(name) && undoElement.osmId == osmId) {
+                    return undoElement;
+                }
+            }
+            return null;
         }
 
         /**
@@ -488,10 +675,14 @@ public class UndoStorage implements Serializable {
          * @param element the element for which remove the saved state
          */
         public void remove(@NonNull OsmElement element) {
-            if (!elements.containsKey(element)) {
+            if (element instanceof Node) {
+                nodes.remove((Node) element);
                 return;
             }
-            elements.remove(element);
+            UndoElement ue = elements.remove(element);
+            if (ue != null) {
+                memoryUsage -= estimateMemoryUsage(ue);
+            }
         }
 
         /**
@@ -503,27 +694,45 @@ public class UndoStorage implements Serializable {
          */
         public boolean restore(@Nullable Checkpoint redoCheckpoint) {
             boolean ok = true;
-            List<UndoElement> list = new ArrayList<>(elements.values());
+            List<UndoElement> list = getElements();
             if (redoCheckpoint != null) {
                 for (UndoElement ue : list) {
                     redoCheckpoint.add(getUptodateElement(ue.element)); // save current state
                 }
             }
+            if (journal != null) {
+                for (UndoElement ue : list) {
+                    journal.add(getUptodateElement(ue.element));
+                }
+            }
             // we sort according to element type and relation membership so that
             // all member elements should be restored before their parents
             Collections.sort(list, elementOrder);
-            boolean restoredNode = false;
+            // covers the positions of the restored nodes before and after restoring
+            BoundingBox nodeBox = null;
+            for (UndoElement ue : list) {
+                if (ue instanceof UndoNode) {
+                    Node current = (Node) getUptodateElement(ue.element);
+                    nodeBox = union(nodeBox, current.getLon(), current.getLat());
+                }
+            }
             for (UndoElement ue : list) {
                 if (ue instanceof UndoNode) {
-                    restoredNode = true;
+                    nodeBox = union(nodeBox, ((UndoNode) ue).getLon(), ((UndoNode) ue).getLat());
                 }
                 ok = (ue.restore() != null) && ok;
             }
-            if (restoredNode) {
+            if (nodeBox != null) {
+                // the ways that contain restored nodes need to be re-indexed, this has to be done before their
+                // bounding boxes are invalidated
+                for (Way way : currentStorage.getWays(nodeBox)) {
+                    currentStorage.invalidateIndices(way);
+                    apiStorage.invalidateIndices(way);
+                }
                 // zap the bounding box of all ways as their geometry may have changed
                 //
                 // this looks expensive but is actually the cheapest option
-                for (Way way : currentStorage.getWays()) {
+                for (Way way : currentStorage.getWaysView()) {
                     way.invalidateBoundingBox();
                 }
             }
@@ -531,11 +740,28 @@ public class UndoStorage implements Serializable {
             return ok;
         }
 
+        /**
+         * Extend a BoundingBox with a coordinate, creating it if necessary
+         * 
+         * @param box the BoundingBox or null
+         * @param lonE7 WGS84*1E7 longitude
+         * @param latE7 WGS84*1E7 latitude
+         * @return the extended or new BoundingBox
+         */
+        @NonNull
+        private BoundingBox union(@Nullable BoundingBox box, int lonE7, int latE7) {
+            if (box == null) {
+                return new BoundingBox(lonE7, latE7);
+            }
+            box.union(lonE7, latE7);
+            return box;
+        }
+
         /**
          * @return true if no elements have yet been stored in this checkpoint
          */
         public boolean isEmpty() {
-            return elements.isEmpty();
+            return elements.isEmpty() && nodes.size() == 0;
         }
 
         /**
@@ -576,10 +802,10 @@ public class UndoStorage implements Serializable {
 
         final OsmElement element;
 
-        private final long                    osmId;
-        private final long                    osmVersion;
-        private final byte                    state;
-        private final TreeMap<String, String> tags;
+        private final long                      osmId;
+        private final long                      osmVersion;
+        private final byte                      state;
+        private final SortedMap<String, String> tags;
 
         private final boolean inCurrentStorage;
         private final boolean inApiStorage;
@@ -602,11 +828,35 @@ public class UndoStorage implements Serializable {
             osmId = originalElement.osmId;
             osmVersion = originalElement.osmVersion;
             state = originalElement.state;
-            tags = originalElement.tags == null ? new TreeMap<>() : new TreeMap<>(originalElement.tags);
+            tags = TagSet.of(originalElement.tags); // immutable, no need to copy
 
             parentRelations = element.getParentRelations() != null ? new ArrayList<>(element.getParentRelations()) : null;
         }
 
+        /**
+         * Create a new undo object from previously saved values
+         * 
+         * @param element the OsmElement the state belongs to
+         * @param osmId the saved id
+         * @param osmVersion the saved version
+         * @param state the saved state
+         * @param tags the saved tags
+         * @param inCurrentStorage true if the element was in the current storage
+         * @param inApiStorage true if the element was in the api storage
+         * @param parentRelations the saved parent relations or null
+         */
+        protected UndoElement(@NonNull OsmElement element, long osmId, long osmVersion, byte state, @NonNull SortedMap<String, String> tags,
+                boolean inCurrentStorage, boolean inApiStorage, @Nullable List<Relation> parentRelations) {
+            this.element = element;
+            this.osmId = osmId;
+            this.osmVersion = osmVersion;
+            this.state = state;
+            this.tags = tags;
+            this.inCurrentStorage = inCurrentStorage;
+            this.inApiStorage = inApiStorage;
+            this.parentRelations = parentRelations;
+        }
+
         /**
          * Restores the saved state of the element
          * 
@@ -639,6 +889,8 @@ public class UndoStorage implements Serializable {
             restored.osmVersion = osmVersion;
             restored.state = state;
             restored.setTags(tags);
+            currentStorage.invalidateTags(restored);
+            apiStorage.invalidateTags(restored);
 
             // zap error state
             restored.resetHasProblem();
@@ -786,12 +1038,27 @@ public class UndoStorage implements Serializable {
             lon = originalNode.lon;
         }
 
+        /**
+         * Create a new undo object from packed state
+         * 
+         * @param packed the PackedUndoNodes holding the state
+         * @param index the index of the state
+         */
+        UndoNode(@NonNull PackedUndoNodes packed, int index) {
+            super(packed.getNode(index), packed.getOsmId(index), packed.getOsmVersion(index), packed.getState(index), packed.getTags(index),
+                    packed.inCurrentStorage(index), packed.inApiStorage(index), packed.getParentRelations(index));
+            lat = packed.getLat(index);
+            lon = packed.getLon(index);
+        }
+
         @Override
         public OsmElement restore() {
             OsmElement restored = super.restore();
 
             ((Node) restored).lat = lat;
             ((Node) restored).lon = lon;
+            currentStorage.invalidateIndices(restored);
+            apiStorage.invalidateIndices(restored);
             return restored;
         }
 
@@ -821,8 +1088,8 @@ public class UndoStorage implements Serializable {
      * @see UndoElement
      */
     public class UndoWay extends UndoElement implements Serializable {
-        private static final long serialVersionUID = 3L;
-        private final List<Node>  nodes;
+        private static final long serialVersionUID = 4L;
+        private final Node[]      nodes;
 
         /**
          * Create a new undo object
@@ -833,7 +1100,7 @@ public class UndoStorage implements Serializable {
          */
         public UndoWay(@NonNull Way originalWay, boolean inCurrentStorage, boolean inApiStorage) {
             super(originalWay, inCurrentStorage, inApiStorage);
-            nodes = inCurrentStorage || inApiStorage ? new ArrayList<>(originalWay.getNodes()) : new ArrayList<>();
+            nodes = inCurrentStorage || inApiStorage ? originalWay.getNodes().toArray(new Node[0]) : new Node[0];
         }
 
         @Override
@@ -847,7 +1114,7 @@ public class UndoStorage implements Serializable {
                 }
             }
             boolean deleted = super.state == OsmElement.STATE_DELETED;
-            if (inStorage == 0 && !nodes.isEmpty() && !deleted) {
+            if (inStorage == 0 && nodes.length > 0 && !deleted) {
                 // if no nodes we are restoring to pre-creation state without nodes which is ok
                 Log.e(DEBUG_TAG, "#" + element.getOsmId() + " " + element.getDescription() + " is missing all nodes");
                 // note this still allows ways with 1 node to be created which might be necessary
@@ -878,6 +1145,8 @@ public class UndoStorage implements Serializable {
                 // reset the style
                 ((Way) restored).setStyle(null);
                 ((Way) restored).invalidateBoundingBox();
+                currentStorage.invalidateIndices(restored);
+                apiStorage.invalidateIndices(restored);
             }
             return restored;
         }
@@ -891,7 +1160,7 @@ public class UndoStorage implements Serializable {
          * @return true if closed
          */
         public boolean isClosed() {
-            return !nodes.isEmpty() && nodes.get(0).equals(nodes.get(nodes.size() - 1));
+            return nodes.length > 0 && nodes[0].equals(nodes[nodes.length - 1]);
         }
 
         /**
@@ -902,7 +1171,7 @@ public class UndoStorage implements Serializable {
          * @return the length in m
          */
         public double length() {
-            return Way.length(nodes);
+            return Way.length(getNodes());
         }
 
         /**
@@ -911,7 +1180,7 @@ public class UndoStorage implements Serializable {
          * @return the number of nodes in this Way
          */
         public int nodeCount() {
-            return nodes == null ? 0 : nodes.size();
+            return nodes == null ? 0 : nodes.length;
         }
 
         /**
@@ -920,12 +1189,12 @@ public class UndoStorage implements Serializable {
          * @return a list of the nodes
          */
         public List<Node> getNodes() {
-            return Collections.unmodifiableList(nodes);
+            return Collections.unmodifiableList(Arrays.asList(nodes));
         }
 
         @Override
         public BoundingBox getBounds(Checkpoint checkpoint) {
-            return UndoStorage.getBounds(checkpoint, nodes);
+            return UndoStorage.getBounds(checkpoint, getNodes());
         }
     }
 
@@ -981,6 +1250,8 @@ public class UndoStorage implements Serializable {
                         }
                     }
                 }
+                currentStorage.invalidateMembers((Relation) restored);
+                apiStorage.invalidateMembers((Relation) restored);
             }
             return restored;
         }
@@ -1054,7 +1325,7 @@ public class UndoStorage implements Serializable {
         int i = 0;
         for (Checkpoint checkpoint : checkpoints) {
             StringBuilder message = new StringBuilder(checkpoint.getName() + "<br>");
-            for (UndoElement u : checkpoint.elements.values()) {
+            for (UndoElement u : checkpoint.getElements()) {
                 message.append("<small>");
                 message.append(u.getDescription(ctx));
                 message.append("</small><br>");
@@ -1114,11 +1385,9 @@ public class UndoStorage implements Serializable {
         String name = element.getName();
         long osmId = element.getOsmId();
         for (Checkpoint checkpoint : checkpoints) {
-            for (UndoElement undoElement : checkpoint.elements.values()) {
-                if (undoElement.element.getName().equals(name) && undoElement.osmId == osmId) {
-                    result.add(undoElement);
-                    break;
-                }
+            UndoElement undoElement = checkpoint.get(name, osmId);
+            if (undoElement != null) {
+                result.add(undoElement);
             }
         }
         return result;
@@ -1144,13 +1413,13 @@ public class UndoStorage implements Serializable {
         if (depth <= Relation.MAX_DEPTH) {
             for (RelationMember rm : members) {
                 OsmElement e = rm.getElement();
-                UndoElement ue = checkpoint.elements.get(e);
+                UndoElement ue = checkpoint.get(e);
                 BoundingBox box = null;
                 if (ue != null) {
                     if (ue instanceof UndoRelation) {
                         box = getBounds(checkpoint, ((UndoRelation) ue).getMembers(), depth + 1);
                     } else if (ue instanceof UndoWay) {
-                        box = getBounds(checkpoint, ((UndoWay) ue).nodes);
+                        box = getBounds(checkpoint, ((UndoWay) ue).getNodes());
                     } else {
                         box = ue.getBounds(checkpoint);
                     }
@@ -1193,19 +1462,13 @@ public class UndoStorage implements Serializable {
     private static BoundingBox getBounds(@NonNull Checkpoint checkpoint, @NonNull List<Node> nodes) {
         BoundingBox result = null;
         for (Node n : nodes) {
-            UndoNode un = (UndoNode) checkpoint.elements.get(n);
-            if (un == null) {
-                if (result == null) {
-                    result = new BoundingBox(n.getLon(), n.getLat());
-                } else {
-                    result.union(n.getLon(), n.getLat());
-                }
+            int index = checkpoint.indexOf(n);
+            int lon = index < 0 ? n.getLon() : checkpoint.nodes.getLon(index);
+            int lat = index < 0 ? n.getLat() : checkpoint.nodes.getLat(index);
+            if (result == null) {
+                result = new BoundingBox(lon, lat);
             } else {
-                if (result == null) {
-                    result = new BoundingBox(un.getLon(), un.getLat());
-                } else {
-                    result.union(un.getLon(), un.getLat());
-                }
+                result.union(lon, lat);
             }
         }
         return result;
@@ -0,0 +1,252 @@
+package de.blau.android.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongOsmElementMap;
+
+/**
+ * Index from the ids of Relation members that haven't been downloaded to the Relations in a Storage instance
+ *
+ * There is one map per member type, entries are either a single Relation or, for elements that are members of multiple
+ * Relations, an array of Relations. Relations that have had their members changed need to be re-added with
+ * {@link #invalidate(Relation)}, the actual work is deferred to the next query. Entries for Relations that have been
+ * removed from storage or no longer have the member without it being downloaded are dropped lazily when they are
+ * encountered in a query.
+ *
+ * This class is not thread safe, callers need to synchronize.
+ *
+ * @author simon
+ *
+ */
+final class UndownloadedMemberIndex {
+
+    private static final int MIN_PENDING = 1000;
+
+    private final LongOsmElementMap<Relation> relations;
+
+    private final LongHashMap<Object> nodeIndex     = new LongHashMap<>();
+    private final LongHashMap<Object> wayIndex      = new LongHashMap<>();
+    private final LongHashMap<Object> relationIndex = new LongHashMap<>();
+    private final List<Relation>      pending       = new ArrayList<>();
+    private boolean                   rebuild       = true;
+
+    /**
+     * Construct a new index for the contents of the map
+     *
+     * The index is built on the first query
+     *
+     * @param relations the Relation map
+     */
+    UndownloadedMemberIndex(@NonNull LongOsmElementMap<Relation> relations) {
+        this.relations = relations;
+    }
+
+    /**
+     * Mark a Relation as having changed its members
+     *
+     * @param relation the Relation
+     */
+    void invalidate(@NonNull Relation relation) {
+        if (rebuild) {
+            return;
+        }
+        if (pending.size() > Math.max(MIN_PENDING, relations.size() / 4)) {
+            // cheaper to start from scratch
+            invalidateAll();
+            return;
+        }
+        pending.add(relation);
+    }
+
+    /**
+     * Throw away the index, it will be rebuilt on the next query
+     */
+    void invalidateAll() {
+        rebuild = true;
+        pending.clear();
+        nodeIndex.clear();
+        wayIndex.clear();
+        relationIndex.clear();
+    }
+
+    /**
+     * Make sure that the index reflects the current state of the Storage
+     */
+    private void update() {
+        if (rebuild) {
+            for (Relation r : relations) {
+                add(r);
+            }
+            rebuild = false;
+        } else if (!pending.isEmpty()) {
+            for (Relation r : pending) {
+                if (relations.get(r.getOsmId()) == r) {
+                    add(r);
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Get the map for a member type
+     *
+     * @param type the member type
+     * @return the map or null if the type is unknown
+     */
+    @Nullable
+    private LongHashMap<Object> getIndex(@Nullable String type) {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+        case Node.NAME:
+            return nodeIndex;
+        case Way.NAME:
+            return wayIndex;
+        case Relation.NAME:
+            return relationIndex;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Add entries for all members of a Relation that haven't been downloaded
+     *
+     * @param relation the Relation
+     */
+    private void add(@NonNull Relation relation) {
+        List<RelationMember> members = relation.getMembers();
+        if (members == null) {
+            return;
+        }
+        for (RelationMember rm : members) {
+            if (rm != null && !rm.downloaded()) {
+                LongHashMap<Object> index = getIndex(rm.getType());
+                if (index != null) {
+                    addEntry(index, rm.getRef(), relation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a Relation to the entry for a member id if it isn't already present
+     *
+     * @param index the map for the member type
+     * @param id the member id
+     * @param relation the Relation
+     */
+    private void addEntry(@NonNull LongHashMap<Object> index, long id, @NonNull Relation relation) {
+        Object entry = index.get(id);
+        if (entry == null) {
+            index.put(id, relation);
+        } else if (entry instanceof Relation) {
+            if (entry != relation) {
+                index.put(id, new Relation[] { (Relation) entry, relation });
+            }
+        } else {
+            Relation[] current = (Relation[]) entry;
+            for (Relation r : current) {
+                if (r == relation) {
+                    return;
+                }
+            }
+            Relation[] temp = new Relation[current.length + 1];
+            System.arraycopy(current, 0, temp, 0, current.length);
+            temp[current.length] = relation;
+            index.put(id, temp);
+        }
+    }
+
+    /**
+     * Remove a Relation from the entry for a member id
+     *
+     * Arrays are never changed in place so that it is safe to remove entries while iterating
+     *
+     * @param index the map for the member type
+     * @param id the member id
+     * @param relation the Relation
+     */
+    private void removeEntry(@NonNull LongHashMap<Object> index, long id, @NonNull Relation relation) {
+        Object entry = index.get(id);
+        if (entry == relation) {
+            index.remove(id);
+        } else if (entry instanceof Relation[]) {
+            Relation[] current = (Relation[]) entry;
+            int pos = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == relation) {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos == -1) {
+                return;
+            }
+            if (current.length == 2) {
+                index.put(id, current[1 - pos]);
+                return;
+            }
+            Relation[] temp = new Relation[current.length - 1];
+            System.arraycopy(current, 0, temp, 0, pos);
+            System.arraycopy(current, pos + 1, temp, pos, temp.length - pos);
+            index.put(id, temp);
+        }
+    }
+
+    /**
+     * Add a Relation to result if it is still in storage and has the member without it being downloaded, otherwise
+     * remove the stale entry
+     *
+     * @param index the map for the member type
+     * @param type the member type
+     * @param id the member id
+     * @param relation the Relation from the entry
+     * @param result a Collection to add the Relation to
+     */
+    private void addIfValid(@NonNull LongHashMap<Object> index, @NonNull String type, long id, @NonNull Relation relation,
+            @NonNull Collection<Relation> result) {
+        if (relations.get(relation.getOsmId()) == relation) {
+            List<RelationMember> members = relation.getMembers();
+            if (members != null) {
+                for (RelationMember rm : members) {
+                    if (rm != null && rm.getRef() == id && !rm.downloaded() && type.equals(rm.getType())) {
+                        result.add(relation);
+                        return;
+                    }
+                }
+            }
+        }
+        removeEntry(index, id, relation);
+    }
+
+    /**
+     * Get all Relations that have a member that hasn't been downloaded
+     *
+     * @param type the member type
+     * @param id the member id
+     * @param result a Collection to add the Relations to
+     */
+    void getRelations(@NonNull String type, long id, @NonNull Collection<Relation> result) {
+        update();
+        LongHashMap<Object> index = getIndex(type);
+        if (index == null) {
+            return;
+        }
+        Object entry = index.get(id);
+        if (entry instanceof Relation) {
+            addIfValid(index, type, id, (Relation) entry, result);
+        } else if (entry != null) {
+            for (Relation r : (Relation[]) entry) {
+                addIfValid(index, type, id, r, result);
+            }
+        }
+    }
+}
@@ -55,6 +55,7 @@ public class Preferences {
     private int               downloadRadius;                // in m
     private float             maxDownloadSpeed;              // in km/h
     private final int         autoPruneNodeLimit;
+    private final int         undoMemoryBudget;
     private final int         autoPruneTaskLimit;
     private final int         panAndZoomLimit;
     private int               bugDownloadRadius;
@@ -156,6 +157,7 @@ public class Preferences {
         downloadRadius = getIntPref(R.string.config_extTriggeredDownloadRadius_key, 50);
         maxDownloadSpeed = getIntPref(R.string.config_maxDownloadSpeed_key, 10);
         autoPruneNodeLimit = getIntPref(R.string.config_autoPruneNodeLimit_key, de.blau.android.layer.data.MapOverlay.DEFAULT_AUTOPRUNE_NODE_LIMIT);
+        undoMemoryBudget = getIntPref(R.string.config_undoMemoryBudget_key, de.blau.android.osm.UndoStorage.DEFAULT_MEMORY_BUDGET);
         autoPruneTaskLimit = getIntPref(R.string.config_autoPruneTaskLimit_key, de.blau.android.layer.tasks.MapOverlay.DEFAULT_AUTOPRUNE_TASK_LIMIT);
         panAndZoomLimit = getIntPref(R.string.config_panAndZoomLimit_key, de.blau.android.layer.data.MapOverlay.PAN_AND_ZOOM_LIMIT);
 
@@ -639,6 +641,15 @@ public class Preferences {
         return autoPruneNodeLimit;
     }
 
+    /**
+     * Get the memory budget for undo checkpoints
+     * 
+     * @return the budget in MB
+     */
+    public int getUndoMemoryBudget() {
+        return undoMemoryBudget;
+    }
+
     /**
      * Get the number of Tasks at which we start attempting a prune
      * 
@@ -0,0 +1,149 @@
+package de.blau.android.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.KeyValue;
+
+/**
+ * Determine tags that every element matching a JOSM filter expression must have
+ *
+ * This is a conservative analysis of the expression text: only simple key=value and key=* terms at the top level of an
+ * expression without alternatives, brackets or parent/child operators are considered. If in doubt no tags are
+ * returned, which simply means that all elements need to be evaluated.
+ *
+ * @author simon
+ *
+ */
+final class RequiredTags {
+
+    private static final String ANY_VALUE = "*";
+
+    /**
+     * Private constructor to stop instantiation
+     */
+    private RequiredTags() {
+        // private
+    }
+
+    /**
+     * Get the tags required by a filter expression
+     *
+     * @param filter the filter expression
+     * @param regexp true if the expression uses regular expressions
+     * @return a List of KeyValue, if the value is null any value matches
+     */
+    @NonNull
+    static List<KeyValue> get(@NonNull String filter, boolean regexp) {
+        List<KeyValue> result = new ArrayList<>();
+        if (regexp) {
+            return result;
+        }
+        List<String> terms = split(filter);
+        if (terms == null) {
+            return result;
+        }
+        for (String term : terms) {
+            String lower = term.toLowerCase(Locale.US);
+            if ("or".equals(lower) || "xor".equals(lower) || "not".equals(lower) || "child".equals(lower) || "parent".equals(lower) || term.indexOf('|') >= 0
+                    || term.indexOf('^') >= 0 || term.indexOf('(') >= 0 || term.indexOf(')') >= 0) {
+                result.clear();
+                return result;
+            }
+            KeyValue tag = toTag(term);
+            if (tag != null) {
+                result.add(tag);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Split an expression in to whitespace separated terms
+     *
+     * @param filter the filter expression
+     * @return the terms or null if quotes aren't balanced
+     */
+    @Nullable
+    private static List<String> split(@NonNull String filter) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (quoted && c == '\\' && i + 1 < filter.length()) {
+                term.append(c).append(filter.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (term.length() > 0) {
+                    terms.add(term.toString());
+                    term.setLength(0);
+                }
+                continue;
+            }
+            term.append(c);
+        }
+        if (quoted) {
+            return null;
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    /**
+     * Convert a term to a required tag
+     *
+     * Negated terms, quoted terms and anything that isn't a plain key=value or key=* term is ignored
+     *
+     * @param term the term
+     * @return a KeyValue or null
+     */
+    @Nullable
+    private static KeyValue toTag(@NonNull String term) {
+        if (term.startsWith("-") || term.indexOf('"') >= 0) {
+            return null;
+        }
+        int eq = term.indexOf('=');
+        if (eq <= 0 || eq != term.lastIndexOf('=') || eq == term.length() - 1) {
+            return null;
+        }
+        String key = term.substring(0, eq);
+        String value = term.substring(eq + 1);
+        if (containsSpecial(key) || (!ANY_VALUE.equals(value) && containsSpecial(value))) {
+            return null;
+        }
+        return ANY_VALUE.equals(value) ? new KeyValue(key, (List<String>) null) : new KeyValue(key, value);
+    }
+
+    /**
+     * Check if a String contains characters with special meaning
+     *
+     * @param s the String
+     * @return true if special characters are present
+     */
+    private static boolean containsSpecial(@NonNull String s) {
+        for (int i = 0; i < s.length(); i++) {
+            switch (s.charAt(i)) {
+            case '*':
+            case '?':
+            case '<':
+            case '>':
+            case '~':
+            case ':':
+            case '\\':
+                return true;
+            default:
+                // continue
+            }
+        }
+        return false;
+    }
+}
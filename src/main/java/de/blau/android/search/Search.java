@@ -80,7 +80,7 @@ public final class Search {
                             Wrapper wrapper = new Wrapper(activity);
 
                             try {
-                                result = wrapper.getMatchingElementsInternal(condition);
+                                result = wrapper.getMatchingElementsInternal(condition, RequiredTags.get(text, useRegexp), true);
                             } catch (Exception e) {
                                 return e.getMessage();
                             }
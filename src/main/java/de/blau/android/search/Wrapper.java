@@ -7,6 +7,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
@@ -23,7 +27,7 @@ import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.OsmElement.ElementType;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.RelationMember;
-import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.Storage;
 import de.blau.android.osm.ViewBox;
 import de.blau.android.osm.Way;
 import de.blau.android.presets.Preset;
@@ -31,6 +35,7 @@ import de.blau.android.presets.PresetElement;
 import de.blau.android.presets.PresetElementPath;
 import de.blau.android.presets.PresetGroup;
 import de.blau.android.presets.PresetItem;
+import de.blau.android.util.KeyValue;
 
 /**
  * Wrapper around an OsmElement to provide the Meta interface without impacting serialization
@@ -40,6 +45,16 @@ import de.blau.android.presets.PresetItem;
  */
 public class Wrapper implements Meta {
 
+    /**
+     * Minimum number of elements for which we evaluate in parallel
+     */
+    static final int MIN_PARALLEL = 10000;
+
+    /**
+     * Number of elements evaluated in one go on a worker thread
+     */
+    static final int CHUNK_SIZE = 5000;
+
     private OsmElement element;
 
     final Context context;
@@ -375,7 +390,8 @@ public class Wrapper implements Meta {
     @Override
     public List<Object> getMatchingElements(@NonNull Condition c) {
         List<Object> result = new ArrayList<>();
-        SearchResult sr = getMatchingElementsInternal(c);
+        // this is called while evaluating a condition, potentially on a worker thread, so don't start new ones
+        SearchResult sr = getMatchingElementsInternal(c, new ArrayList<>(), false);
         result.addAll(sr.nodes);
         result.addAll(sr.ways);
         result.addAll(sr.relations);
@@ -404,27 +420,148 @@ public class Wrapper implements Meta {
      * @return a SearchResult object
      */
     SearchResult getMatchingElementsInternal(@NonNull Condition c) {
-        StorageDelegator delegator = App.getDelegator();
-        SearchResult result = new SearchResult();
+        return getMatchingElementsInternal(c, new ArrayList<>(), true);
+    }
 
-        for (Node n : delegator.getCurrentStorage().getNodes()) {
-            setElement(n);
-            if (c.eval(Type.NODE, this, n.getTags())) {
-                result.nodes.add(n);
+    /**
+     * Eval the condition on the objects in memory that have the required tags
+     * 
+     * Only the elements that the tag index returns for the most selective of the required tags are evaluated, if there
+     * are none all elements are.
+     * 
+     * @param c the Condition to check
+     * @param requiredTags tags that all matching elements must have, a null value matches any value
+     * @param parallel if true and there are many elements evaluate in parallel
+     * @return a SearchResult object
+     */
+    SearchResult getMatchingElementsInternal(@NonNull Condition c, @NonNull List<KeyValue> requiredTags, boolean parallel) {
+        Storage storage = App.getDelegator().getCurrentStorage();
+        KeyValue selective = null;
+        int min = Integer.MAX_VALUE;
+        for (KeyValue tag : requiredTags) {
+            int count = storage.countElementsWithTag(tag.getKey(), tag.getValue());
+            if (count < min) {
+                min = count;
+                selective = tag;
             }
         }
-        for (Way w : delegator.getCurrentStorage().getWays()) {
-            setElement(w);
-            if (c.eval(Type.WAY, this, w.getTags())) {
-                result.ways.add(w);
+        List<Node> nodes;
+        List<Way> ways;
+        List<Relation> relations;
+        if (selective != null) {
+            nodes = new ArrayList<>();
+            ways = new ArrayList<>();
+            relations = new ArrayList<>();
+            for (OsmElement e : storage.getElementsWithTag(selective.getKey(), selective.getValue(), new ArrayList<>(min))) {
+                if (e instanceof Node) {
+                    nodes.add((Node) e);
+                } else if (e instanceof Way) {
+                    ways.add((Way) e);
+                } else if (e instanceof Relation) {
+                    relations.add((Relation) e);
+                }
             }
+        } else if (parallel) {
+            // the views can't be shared between threads
+            nodes = storage.getNodes();
+            ways = storage.getWays();
+            relations = storage.getRelations();
+        } else {
+            nodes = storage.getNodesView();
+            ways = storage.getWaysView();
+            relations = storage.getRelationsView();
         }
-        for (Relation r : delegator.getCurrentStorage().getRelations()) {
-            setElement(r);
-            if (c.eval(Type.RELATION, this, r.getTags())) {
-                result.relations.add(r);
-            }
+
+        SearchResult result = new SearchResult();
+        final int threads = Runtime.getRuntime().availableProcessors();
+        if (!parallel || threads < 2 || nodes.size() + ways.size() + relations.size() < MIN_PARALLEL) {
+            eval(c, Type.NODE, nodes, result.nodes);
+            eval(c, Type.WAY, ways, result.ways);
+            eval(c, Type.RELATION, relations, result.relations);
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Node>>> nodeChunks = submit(executor, c, Type.NODE, nodes);
+            List<Future<List<Way>>> wayChunks = submit(executor, c, Type.WAY, ways);
+            List<Future<List<Relation>>> relationChunks = submit(executor, c, Type.RELATION, relations);
+            collect(nodeChunks, result.nodes);
+            collect(wayChunks, result.ways);
+            collect(relationChunks, result.relations);
+        } finally {
+            executor.shutdownNow();
         }
         return result;
     }
+
+    /**
+     * Evaluate the condition for a List of elements
+     * 
+     * @param <T> the element type
+     * @param c the Condition to check
+     * @param type the JOSM filter type of the elements
+     * @param elements the elements
+     * @param result a List the matching elements are added to
+     */
+    private <T extends OsmElement> void eval(@NonNull Condition c, @NonNull Type type, @NonNull List<T> elements, @NonNull List<T> result) {
+        for (T e : elements) {
+            setElement(e);
+            if (c.eval(type, this, e.getTags())) {
+                result.add(e);
+            }
+        }
+    }
+
+    /**
+     * Submit chunks of elements for evaluation
+     * 
+     * @param <T> the element type
+     * @param executor the ExecutorService to use
+     * @param c the Condition to check
+     * @param type the JOSM filter type of the elements
+     * @param elements the elements
+     * @return a List of Futures for the matching elements in each chunk
+     */
+    @NonNull
+    private <T extends OsmElement> List<Future<List<T>>> submit(@NonNull ExecutorService executor, @NonNull Condition c, @NonNull Type type,
+            @NonNull List<T> elements) {
+        List<Future<List<T>>> chunks = new ArrayList<>();
+        final int size = elements.size();
+        for (int start = 0; start < size; start += CHUNK_SIZE) {
+            final List<T> chunk = elements.subList(start, Math.min(size, start + CHUNK_SIZE));
+            chunks.add(executor.submit(() -> {
+                // Wrapper holds the current element so we need one per thread
+                Wrapper wrapper = new Wrapper(context);
+                List<T> matching = new ArrayList<>();
+                wrapper.eval(c, type, chunk, matching);
+                return matching;
+            }));
+        }
+        return chunks;
+    }
+
+    /**
+     * Add the results of all chunks, in order, to a List
+     * 
+     * @param <T> the element type
+     * @param chunks the Futures for the chunks
+     * @param result the List to add the elements to
+     */
+    private static <T extends OsmElement> void collect(@NonNull List<Future<List<T>>> chunks, @NonNull List<T> result) {
+        try {
+            for (Future<List<T>> chunk : chunks) {
+                result.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                // for example unsupported features
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
 }
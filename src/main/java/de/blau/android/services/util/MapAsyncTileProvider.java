@@ -1,15 +1,14 @@
 package de.blau.android.services.util;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import android.util.Log;
 import androidx.annotation.NonNull;
+import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.views.util.MapTileProviderCallback;
 
 /**
@@ -28,11 +27,28 @@ public abstract class MapAsyncTileProvider {
     public static final int DOESNOTEXIST = 2;
     public static final int NONETWORK    = 3;
     public static final int RETRY        = 4;
+    public static final int CANCELLED    = 5;
 
     public static final int ALLZOOMS = -1;
 
-    ThreadPoolExecutor                  mThreadPool;
-    private final Map<String, Runnable> mPending = new HashMap<>();
+    ThreadPoolExecutor             mThreadPool;
+    private final LongHashSet      mPending = new LongHashSet();
+    private final TileRequestQueue mQueue   = new TileRequestQueue();
+
+    /**
+     * Each queued request gets one execution of this on the thread pool, it runs the request with the highest priority
+     * at that point in time
+     */
+    private final Runnable mRunNext = () -> {
+        List<TileRequestQueue.Request> dropped = new ArrayList<>();
+        TileRequestQueue.Request request = mQueue.next(dropped);
+        for (TileRequestQueue.Request d : dropped) {
+            cancel(d);
+        }
+        if (request != null) {
+            request.loader.run();
+        }
+    };
 
     /**
      * Queue a tile for loading, if it is already in the queue this returns without doing anything
@@ -40,68 +56,82 @@ public abstract class MapAsyncTileProvider {
      * @param aTile the tile descriptor
      * @param aCallback the call back for when the tile has been loaded
      */
-    public synchronized void loadMapTileAsync(@NonNull final MapTile aTile, final MapTileProviderCallback aCallback) {
-        final String tileId = aTile.toId();
+    public void loadMapTileAsync(@NonNull final MapTile aTile, @NonNull final MapTileProviderCallback aCallback) {
+        final long key = aTile.toKey();
         synchronized (mPending) {
-            if (mPending.containsKey(tileId)) {
+            if (mPending.contains(key)) {
                 return;
             }
+            mPending.put(key);
         }
-        Runnable r = getTileLoader(aTile, aCallback);
-        synchronized (mPending) {
-            mPending.put(tileId, r);
-        }
+        TileRequestQueue.Request request = new TileRequestQueue.Request(aTile, getTileLoader(aTile, aCallback), aCallback);
+        mQueue.add(request);
         try {
-            mThreadPool.execute(r);
+            mThreadPool.execute(mRunNext);
         } catch (RejectedExecutionException rjee) {
             Log.e(DEBUG_TAG, "Execution rejected " + rjee.getMessage());
+            if (mQueue.remove(request)) {
+                synchronized (mPending) {
+                    mPending.remove(key);
+                }
+            }
         }
     }
 
     /**
-     * Remove a specific request from the Executors queue
+     * Cancel a request that has not been started yet, the callback is informed with reason CANCELLED
      * 
-     * @param tileId id of the request
-     * @return true if successful
+     * @param request the request
      */
-    private boolean removeRequest(@NonNull final String tileId) {
+    private void cancel(@NonNull TileRequestQueue.Request request) {
         synchronized (mPending) {
-            Runnable r = mPending.get(tileId);
-            if (mThreadPool.remove(r)) {
-                mPending.remove(tileId);
-                return true;
-            }
+            mPending.remove(request.key);
+        }
+        MapTile tile = request.tile;
+        try {
+            request.callback.mapTileFailed(tile.rendererID, tile.zoomLevel, tile.x, tile.y, CANCELLED);
+        } catch (IOException e) {
+            Log.e(DEBUG_TAG, "mapTileFailed failed with " + e.getMessage());
         }
-        return false;
     }
 
     /**
-     * Remove requests from the Executor queue for a specific renderer and zoom level
+     * Remove requests from the queue for a specific renderer and zoom level
      * 
      * @param rendererId the renderer we want to remove tiles for
      * @param zoom the zoom level we want to remove tiles for, if ALLZOOMS remove all requests for the renderer
      */
     public void flushQueue(@NonNull String rendererId, int zoom) {
-        Set<Entry<String, Runnable>> entries;
-        synchronized (mPending) {
-            entries = new HashSet<>(mPending.entrySet());
-        }
-        if (zoom != ALLZOOMS) {
-            String id = Integer.toString(zoom) + rendererId; // see MapTile.toId()
-            for (Entry<String, Runnable> e : entries) {
-                if (e.getKey().startsWith(id)) {
-                    removeRequest(e.getKey());
-                }
-            }
-        } else {
-            for (Entry<String, Runnable> e : entries) {
-                if (e.getKey().contains(rendererId)) {
-                    removeRequest(e.getKey());
-                }
-            }
+        for (TileRequestQueue.Request request : mQueue.remove(MapTile.rendererIndex(rendererId), zoom)) {
+            cancel(request);
         }
     }
 
+    /**
+     * Set the currently visible tiles for a renderer, requests for tiles closest to the centre are run first and requests
+     * for tiles that are no longer visible are cancelled
+     * 
+     * @param rendererId the renderer
+     * @param zoom the current zoom level
+     * @param left left most visible tile x
+     * @param top top most visible tile y
+     * @param right right most visible tile x
+     * @param bottom bottom most visible tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        mQueue.setViewport(MapTile.rendererIndex(rendererId), zoom, left, top, right, bottom);
+    }
+
+    /**
+     * Get queue depth and latency statistics
+     * 
+     * @return a String suitable for display
+     */
+    @NonNull
+    public String getQueueInfo() {
+        return mQueue.getInfo();
+    }
+
     /**
      * Get the TileLoader for a tile
      * 
@@ -114,6 +144,7 @@ public abstract class MapAsyncTileProvider {
     abstract class TileLoader implements Runnable {
         final MapTile                 mTile;
         final MapTileProviderCallback mCallback;
+        private final long            mKey;
 
         /**
          * Construct a new TileLoader
@@ -124,6 +155,7 @@ public abstract class MapAsyncTileProvider {
         protected TileLoader(@NonNull final MapTile aTile, @NonNull final MapTileProviderCallback aCallback) {
             mTile = aTile;
             mCallback = aCallback;
+            mKey = aTile.toKey();
         }
 
         /**
@@ -131,7 +163,7 @@ public abstract class MapAsyncTileProvider {
          */
         void finished() {
             synchronized (mPending) {
-                mPending.remove(mTile.toId());
+                mPending.remove(mKey);
             }
         }
     }
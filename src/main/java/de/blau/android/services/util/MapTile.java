@@ -1,5 +1,10 @@
 package de.blau.android.services.util;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -27,6 +32,24 @@ public class MapTile {
     public static final int MAPTILE_SUCCESS_ID = 0;
     public static final int MAPTILE_FAIL_ID    = MAPTILE_SUCCESS_ID + 1;
 
+    /**
+     * Layout of the packed long keys, from the least significant bit: y, x, zoom and renderer index
+     */
+    private static final int  COORD_BITS     = 25;
+    private static final int  ZOOM_BITS      = 5;
+    private static final int  RENDERER_BITS  = 8;
+    private static final long COORD_MASK     = (1L << COORD_BITS) - 1;
+    private static final long ZOOM_MASK      = (1L << ZOOM_BITS) - 1;
+    private static final long RENDERER_MASK  = (1L << RENDERER_BITS) - 1;
+    private static final int  ZOOM_SHIFT     = 2 * COORD_BITS;
+    private static final int  RENDERER_SHIFT = ZOOM_SHIFT + ZOOM_BITS;
+    private static final int  MAX_RENDERERS  = 1 << RENDERER_BITS;
+
+    /**
+     * Renderer indices in access order, bounded to MAX_RENDERERS entries
+     */
+    private static final Map<String, Integer> rendererIndices = new LinkedHashMap<>(16, 0.75f, true);
+
     /**
      * Create a new tile descriptor
      * 
@@ -72,6 +95,99 @@ public class MapTile {
         return id;
     }
 
+    /**
+     * Generate a key packing renderer, zoom level and tile coordinates in to a long
+     * 
+     * Zoom levels up to 25 are supported. Renderers are numbered in the order they are first seen, at most 256
+     * renderers have an index at the same time, see {@link #rendererIndex(String)}.
+     * 
+     * @return the key
+     */
+    public long toKey() {
+        return toKey(rendererIndex(rendererID), zoomLevel, x, y);
+    }
+
+    /**
+     * Pack a renderer index, zoom level and tile coordinates in to a long
+     * 
+     * @param rendererIndex the index of the renderer
+     * @param zoomLevel the zoom level
+     * @param x tile x coordinate
+     * @param y tile y coordinate
+     * @return the key
+     */
+    public static long toKey(int rendererIndex, int zoomLevel, int x, int y) {
+        return ((rendererIndex & RENDERER_MASK) << RENDERER_SHIFT) | ((zoomLevel & ZOOM_MASK) << ZOOM_SHIFT) | ((x & COORD_MASK) << COORD_BITS)
+                | (y & COORD_MASK);
+    }
+
+    /**
+     * Get the index for a renderer id, allocating a new one if necessary
+     * 
+     * If all 256 indices are in use the index of the least recently used renderer is taken over, that renderer is
+     * removed and will get a new index the next time it is used. As requests are only queued for a short time, this
+     * renderer will not have any keys in use, the map of indices never holds more than 256 entries.
+     * 
+     * @param rendererID the renderer id
+     * @return the index
+     */
+    public static int rendererIndex(@Nullable String rendererID) {
+        synchronized (rendererIndices) {
+            Integer index = rendererIndices.get(rendererID);
+            if (index == null) {
+                if (rendererIndices.size() < MAX_RENDERERS) {
+                    index = rendererIndices.size();
+                } else {
+                    Iterator<Entry<String, Integer>> eldest = rendererIndices.entrySet().iterator();
+                    index = eldest.next().getValue();
+                    eldest.remove();
+                }
+                rendererIndices.put(rendererID, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Get the renderer index from a key
+     * 
+     * @param key the key
+     * @return the renderer index
+     */
+    public static int rendererIndexFromKey(long key) {
+        return (int) ((key >>> RENDERER_SHIFT) & RENDERER_MASK);
+    }
+
+    /**
+     * Get the zoom level from a key
+     * 
+     * @param key the key
+     * @return the zoom level
+     */
+    public static int zoomFromKey(long key) {
+        return (int) ((key >>> ZOOM_SHIFT) & ZOOM_MASK);
+    }
+
+    /**
+     * Get the x coordinate from a key
+     * 
+     * @param key the key
+     * @return the tile x coordinate
+     */
+    public static int xFromKey(long key) {
+        return (int) ((key >>> COORD_BITS) & COORD_MASK);
+    }
+
+    /**
+     * Get the y coordinate from a key
+     * 
+     * @param key the key
+     * @return the tile y coordinate
+     */
+    public static int yFromKey(long key) {
+        return (int) (key & COORD_MASK);
+    }
+
     /**
      * Reset anything important so that the instance can be reused
      */
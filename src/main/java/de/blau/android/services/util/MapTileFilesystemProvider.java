@@ -3,8 +3,10 @@ package de.blau.android.services.util;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -47,6 +49,11 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
 
     static final String DEBUG_TAG = "MapTileFile...Provider";
 
+    /**
+     * Overlays are typically only used for a short time, they may not use more than this fraction of the cache
+     */
+    private static final float OVERLAY_QUOTA = 0.25f;
+
     // ===========================================================
     // Fields
     // ===========================================================
@@ -54,11 +61,11 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
     private final Context                 mCtx;
     private final MapTileProviderDataBase mDatabase;
     private final int                     mMaxFSCacheByteSize;
-    private int                           mCurrentCacheByteSize;
     private boolean                       errorDisplayed = false;
 
     private final Map<String, MBTileProviderDataBase> mbTileDatabases = new HashMap<>();
     private final Random                              random          = new Random();
+    private final Set<String>                         quotasSet       = new HashSet<>();
 
     /** online provider */
     private final MapTileDownloader mTileDownloader;
@@ -78,13 +85,13 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
         mCtx = ctx;
         mMaxFSCacheByteSize = aMaxFSCacheByteSize;
         mDatabase = new MapTileProviderDataBase(new CustomDatabaseContext(ctx, mountPoint.getAbsolutePath()));
-        mCurrentCacheByteSize = mDatabase.getCurrentFSCacheByteSize();
+        mDatabase.setMaxCacheSize(aMaxFSCacheByteSize);
 
         int maxThreads = App.getPreferences(ctx).getMaxTileDownloadThreads();
         mThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxThreads);
 
         mTileDownloader = new MapTileDownloader(ctx, this);
-        Log.d(DEBUG_TAG, "Currently used cache-size is: " + mCurrentCacheByteSize + " of " + mMaxFSCacheByteSize + " Bytes");
+        Log.d(DEBUG_TAG, "Currently used cache-size is: " + mDatabase.getCachedBytes() + " of " + mMaxFSCacheByteSize + " Bytes");
     }
 
     // ===========================================================
@@ -97,7 +104,34 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
      * @return size in bytes
      */
     public int getCurrentCacheByteSize() {
-        return mCurrentCacheByteSize;
+        return (int) mDatabase.getCachedBytes();
+    }
+
+    /**
+     * Get size and hit rate statistics for the cached tiles of a renderer
+     * 
+     * @param rendererId the id of the TileLayerSource
+     * @return a Statistics object
+     */
+    @NonNull
+    public MapTileProviderDataBase.Statistics getCacheStatistics(@NonNull String rendererId) {
+        return mDatabase.getRendererStatistics(rendererId);
+    }
+
+    /**
+     * Limit the size of the cached tiles for a layer the first time it is used, currently only overlays have a quota
+     * 
+     * @param renderer the TileLayerSource
+     */
+    private void setCacheQuota(@NonNull TileLayerSource renderer) {
+        synchronized (quotasSet) {
+            if (!quotasSet.add(renderer.getId())) {
+                return;
+            }
+        }
+        if (renderer.isOverlay()) {
+            mDatabase.setQuota(renderer.getId(), (long) (mMaxFSCacheByteSize * OVERLAY_QUOTA));
+        }
     }
 
     // ===========================================================
@@ -114,7 +148,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
     // ===========================================================
 
     /**
-     * Save the image data for a tile to the database, making space if necessary
+     * Save the image data for a tile to the database, if the cache is full space is made in the background
      * 
      * @param tile tile meta-data
      * @param data the tile image data
@@ -122,22 +156,9 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
      */
     public void saveFile(final MapTile tile, final byte[] data) throws IOException {
         try {
-            final int bytesGrown = mDatabase.addTile(tile, data);
-            mCurrentCacheByteSize += bytesGrown;
-
-            if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
-                Log.d(DEBUG_TAG, "FSCache Size is now: " + mCurrentCacheByteSize + " Bytes");
-            }
-            /* If Cache is full... */
-            if (mCurrentCacheByteSize > mMaxFSCacheByteSize) {
-                if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
-                    Log.d(DEBUG_TAG, "Freeing FS cache...");
-                }
-                // Free 5% of cache
-                mCurrentCacheByteSize -= mDatabase.deleteOldest((int) (mMaxFSCacheByteSize * 0.05f));
-            }
+            mDatabase.addTile(tile, data);
             if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
-                Log.d(DEBUG_TAG, "Tile saved");
+                Log.d(DEBUG_TAG, "Tile saved, FSCache Size is now: " + mDatabase.getCachedBytes() + " Bytes");
             }
         } catch (IllegalStateException e) {
             if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
@@ -162,7 +183,6 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
         synchronized (this) {
             mDatabase.deleteOldest(bytesToCut);
         }
-        mCurrentCacheByteSize = mDatabase.getCurrentFSCacheByteSize();
     }
 
     /**
@@ -173,7 +193,6 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
     public void flushCache(@Nullable String rendererID) {
         try {
             mDatabase.flushCache(rendererID);
-            mCurrentCacheByteSize = mDatabase.getCurrentFSCacheByteSize();
         } catch (EmptyCacheException e) {
             if (Log.isLoggable(DEBUG_TAG, Log.DEBUG)) {
                 Log.d(DEBUG_TAG, "Flushing tile cache failed", e);
@@ -188,6 +207,18 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
         mTileDownloader.flushQueue(rendererId, zoom);
     }
 
+    @Override
+    public void setViewport(@NonNull String rendererId, int zoom, int left, int top, int right, int bottom) {
+        super.setViewport(rendererId, zoom, left, top, right, bottom);
+        mTileDownloader.setViewport(rendererId, zoom, left, top, right, bottom);
+    }
+
+    @Override
+    @NonNull
+    public String getQueueInfo() {
+        return "file system " + super.getQueueInfo() + " download " + mTileDownloader.getQueueInfo();
+    }
+
     // ===========================================================
     // Inner and Anonymous Classes
     // ===========================================================
@@ -251,6 +282,7 @@ public class MapTileFilesystemProvider extends MapAsyncTileProvider {
                         mCallback.mapTileLoaded(mTile.rendererID, mTile.zoomLevel, mTile.x, mTile.y, data);
                     }
                 } else {
+                    setCacheQuota(renderer);
                     try {
                         byte[] data = mDatabase.getTile(mTile);
                         if (data == null) {
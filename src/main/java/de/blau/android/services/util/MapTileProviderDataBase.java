@@ -4,7 +4,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -25,6 +31,7 @@ import de.blau.android.App;
 import de.blau.android.exception.InvalidTileException;
 import de.blau.android.services.exceptions.EmptyCacheException;
 import de.blau.android.util.ACRAHelper;
+import de.blau.android.util.collections.LongHashMap;
 import de.blau.android.views.util.MapViewConstants;
 
 /**
@@ -45,7 +52,7 @@ public class MapTileProviderDataBase {
     private static final String DEBUG_TAG = "MapTilePro...DataBase";
 
     private static final String DATABASE_NAME    = "osmaptilefscache_db";
-    private static final int    DATABASE_VERSION = 8;
+    private static final int    DATABASE_VERSION = 9;
 
     static final String         T_FSCACHE             = "tiles";
     private static final String T_FSCACHE_RENDERER_ID = "rendererID";
@@ -56,6 +63,7 @@ public class MapTileProviderDataBase {
     private static final String T_FSCACHE_TIMESTAMP  = "timestamp";
     private static final String T_FSCACHE_USAGECOUNT = "countused";
     private static final String T_FSCACHE_FILESIZE   = "filesize";
+    private static final String T_FSCACHE_LASTACCESS = "last_access";
     static final String         T_FSCACHE_DATA       = "tile_data";
 
     private static final String T_RENDERER               = "t_renderer";
@@ -69,8 +77,11 @@ public class MapTileProviderDataBase {
     private static final String T_FSCACHE_CREATE_COMMAND = "CREATE TABLE IF NOT EXISTS " + T_FSCACHE + " (" + T_FSCACHE_RENDERER_ID + " VARCHAR(255) NOT NULL,"
             + T_FSCACHE_ZOOM_LEVEL + " INTEGER NOT NULL," + T_FSCACHE_TILE_X + " INTEGER NOT NULL," + T_FSCACHE_TILE_Y + " INTEGER NOT NULL,"
             + T_FSCACHE_TIMESTAMP + " INTEGER NOT NULL," + T_FSCACHE_USAGECOUNT + " INTEGER NOT NULL DEFAULT 1," + T_FSCACHE_FILESIZE + " INTEGER NOT NULL,"
-            + T_FSCACHE_DATA + " BLOB," + " PRIMARY KEY(" + T_FSCACHE_RENDERER_ID + "," + T_FSCACHE_ZOOM_LEVEL + "," + T_FSCACHE_TILE_X + "," + T_FSCACHE_TILE_Y
-            + ")" + ");";
+            + T_FSCACHE_DATA + " BLOB," + T_FSCACHE_LASTACCESS + " INTEGER NOT NULL DEFAULT 0," + " PRIMARY KEY(" + T_FSCACHE_RENDERER_ID + ","
+            + T_FSCACHE_ZOOM_LEVEL + "," + T_FSCACHE_TILE_X + "," + T_FSCACHE_TILE_Y + ")" + ");";
+
+    private static final String T_FSCACHE_LASTACCESS_INDEX_COMMAND = "CREATE INDEX IF NOT EXISTS " + T_FSCACHE + "_" + T_FSCACHE_LASTACCESS + " ON "
+            + T_FSCACHE + "(" + T_FSCACHE_LASTACCESS + ")";
 
     private static final String T_RENDERER_CREATE_COMMAND = "CREATE TABLE IF NOT EXISTS " + T_RENDERER + " (" + T_RENDERER_ID + " VARCHAR(255) PRIMARY KEY,"
             + T_RENDERER_NAME + " VARCHAR(255)," + T_RENDERER_BASE_URL + " VARCHAR(255)," + T_RENDERER_ZOOM_MIN + " INTEGER NOT NULL," + T_RENDERER_ZOOM_MAX
@@ -89,8 +100,30 @@ public class MapTileProviderDataBase {
             + AND + T_FSCACHE_TILE_Y + SQL_ARG + AND + T_FSCACHE_FILESIZE + ">0";
 
     private static final String T_FSCACHE_SELECT_OLDEST = "SELECT " + T_FSCACHE_RENDERER_ID + "," + T_FSCACHE_ZOOM_LEVEL + "," + T_FSCACHE_TILE_X + ","
-            + T_FSCACHE_TILE_Y + "," + T_FSCACHE_FILESIZE + " FROM " + T_FSCACHE + " WHERE " + T_FSCACHE_FILESIZE + " > 0 ORDER BY " + T_FSCACHE_TIMESTAMP
-            + " ASC";
+            + T_FSCACHE_TILE_Y + "," + T_FSCACHE_FILESIZE + " FROM " + T_FSCACHE + " WHERE " + T_FSCACHE_FILESIZE + " > 0";
+
+    private static final String T_FSCACHE_ORDER_LRU = " ORDER BY " + T_FSCACHE_LASTACCESS + " ASC";
+
+    private static final String T_FSCACHE_UPDATE_ACCESS = "UPDATE " + T_FSCACHE + " SET " + T_FSCACHE_LASTACCESS + "=?," + T_FSCACHE_USAGECOUNT + "="
+            + T_FSCACHE_USAGECOUNT + "+1 WHERE " + T_FSCACHE_WHERE;
+
+    private static final String T_FSCACHE_SELECT_STATISTICS = "SELECT " + T_FSCACHE_RENDERER_ID + ",SUM(" + T_FSCACHE_FILESIZE + "),COUNT(*) FROM "
+            + T_FSCACHE + " WHERE " + T_FSCACHE_FILESIZE + " > 0 GROUP BY " + T_FSCACHE_RENDERER_ID;
+
+    /**
+     * Number of recorded tile accesses that triggers writing them to the database
+     */
+    private static final int ACCESS_BATCH_SIZE = 64;
+
+    /**
+     * Maximum number of tiles removed in one run of the background eviction task
+     */
+    private static final int EVICTION_BATCH_SIZE = 100;
+
+    /**
+     * Once eviction has started, the cache is reduced to this fraction of the maximum size
+     */
+    private static final float EVICTION_TARGET = 0.95f;
 
     private static final String T_FSCACHE_GET = "SELECT " + T_FSCACHE_DATA + " FROM " + T_FSCACHE + " WHERE " + T_FSCACHE_WHERE;
     // ===========================================================
@@ -102,6 +135,89 @@ public class MapTileProviderDataBase {
 
     private static Pools.SynchronizedPool<SQLiteStatement> getStatements;
 
+    /**
+     * Tile accesses that have not been written to the database yet, keyed by MapTile.toKey()
+     */
+    private final LongHashMap<MapTile>    pendingAccesses = new LongHashMap<>();
+    private final Map<String, Statistics> statistics      = new HashMap<>();
+    private final Map<String, Long>       quotas          = new HashMap<>();
+    private long                          totalBytes      = 0;
+    private long                          maxCacheSize    = Long.MAX_VALUE;
+
+    private final ExecutorService maintenanceExecutor;
+    private final AtomicBoolean   maintenanceScheduled = new AtomicBoolean(false);
+    private boolean               evicting             = false;
+
+    /**
+     * Size and usage statistics for the tiles of one renderer
+     */
+    public static final class Statistics {
+        private long bytes  = 0;
+        private long tiles  = 0;
+        private long hits   = 0;
+        private long misses = 0;
+
+        /**
+         * Construct a new empty instance
+         */
+        Statistics() {
+            // empty
+        }
+
+        /**
+         * Construct a copy of an instance
+         * 
+         * @param other the instance to copy
+         */
+        Statistics(@NonNull Statistics other) {
+            bytes = other.bytes;
+            tiles = other.tiles;
+            hits = other.hits;
+            misses = other.misses;
+        }
+
+        /**
+         * @return the size of the cached tiles in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of cached tiles
+         */
+        public long getTiles() {
+            return tiles;
+        }
+
+        /**
+         * @return the number of tiles that were found in the cache
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of tiles that were not found in the cache
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the fraction of requests that were found in the cache, 0 if there were none
+         */
+        public float getHitRate() {
+            long requests = hits + misses;
+            return requests > 0 ? hits / (float) requests : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return "size " + bytes + " tiles " + tiles + " hits " + hits + " misses " + misses + " hit rate " + Math.round(getHitRate() * 100) + "%";
+        }
+    }
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -120,6 +236,268 @@ public class MapTileProviderDataBase {
         for (int i = 0; i < maxThreads; i++) {
             getStatements.release(mDatabase.compileStatement(T_FSCACHE_GET));
         }
+        maintenanceExecutor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread t = new Thread(r, DEBUG_TAG);
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        loadStatistics();
+    }
+
+    /**
+     * Initialize the size statistics from the database contents
+     */
+    private synchronized void loadStatistics() {
+        statistics.clear();
+        totalBytes = 0;
+        if (!mDatabase.isOpen()) {
+            return;
+        }
+        try (Cursor c = mDatabase.rawQuery(T_FSCACHE_SELECT_STATISTICS, null)) {
+            while (c.moveToNext()) {
+                Statistics stats = getStatistics(c.getString(0));
+                stats.bytes = c.getLong(1);
+                stats.tiles = c.getLong(2);
+                totalBytes += stats.bytes;
+            }
+        } catch (SQLiteException e) {
+            Log.e(DEBUG_TAG, "Reading statistics failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the mutable statistics for a renderer, creating them if necessary
+     * 
+     * @param rendererId the renderer id
+     * @return the Statistics
+     */
+    @NonNull
+    private Statistics getStatistics(@NonNull String rendererId) {
+        Statistics stats = statistics.get(rendererId);
+        if (stats == null) {
+            stats = new Statistics();
+            statistics.put(rendererId, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Get a copy of the statistics for a renderer
+     * 
+     * @param rendererId the renderer id
+     * @return a copy of the Statistics
+     */
+    @NonNull
+    public synchronized Statistics getRendererStatistics(@NonNull String rendererId) {
+        Statistics stats = statistics.get(rendererId);
+        return stats != null ? new Statistics(stats) : new Statistics();
+    }
+
+    /**
+     * Account for a tile that was added or removed
+     * 
+     * @param rendererId the renderer id
+     * @param bytes the size of the tile, negative if removed
+     */
+    private synchronized void accountTile(@NonNull String rendererId, long bytes) {
+        Statistics stats = getStatistics(rendererId);
+        stats.bytes += bytes;
+        stats.tiles += Long.signum(bytes);
+        totalBytes += bytes;
+    }
+
+    /**
+     * Schedule the background maintenance if the cache or the quota for a renderer is exceeded
+     * 
+     * @param rendererId the renderer that just added a tile
+     */
+    private void checkLimits(@NonNull String rendererId) {
+        boolean needed;
+        synchronized (this) {
+            Long quota = quotas.get(rendererId);
+            needed = totalBytes > maxCacheSize || (quota != null && getStatistics(rendererId).bytes > quota);
+        }
+        if (needed) {
+            requestMaintenance();
+        }
+    }
+
+    /**
+     * Count a cache hit or miss and record the access time for hits
+     * 
+     * @param aTile the tile
+     * @param hit true if the tile was found
+     */
+    private void recordAccess(@NonNull MapTile aTile, boolean hit) {
+        boolean flush;
+        synchronized (this) {
+            Statistics stats = getStatistics(aTile.rendererID);
+            if (!hit) {
+                stats.misses++;
+                return;
+            }
+            stats.hits++;
+        }
+        synchronized (pendingAccesses) {
+            pendingAccesses.put(aTile.toKey(), new MapTile(aTile));
+            flush = pendingAccesses.size() >= ACCESS_BATCH_SIZE;
+        }
+        if (flush) {
+            requestMaintenance();
+        }
+    }
+
+    /**
+     * Get the total size of the cached tiles as accounted in memory
+     * 
+     * @return the size in bytes
+     */
+    public synchronized long getCachedBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Set the maximum size of the cache, if the size is exceeded least recently used tiles are removed in the
+     * background
+     * 
+     * @param maxCacheSize the maximum size in bytes
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        synchronized (this) {
+            this.maxCacheSize = maxCacheSize;
+        }
+        requestMaintenance();
+    }
+
+    /**
+     * Set the maximum size of the cached tiles for a renderer
+     * 
+     * @param rendererId the renderer id
+     * @param quota the maximum size in bytes or null to remove the quota
+     */
+    public void setQuota(@NonNull String rendererId, @Nullable Long quota) {
+        synchronized (this) {
+            if (quota == null) {
+                quotas.remove(rendererId);
+            } else {
+                quotas.put(rendererId, quota);
+            }
+        }
+        requestMaintenance();
+    }
+
+    /**
+     * Determine if a renderer exceeds its quota
+     * 
+     * @return the renderer id or null if none is over quota
+     */
+    @Nullable
+    private synchronized String getRendererOverQuota() {
+        for (Map.Entry<String, Long> quota : quotas.entrySet()) {
+            Statistics stats = statistics.get(quota.getKey());
+            if (stats != null && stats.bytes > quota.getValue()) {
+                return quota.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if the cache should be reduced in size, this implements some hysteresis
+     * 
+     * @return true if tiles should be removed
+     */
+    private synchronized boolean overLimit() {
+        if (totalBytes > maxCacheSize) {
+            evicting = true;
+        } else if (totalBytes <= (long) (maxCacheSize * EVICTION_TARGET)) {
+            evicting = false;
+        }
+        return evicting;
+    }
+
+    /**
+     * Schedule the background maintenance task if it isn't already scheduled
+     */
+    private void requestMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(this::maintain);
+            } catch (RejectedExecutionException e) {
+                maintenanceScheduled.set(false);
+                Log.e(DEBUG_TAG, "Maintenance rejected " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write pending tile accesses to the database and remove one batch of tiles if the cache or a renderer is over its
+     * limit, reschedules itself if more work is necessary so that the database is not blocked for a long time
+     */
+    private void maintain() {
+        maintenanceScheduled.set(false);
+        try {
+            writeAccesses();
+            String renderer = getRendererOverQuota();
+            long excess = getExcess(renderer);
+            if (excess > 0) {
+                evict(renderer, excess, EVICTION_BATCH_SIZE);
+                if (getExcess(getRendererOverQuota()) > 0) {
+                    requestMaintenance();
+                }
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            Log.e(DEBUG_TAG, "Exception in maintenance " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the number of bytes that should be removed
+     * 
+     * @param rendererId a renderer that is over its quota or null for the whole cache
+     * @return the number of bytes to remove, 0 or less if nothing needs to be done
+     */
+    private synchronized long getExcess(@Nullable String rendererId) {
+        if (rendererId != null) {
+            Long quota = quotas.get(rendererId);
+            return quota != null ? getStatistics(rendererId).bytes - quota : 0;
+        }
+        return overLimit() ? totalBytes - (long) (maxCacheSize * EVICTION_TARGET) : 0;
+    }
+
+    /**
+     * Write the batched tile access times to the database
+     */
+    synchronized void writeAccesses() {
+        List<MapTile> tiles;
+        synchronized (pendingAccesses) {
+            if (pendingAccesses.isEmpty()) {
+                return;
+            }
+            tiles = pendingAccesses.values();
+            pendingAccesses.clear();
+        }
+        if (!mDatabase.isOpen()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        SQLiteStatement update = mDatabase.compileStatement(T_FSCACHE_UPDATE_ACCESS);
+        mDatabase.beginTransaction();
+        try {
+            for (MapTile t : tiles) {
+                update.bindLong(1, now);
+                update.bindString(2, t.rendererID);
+                update.bindLong(3, t.zoomLevel);
+                update.bindLong(4, t.x);
+                update.bindLong(5, t.y);
+                update.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            update.close();
+        }
     }
 
     /**
@@ -175,14 +553,21 @@ public class MapTileProviderDataBase {
                 cv.put(T_FSCACHE_ZOOM_LEVEL, aTile.zoomLevel);
                 cv.put(T_FSCACHE_TILE_X, aTile.x);
                 cv.put(T_FSCACHE_TILE_Y, aTile.y);
-                cv.put(T_FSCACHE_TIMESTAMP, System.currentTimeMillis());
+                final long now = System.currentTimeMillis();
+                cv.put(T_FSCACHE_TIMESTAMP, now);
+                cv.put(T_FSCACHE_LASTACCESS, now);
                 cv.put(T_FSCACHE_FILESIZE, tileData != null ? tileData.length : 0); // 0 == invalid
                 cv.put(T_FSCACHE_DATA, tileData);
                 long result = mDatabase.insertOrThrow(T_FSCACHE, null, cv);
                 if (MapViewConstants.DEBUGMODE) {
                     Log.d(MapTileFilesystemProvider.DEBUG_TAG, "Inserting new tile result " + result);
                 }
-                return tileData != null ? tileData.length : 0;
+                if (tileData != null) {
+                    accountTile(aTile.rendererID, tileData.length);
+                    checkLimits(aTile.rendererID);
+                    return tileData.length;
+                }
+                return 0;
             }
             return 0;
         } catch (SQLiteConstraintException scex) {
@@ -190,13 +575,17 @@ public class MapTileProviderDataBase {
                 Log.w(DEBUG_TAG, "Formerly invalid tile has become available " + aTile);
                 // try to update tile with current data now that it has become available
                 final ContentValues cv = new ContentValues();
-                cv.put(T_FSCACHE_TIMESTAMP, System.currentTimeMillis());
+                final long now = System.currentTimeMillis();
+                cv.put(T_FSCACHE_TIMESTAMP, now);
+                cv.put(T_FSCACHE_LASTACCESS, now);
                 cv.put(T_FSCACHE_FILESIZE, tileData.length);
                 cv.put(T_FSCACHE_DATA, tileData);
                 long result = mDatabase.update(T_FSCACHE, cv, T_FSCACHE_WHERE, tileToWhereArgs(aTile));
                 if (MapViewConstants.DEBUGMODE) {
                     Log.d(MapTileFilesystemProvider.DEBUG_TAG, "Inserting tile for invalid one result " + result);
                 }
+                accountTile(aTile.rendererID, tileData.length);
+                checkLimits(aTile.rendererID);
                 return tileData.length;
             } else {
                 Log.w(DEBUG_TAG, "Constraint violated inserting tile " + aTile);
@@ -246,6 +635,7 @@ public class MapTileProviderDataBase {
                     get.bindLong(4, aTile.y);
                     pfd = get.simpleQueryForBlobFileDescriptor();
                     if (pfd == null) {
+                        recordAccess(aTile, false);
                         throw new InvalidTileException(TILE_MARKED_INVALID_IN_DATABASE);
                     }
 
@@ -258,9 +648,11 @@ public class MapTileProviderDataBase {
                         bos.write(buffer, 0, bytesRead);
                     }
                     acis.close();
+                    recordAccess(aTile, true);
                     return bos.toByteArray();
                 } catch (SQLiteDoneException sde) {
                     // nothing found
+                    recordAccess(aTile, false);
                     return null;
                 } finally {
                     if (get != null) {
@@ -278,20 +670,38 @@ public class MapTileProviderDataBase {
     }
 
     /**
-     * Remove old tiles until enough space is present
+     * Remove least recently used tiles until enough space is present
      * 
      * @param pSizeNeeded the extra size we need
      * @return the size we actually gained
      */
     synchronized long deleteOldest(final int pSizeNeeded) {
         Log.d(DEBUG_TAG, "deleteOldest size needed " + pSizeNeeded);
+        writeAccesses();
+        long sizeGained = evict(null, pSizeNeeded, Integer.MAX_VALUE);
+        Log.d(DEBUG_TAG, "deleteOldest size gained " + sizeGained);
+        return sizeGained;
+    }
+
+    /**
+     * Remove least recently used tiles
+     * 
+     * @param rendererId the renderer to remove tiles for or null for all
+     * @param sizeNeeded the number of bytes to remove
+     * @param maxTiles the maximum number of tiles to remove
+     * @return the size we actually gained
+     */
+    private synchronized long evict(@Nullable String rendererId, final long sizeNeeded, int maxTiles) {
         if (!mDatabase.isOpen()) { // this seems to happen, protect against crashing
-            Log.e(MapTileFilesystemProvider.DEBUG_TAG, "deleteOldest called on closed DB");
+            Log.e(MapTileFilesystemProvider.DEBUG_TAG, "evict called on closed DB");
             return 0;
         }
-        final Cursor c = mDatabase.rawQuery(T_FSCACHE_SELECT_OLDEST, null);
+        String query = T_FSCACHE_SELECT_OLDEST + (rendererId != null ? AND + T_FSCACHE_RENDERER_ID + SQL_ARG : "") + T_FSCACHE_ORDER_LRU
+                + (maxTiles < Integer.MAX_VALUE ? " LIMIT " + maxTiles : "");
+        final Cursor c = mDatabase.rawQuery(query, rendererId != null ? new String[] { rendererId } : null);
 
         final List<MapTile> deleteFromDB = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
         long sizeGained = 0;
         if (c != null) {
             try {
@@ -306,7 +716,8 @@ public class MapTileProviderDataBase {
                                     c.getInt(c.getColumnIndexOrThrow(T_FSCACHE_TILE_Y)));
 
                             deleteFromDB.add(tileToBeDeleted);
-                        } while (c.moveToNext() && sizeGained < pSizeNeeded);
+                            sizes.add(sizeItem);
+                        } while (c.moveToNext() && sizeGained < sizeNeeded);
                     } else {
                         throw new EmptyCacheException("Cache seems to be empty.");
                     }
@@ -323,14 +734,17 @@ public class MapTileProviderDataBase {
                                 mDatabase.endTransaction();
                             }
                         }
+                        for (int i = 0; i < deleteFromDB.size(); i++) {
+                            accountTile(deleteFromDB.get(i).rendererID, -sizes.get(i));
+                        }
                     }
                 } catch (SQLiteException | java.lang.IllegalStateException e) {
-                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "Exception in deleteOldest " + e);
+                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "Exception in evict " + e);
                 } catch (NullPointerException e) {
                     // just log ... likely these are really spurious
-                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "NPE in deleteOldest " + e);
+                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "NPE in evict " + e);
                 } catch (EmptyCacheException e) {
-                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "Exception in deleteOldest cache empty " + e);
+                    Log.e(MapTileFilesystemProvider.DEBUG_TAG, "Exception in evict cache empty " + e);
                 } catch (Exception e) {
                     ACRAHelper.nocrashReport(e, e.getMessage());
                 }
@@ -338,7 +752,6 @@ public class MapTileProviderDataBase {
                 c.close();
             }
         }
-        Log.d(DEBUG_TAG, "deleteOldest size gained " + sizeGained);
         return sizeGained;
     }
 
@@ -354,6 +767,11 @@ public class MapTileProviderDataBase {
             if (rendererID == null) {
                 Log.d(MapTileFilesystemProvider.DEBUG_TAG, "Flushing all caches");
                 mDatabase.execSQL("DELETE FROM " + T_FSCACHE);
+                for (Statistics stats : statistics.values()) {
+                    stats.bytes = 0;
+                    stats.tiles = 0;
+                }
+                totalBytes = 0;
             } else {
                 Log.d(MapTileFilesystemProvider.DEBUG_TAG, "Flushing cache for " + rendererID);
                 final Cursor c = mDatabase
@@ -388,6 +806,10 @@ public class MapTileProviderDataBase {
                         final String[] args = new String[] { t.rendererID, Integer.toString(t.zoomLevel), Integer.toString(t.x), Integer.toString(t.y) };
                         mDatabase.delete(T_FSCACHE, T_FSCACHE_WHERE, args);
                     }
+                    Statistics stats = getStatistics(rendererID);
+                    totalBytes -= stats.bytes;
+                    stats.bytes = 0;
+                    stats.tiles = 0;
                 }
             }
             mDatabase.setTransactionSuccessful();
@@ -440,6 +862,7 @@ public class MapTileProviderDataBase {
             try {
                 db.execSQL(T_RENDERER_CREATE_COMMAND);
                 db.execSQL(T_FSCACHE_CREATE_COMMAND);
+                db.execSQL(T_FSCACHE_LASTACCESS_INDEX_COMMAND);
             } catch (SQLException e) {
                 Log.w(MapTileFilesystemProvider.DEBUG_TAG, "Problem creating database", e);
             }
@@ -447,6 +870,13 @@ public class MapTileProviderDataBase {
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion == 8) {
+                // keep the cached tiles, use the time they were added as initial access time
+                db.execSQL("ALTER TABLE " + T_FSCACHE + " ADD COLUMN " + T_FSCACHE_LASTACCESS + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("UPDATE " + T_FSCACHE + " SET " + T_FSCACHE_LASTACCESS + "=" + T_FSCACHE_TIMESTAMP);
+                db.execSQL(T_FSCACHE_LASTACCESS_INDEX_COMMAND);
+                return;
+            }
             if (MapViewConstants.DEBUGMODE) {
                 Log.w(MapTileFilesystemProvider.DEBUG_TAG,
                         "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
@@ -461,7 +891,15 @@ public class MapTileProviderDataBase {
      * Close the DB handle
      */
     public void close() {
-        mDatabase.close();
+        maintenanceExecutor.shutdown();
+        synchronized (this) {
+            try {
+                writeAccesses();
+            } catch (SQLiteException | IllegalStateException e) {
+                Log.e(DEBUG_TAG, "Writing access times failed " + e.getMessage());
+            }
+            mDatabase.close();
+        }
         databaseHelper.close();
     }
 
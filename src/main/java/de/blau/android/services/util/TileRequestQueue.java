@@ -0,0 +1,228 @@
+package de.blau.android.services.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.views.util.MapTileProviderCallback;
+
+/**
+ * Queue of tile requests that hands out the request closest to the current viewport first
+ *
+ * Requests for tiles at the zoom level of the viewport of their renderer are preferred, within the same zoom level
+ * difference requests are ordered by the distance of the tile centre to the centre of the viewport. Requests for tiles
+ * that are no longer within the viewport plus a margin are dropped when the next request is selected. Requests for
+ * renderers without a viewport are handled in the order they were queued.
+ *
+ * As the priorities change with every viewport update the queue is simply scanned when a request is selected, the
+ * number of queued tiles is typically in the low hundreds.
+ *
+ * @author simon
+ *
+ */
+final class TileRequestQueue {
+
+    /**
+     * Number of tiles around the viewport for which requests are retained
+     */
+    static final int MARGIN = 1;
+
+    static final class Request {
+        final long                    key;
+        final MapTile                 tile;
+        final Runnable                loader;
+        final MapTileProviderCallback callback;
+        final long                    queued;
+
+        /**
+         * Construct a new request
+         *
+         * @param tile the tile descriptor
+         * @param loader the Runnable that will load the tile
+         * @param callback the callback to call if the request is cancelled
+         */
+        Request(@NonNull MapTile tile, @NonNull Runnable loader, @NonNull MapTileProviderCallback callback) {
+            this.key = tile.toKey();
+            this.tile = tile;
+            this.loader = loader;
+            this.callback = callback;
+            this.queued = System.currentTimeMillis();
+        }
+    }
+
+    private static final class Viewport {
+        int    zoom;
+        double centreX;
+        double centreY;
+        double halfWidth;
+        double halfHeight;
+    }
+
+    private final List<Request>          requests  = new ArrayList<>();
+    private final Map<Integer, Viewport> viewports = new HashMap<>();
+
+    private long started      = 0;
+    private long dropped      = 0;
+    private long totalLatency = 0;
+    private long maxLatency   = 0;
+
+    /**
+     * Add a request to the queue
+     *
+     * @param request the Request
+     */
+    synchronized void add(@NonNull Request request) {
+        requests.add(request);
+    }
+
+    /**
+     * Remove a specific request from the queue
+     *
+     * @param request the Request
+     * @return true if the request was still queued
+     */
+    synchronized boolean remove(@NonNull Request request) {
+        return requests.remove(request);
+    }
+
+    /**
+     * Remove all requests for a renderer and zoom level
+     *
+     * @param rendererIndex the index of the renderer
+     * @param zoom the zoom level or MapAsyncTileProvider.ALLZOOMS
+     * @return the removed requests
+     */
+    @NonNull
+    synchronized List<Request> remove(int rendererIndex, int zoom) {
+        List<Request> result = new ArrayList<>();
+        int size = requests.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Request request = requests.get(i);
+            if (MapTile.rendererIndexFromKey(request.key) == rendererIndex
+                    && (zoom == MapAsyncTileProvider.ALLZOOMS || MapTile.zoomFromKey(request.key) == zoom)) {
+                result.add(request);
+            } else {
+                requests.set(kept++, request);
+            }
+        }
+        truncate(kept);
+        return result;
+    }
+
+    /**
+     * Set the currently visible tiles for a renderer
+     *
+     * The tile numbers do not need to be normalized, wrapping around the antimeridian is handled.
+     *
+     * @param rendererIndex the index of the renderer
+     * @param zoom the zoom level of the displayed tiles
+     * @param left left most visible tile x
+     * @param top top most visible tile y
+     * @param right right most visible tile x
+     * @param bottom bottom most visible tile y
+     */
+    synchronized void setViewport(int rendererIndex, int zoom, int left, int top, int right, int bottom) {
+        Viewport viewport = viewports.get(rendererIndex);
+        if (viewport == null) {
+            viewport = new Viewport();
+            viewports.put(rendererIndex, viewport);
+        }
+        viewport.zoom = zoom;
+        viewport.centreX = (left + right + 1) / 2d;
+        viewport.centreY = (top + bottom + 1) / 2d;
+        viewport.halfWidth = (right - left + 1) / 2d;
+        viewport.halfHeight = (bottom - top + 1) / 2d;
+    }
+
+    /**
+     * Select the request with the highest priority and remove it from the queue
+     *
+     * @param droppedRequests list that requests that have left the viewport are added to
+     * @return the request to run or null if the queue is empty
+     */
+    @Nullable
+    synchronized Request next(@NonNull List<Request> droppedRequests) {
+        int size = requests.size();
+        int kept = 0;
+        int best = -1;
+        int bestZoomDiff = Integer.MAX_VALUE;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Request request = requests.get(i);
+            Viewport viewport = viewports.get(MapTile.rendererIndexFromKey(request.key));
+            int zoomDiff = 0;
+            double distance = 0;
+            if (viewport != null) {
+                MapTile tile = request.tile;
+                zoomDiff = Math.abs(tile.zoomLevel - viewport.zoom);
+                // tile size and centre in tiles at the viewport zoom level
+                double scale = Math.scalb(1d, viewport.zoom - tile.zoomLevel);
+                double n = Math.scalb(1d, viewport.zoom);
+                double dx = (tile.x + 0.5d) * scale - viewport.centreX;
+                dx -= n * Math.floor(dx / n + 0.5d);
+                double dy = (tile.y + 0.5d) * scale - viewport.centreY;
+                double halfTile = scale / 2d;
+                if (Math.abs(dx) - halfTile > viewport.halfWidth + MARGIN || Math.abs(dy) - halfTile > viewport.halfHeight + MARGIN) {
+                    droppedRequests.add(request);
+                    dropped++;
+                    continue;
+                }
+                distance = dx * dx + dy * dy;
+            }
+            if (zoomDiff < bestZoomDiff || (zoomDiff == bestZoomDiff && distance < bestDistance)) {
+                best = kept;
+                bestZoomDiff = zoomDiff;
+                bestDistance = distance;
+            }
+            requests.set(kept++, request);
+        }
+        truncate(kept);
+        if (best == -1) {
+            return null;
+        }
+        Request request = requests.remove(best);
+        long latency = System.currentTimeMillis() - request.queued;
+        started++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        return request;
+    }
+
+    /**
+     * Remove requests from the end of the list
+     *
+     * @param size the new size
+     */
+    private void truncate(int size) {
+        requests.subList(size, requests.size()).clear();
+    }
+
+    /**
+     * @return the number of queued requests
+     */
+    synchronized int size() {
+        return requests.size();
+    }
+
+    /**
+     * @return the number of requests that were dropped because they left the viewport
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get queue depth and latency statistics
+     *
+     * @return a String suitable for display
+     */
+    @NonNull
+    synchronized String getInfo() {
+        return "queued " + requests.size() + " started " + started + " dropped " + dropped + " average latency "
+                + (started > 0 ? totalLatency / started : 0) + " ms max " + maxLatency + " ms";
+    }
+}
@@ -13,6 +13,7 @@ public final class GeoJSONConstants {
     public static final String FEATURE            = "Feature";
     public static final String FEATURES           = "features";
     public static final String BBOX               = "bbox";
+    public static final String TYPE               = "type";
     public static final String POINT              = "Point";
     public static final String MULTIPOINT         = "MultiPoint";
     public static final String LINESTRING         = "LineString";
@@ -1,9 +1,17 @@
 package de.blau.android.util;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.mapbox.geojson.CoordinateContainer;
 import com.mapbox.geojson.Feature;
 import com.mapbox.geojson.Geometry;
@@ -232,10 +240,98 @@ public final class GeoJson {
      */
     @NonNull
     public static Geometry geometryFromJson(@NonNull String json) {
+        return gson().fromJson(json, Geometry.class);
+    }
+
+    /**
+     * Get a Gson instance that can handle GeoJSON
+     * 
+     * @return a Gson instance
+     */
+    @NonNull
+    private static Gson gson() {
         GsonBuilder gson = new GsonBuilder();
         gson.registerTypeAdapterFactory(GeoJsonAdapterFactory.create());
         gson.registerTypeAdapterFactory(GeometryAdapterFactory.create());
         gson.registerTypeAdapter(BoundingBox.class, new BoundingBoxTypeAdapter());
-        return gson.create().fromJson(json, Geometry.class);
+        return gson.create();
+    }
+
+    /**
+     * Callback for the Features read by {@link GeoJson#readFeatures(Reader, FeatureHandler)}
+     */
+    public interface FeatureHandler {
+
+        /**
+         * Called for each Feature that has been read
+         * 
+         * @param feature the Feature
+         */
+        void onFeature(@NonNull Feature feature);
+    }
+
+    /**
+     * Read GeoJSON without holding the complete document in memory
+     * 
+     * The members of a FeatureCollection are parsed and passed to the handler one at a time as they are read. A top
+     * level Feature is passed on as is, a top level Geometry is wrapped in a Feature. Features without properties are
+     * given an empty properties object, the same as {@link Feature#fromJson(String)} does.
+     * 
+     * @param reader the Reader to read from
+     * @param handler the handler the Features are passed to
+     * @throws IOException if reading fails or the input is not valid JSON
+     */
+    public static void readFeatures(@NonNull Reader reader, @NonNull FeatureHandler handler) throws IOException {
+        Gson gson = gson();
+        TypeAdapter<Feature> featureAdapter = gson.getAdapter(Feature.class);
+        TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+        JsonReader jsonReader = new JsonReader(reader);
+        JsonObject members = new JsonObject();
+        boolean collection = false;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (GeoJSONConstants.FEATURES.equals(name) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                collection = true;
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    Feature f = featureAdapter.read(jsonReader);
+                    if (f != null) {
+                        handler.onFeature(withProperties(f));
+                    }
+                }
+                jsonReader.endArray();
+            } else {
+                members.add(name, elementAdapter.read(jsonReader));
+            }
+        }
+        jsonReader.endObject();
+        if (collection) {
+            return;
+        }
+        // a single Feature or Geometry, these are small so the remaining members can simply be converted
+        JsonElement type = members.get(GeoJSONConstants.TYPE);
+        if (type != null && GeoJSONConstants.FEATURE.equals(type.getAsString())) {
+            Feature f = featureAdapter.fromJsonTree(members);
+            if (f != null && f.geometry() != null) {
+                handler.onFeature(withProperties(f));
+            }
+            return;
+        }
+        Geometry g = gson.getAdapter(Geometry.class).fromJsonTree(members);
+        if (g != null && g.type() != null) {
+            handler.onFeature(Feature.fromGeometry(g));
+        }
+    }
+
+    /**
+     * Make sure that a Feature has a properties object
+     * 
+     * @param f the Feature
+     * @return f or a copy with empty properties
+     */
+    @NonNull
+    private static Feature withProperties(@NonNull Feature f) {
+        return f.properties() != null ? f : Feature.fromGeometry(f.geometry(), new JsonObject(), f.id(), f.bbox());
     }
 }
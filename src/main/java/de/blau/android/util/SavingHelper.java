@@ -46,6 +46,22 @@ public class SavingHelper<T extends Serializable> {
 
     private final long stackSize;
 
+    /**
+     * Hooks that are called on the thread doing the (de-)serialization immediately before and after it
+     */
+    public interface SerializationScope {
+
+        /**
+         * Called before the object is (de-)serialized
+         */
+        void enter();
+
+        /**
+         * Called after the object has been (de-)serialized, also if that failed
+         */
+        void exit();
+    }
+
     /**
      * Create a new instance
      */
@@ -82,9 +98,27 @@ public class SavingHelper<T extends Serializable> {
      * @param jdk use the built-in serialisation if true
      */
     public synchronized boolean save(@NonNull Context context, @NonNull String filename, @NonNull T object, boolean compress, boolean jdk) {
+        return save(context, filename, object, compress, jdk, null);
+    }
+
+    /**
+     * Serializes the given object and writes it to a private file with the given name
+     * 
+     * Original version was running out of stack, fixed by moving to a thread
+     * 
+     * @param context Android Context
+     * @param filename filename of the save file
+     * @param object object to save
+     * @param compress true if the output should be gzip-compressed, false if it should be written without compression
+     * @param jdk use the built-in serialisation if true
+     * @param scope a SerializationScope to enter while serializing or null
+     * @return true if successful, false if saving failed for some reason
+     */
+    public synchronized boolean save(@NonNull Context context, @NonNull String filename, @NonNull T object, boolean compress, boolean jdk,
+            @Nullable SerializationScope scope) {
         try {
             Log.d(DEBUG_TAG, "preparing to save " + filename);
-            SaveThread r = new SaveThread(context, filename, object, compress, jdk);
+            SaveThread r = new SaveThread(context, filename, object, compress, jdk, scope);
 
             Thread t = new Thread(null, r, SaveThread.DEBUG_TAG, stackSize);
             t.start();
@@ -102,12 +136,13 @@ public class SavingHelper<T extends Serializable> {
 
         private static final String DEBUG_TAG = "SaveThread";
 
-        final String  filename;
-        T             object;
-        final boolean compress;
-        final Context context;
-        boolean       result = false;
-        final boolean jdkSerialisation;
+        final String             filename;
+        T                        object;
+        final boolean            compress;
+        final Context            context;
+        boolean                  result = false;
+        final boolean            jdkSerialisation;
+        final SerializationScope scope;
 
         /**
          * Construct a new SaveThread
@@ -117,13 +152,15 @@ public class SavingHelper<T extends Serializable> {
          * @param obj the object to save
          * @param c if true compress
          * @param jdk use the built-in serialisation if true
+         * @param scope a SerializationScope to enter while serializing or null
          */
-        SaveThread(@NonNull Context context, @NonNull String fn, @NonNull T obj, boolean c, boolean jdk) {
+        SaveThread(@NonNull Context context, @NonNull String fn, @NonNull T obj, boolean c, boolean jdk, @Nullable SerializationScope scope) {
             filename = fn;
             object = obj;
             compress = c;
             this.context = context;
             jdkSerialisation = jdk;
+            this.scope = scope;
         }
 
         /**
@@ -144,14 +181,23 @@ public class SavingHelper<T extends Serializable> {
                 Log.i(DEBUG_TAG, "saving  " + filename);
                 String tempFilename = filename + "." + System.currentTimeMillis();
                 out = context.openFileOutput(tempFilename, Context.MODE_PRIVATE);
-                if (jdkSerialisation) {
-                    objectOut = new ObjectOutputStream(out);
-                    objectOut.writeObject(object);
-                    objectOut.flush();
-                } else {
-                    FSTObjectOutput outFST = App.getFSTInstance().getObjectOutput(out);
-                    outFST.writeObject(object);
-                    outFST.flush();
+                if (scope != null) {
+                    scope.enter();
+                }
+                try {
+                    if (jdkSerialisation) {
+                        objectOut = new ObjectOutputStream(out);
+                        objectOut.writeObject(object);
+                        objectOut.flush();
+                    } else {
+                        FSTObjectOutput outFST = App.getFSTInstance().getObjectOutput(out);
+                        outFST.writeObject(object);
+                        outFST.flush();
+                    }
+                } finally {
+                    if (scope != null) {
+                        scope.exit();
+                    }
                 }
                 out.close();
                 rename(context, filename, filename + ".backup"); // don't overwrite last saved state
@@ -198,9 +244,26 @@ public class SavingHelper<T extends Serializable> {
      * @return the deserialized object if successful, null if loading/deserialization/casting failed
      */
     public synchronized T load(@NonNull Context context, @NonNull String filename, boolean compressed, boolean deleteOnFail, boolean jdk) {
+        return load(context, filename, compressed, deleteOnFail, jdk, null);
+    }
+
+    /**
+     * Loads and deserializes a single object from the given file Original version was running out of stack, fixed by
+     * moving to a thread
+     * 
+     * @param context Android Context
+     * @param filename filename of the save file
+     * @param compressed true if the output is gzip-compressed, false if it is uncompressed
+     * @param deleteOnFail if true delete the file we tried to load (because it is likely corrupted)
+     * @param jdk use the built-in serialisation if true
+     * @param scope a SerializationScope to enter while deserializing or null
+     * @return the deserialized object if successful, null if loading/deserialization/casting failed
+     */
+    public synchronized T load(@NonNull Context context, @NonNull String filename, boolean compressed, boolean deleteOnFail, boolean jdk,
+            @Nullable SerializationScope scope) {
         try {
             Log.d(DEBUG_TAG, "preparing to load " + filename);
-            LoadThread r = new LoadThread(context, filename, compressed, deleteOnFail, jdk);
+            LoadThread r = new LoadThread(context, filename, compressed, deleteOnFail, jdk, scope);
             Thread t = new Thread(null, r, LoadThread.DEBUG_TAG, stackSize);
             t.start();
             t.join(60000); // wait max 60 s for thread to finish TODO this needs to be done differently given this
@@ -217,12 +280,13 @@ public class SavingHelper<T extends Serializable> {
 
         private static final String DEBUG_TAG = "LoadThread";
 
-        final String  filename;
-        final boolean compressed;
-        final boolean deleteOnFail;
-        final Context context;
-        T             result;
-        final boolean jdkSerialisation;
+        final String             filename;
+        final boolean            compressed;
+        final boolean            deleteOnFail;
+        final Context            context;
+        T                        result;
+        final boolean            jdkSerialisation;
+        final SerializationScope scope;
 
         /**
          * Create a new LoadThread
@@ -232,13 +296,15 @@ public class SavingHelper<T extends Serializable> {
          * @param c if true compress
          * @param deleteOnFail if true delete if the file can't be read
          * @param jdk use the built-in serialisation if true
+         * @param scope a SerializationScope to enter while deserializing or null
          */
-        LoadThread(@NonNull Context context, @NonNull String fn, boolean c, boolean deleteOnFail, boolean jdk) {
+        LoadThread(@NonNull Context context, @NonNull String fn, boolean c, boolean deleteOnFail, boolean jdk, @Nullable SerializationScope scope) {
             filename = fn;
             compressed = c;
             this.deleteOnFail = deleteOnFail;
             this.context = context;
             jdkSerialisation = jdk;
+            this.scope = scope;
         }
 
         /**
@@ -266,12 +332,21 @@ public class SavingHelper<T extends Serializable> {
                     result = null;
                     return;
                 }
-                if (jdkSerialisation) {
-                    objectIn = new ObjectInputStream(in);
-                    result = (T) objectIn.readObject();
-                } else {
-                    FSTObjectInput inFST = App.getFSTInstance().getObjectInput(in);
-                    result = (T) inFST.readObject();
+                if (scope != null) {
+                    scope.enter();
+                }
+                try {
+                    if (jdkSerialisation) {
+                        objectIn = new ObjectInputStream(in);
+                        result = (T) objectIn.readObject();
+                    } else {
+                        FSTObjectInput inFST = App.getFSTInstance().getObjectInput(in);
+                        result = (T) inFST.readObject();
+                    }
+                } finally {
+                    if (scope != null) {
+                        scope.exit();
+                    }
                 }
                 Log.d(DEBUG_TAG, "loaded " + filename + " successfully");
             } catch (IOException ioex) {
@@ -86,6 +86,26 @@ public class FloatPrimitiveList implements Serializable {
         array[i] = f;
     }
 
+    /**
+     * Open a gap of count values at position i, the values from i on are moved up
+     *
+     * The values in the gap are undefined and need to be set by the caller
+     *
+     * @param i position of the gap
+     * @param count number of values to insert
+     */
+    public void insert(int i, int count) {
+        if (i > size) {
+            LongPrimitiveList.indexOutOfBounds(size, i);
+        }
+        if (size + count > capacity) {
+            capacity = Math.max(capacity * 2, size + count);
+            array = Arrays.copyOf(array, capacity);
+        }
+        System.arraycopy(array, i, array, i + count, size - i);
+        size += count;
+    }
+
     /**
      * Truncate the list
      *
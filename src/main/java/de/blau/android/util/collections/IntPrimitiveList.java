@@ -0,0 +1,152 @@
+package de.blau.android.util.collections;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Simple list like collection for primitive int values
+ * 
+ * @author simon
+ *
+ */
+public class IntPrimitiveList implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] array;
+    private int   size     = 0;
+    private int   capacity = 0;
+
+    /**
+     * Construct a new instance with capacity initial capacity
+     * 
+     * @param capacity initial capacity
+     */
+    public IntPrimitiveList(int capacity) {
+        array = new int[capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * COnstruct a new instance with the default initial capacity
+     */
+    public IntPrimitiveList() {
+        this(12);
+    }
+
+    /**
+     * Count of actual ints in the object
+     * 
+     * @return count of ints stored in the object
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an int at the end of the list
+     * 
+     * THis will increase the size of the backing array if necessary
+     * 
+     * @param v int to add
+     */
+    public void add(int v) {
+        if (size == capacity) {
+            capacity = capacity * 2;
+            array = Arrays.copyOf(array, capacity);
+        }
+        array[size] = v;
+        size++;
+    }
+
+    /**
+     * Get the int at position i
+     * 
+     * @param i position we want the value for
+     * @return the requested int
+     */
+    public int get(int i) {
+        if (i > size - 1) {
+            LongPrimitiveList.indexOutOfBounds(size, i);
+        }
+        return array[i];
+    }
+
+    /**
+     * Set the int at position i
+     *
+     * @param i position we want the value for
+     * @param v the value to be set
+     */
+    public void set(int i, int v) {
+        if (i > size - 1) {
+            LongPrimitiveList.indexOutOfBounds(size, i);
+        }
+        array[i] = v;
+    }
+
+    /**
+     * Open a gap of count values at position i, the values from i on are moved up
+     *
+     * The values in the gap are undefined and need to be set by the caller
+     *
+     * @param i position of the gap
+     * @param count number of values to insert
+     */
+    public void insert(int i, int count) {
+        if (i > size) {
+            LongPrimitiveList.indexOutOfBounds(size, i);
+        }
+        if (size + count > capacity) {
+            capacity = Math.max(capacity * 2, size + count);
+            array = Arrays.copyOf(array, capacity);
+        }
+        System.arraycopy(array, i, array, i + count, size - i);
+        size += count;
+    }
+
+    /**
+     * Truncate the list
+     *
+     * @param s new size to be set
+     */
+    public void truncate(int s) {
+        if (s > size) {
+            LongPrimitiveList.indexOutOfBounds(size, s);
+        }
+        size = s;
+    }
+
+    /**
+     * Reset the contents
+     * 
+     * Note this doesn't shrink the backing array
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Get an int array containing all values
+     * 
+     * @return that int values in an array
+     */
+    @NonNull
+    public int[] values() {
+        return Arrays.copyOf(array, size);
+    }
+
+    /**
+     * Get the array backing this object
+     * 
+     * This is useful if you want to avoid allocating a new array and copying the contents, only useful together with
+     * the value of size()
+     * 
+     * @return the backing int array
+     */
+    @NonNull
+    public int[] getArray() {
+        return array;
+    }
+}
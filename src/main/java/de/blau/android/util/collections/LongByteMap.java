@@ -0,0 +1,314 @@
+package de.blau.android.util.collections;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import android.annotation.SuppressLint;
+import androidx.annotation.NonNull;
+
+/**
+ * long to byte HashMap
+ *
+ * Open addressing map with primitive long keys and byte values, avoids boxing and the per entry objects of
+ * java.util.HashMap, based on public domain code see http://unlicense.org from Mikhail Vorontsov, see
+ * https://github.com/mikvor
+ *
+ * This code is not thread safe and requires external synchronization if inserts and removals need to be made in a
+ * consistent fashion.
+ *
+ * @version 0.1
+ * @author simon
+ */
+@SuppressLint("UseSparseArrays")
+public class LongByteMap implements Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L; // NOTE if you change the
+                                                     // hashing algorithm you
+                                                     // need to increment
+                                                     // this
+
+    private static final long  FREE_KEY           = 0;
+    /**
+     * Default fill factor
+     */
+    private static final float DEFAULT_FILLFACTOR = 0.75f;
+    /**
+     * Default capacity
+     */
+    private static final int   DEFAULT_CAPACITY   = 16;
+
+    /** Keys */
+    private long[] m_keys;
+    /** Values */
+    private byte[] m_values;
+
+    /** Fill factor, must be between (0 and 1) */
+    private final float m_fillFactor;
+    /** We will resize a map once it reaches this size */
+    private int         m_threshold;
+    /** Current map size */
+    private int         m_size;
+    /** Mask to calculate the original position */
+    private long        m_mask;
+    /** Do we have 'free' key in the map? */
+    private boolean     m_hasFreeKey;
+    /** Value of the 'free' key */
+    private byte        m_freeValue;
+
+    /**
+     * Create a new map with default values for capacity and fill factor
+     */
+    public LongByteMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and the default fill factor
+     *
+     * @param size initial capacity of the map
+     */
+    public LongByteMap(final int size) {
+        this(size, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and fill factor
+     *
+     * @param size initial capacity of the map
+     * @param fillFactor fillfactor to us instead of the default
+     */
+    private LongByteMap(final int size, final float fillFactor) {
+        if (fillFactor <= 0 || fillFactor >= 1) {
+            throw new IllegalArgumentException("FillFactor must be in (0, 1)");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive!");
+        }
+        final int capacity = Tools.arraySize(size, fillFactor);
+        m_mask = capacity - 1L;
+        m_fillFactor = fillFactor;
+
+        m_keys = new long[capacity];
+        m_values = new byte[capacity];
+
+        m_threshold = (int) (capacity * fillFactor);
+    }
+
+    /**
+     * Return the value for the specified key
+     *
+     * @param key the key we want to return a value for
+     * @param defaultValue the value to return if there is no entry for key
+     * @return the value or defaultValue if it cannot be found
+     */
+    public byte get(final long key, final byte defaultValue) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey ? m_freeValue : defaultValue;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return defaultValue;
+            }
+            if (k == key) {
+                return m_values[ptr];
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // that's next index
+        }
+    }
+
+    /**
+     * Add a single entry to the map, replacing any existing value
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(final long key, final byte value) {
+        if (key == FREE_KEY) {
+            if (!m_hasFreeKey) {
+                ++m_size;
+            }
+            m_hasFreeKey = true;
+            m_freeValue = value;
+            return;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) { // end of chain
+                m_keys[ptr] = key;
+                m_values[ptr] = value;
+                if (m_size >= m_threshold) {
+                    rehash(m_keys.length * 2); // size is set inside
+                } else {
+                    ++m_size;
+                }
+                return;
+            } else if (k == key) {
+                m_values[ptr] = value;
+                return;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index calculation
+        }
+    }
+
+    /**
+     * Remove the entry with the specified key from the map, does not shrink the underlying arrays
+     *
+     * @param key the key we want to remove
+     * @return true if an entry was found and removed
+     */
+    public boolean remove(final long key) {
+        if (key == FREE_KEY) {
+            if (!m_hasFreeKey) {
+                return false;
+            }
+            m_hasFreeKey = false;
+            --m_size;
+            return true;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return false;
+            } else if (k == key) {
+                --m_size;
+                shiftKeys(ptr);
+                return true;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // that's next index calculation
+        }
+    }
+
+    /**
+     * Shift entries with the same hash.
+     *
+     * @param pos starting pos
+     * @return free slot
+     */
+    private int shiftKeys(int pos) {
+        int last;
+        int slot;
+        long k;
+        final long[] keys = this.m_keys;
+        while (true) {
+            pos = (int) (((last = pos) + 1) & m_mask);
+            while (true) {
+                if ((k = keys[pos]) == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    return last;
+                }
+                slot = (int) (Tools.phiMix(k) & m_mask);// calculate the starting slot for the current key
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (int) ((pos + 1) & m_mask); // go to the next entry
+            }
+            keys[last] = k;
+            m_values[last] = m_values[pos];
+        }
+    }
+
+    /**
+     * Return true if the map contains an entry with the specified key
+     *
+     * @param key the key to check
+     * @return true if an entry for key could be found
+     */
+    public boolean containsKey(final long key) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return false;
+            }
+            if (k == key) {
+                return true;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index
+        }
+    }
+
+    /**
+     * Return all keys in the map. Note: they are returned unordered
+     *
+     * @return array containing the keys
+     */
+    @NonNull
+    public long[] keys() {
+        long[] result = new long[m_size];
+        int found = 0;
+        if (m_hasFreeKey) {
+            result[found++] = FREE_KEY;
+        }
+        for (int i = 0; i < m_keys.length && found < m_size; i++) {
+            if (m_keys[i] != FREE_KEY) {
+                result[found++] = m_keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of entries in the map
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Return if the map is empty
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Remove all entries from the map
+     */
+    public void clear() {
+        if (m_size == 0) {
+            return;
+        }
+        Arrays.fill(m_keys, FREE_KEY);
+        m_size = 0;
+        m_hasFreeKey = false;
+    }
+
+    /**
+     * Recalculate the hashes for the whole map
+     *
+     * @param newCapacity new capacity
+     */
+    private void rehash(final int newCapacity) {
+        m_threshold = (int) (newCapacity * m_fillFactor);
+        m_mask = newCapacity - 1L;
+
+        final int oldCapacity = m_keys.length;
+        final long[] oldKeys = m_keys;
+        final byte[] oldValues = m_values;
+
+        m_keys = new long[newCapacity];
+        m_values = new byte[newCapacity];
+
+        m_size = m_hasFreeKey ? 1 : 0;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            final long k = oldKeys[i];
+            if (k != FREE_KEY) {
+                put(k, oldValues[i]);
+            }
+        }
+    }
+}
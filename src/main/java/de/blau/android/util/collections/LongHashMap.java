@@ -0,0 +1,378 @@
+package de.blau.android.util.collections;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.annotation.SuppressLint;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * long to Object HashMap
+ *
+ * Open addressing map with primitive long keys, avoids boxing the keys and the per entry objects of java.util.HashMap,
+ * based on public domain code see http://unlicense.org from Mikhail Vorontsov, see https://github.com/mikvor
+ *
+ * This code is not thread safe and requires external synchronization if inserts and removals need to be made in a
+ * consistent fashion.
+ *
+ * @version 0.1
+ * @author simon
+ *
+ * @param <V> the type of the values
+ */
+@SuppressLint("UseSparseArrays")
+public class LongHashMap<V> implements Serializable {
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L; // NOTE if you change the
+                                                     // hashing algorithm you
+                                                     // need to increment
+                                                     // this
+
+    private static final long  FREE_KEY           = 0;
+    /**
+     * Default fill factor
+     */
+    private static final float DEFAULT_FILLFACTOR = 0.75f;
+    /**
+     * Default capacity
+     */
+    private static final int   DEFAULT_CAPACITY   = 16;
+
+    /** Keys */
+    private long[]   m_keys;
+    /** Values */
+    private Object[] m_values;
+
+    /** Fill factor, must be between (0 and 1) */
+    private final float m_fillFactor;
+    /** We will resize a map once it reaches this size */
+    private int         m_threshold;
+    /** Current map size */
+    private int         m_size;
+    /** Mask to calculate the original position */
+    private long        m_mask;
+    /** Do we have 'free' key in the map? */
+    private boolean     m_hasFreeKey;
+    /** Value of the 'free' key */
+    private Object      m_freeValue;
+
+    /**
+     * Create a new map with default values for capacity and fill factor
+     */
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and the default fill factor
+     *
+     * @param size initial capacity of the map
+     */
+    public LongHashMap(final int size) {
+        this(size, DEFAULT_FILLFACTOR);
+    }
+
+    /**
+     * Create a new map with the specified size and fill factor
+     *
+     * @param size initial capacity of the map
+     * @param fillFactor fillfactor to us instead of the default
+     */
+    private LongHashMap(final int size, final float fillFactor) {
+        if (fillFactor <= 0 || fillFactor >= 1) {
+            throw new IllegalArgumentException("FillFactor must be in (0, 1)");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive!");
+        }
+        final int capacity = Tools.arraySize(size, fillFactor);
+        m_mask = capacity - 1L;
+        m_fillFactor = fillFactor;
+
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+
+        m_threshold = (int) (capacity * fillFactor);
+    }
+
+    /**
+     * Create a shallow copy of the specified map
+     *
+     * @param map the map to copy
+     */
+    public LongHashMap(@NonNull LongHashMap<? extends V> map) {
+        m_mask = map.m_mask;
+        m_fillFactor = map.m_fillFactor;
+        m_threshold = map.m_threshold;
+        m_size = map.m_size;
+        m_hasFreeKey = map.m_hasFreeKey;
+        m_freeValue = map.m_freeValue;
+        m_keys = Arrays.copyOf(map.m_keys, map.m_keys.length);
+        m_values = Arrays.copyOf(map.m_values, map.m_values.length);
+    }
+
+    /**
+     * Return the value for the specified key
+     *
+     * @param key the key we want to return a value for
+     * @return the value or null if it cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V get(final long key) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey ? (V) m_freeValue : null;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return null;
+            }
+            if (k == key) {
+                return (V) m_values[ptr];
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // that's next index
+        }
+    }
+
+    /**
+     * Add a single entry to the map
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value if one existed
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V put(final long key, @Nullable final V value) {
+        if (key == FREE_KEY) {
+            final Object previous = m_freeValue;
+            if (!m_hasFreeKey) {
+                ++m_size;
+            }
+            m_hasFreeKey = true;
+            m_freeValue = value;
+            return (V) previous;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) { // end of chain
+                m_keys[ptr] = key;
+                m_values[ptr] = value;
+                if (m_size >= m_threshold) {
+                    rehash(m_keys.length * 2); // size is set inside
+                } else {
+                    ++m_size;
+                }
+                return null;
+            } else if (k == key) {
+                final Object previous = m_values[ptr];
+                m_values[ptr] = value;
+                return (V) previous;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index calculation
+        }
+    }
+
+    /**
+     * Remove the entry with the specified key from the map, does not shrink the underlying arrays
+     *
+     * @param key the key we want to remove
+     * @return the removed value or null if it didn't exist
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public V remove(final long key) {
+        if (key == FREE_KEY) {
+            if (!m_hasFreeKey) {
+                return null;
+            }
+            m_hasFreeKey = false;
+            --m_size;
+            final Object previous = m_freeValue;
+            m_freeValue = null;
+            return (V) previous;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return null;
+            } else if (k == key) {
+                --m_size;
+                final Object previous = m_values[ptr];
+                shiftKeys(ptr);
+                return (V) previous;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // that's next index calculation
+        }
+    }
+
+    /**
+     * Shift entries with the same hash.
+     *
+     * @param pos starting pos
+     * @return free slot
+     */
+    private int shiftKeys(int pos) {
+        int last;
+        int slot;
+        long k;
+        final long[] keys = this.m_keys;
+        while (true) {
+            pos = (int) (((last = pos) + 1) & m_mask);
+            while (true) {
+                if ((k = keys[pos]) == FREE_KEY) {
+                    keys[last] = FREE_KEY;
+                    m_values[last] = null;
+                    return last;
+                }
+                slot = (int) (Tools.phiMix(k) & m_mask);// calculate the starting slot for the current key
+                if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+                    break;
+                }
+                pos = (int) ((pos + 1) & m_mask); // go to the next entry
+            }
+            keys[last] = k;
+            m_values[last] = m_values[pos];
+        }
+    }
+
+    /**
+     * Return true if the map contains an entry with the specified key
+     *
+     * @param key the key to check
+     * @return true if an entry for key could be found
+     */
+    public boolean containsKey(final long key) {
+        if (key == FREE_KEY) {
+            return m_hasFreeKey;
+        }
+        int ptr = (int) (Tools.phiMix(key) & m_mask);
+        while (true) {
+            final long k = m_keys[ptr];
+            if (k == FREE_KEY) {
+                return false;
+            }
+            if (k == key) {
+                return true;
+            }
+            ptr = (int) ((ptr + 1) & m_mask); // the next index
+        }
+    }
+
+    /**
+     * Return all keys in the map. Note: they are returned unordered
+     *
+     * @return array containing the keys
+     */
+    @NonNull
+    public long[] keys() {
+        long[] result = new long[m_size];
+        int found = 0;
+        if (m_hasFreeKey) {
+            result[found++] = FREE_KEY;
+        }
+        for (int i = 0; i < m_keys.length && found < m_size; i++) {
+            if (m_keys[i] != FREE_KEY) {
+                result[found++] = m_keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return all values in the map. Note: they are returned unordered
+     *
+     * @return a List of the values
+     */
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public List<V> values() {
+        List<V> result = new ArrayList<>(m_size);
+        if (m_hasFreeKey) {
+            result.add((V) m_freeValue);
+        }
+        for (int i = 0; i < m_keys.length && result.size() < m_size; i++) {
+            if (m_keys[i] != FREE_KEY) {
+                result.add((V) m_values[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of entries in the map
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Return if the map is empty
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Remove all entries from the map
+     */
+    public void clear() {
+        Arrays.fill(m_keys, FREE_KEY);
+        Arrays.fill(m_values, null);
+        m_size = 0;
+        m_hasFreeKey = false;
+        m_freeValue = null;
+    }
+
+    /**
+     * Provide capacity for minimumCapacity entries without need for growing the underlying arrays and rehashing.
+     *
+     * @param minimumCapacity minimum capacity
+     */
+    public void ensureCapacity(int minimumCapacity) {
+        int newCapacity = Tools.arraySize(minimumCapacity, m_fillFactor);
+        if (newCapacity > m_keys.length) {
+            rehash(newCapacity);
+        }
+    }
+
+    /**
+     * Recalculate the hashes for the whole map
+     *
+     * @param newCapacity new capacity
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(final int newCapacity) {
+        m_threshold = (int) (newCapacity * m_fillFactor);
+        m_mask = newCapacity - 1L;
+
+        final int oldCapacity = m_keys.length;
+        final long[] oldKeys = m_keys;
+        final Object[] oldValues = m_values;
+
+        m_keys = new long[newCapacity];
+        m_values = new Object[newCapacity];
+
+        m_size = m_hasFreeKey ? 1 : 0;
+
+        for (int i = 0; i < oldCapacity; i++) {
+            final long k = oldKeys[i];
+            if (k != FREE_KEY) {
+                put(k, (V) oldValues[i]);
+            }
+        }
+    }
+}
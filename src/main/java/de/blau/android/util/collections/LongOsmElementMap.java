@@ -1,6 +1,7 @@
 package de.blau.android.util.collections;
 
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -32,7 +33,7 @@ import de.blau.android.osm.OsmElementFactory;
  * This code is not thread safe with the exception of iterating over the array when rehashing and requires external
  * synchronization if inserts and removals need to be consistent.
  * 
- * @version 0.3
+ * @version 0.4
  * @author simon
  */
 @SuppressLint("UseSparseArrays")
@@ -315,6 +316,19 @@ public class LongOsmElementMap<V extends OsmElement> implements Iterable<V>, Ser
         return result;
     }
 
+    /**
+     * Return a read-only view of the values in the map. Note: they are returned unordered
+     * 
+     * Contrary to {@link #values()} this doesn't copy anything, changes to the map are reflected in the view. Sequential
+     * access via the iterator or with increasing indices is cheap, random access by index is not.
+     * 
+     * @return a List backed by the map
+     */
+    @NonNull
+    public List<V> unmodifiableValues() {
+        return new ValuesView();
+    }
+
     /**
      * Return the number of elements in the map
      * 
@@ -465,6 +479,61 @@ public class LongOsmElementMap<V extends OsmElement> implements Iterable<V>, Ser
 
     }
 
+    /**
+     * Read-only live view of the values
+     * 
+     * get(int) remembers the last position so that iterating with increasing indices doesn't need to scan the array
+     * from the start every time
+     */
+    private class ValuesView extends AbstractList<V> {
+        OsmElement[] cursorData  = null;
+        int          cursorIndex = -1;
+        int          cursorPos   = -1;
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(int index) {
+            if (index < 0 || index >= m_size) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            final OsmElement[] data = m_data;
+            if (cursorData != data || index < cursorIndex
+                    || (cursorPos >= 0 && (data[cursorPos] == FREE_KEY || data[cursorPos] == removedKey))) {
+                cursorData = data;
+                cursorIndex = -1;
+                cursorPos = -1;
+            }
+            while (cursorIndex < index) {
+                cursorPos++;
+                if (cursorPos >= data.length) {
+                    cursorData = null; // map has been changed under us
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                OsmElement e = data[cursorPos];
+                if (e != FREE_KEY && e != removedKey) {
+                    cursorIndex++;
+                }
+            }
+            return (V) data[cursorPos];
+        }
+
+        @Override
+        public int size() {
+            return m_size;
+        }
+
+        @NonNull
+        @Override
+        public Iterator<V> iterator() {
+            return new SafeIterator();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return m_size == 0;
+        }
+    }
+
     /**
      * for stats and debugging
      * 
@@ -0,0 +1,133 @@
+package de.blau.android.util.mvt;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import android.graphics.Rect;
+import androidx.annotation.NonNull;
+
+/**
+ * List of the Features of one layer of a tile with a lazily built spatial index
+ *
+ * The index is a uniform grid over the bounding boxes of the features, it is built on the first query so that the
+ * geometries of layers that are never queried don't need to be decoded. The list must not be modified after the first
+ * query.
+ *
+ * @author simon
+ *
+ */
+public final class FeatureList extends ArrayList<VectorTileDecoder.Feature> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of cells per side of the grid
+     */
+    private static final int GRID_SIZE = 8;
+
+    private transient int[][] cells;
+    private transient int     left;
+    private transient int     top;
+    private transient float   cellWidth;
+    private transient float   cellHeight;
+
+    /**
+     * Build the index
+     */
+    private void buildIndex() {
+        int size = size();
+        left = Integer.MAX_VALUE;
+        top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            Rect box = get(i).getBox();
+            left = Math.min(left, box.left);
+            top = Math.min(top, box.top);
+            right = Math.max(right, box.right);
+            bottom = Math.max(bottom, box.bottom);
+        }
+        cellWidth = Math.max(1f, (right - left + 1) / (float) GRID_SIZE);
+        cellHeight = Math.max(1f, (bottom - top + 1) / (float) GRID_SIZE);
+        // count first so that the cells can be allocated with the right size
+        int[] counts = new int[GRID_SIZE * GRID_SIZE];
+        for (int i = 0; i < size; i++) {
+            Rect box = get(i).getBox();
+            for (int row = row(box.top); row <= row(box.bottom); row++) {
+                for (int column = column(box.left); column <= column(box.right); column++) {
+                    counts[row * GRID_SIZE + column]++;
+                }
+            }
+        }
+        int[][] temp = new int[GRID_SIZE * GRID_SIZE][];
+        for (int i = 0; i < temp.length; i++) {
+            temp[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            Rect box = get(i).getBox();
+            for (int row = row(box.top); row <= row(box.bottom); row++) {
+                for (int column = column(box.left); column <= column(box.right); column++) {
+                    int cell = row * GRID_SIZE + column;
+                    temp[cell][counts[cell]++] = i;
+                }
+            }
+        }
+        cells = temp;
+    }
+
+    /**
+     * Get the clamped column for a x coordinate
+     *
+     * @param x tile x coordinate
+     * @return the column
+     */
+    private int column(float x) {
+        return Math.max(0, Math.min(GRID_SIZE - 1, (int) ((x - left) / cellWidth)));
+    }
+
+    /**
+     * Get the clamped row for a y coordinate
+     *
+     * @param y tile y coordinate
+     * @return the row
+     */
+    private int row(float y) {
+        return Math.max(0, Math.min(GRID_SIZE - 1, (int) ((y - top) / cellHeight)));
+    }
+
+    /**
+     * Find the Features with bounding boxes intersecting a rectangle
+     *
+     * @param queryLeft left tile coordinate
+     * @param queryTop top tile coordinate
+     * @param queryRight right tile coordinate
+     * @param queryBottom bottom tile coordinate
+     * @param result list the Features are added to in the order they have in this list
+     */
+    public synchronized void query(float queryLeft, float queryTop, float queryRight, float queryBottom, @NonNull List<VectorTileDecoder.Feature> result) {
+        if (isEmpty()) {
+            return;
+        }
+        if (cells == null) {
+            buildIndex();
+        }
+        BitSet candidates = new BitSet(size());
+        for (int row = row(queryTop); row <= row(queryBottom); row++) {
+            for (int column = column(queryLeft); column <= column(queryRight); column++) {
+                for (int i : cells[row * GRID_SIZE + column]) {
+                    candidates.set(i);
+                }
+            }
+        }
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            VectorTileDecoder.Feature feature = get(i);
+            Rect box = feature.getBox();
+            // boxes are truncated to ints so allow one extra unit on each side
+            if (box.left - 1 <= queryRight && box.right + 1 >= queryLeft && box.top - 1 <= queryBottom && box.bottom + 1 >= queryTop) {
+                result.add(feature);
+            }
+        }
+    }
+}
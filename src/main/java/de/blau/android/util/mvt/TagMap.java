@@ -0,0 +1,103 @@
+package de.blau.android.util.mvt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Read only Map of MVT feature attributes
+ *
+ * Stores the key and value indices of the feature, the key and value tables are shared with all other features of the
+ * layer, this avoids creating a HashMap per feature. Features typically only have a handful of attributes so lookups
+ * are done by scanning.
+ *
+ * @author simon
+ *
+ */
+final class TagMap extends AbstractMap<String, Object> {
+
+    private final String[] keys;
+    private final Object[] values;
+    private final int[]    tags;
+
+    /**
+     * Construct a new map
+     *
+     * @param keys the key table of the layer
+     * @param values the value table of the layer
+     * @param tags alternating key and value indices
+     */
+    TagMap(@NonNull String[] keys, @NonNull Object[] values, @NonNull int[] tags) {
+        this.keys = keys;
+        this.values = values;
+        this.tags = tags;
+    }
+
+    /**
+     * Get the position of a key in the tags array
+     *
+     * @param key the key
+     * @return the position or -1 if not found
+     */
+    private int indexOf(Object key) {
+        // search from the end so that duplicate keys behave like they would in a HashMap
+        for (int i = tags.length - 2; i >= 0; i -= 2) {
+            if (keys[tags[i]].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? values[tags[i + 1]] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return tags.length / 2;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < tags.length - 1;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<>(keys[tags[i]], values[tags[i + 1]]);
+                        i += 2;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return TagMap.this.size();
+            }
+        };
+    }
+}
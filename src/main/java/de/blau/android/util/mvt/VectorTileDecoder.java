@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.mapbox.geojson.CoordinateContainer;
 import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.GeometryCollection;
 import com.mapbox.geojson.LineString;
@@ -37,6 +38,8 @@ import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.GeoJSONConstants;
 import vector_tile.VectorTile;
 import vector_tile.VectorTile.Tile.GeomType;
 import vector_tile.VectorTile.Tile.Layer;
@@ -46,6 +49,7 @@ public class VectorTileDecoder {
     private static final String DEBUG_TAG = VectorTileDecoder.class.getSimpleName();
 
     private boolean autoScale = true;
+    private boolean lazy      = false;
 
     /**
      * Get the autoScale setting.
@@ -67,6 +71,25 @@ public class VectorTileDecoder {
         this.autoScale = autoScale;
     }
 
+    /**
+     * Get the lazy setting.
+     *
+     * @return lazy
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Set the lazy setting.
+     *
+     * @param lazy when true, feature geometries are only decoded when they are first accessed and attributes are
+     *            stored as indices in to the per layer key and value tables
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     /**
      * Decode all layers in data to a FeatureIterable
      * 
@@ -112,7 +135,7 @@ public class VectorTileDecoder {
      */
     public FeatureIterable decode(@NonNull byte[] data, Filter filter) throws IOException {
         VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
-        return new FeatureIterable(tile, filter, autoScale);
+        return new FeatureIterable(tile, filter, autoScale, lazy);
     }
 
     /**
@@ -261,6 +284,95 @@ public class VectorTileDecoder {
         return geometry;
     }
 
+    /**
+     * Extend a bounding box to include a List of Points
+     * 
+     * @param rect the Rect for the result
+     * @param points the List of Points
+     */
+    private static void rectFromPoints(@NonNull Rect rect, @NonNull List<Point> points) {
+        for (Point p : points) {
+            int x = (int) p.longitude();
+            int y = (int) p.latitude();
+            rect.left = Math.min(rect.left, x);
+            rect.top = Math.min(rect.top, y);
+            rect.right = Math.max(rect.right, x);
+            rect.bottom = Math.max(rect.bottom, y);
+        }
+    }
+
+    /**
+     * Get a bounding box for a Geometry
+     * 
+     * @param rect pre-allocated Rect
+     * @param g the Geometry
+     * @return the Rect set to the bounding box, empty at 0,0 if the geometry is empty
+     */
+    @NonNull
+    static Rect getBoundingBox(@NonNull Rect rect, @NonNull Geometry g) {
+        rect.set(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        addToBoundingBox(rect, g);
+        if (rect.left > rect.right) {
+            rect.set(0, 0, 0, 0);
+        }
+        return rect;
+    }
+
+    /**
+     * Extend a bounding box to include a Geometry
+     * 
+     * @param rect the Rect for the result
+     * @param g the Geometry
+     */
+    private static void addToBoundingBox(@NonNull Rect rect, @NonNull Geometry g) {
+        switch (g.type()) {
+        case GeoJSONConstants.POINT:
+            rectFromPoints(rect, Collections.singletonList((Point) g));
+            break;
+        case GeoJSONConstants.MULTIPOINT:
+            @SuppressWarnings("unchecked")
+            List<Point> pointList = ((CoordinateContainer<List<Point>>) g).coordinates();
+            rectFromPoints(rect, pointList);
+            break;
+        case GeoJSONConstants.LINESTRING:
+            @SuppressWarnings("unchecked")
+            List<Point> line = ((CoordinateContainer<List<Point>>) g).coordinates();
+            rectFromPoints(rect, line);
+            break;
+        case GeoJSONConstants.MULTILINESTRING:
+            @SuppressWarnings("unchecked")
+            List<List<Point>> lines = ((CoordinateContainer<List<List<Point>>>) g).coordinates();
+            for (List<Point> l : lines) {
+                rectFromPoints(rect, l);
+            }
+            break;
+        case GeoJSONConstants.POLYGON:
+            @SuppressWarnings("unchecked")
+            List<List<Point>> rings = ((CoordinateContainer<List<List<Point>>>) g).coordinates();
+            for (List<Point> ring : rings) {
+                rectFromPoints(rect, ring);
+            }
+            break;
+        case GeoJSONConstants.MULTIPOLYGON:
+            @SuppressWarnings("unchecked")
+            List<List<List<Point>>> polygons = ((CoordinateContainer<List<List<List<Point>>>>) g).coordinates();
+            for (List<List<Point>> polygon : polygons) {
+                for (List<Point> ring : polygon) {
+                    rectFromPoints(rect, ring);
+                }
+            }
+            break;
+        case GeoJSONConstants.GEOMETRYCOLLECTION:
+            List<Geometry> geometries = ((GeometryCollection) g).geometries();
+            for (Geometry geometry : geometries) {
+                addToBoundingBox(rect, geometry);
+            }
+            break;
+        default:
+            Log.e(DEBUG_TAG, "drawGeometry unknown GeoJSON geometry " + g.type());
+        }
+    }
+
     public static final int COLINEAR         = 0;
     public static final int CLOCKWISE        = -1;
     public static final int COUNTERCLOCKWISE = 1;
@@ -298,6 +410,7 @@ public class VectorTileDecoder {
         private final VectorTile.Tile tile;
         private final Filter          filter;
         private boolean               autoScale;
+        private boolean               lazy;
 
         /**
          * Construct a new FeatureIterable for a tile
@@ -307,9 +420,22 @@ public class VectorTileDecoder {
          * @param autoScale if true autoscale
          */
         public FeatureIterable(@NonNull VectorTile.Tile tile, @NonNull Filter filter, boolean autoScale) {
+            this(tile, filter, autoScale, false);
+        }
+
+        /**
+         * Construct a new FeatureIterable for a tile
+         * 
+         * @param tile the tile
+         * @param filter a filter
+         * @param autoScale if true autoscale
+         * @param lazy if true decode geometries on first access
+         */
+        public FeatureIterable(@NonNull VectorTile.Tile tile, @NonNull Filter filter, boolean autoScale, boolean lazy) {
             this.tile = tile;
             this.filter = filter;
             this.autoScale = autoScale;
+            this.lazy = lazy;
         }
 
         /**
@@ -318,7 +444,7 @@ public class VectorTileDecoder {
          * @return an Iterator returning Features
          */
         public Iterator<Feature> iterator() {
-            return new FeatureIterator(tile, filter, autoScale);
+            return new FeatureIterator(tile, filter, autoScale, lazy);
         }
 
         /**
@@ -338,6 +464,8 @@ public class VectorTileDecoder {
         /**
          * Get all features as a per layer list
          * 
+         * The lists are FeatureLists that support spatial queries
+         * 
          * @return a Map with the features per layer
          */
         @NonNull
@@ -346,7 +474,7 @@ public class VectorTileDecoder {
             for (Feature feature : this) {
                 List<Feature> list = features.get(feature.layerName);
                 if (list == null) {
-                    list = new ArrayList<>();
+                    list = new FeatureList();
                     features.put(feature.layerName, list);
                 }
                 list.add(feature);
@@ -380,10 +508,15 @@ public class VectorTileDecoder {
         private String  layerName;
         private double  scale;
         private boolean autoScale;
+        private boolean lazy;
 
         private final List<String> keys   = new ArrayList<>();
         private final List<Object> values = new ArrayList<>();
 
+        // shared by the lazily decoded features of a layer
+        private String[] keyTable;
+        private Object[] valueTable;
+
         private Feature next;
 
         /**
@@ -392,11 +525,13 @@ public class VectorTileDecoder {
          * @param tile the tile
          * @param filter a filter
          * @param autoScale if true autoscale
+         * @param lazy if true decode geometries on first access
          */
-        public FeatureIterator(@NonNull VectorTile.Tile tile, @NonNull Filter filter, boolean autoScale) {
+        public FeatureIterator(@NonNull VectorTile.Tile tile, @NonNull Filter filter, boolean autoScale, boolean lazy) {
             layerIterator = tile.getLayersList().iterator();
             this.filter = filter;
             this.autoScale = autoScale;
+            this.lazy = lazy;
         }
 
         /**
@@ -489,6 +624,11 @@ public class VectorTileDecoder {
                 }
             }
 
+            if (lazy) {
+                keyTable = keys.toArray(new String[keys.size()]);
+                valueTable = values.toArray();
+            }
+
             featureIterator = layer.getFeaturesList().iterator();
         }
 
@@ -501,6 +641,21 @@ public class VectorTileDecoder {
         private Feature parseFeature(@NonNull VectorTile.Tile.Feature feature) {
 
             int tagsCount = feature.getTagsCount();
+            if (lazy) {
+                if (tagsCount % 2 != 0) {
+                    throw new IndexOutOfBoundsException("Odd number of tags " + tagsCount);
+                }
+                int[] tags = new int[tagsCount];
+                for (int i = 0; i < tagsCount; i++) {
+                    int index = feature.getTags(i);
+                    // fail here like the eager decoding does, not when the attributes are accessed
+                    if (index < 0 || index >= (i % 2 == 0 ? keyTable.length : valueTable.length)) {
+                        throw new IndexOutOfBoundsException("Tag index " + index + " out of range");
+                    }
+                    tags[i] = index;
+                }
+                return new Feature(layerName, extent, feature, scale, new TagMap(keyTable, valueTable, tags), feature.getId());
+            }
             Map<String, Object> attributes = new HashMap<>(tagsCount / 2);
             int tagIdx = 0;
             while (tagIdx < feature.getTagsCount()) {
@@ -511,7 +666,7 @@ public class VectorTileDecoder {
 
             Geometry geometry = decodeGeometry(feature.getType(), feature.getGeometryList(), scale);
 
-            return new Feature(layerName, extent, geometry, Collections.unmodifiableMap(attributes), feature.getId());
+            return new Feature(layerName, extent, geometry, typeName(feature.getType()), Collections.unmodifiableMap(attributes), feature.getId());
         }
 
         @Override
@@ -520,6 +675,49 @@ public class VectorTileDecoder {
         }
     }
 
+    /**
+     * Get the geometry type name used in style filters for a MVT geometry type
+     * 
+     * @param geomType the MVT geometry type
+     * @return Point, LineString, Polygon or null if unknown
+     */
+    @Nullable
+    static String typeName(@NonNull GeomType geomType) {
+        switch (geomType) {
+        case POINT:
+            return GeoJSONConstants.POINT;
+        case LINESTRING:
+            return GeoJSONConstants.LINESTRING;
+        case POLYGON:
+            return GeoJSONConstants.POLYGON;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Get the geometry type name used in style filters for a Geometry
+     * 
+     * @param geometry the Geometry
+     * @return Point, LineString, Polygon or null if unknown
+     */
+    @Nullable
+    static String typeName(@NonNull Geometry geometry) {
+        switch (geometry.type()) {
+        case GeoJSONConstants.POINT:
+        case GeoJSONConstants.MULTIPOINT:
+            return GeoJSONConstants.POINT;
+        case GeoJSONConstants.LINESTRING:
+        case GeoJSONConstants.MULTILINESTRING:
+            return GeoJSONConstants.LINESTRING;
+        case GeoJSONConstants.POLYGON:
+        case GeoJSONConstants.MULTIPOLYGON:
+            return GeoJSONConstants.POLYGON;
+        default:
+            return null;
+        }
+    }
+
     /**
      * Class holding MVT features
      * 
@@ -528,14 +726,25 @@ public class VectorTileDecoder {
      */
     public static final class Feature {
 
+        /**
+         * Maximum number of style layer filter results that can be cached per feature
+         */
+        public static final int MAX_CACHED_FILTERS = 64;
+
         private final String              layerName;
         private final int                 extent;
         private final long                id;
-        private final Geometry            geometry;
+        private final String              type;
+        private volatile Geometry         geometry;
+        private VectorTile.Tile.Feature   source;
+        private final double              scale;
         private final Map<String, Object> attributes;
         private Rect                      box;
         private Object                    cachedLabel;
         private Bitmap                    cachedBitmap;
+        private int                       filterVersion   = -1;
+        private long                      filterEvaluated = 0;
+        private long                      filterPassed    = 0;
 
         /**
          * Construct a new MVT Feature
@@ -547,9 +756,49 @@ public class VectorTileDecoder {
          * @param id optional id
          */
         public Feature(@NonNull String layerName, int extent, @NonNull Geometry geometry, @NonNull Map<String, Object> attributes, long id) {
+            this(layerName, extent, geometry, typeName(geometry), attributes, id);
+        }
+
+        /**
+         * Construct a new MVT Feature
+         * 
+         * @param layerName the layer name
+         * @param extent tile size (one side)
+         * @param geometry a Geometry object
+         * @param type the geometry type as used in style filters or null
+         * @param attributes attributes for the feature
+         * @param id optional id
+         */
+        Feature(@NonNull String layerName, int extent, @NonNull Geometry geometry, @Nullable String type, @NonNull Map<String, Object> attributes,
+                long id) {
             this.layerName = layerName;
             this.extent = extent;
+            this.type = type;
             this.geometry = geometry;
+            this.source = null;
+            this.scale = 1.0;
+            this.attributes = attributes;
+            this.id = id;
+        }
+
+        /**
+         * Construct a new MVT Feature that decodes its geometry on first access
+         * 
+         * @param layerName the layer name
+         * @param extent tile size (one side)
+         * @param source the undecoded feature
+         * @param scale the scale to apply to the geometry
+         * @param attributes attributes for the feature
+         * @param id optional id
+         */
+        Feature(@NonNull String layerName, int extent, @NonNull VectorTile.Tile.Feature source, double scale, @NonNull Map<String, Object> attributes,
+                long id) {
+            this.layerName = layerName;
+            this.extent = extent;
+            this.type = typeName(source.getType());
+            this.geometry = null;
+            this.source = source;
+            this.scale = scale;
             this.attributes = attributes;
             this.id = id;
         }
@@ -573,6 +822,18 @@ public class VectorTileDecoder {
             return id;
         }
 
+        /**
+         * Get the geometry type as used in style filters, multi-geometries have the type of their members
+         * 
+         * This doesn't require the geometry to be decoded
+         * 
+         * @return Point, LineString, Polygon or null if unknown
+         */
+        @Nullable
+        public String getType() {
+            return type;
+        }
+
         /**
          * Size of the tile (one side)
          * 
@@ -589,7 +850,17 @@ public class VectorTileDecoder {
          */
         @NonNull
         public Geometry getGeometry() {
-            return geometry;
+            Geometry g = geometry;
+            if (g == null) {
+                synchronized (this) {
+                    if (geometry == null) {
+                        geometry = decodeGeometry(source.getType(), source.getGeometryList(), scale);
+                        source = null;
+                    }
+                    g = geometry;
+                }
+            }
+            return g;
         }
 
         /**
@@ -603,9 +874,15 @@ public class VectorTileDecoder {
         }
 
         /**
+         * Get the bounding box of the geometry, calculating it if necessary
+         * 
          * @return the box
          */
+        @NonNull
         public Rect getBox() {
+            if (box == null) {
+                box = getBoundingBox(new Rect(), getGeometry());
+            }
             return box;
         }
 
@@ -643,5 +920,48 @@ public class VectorTileDecoder {
         public void setCachedBitmap(Bitmap cachedBitmap) {
             this.cachedBitmap = cachedBitmap;
         }
+
+        /**
+         * Check if there is a cached filter result
+         * 
+         * @param version the current version of the filters
+         * @param index the index of the filter, less than MAX_CACHED_FILTERS
+         * @return true if a result for the filter has been cached for the version
+         */
+        public boolean isFilterResultCached(int version, int index) {
+            return version == filterVersion && (filterEvaluated & (1L << index)) != 0;
+        }
+
+        /**
+         * Get a cached filter result, only valid if isFilterResultCached has returned true
+         * 
+         * @param index the index of the filter, less than MAX_CACHED_FILTERS
+         * @return true if the filter accepted the feature
+         */
+        public boolean getFilterResult(int index) {
+            return (filterPassed & (1L << index)) != 0;
+        }
+
+        /**
+         * Cache a filter result, results for other versions are discarded
+         * 
+         * @param version the current version of the filters
+         * @param index the index of the filter, less than MAX_CACHED_FILTERS
+         * @param result the result
+         */
+        public void setFilterResult(int version, int index, boolean result) {
+            if (version != filterVersion) {
+                filterVersion = version;
+                filterEvaluated = 0;
+                filterPassed = 0;
+            }
+            long bit = 1L << index;
+            filterEvaluated |= bit;
+            if (result) {
+                filterPassed |= bit;
+            } else {
+                filterPassed &= ~bit;
+            }
+        }
     }
 }
@@ -0,0 +1,400 @@
+package de.blau.android.util.mvt.style;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.mvt.VectorTileDecoder.Feature;
+
+/**
+ * Mapbox GL legacy filter compiled to a tree of predicates
+ *
+ * The filter JSON is only walked once when compiling, keys are resolved to accessors and literals are converted to the
+ * types they are compared with, so that evaluating the filter for a feature doesn't touch any Gson objects.
+ *
+ * @author simon
+ *
+ */
+abstract class FilterExpression {
+
+    private static final String DEBUG_TAG = FilterExpression.class.getSimpleName();
+
+    private static final String KEY_ID        = "$id";
+    private static final String KEY_TYPE      = "$type";
+    private static final String FILTER_ANY    = "any";
+    private static final String FILTER_ALL    = "all";
+    private static final String FILTER_NOT_IN = "!in";
+    private static final String FILTER_IN     = "in";
+    private static final String FILTER_GT_EQ  = ">=";
+    private static final String FILTER_GT     = ">";
+    private static final String FILTER_LT_EQ  = "<=";
+    private static final String FILTER_LT     = "<";
+    private static final String FILTER_NOT_EQ = "!=";
+    private static final String FILTER_EQ     = "==";
+
+    private static final int EQ     = 0;
+    private static final int NOT_EQ = 1;
+    private static final int LT     = 2;
+    private static final int LT_EQ  = 3;
+    private static final int GT     = 4;
+    private static final int GT_EQ  = 5;
+
+    static final FilterExpression NONE = new Constant(false);
+
+    /**
+     * Evaluate the filter for a feature
+     *
+     * @param feature the Feature
+     * @return true if the filter accepts the feature
+     */
+    abstract boolean evaluate(@NonNull Feature feature);
+
+    /**
+     * Compile a filter
+     *
+     * Invalid filters are logged and compiled to a filter that doesn't accept anything
+     *
+     * @param expression the filter JSON
+     * @return a FilterExpression
+     */
+    @NonNull
+    static FilterExpression compile(@NonNull JsonArray expression) {
+        try {
+            String function = expression.get(0).getAsString();
+            switch (function) {
+            case FILTER_EQ:
+                return new Comparison(EQ, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_NOT_EQ:
+                return new Comparison(NOT_EQ, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_LT:
+                return new Comparison(LT, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_LT_EQ:
+                return new Comparison(LT_EQ, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_GT:
+                return new Comparison(GT, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_GT_EQ:
+                return new Comparison(GT_EQ, Key.get(expression), new Literal(expression.get(2)));
+            case FILTER_IN:
+                return new In(Key.get(expression), expression, false);
+            case FILTER_NOT_IN:
+                return new In(Key.get(expression), expression, true);
+            case FILTER_ALL:
+                return new All(children(expression));
+            case FILTER_ANY:
+                return new Any(children(expression));
+            default:
+                Log.e(DEBUG_TAG, "Unknown filter type " + function);
+            }
+        } catch (RuntimeException e) { // NOSONAR
+            Log.e(DEBUG_TAG, "Invalid filter " + expression + " " + e.getMessage());
+        }
+        return NONE;
+    }
+
+    /**
+     * Compile the arguments of all and any
+     *
+     * @param expression the filter JSON
+     * @return an array of FilterExpressions
+     */
+    @NonNull
+    private static FilterExpression[] children(@NonNull JsonArray expression) {
+        FilterExpression[] result = new FilterExpression[expression.size() - 1];
+        for (int i = 1; i < expression.size(); i++) {
+            JsonElement child = expression.get(i);
+            if (child.isJsonArray()) {
+                result[i - 1] = compile((JsonArray) child);
+            } else {
+                Log.e(DEBUG_TAG, "Filter argument is not an array " + child);
+                result[i - 1] = NONE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Access to the feature property a filter tests
+     */
+    private abstract static class Key {
+
+        /**
+         * Get the value from a feature
+         *
+         * @param feature the Feature
+         * @return the value or null if not present
+         */
+        @Nullable
+        abstract Object value(@NonNull Feature feature);
+
+        /**
+         * Get the accessor for the key in the 2nd element of a filter
+         *
+         * @param expression the filter JSON
+         * @return a Key
+         */
+        @NonNull
+        static Key get(@NonNull JsonArray expression) {
+            final String key = expression.get(1).getAsString();
+            switch (key) {
+            case KEY_TYPE:
+                return TYPE;
+            case KEY_ID:
+                return ID;
+            default:
+                return new Key() {
+                    @Override
+                    Object value(Feature feature) {
+                        return feature.getAttributes().get(key);
+                    }
+                };
+            }
+        }
+    }
+
+    private static final Key TYPE = new Key() {
+        @Override
+        Object value(Feature feature) {
+            // doesn't decode the geometry
+            return feature.getType();
+        }
+    };
+
+    private static final Key ID = new Key() {
+        @Override
+        Object value(Feature feature) {
+            return feature.getId();
+        }
+    };
+
+    /**
+     * A filter literal converted up front to all the types it can be compared with
+     */
+    private static final class Literal {
+        final String  string;
+        final Integer intValue;
+        final Long    longValue;
+        final Float   floatValue;
+        final Double  doubleValue;
+
+        /**
+         * Convert a JsonElement
+         *
+         * @param element the literal
+         */
+        Literal(@NonNull JsonElement element) {
+            JsonPrimitive primitive = element.isJsonPrimitive() ? (JsonPrimitive) element : null;
+            string = primitive != null ? primitive.getAsString() : null;
+            Integer i = null;
+            Long l = null;
+            Float f = null;
+            Double d = null;
+            if (primitive != null && !primitive.isBoolean()) {
+                try {
+                    i = primitive.getAsInt();
+                } catch (NumberFormatException e) { // NOSONAR
+                    // not usable as an int
+                }
+                try {
+                    l = primitive.getAsLong();
+                } catch (NumberFormatException e) { // NOSONAR
+                    // not usable as a long
+                }
+                try {
+                    f = primitive.getAsFloat();
+                    d = primitive.getAsDouble();
+                } catch (NumberFormatException e) { // NOSONAR
+                    // not a number
+                }
+            }
+            intValue = i;
+            longValue = l;
+            floatValue = f;
+            doubleValue = d;
+        }
+
+        /**
+         * Compare a value to this literal
+         *
+         * @param left the value
+         * @return the comparison result or null if the value can't be compared
+         */
+        @Nullable
+        Integer compareTo(@NonNull Object left) {
+            if (left instanceof String) {
+                return string != null ? ((String) left).compareTo(string) : null;
+            } else if (left instanceof Integer) {
+                return intValue != null ? Integer.compare((int) left, intValue) : null;
+            } else if (left instanceof Long) {
+                return longValue != null ? Long.compare((long) left, longValue) : null;
+            } else if (left instanceof Float) {
+                return floatValue != null ? Float.compare((float) left, floatValue) : null;
+            } else if (left instanceof Double) {
+                return doubleValue != null ? Double.compare((double) left, doubleValue) : null;
+            }
+            Log.e(DEBUG_TAG, "compare unsupported object " + left.getClass().getCanonicalName());
+            return null;
+        }
+    }
+
+    private static final class Constant extends FilterExpression {
+        private final boolean result;
+
+        /**
+         * Construct a filter with a fixed result
+         *
+         * @param result the result
+         */
+        Constant(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        boolean evaluate(Feature feature) {
+            return result;
+        }
+    }
+
+    private static final class Comparison extends FilterExpression {
+        private final int     op;
+        private final Key     key;
+        private final Literal literal;
+
+        /**
+         * Construct a comparison of a feature property with a literal
+         *
+         * @param op the comparison operator
+         * @param key the accessor for the property
+         * @param literal the literal
+         */
+        Comparison(int op, @NonNull Key key, @NonNull Literal literal) {
+            this.op = op;
+            this.key = key;
+            this.literal = literal;
+        }
+
+        @Override
+        boolean evaluate(Feature feature) {
+            Object left = key.value(feature);
+            if (left == null) {
+                return op == NOT_EQ; // val doesn't exist is true
+            }
+            Integer result = literal.compareTo(left);
+            if (result == null) {
+                return false;
+            }
+            switch (op) {
+            case EQ:
+                return result == 0;
+            case NOT_EQ:
+                return result != 0;
+            case LT:
+                return result < 0;
+            case LT_EQ:
+                return result <= 0;
+            case GT:
+                return result > 0;
+            case GT_EQ:
+                return result >= 0;
+            default:
+                return false;
+            }
+        }
+    }
+
+    private static final class In extends FilterExpression {
+        private final Key         key;
+        private final Literal[]   literals;
+        private final Set<String> strings = new HashSet<>();
+        private final boolean     negate;
+
+        /**
+         * Construct a test for membership of a feature property in a set of literals
+         *
+         * @param key the accessor for the property
+         * @param expression the filter JSON, literals start at the 3rd element
+         * @param negate if true the filter is !in
+         */
+        In(@NonNull Key key, @NonNull JsonArray expression, boolean negate) {
+            this.key = key;
+            this.negate = negate;
+            literals = new Literal[Math.max(0, expression.size() - 2)];
+            for (int i = 2; i < expression.size(); i++) {
+                Literal literal = new Literal(expression.get(i));
+                literals[i - 2] = literal;
+                if (literal.string != null) {
+                    strings.add(literal.string);
+                }
+            }
+        }
+
+        @Override
+        boolean evaluate(Feature feature) {
+            Object left = key.value(feature);
+            if (left == null) {
+                return negate;
+            }
+            if (left instanceof String) {
+                return strings.contains(left) != negate;
+            }
+            for (Literal literal : literals) {
+                Integer result = literal.compareTo(left);
+                if (result != null && result == 0) {
+                    return !negate;
+                }
+            }
+            return negate;
+        }
+    }
+
+    private static final class All extends FilterExpression {
+        private final FilterExpression[] children;
+
+        /**
+         * Construct a filter that requires all children to accept a feature
+         *
+         * @param children the child filters
+         */
+        All(@NonNull FilterExpression[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean evaluate(Feature feature) {
+            for (FilterExpression child : children) {
+                if (!child.evaluate(feature)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Any extends FilterExpression {
+        private final FilterExpression[] children;
+
+        /**
+         * Construct a filter that requires at least one child to accept a feature
+         *
+         * @param children the child filters
+         */
+        Any(@NonNull FilterExpression[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean evaluate(Feature feature) {
+            for (FilterExpression child : children) {
+                if (child.evaluate(feature)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package de.blau.android.util.mvt.style;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import android.graphics.Rect;
+import androidx.annotation.NonNull;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.mvt.style.SimpleCollisionDetector.Box;
+
+/**
+ * Collision detection using a screen space grid
+ *
+ * Boxes are stored in all grid cells their axis aligned bounding box touches, a new box is only tested against the
+ * boxes in the cells it touches and the exact test is only run if the bounding boxes intersect. This keeps the cost per
+ * test roughly constant so that there is no need to limit the number of boxes.
+ *
+ * @author Simon
+ *
+ */
+public class GridCollisionDetector implements CollisionDetector {
+
+    private static final int DEFAULT_CELL_SIZE = 64;
+
+    /**
+     * Boxes that would be stored in more cells than this are kept in a separate list that is always checked
+     */
+    private static final int MAX_CELLS_PER_BOX = 64;
+
+    /**
+     * Number of cells above which the cell lists are discarded on reset
+     */
+    private static final int MAX_RETAINED_CELLS = 4096;
+
+    private final LongHashMap<List<Box>> cells     = new LongHashMap<>();
+    private final List<List<Box>>        usedCells = new ArrayList<>();
+    private final List<Box>              oversized = new ArrayList<>();
+    private final List<Box>              boxes     = new ArrayList<>();
+    private final Deque<Box>             pool      = new ArrayDeque<>();
+    private final float                  cellSize;
+
+    private int stamp = 0;
+
+    /**
+     * Construct a new instance
+     */
+    public GridCollisionDetector() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Construct a new instance
+     *
+     * @param cellSize the size of a grid cell in screen pixels
+     */
+    public GridCollisionDetector(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Resets the current set of collision boxes and returns them all to the pool
+     */
+    @Override
+    public void reset() {
+        for (List<Box> cell : usedCells) {
+            cell.clear();
+        }
+        usedCells.clear();
+        if (cells.size() > MAX_RETAINED_CELLS) {
+            cells.clear();
+        }
+        oversized.clear();
+        pool.addAll(boxes);
+        boxes.clear();
+    }
+
+    @Override
+    public boolean collides(@NonNull Rect rect) {
+        Box test = getBox();
+        test.from(rect);
+        return testForIntersection(test);
+    }
+
+    @Override
+    public boolean collides(@NonNull float[] start, @NonNull float[] end, float height) {
+        Box test = getBox();
+        test.from(start, end, height);
+        return testForIntersection(test);
+    }
+
+    /**
+     * Get a Box from the pool or create a new one
+     *
+     * @return a Box
+     */
+    @NonNull
+    private Box getBox() {
+        return pool.isEmpty() ? new Box() : pool.pop();
+    }
+
+    /**
+     * Test if the Box intersects with an existing one, if not add it
+     *
+     * @param test the Box
+     * @return true if it intersects with any of the existing Boxes
+     */
+    private boolean testForIntersection(@NonNull Box test) {
+        stamp++;
+        for (Box box : oversized) {
+            if (box.intersectBounds(test) && box.intersect(test)) {
+                pool.add(test); // return to pool
+                return true;
+            }
+        }
+        int left = cell(test.minX);
+        int right = cell(test.maxX);
+        int top = cell(test.minY);
+        int bottom = cell(test.maxY);
+        boolean isOversized = !isFinite(test) || ((long) right - left + 1) * ((long) bottom - top + 1) > MAX_CELLS_PER_BOX;
+        if (isOversized) {
+            // the box covers a large part of the screen, check everything
+            for (Box box : boxes) {
+                if (box.intersectBounds(test) && box.intersect(test)) {
+                    pool.add(test);
+                    return true;
+                }
+            }
+            oversized.add(test);
+            boxes.add(test);
+            return false;
+        }
+        for (int x = left; x <= right; x++) {
+            for (int y = top; y <= bottom; y++) {
+                List<Box> cell = cells.get(key(x, y));
+                if (cell == null) {
+                    continue;
+                }
+                for (Box box : cell) {
+                    if (box.stamp != stamp) { // boxes can be in multiple cells
+                        box.stamp = stamp;
+                        if (box.intersectBounds(test) && box.intersect(test)) {
+                            pool.add(test);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        for (int x = left; x <= right; x++) {
+            for (int y = top; y <= bottom; y++) {
+                long key = key(x, y);
+                List<Box> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    cells.put(key, cell);
+                }
+                if (cell.isEmpty()) {
+                    usedCells.add(cell);
+                }
+                cell.add(test);
+            }
+        }
+        boxes.add(test);
+        return false;
+    }
+
+    /**
+     * Check that the bounds of a Box are usable for indexing
+     *
+     * @param box the Box
+     * @return true if all bounds are finite
+     */
+    private static boolean isFinite(@NonNull Box box) {
+        return !Float.isNaN(box.minX + box.minY + box.maxX + box.maxY) && !Float.isInfinite(box.minX + box.minY + box.maxX + box.maxY);
+    }
+
+    /**
+     * Get the grid cell for a screen coordinate
+     *
+     * @param coordinate the coordinate
+     * @return the cell index
+     */
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Get the key for a grid cell
+     *
+     * @param x the cell column
+     * @param y the cell row
+     * @return a key for the cells map
+     */
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the number of boxes currently held
+     *
+     * @return the number of boxes
+     */
+    public int size() {
+        return boxes.size();
+    }
+}
@@ -23,7 +23,6 @@ import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import ch.poole.android.sprites.Sprites;
-import de.blau.android.util.GeoJSONConstants;
 import de.blau.android.util.IntegerUtil;
 import de.blau.android.util.SerializableTextPaint;
 import de.blau.android.util.mvt.VectorTileDecoder;
@@ -42,18 +41,6 @@ public abstract class Layer implements Serializable {
     private static final String INTERPOLATION_TYPE_IDENTITY           = "identity";
     private static final String INTERPOLATION_TYPE_CATEGORY           = "categorical";
     private static final String INTERPOLATION_TYPE                    = "type";
-    private static final String LAYER_KEY_ID                          = "$id";
-    private static final String LAYER_KEY_TYPE                        = "$type";
-    private static final String LAYER_FILTER_ANY                      = "any";
-    private static final String LAYER_FILTER_ALL                      = "all";
-    private static final String LAYER_FILTER_NOT_IN                   = "!in";
-    private static final String LAYER_FILTER_IN                       = "in";
-    private static final String LAYER_FILTER_GT_EQ                    = ">=";
-    private static final String LAYER_FILTER_GT                       = ">";
-    private static final String LAYER_FILTER_LT_EQ                    = "<=";
-    private static final String LAYER_FILTER_LT                       = "<";
-    private static final String LAYER_FILTER_NOT_EQ                   = "!=";
-    private static final String LAYER_FILTER_EQ                       = "==";
     private static final String LAYER_JOIN_MITER                      = "miter";
     private static final String LAYER_JOIN_ROUND                      = "round";
     private static final String LAYER_JOIN_BEVEL                      = "bevel";
@@ -148,7 +135,12 @@ public abstract class Layer implements Serializable {
 
     protected SerializableTextPaint paint = new SerializableTextPaint();
 
-    private transient JsonArray filter = null;
+    private transient JsonArray        filter             = null;
+    private transient FilterExpression compiledFilter     = null;
+    private transient int              filterIndex        = -1;
+    private transient Style            filterStyle        = null;
+    private transient JsonArray        lastExpression     = null;
+    private transient FilterExpression lastCompiled       = null;
 
     protected transient Path  path           = new Path();
     protected transient Rect  destinationRect;
@@ -330,136 +322,74 @@ public abstract class Layer implements Serializable {
      */
     public void setFilter(@Nullable JsonArray filter) {
         this.filter = filter;
+        compiledFilter = filter != null ? FilterExpression.compile(filter) : null;
+        Style style = filterStyle;
+        if (style != null) {
+            style.invalidateFilterResults();
+        }
     }
 
     /**
      * Evaluate the a filter expression
      * 
+     * The compiled form of the last expression is retained, use evaluateFilter(Feature) for the filter of this Layer
+     * 
      * @param expression the expression
      * @param feature the feature we need to filter gains
      * @return true if the filter excepts the feature
      */
     public boolean evaluateFilter(@NonNull JsonArray expression, @NonNull VectorTileDecoder.Feature feature) {
-        String function = expression.get(0).getAsString();
-        switch (function) {
-        case LAYER_FILTER_EQ:
-        case LAYER_FILTER_NOT_EQ:
-        case LAYER_FILTER_LT:
-        case LAYER_FILTER_LT_EQ:
-        case LAYER_FILTER_GT:
-        case LAYER_FILTER_GT_EQ:
-            String key = expression.get(1).getAsString();
-            Object left = getKeyValue(feature, key);
-            if (left == null) {
-                return LAYER_FILTER_NOT_EQ.equals(function); // val doesn't exist is true
-            }
-            return compare(function, left, expression.get(2));
-        case LAYER_FILTER_IN:
-            key = expression.get(1).getAsString();
-            left = getKeyValue(feature, key);
-            if (left == null) {
-                return false;
-            }
-            for (int i = 2; i < expression.size(); i++) {
-                if (compare(LAYER_FILTER_EQ, left, expression.get(i))) {
-                    return true;
-                }
-            }
-            return false;
-        case LAYER_FILTER_NOT_IN:
-            key = expression.get(1).getAsString();
-            left = getKeyValue(feature, key);
-            if (left == null) {
-                return true;
-            }
-            for (int i = 2; i < expression.size(); i++) {
-                if (compare(LAYER_FILTER_EQ, left, expression.get(i))) {
-                    return false;
-                }
-            }
-            return true;
-        case LAYER_FILTER_ALL:
-            for (int i = 1; i < expression.size(); i++) {
-                if (!evaluateFilter((JsonArray) expression.get(i), feature)) {
-                    return false;
-                }
-            }
-            return true;
-        case LAYER_FILTER_ANY:
-            for (int i = 1; i < expression.size(); i++) {
-                if (evaluateFilter((JsonArray) expression.get(i), feature)) {
-                    return true;
+        FilterExpression compiled;
+        synchronized (this) {
+            if (expression == filter && compiledFilter != null) {
+                compiled = compiledFilter;
+            } else {
+                if (!expression.equals(lastExpression)) {
+                    // copy so that later changes to the argument don't go unnoticed
+                    lastExpression = expression.deepCopy();
+                    lastCompiled = FilterExpression.compile(expression);
                 }
+                compiled = lastCompiled;
             }
-            return false;
-        default:
-            Log.e(DEBUG_TAG, "Unknown filter type " + expression.get(0).getAsString());
-            return false;
         }
-
+        return compiled.evaluate(feature);
     }
 
     /**
-     * Compare am Object to a JsonElement
+     * Evaluate the filter of this Layer
      * 
-     * @param function how to compare them
-     * @param left the Object
-     * @param jsonElement the JsonElement
-     * @return true if the condition we use to compare is met
-     */
-    private boolean compare(@NonNull String function, @Nullable Object left, @NonNull JsonElement jsonElement) {
-        int result;
-        if (left instanceof String) {
-            result = ((String) left).compareTo(jsonElement.getAsString());
-        } else if (left instanceof Integer) {
-            result = Integer.compare((int) left, jsonElement.getAsInt());
-        } else if (left instanceof Long) {
-            result = Long.compare((long) left, jsonElement.getAsLong());
-        } else if (left instanceof Float) {
-            result = Float.compare((float) left, jsonElement.getAsFloat());
-        } else if (left instanceof Double) {
-            result = Double.compare((double) left, jsonElement.getAsDouble());
-        } else {
-            Log.e(DEBUG_TAG, "compare unsupported object " + (left != null ? left.getClass().getCanonicalName() : "null") + " "
-                    + jsonElement.getClass().getSimpleName());
-            return false;
+     * Results are cached in the feature until any filter or the order of the layers of the Style changes
+     * 
+     * @param feature the feature we need to filter gains
+     * @return true if there is no filter or the filter excepts the feature
+     */
+    public boolean evaluateFilter(@NonNull VectorTileDecoder.Feature feature) {
+        if (compiledFilter == null) {
+            return true;
+        }
+        Style style = filterStyle;
+        if (style == null || filterIndex < 0 || filterIndex >= VectorTileDecoder.Feature.MAX_CACHED_FILTERS) {
+            return compiledFilter.evaluate(feature);
         }
-        switch (function) {
-        case LAYER_FILTER_EQ:
-            return result == 0;
-        case LAYER_FILTER_NOT_EQ:
-            return result != 0;
-        case LAYER_FILTER_LT:
-            return result < 0;
-        case LAYER_FILTER_LT_EQ:
-            return result <= 0;
-        case LAYER_FILTER_GT:
-            return result > 0;
-        case LAYER_FILTER_GT_EQ:
-            return result >= 0;
-        default:
-            Log.e(DEBUG_TAG, "compare unsupported function " + function);
+        int version = style.getFilterVersion();
+        if (feature.isFilterResultCached(version, filterIndex)) {
+            return feature.getFilterResult(filterIndex);
         }
-        return false;
+        boolean result = compiledFilter.evaluate(feature);
+        feature.setFilterResult(version, filterIndex, result);
+        return result;
     }
 
     /**
-     * Get the value for a specific key from the features attributes
+     * Set the index used for caching filter results in features, this needs to be unique for the Layers with the same
+     * source layer
      * 
-     * @param feature the Feature
-     * @param key the key
-     * @return the value for the key
-     */
-    private Object getKeyValue(VectorTileDecoder.Feature feature, String key) {
-        switch (key) {
-        case LAYER_KEY_TYPE:
-            String type = feature.getGeometry().type();
-            return GeoJSONConstants.MULTILINESTRING.equals(type) ? GeoJSONConstants.LINESTRING : type;
-        case LAYER_KEY_ID:
-            return feature.getId();
-        default:
-            return feature.getAttributes().get(key);
-        }
+     * @param style the Style this Layer belongs to, its version of the filters is used for the cached results
+     * @param index the index, -1 to disable caching
+     */
+    void setFilterIndex(@Nullable Style style, int index) {
+        filterStyle = style;
+        filterIndex = index;
     }
 
     /**
@@ -753,7 +683,9 @@ public abstract class Layer implements Serializable {
     private void readObject(@NonNull ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         Object temp = in.readObject();
-        filter = temp != null ? (JsonArray) JsonParser.parseString(temp.toString()) : null;
+        setFilter(temp != null ? (JsonArray) JsonParser.parseString(temp.toString()) : null);
+        filterIndex = -1;
+        filterStyle = null;
         this.path = new Path();
         patternChecked = false;
     }
@@ -11,7 +11,8 @@ import androidx.annotation.NonNull;
 /**
  * Simple collision detection
  * 
- * For a small number of boxes simply sequentially iterating over the existing bounds is most efficient.
+ * For a small number of boxes simply sequentially iterating over the existing bounds is most efficient, for larger
+ * numbers see {@link GridCollisionDetector}.
  * 
  * To avoid re-constructing lots of boxes we hold them in a pool, the maximum number of boxes we can handle is set via
  * the constructor.
@@ -23,10 +24,40 @@ public class SimpleCollisionDetector implements CollisionDetector {
 
     private static final int DEFAULT_MAXIMUM = 200;
 
-    class Box {
+    static class Box {
         private final float[][] vertices = new float[4][2];
         private final float[]   extreme  = new float[] { Float.MAX_VALUE, 0 };
 
+        // axis aligned bounding box of the vertices
+        float minX;
+        float minY;
+        float maxX;
+        float maxY;
+
+        int stamp;
+
+        /**
+         * Check if the axis aligned bounding boxes of other and this box intersect
+         * 
+         * This is a necessary condition for intersect to return true
+         * 
+         * @param other the other box
+         * @return true if the bounding boxes intersect
+         */
+        public boolean intersectBounds(@NonNull Box other) {
+            return minX <= other.maxX && other.minX <= maxX && minY <= other.maxY && other.minY <= maxY;
+        }
+
+        /**
+         * Calculate the axis aligned bounding box from the vertices
+         */
+        private void setBounds() {
+            minX = Math.min(Math.min(vertices[0][0], vertices[1][0]), Math.min(vertices[2][0], vertices[3][0]));
+            minY = Math.min(Math.min(vertices[0][1], vertices[1][1]), Math.min(vertices[2][1], vertices[3][1]));
+            maxX = Math.max(Math.max(vertices[0][0], vertices[1][0]), Math.max(vertices[2][0], vertices[3][0]));
+            maxY = Math.max(Math.max(vertices[0][1], vertices[1][1]), Math.max(vertices[2][1], vertices[3][1]));
+        }
+
         /**
          * Check if other intersects this box
          * 
@@ -73,6 +104,7 @@ public class SimpleCollisionDetector implements CollisionDetector {
             vertices[2][1] = rect.bottom;
             vertices[3][0] = rect.left;
             vertices[3][1] = rect.bottom;
+            setBounds();
         }
 
         /**
@@ -96,6 +128,7 @@ public class SimpleCollisionDetector implements CollisionDetector {
             vertices[2][1] = end[1] - yDiff;
             vertices[3][0] = start[0] - xDiff;
             vertices[3][1] = start[1] - yDiff;
+            setBounds();
         }
 
         /**
@@ -274,7 +307,7 @@ public class SimpleCollisionDetector implements CollisionDetector {
      */
     private boolean testForIntersection(@NonNull Box test) {
         for (Box box : boxes) {
-            if (box.intersect(test)) {
+            if (box.intersectBounds(test) && box.intersect(test)) {
                 pool.add(test); // return to pool
                 return true;
             }
@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -142,6 +143,12 @@ public class Style implements Serializable {
     private static final List<String> SOURCE_LAYER_REQUIRED = Arrays.asList(LAYER_TYPE_FILL, LAYER_TYPE_FILL_EXTRUSION, LAYER_TYPE_LINE, LAYER_TYPE_SYMBOL,
             LAYER_TYPE_CIRCLE);
 
+    /**
+     * Source of the filter versions, these are unique over all Styles so that results cached by a different Style are
+     * never used
+     */
+    private static final AtomicInteger filterVersions = new AtomicInteger();
+
     private int                               version;
     private final MultiHashMap<String, Layer> layerMap   = new MultiHashMap<>();
     private final List<Layer>                 layers     = new ArrayList<>();
@@ -149,7 +156,9 @@ public class Style implements Serializable {
     private Sprites                           sprites;
     private Map<String, Source>               sources    = new HashMap<>();
 
-    private transient CollisionDetector detector = new SimpleCollisionDetector();
+    private transient CollisionDetector detector = new GridCollisionDetector();
+
+    private transient volatile int filterVersion = filterVersions.incrementAndGet();
 
     /**
      * Add a layer for a specific source layer
@@ -160,6 +169,7 @@ public class Style implements Serializable {
     public void addLayer(@NonNull String sourceLayer, @NonNull Layer layerStyle) {
         Log.d(DEBUG_TAG, "setting style for " + sourceLayer);
         synchronized (layers) {
+            layerStyle.setFilterIndex(this, layerMap.get(sourceLayer).size());
             layerMap.add(sourceLayer, layerStyle);
             layers.add(layerStyle);
         }
@@ -181,9 +191,42 @@ public class Style implements Serializable {
                     layerMap.add(sourceLayer, layer);
                 }
             }
+            indexFilters();
         }
     }
 
+    /**
+     * Assign the indices used for caching filter results to the Layers and invalidate any cached results
+     */
+    private void indexFilters() {
+        for (Layer layer : layers) {
+            layer.setFilterIndex(this, -1);
+        }
+        for (String sourceLayer : layerMap.getKeys()) {
+            int index = 0;
+            for (Layer layer : layerMap.get(sourceLayer)) {
+                layer.setFilterIndex(this, index++);
+            }
+        }
+        invalidateFilterResults();
+    }
+
+    /**
+     * Invalidate the filter results of this Style cached in features
+     */
+    void invalidateFilterResults() {
+        filterVersion = filterVersions.incrementAndGet();
+    }
+
+    /**
+     * Get the current version of the filters of this Style
+     * 
+     * @return the version
+     */
+    int getFilterVersion() {
+        return filterVersion;
+    }
+
     /**
      * Get all Layers for this Style
      * 
@@ -799,11 +842,12 @@ public class Style implements Serializable {
      */
     private void readObject(@NonNull ObjectInputStream stream) throws IOException, ClassNotFoundException {
         stream.defaultReadObject();
-        detector = new SimpleCollisionDetector();
+        detector = new GridCollisionDetector();
         for (Layer layer : layers) {
             if (layer instanceof Symbol) {
                 ((Symbol) layer).setCollisionDetector(detector);
             }
         }
+        indexFilters();
     }
 }
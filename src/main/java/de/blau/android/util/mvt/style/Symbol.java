@@ -203,7 +203,7 @@ public class Symbol extends Layer {
     private transient Rect iconRect  = new Rect();
     private transient Rect labelRect = new Rect();
 
-    private transient CollisionDetector detector = new SimpleCollisionDetector();
+    private transient CollisionDetector detector = new GridCollisionDetector();
 
     /**
      * Default constructor
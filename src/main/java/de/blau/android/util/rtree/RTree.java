@@ -3,6 +3,7 @@ package de.blau.android.util.rtree;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -20,7 +21,7 @@ import de.blau.android.util.GeoMath;
  */
 public class RTree<T extends BoundedObject> implements Serializable {
     private static final long     serialVersionUID = 1L;
-    private Node<T>               root;
+    private volatile Node<T>      root; // replaced by load while queries may be running
     private int                   maxSize;
     private int                   minSize;
     private QuadraticNodeSplitter splitter;
@@ -722,16 +723,137 @@ public class RTree<T extends BoundedObject> implements Serializable {
         splitter.split(n);
     }
 
+    /**
+     * Add multiple objects to the tree
+     * 
+     * The tree is rebuilt from scratch with Sort-Tile-Recursive packing, this is much faster than inserting the objects
+     * one by one and results in fully packed nodes with little overlap. As all existing objects are re-packed too, the
+     * number of objects added in one go should be in the same order of magnitude as the number already present.
+     * 
+     * The existing nodes are not modified, the root is only replaced once the new nodes are complete.
+     * 
+     * @param objects the objects to add
+     */
+    public synchronized void load(@NonNull Collection<T> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+        List<T> all = new ArrayList<>(objects);
+        if (root != null) {
+            collect(root, all);
+        }
+        BoundingBox tempBox = new BoundingBox();
+        List<Node<T>> nodes = new ArrayList<>();
+        for (List<T> group : pack(all, tempBox)) {
+            Node<T> leaf = new Node<>(true);
+            leaf.data.addAll(group);
+            leaf.computeMBR(false);
+            nodes.add(leaf);
+        }
+        while (nodes.size() > 1) {
+            List<Node<T>> parents = new ArrayList<>();
+            for (List<Node<T>> group : pack(nodes, tempBox)) {
+                Node<T> parent = new Node<>(false);
+                for (Node<T> child : group) {
+                    child.parent = parent;
+                    parent.children.add(child);
+                }
+                parent.computeMBR(false);
+                parents.add(parent);
+            }
+            nodes = parents;
+        }
+        root = nodes.get(0);
+    }
+
+    /**
+     * Add all objects in the sub-tree starting with n to a List
+     * 
+     * @param n the Node to start at
+     * @param result the List to add the objects to
+     */
+    private void collect(@NonNull Node<T> n, @NonNull List<T> result) {
+        if (n.isLeaf()) {
+            result.addAll(n.data);
+        } else {
+            for (Node<T> child : n.children) {
+                collect(child, result);
+            }
+        }
+    }
+
+    /**
+     * Entry used for sorting with a pre-calculated center
+     * 
+     * @param <E> the type of the object
+     */
+    private static final class PackEntry<E> {
+        final E    object;
+        final long x;
+        final long y;
+
+        /**
+         * Construct a new entry
+         * 
+         * @param object the object
+         * @param box its BoundingBox
+         */
+        PackEntry(@NonNull E object, @NonNull BoundingBox box) {
+            this.object = object;
+            x = (long) box.getLeft() + box.getRight();
+            y = (long) box.getBottom() + box.getTop();
+        }
+    }
+
+    /**
+     * Split objects in to groups of at most maxSize members using Sort-Tile-Recursive
+     * 
+     * The objects are sorted by the x coordinate of their center and split in to vertical slices, each slice is then
+     * sorted by y and split in to groups.
+     * 
+     * @param <E> the type of the objects
+     * @param objects the objects
+     * @param tempBox pre-allocated BoundingBox
+     * @return a List of groups
+     */
+    @NonNull
+    private <E extends BoundedObject> List<List<E>> pack(@NonNull List<E> objects, @NonNull BoundingBox tempBox) {
+        final int size = objects.size();
+        List<PackEntry<E>> entries = new ArrayList<>(size);
+        for (E object : objects) {
+            entries.add(new PackEntry<>(object, object.getBounds(tempBox)));
+        }
+        Collections.sort(entries, (e1, e2) -> Long.compare(e1.x, e2.x));
+        final int groupCount = (size + maxSize - 1) / maxSize;
+        final int sliceSize = (int) Math.ceil(Math.sqrt(groupCount)) * maxSize;
+        List<List<E>> result = new ArrayList<>(groupCount);
+        for (int sliceStart = 0; sliceStart < size; sliceStart += sliceSize) {
+            List<PackEntry<E>> slice = entries.subList(sliceStart, Math.min(size, sliceStart + sliceSize));
+            Collections.sort(slice, (e1, e2) -> Long.compare(e1.y, e2.y));
+            final int sliceLength = slice.size();
+            for (int groupStart = 0; groupStart < sliceLength; groupStart += maxSize) {
+                int groupEnd = Math.min(sliceLength, groupStart + maxSize);
+                List<E> group = new ArrayList<>(groupEnd - groupStart);
+                for (int i = groupStart; i < groupEnd; i++) {
+                    group.add(slice.get(i).object);
+                }
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
     /**
      * Counts the number of items in the tree.
      * 
      * @return the item count
      */
     public int count() {
-        if (root == null) {
+        Node<T> r = root;
+        if (r == null) {
             return 0;
         }
-        return count(root);
+        return count(r);
     }
 
     /**
@@ -4,6 +4,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -19,13 +20,13 @@ import androidx.annotation.Nullable;
 import de.blau.android.App;
 import de.blau.android.Logic;
 import de.blau.android.R;
-import de.blau.android.exception.OsmException;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.OsmElement.ElementType;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.RelationMember;
+import de.blau.android.osm.Storage;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.ViewBox;
 import de.blau.android.osm.Way;
@@ -36,12 +37,18 @@ import de.blau.android.util.GeoContext;
 import de.blau.android.util.GeoMath;
 import de.blau.android.util.Geometry;
 import de.blau.android.util.KeyValue;
+import de.blau.android.util.collections.IntPrimitiveList;
 import de.blau.android.util.collections.MultiHashMap;
 
 public class BaseValidator implements Validator {
 
     public static final int MAX_CONNECTION_TOLERANCE = 10; // maximum tolerance value for non-connected end nodes
 
+    /**
+     * Minimum cell size of the ConnectionIndex used during a pass in WGS84*1E7 degrees, roughly 50m
+     */
+    private static final int MIN_CELL_SIZE = 5000;
+
     private Preset[]   presets;
     private GeoContext geoContext;
 
@@ -60,6 +67,16 @@ public class BaseValidator implements Validator {
      */
     private ViewBox cachedViewBox = null;
     private float   tolerance;
+    private int     toleranceE7;
+
+    /**
+     * State for validation passes, the index is only built if it is actually needed and only used on threads that are
+     * in a pass
+     */
+    private final ThreadLocal<Boolean> inPass       = new ThreadLocal<>();
+    private int                        passThreads  = 0;
+    private ConnectionIndex            passIndex    = null;
+    private String                     passIndexKey = null;
 
     /**
      * Flags that indicate which validation is enabled
@@ -119,6 +136,29 @@ public class BaseValidator implements Validator {
         init(context);
     }
 
+    @Override
+    public synchronized void startPass() {
+        if (inPass.get() == null) {
+            inPass.set(Boolean.TRUE);
+            passThreads++;
+        }
+    }
+
+    @Override
+    public synchronized void endPass() {
+        if (inPass.get() != null) {
+            inPass.remove();
+            if (--passThreads == 0) {
+                passIndex = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidatePass() {
+        passIndex = null;
+    }
+
     /**
      * (Re-)initialize everything
      * 
@@ -149,7 +189,9 @@ public class BaseValidator implements Validator {
             resurveyTags = ValidatorRulesDatabase.getDefaultResurvey(db);
             checkTags = ValidatorRulesDatabase.getDefaultCheck(db);
         }
-        cachedViewBox = null;
+        synchronized (this) {
+            cachedViewBox = null;
+        }
     }
 
     /**
@@ -307,21 +349,13 @@ public class BaseValidator implements Validator {
         de.blau.android.Map map = logic.getMap();
 
         if (unconnectedEndNodeValidation && map != null) {
-            // we try to cache these (tolerance) fairly expensive to calculate values at least as long as the ViewBox
-            // hasn't changed
-            if (!map.getViewBox().equals(cachedViewBox)) {
-                double centerLat = map.getViewBox().getCenterLat();
-                double widthInMeters = GeoMath.haversineDistance(map.getViewBox().getLeft() / 1E7D, centerLat, map.getViewBox().getRight() / 1E7D, centerLat);
-                tolerance = (float) (map.getPrefs().getConnectedNodeTolerance() / widthInMeters * map.getWidth());
-                if (cachedViewBox == null) {
-                    cachedViewBox = new ViewBox(map.getViewBox());
-                } else {
-                    cachedViewBox.set(map.getViewBox());
-                }
-            }
+            float currentTolerance = getTolerance(map);
+            int currentToleranceE7 = getToleranceE7();
             try {
-                checkNearbyWays(Tags.KEY_HIGHWAY, w, logic, layer, w.getFirstNode());
-                checkNearbyWays(Tags.KEY_HIGHWAY, w, logic, layer, w.getLastNode());
+                Storage storage = App.getDelegator().getCurrentStorage();
+                Set<Way> connectedWays = getConnectedWays(storage, Tags.KEY_HIGHWAY, w);
+                checkNearbyWays(storage, Tags.KEY_HIGHWAY, w, logic, layer, w.getFirstNode(), currentTolerance, currentToleranceE7, connectedWays);
+                checkNearbyWays(storage, Tags.KEY_HIGHWAY, w, logic, layer, w.getLastNode(), currentTolerance, currentToleranceE7, connectedWays);
             } catch (Exception ex) {
                 // ignored
             }
@@ -346,41 +380,139 @@ public class BaseValidator implements Validator {
         return result;
     }
 
+    /**
+     * Get the tolerance for unconnected end nodes in screen pixels
+     * 
+     * As this is fairly expensive to calculate the value is cached as long as the ViewBox hasn't changed, this is
+     * synchronized as validation may run on multiple threads
+     * 
+     * @param map the current Map instance
+     * @return the tolerance
+     */
+    private synchronized float getTolerance(@NonNull de.blau.android.Map map) {
+        if (!map.getViewBox().equals(cachedViewBox)) {
+            double centerLat = map.getViewBox().getCenterLat();
+            double widthInMeters = GeoMath.haversineDistance(map.getViewBox().getLeft() / 1E7D, centerLat, map.getViewBox().getRight() / 1E7D, centerLat);
+            tolerance = (float) (map.getPrefs().getConnectedNodeTolerance() / widthInMeters * map.getWidth());
+            // longitude degrees per pixel are never smaller than latitude degrees per pixel, so this is on the safe side
+            toleranceE7 = (int) Math.ceil(tolerance * map.getViewBox().getWidth() / map.getWidth());
+            if (cachedViewBox == null) {
+                cachedViewBox = new ViewBox(map.getViewBox());
+            } else {
+                cachedViewBox.set(map.getViewBox());
+            }
+        }
+        return tolerance;
+    }
+
+    /**
+     * Get the tolerance for unconnected end nodes in WGS84*1E7 degrees
+     * 
+     * Only valid after {@link #getTolerance(de.blau.android.Map)} has been called
+     * 
+     * @return the tolerance
+     */
+    private synchronized int getToleranceE7() {
+        return toleranceE7;
+    }
+
+    /**
+     * Get the ConnectionIndex for the current pass, building it if necessary
+     * 
+     * @param tagKey tag key the ways need to have to be candidates
+     * @param currentToleranceE7 the current tolerance in WGS84*1E7 degrees
+     * @return the index or null if the current thread is not in a pass
+     */
+    @Nullable
+    private synchronized ConnectionIndex getPassIndex(@NonNull String tagKey, int currentToleranceE7) {
+        if (inPass.get() == null) {
+            return null;
+        }
+        if (passIndex == null || !tagKey.equals(passIndexKey) || passIndex.getCellSize() < currentToleranceE7) {
+            passIndex = new ConnectionIndex(Math.max(MIN_CELL_SIZE, currentToleranceE7));
+            passIndexKey = tagKey;
+            for (Way way : App.getDelegator().getCurrentStorage().getWaysView()) {
+                if (way.hasTagKey(tagKey)) {
+                    passIndex.add(way);
+                }
+            }
+        }
+        return passIndex;
+    }
+
+    /**
+     * Get all ways with a specific tag key that share a node with a way, including the way itself
+     * 
+     * @param storage the Storage the way is in
+     * @param tagKey tag key the ways need to have
+     * @param w the Way
+     * @return a Set of the connected Ways
+     */
+    @NonNull
+    private Set<Way> getConnectedWays(@NonNull Storage storage, @NonNull String tagKey, @NonNull Way w) {
+        Set<Way> result = new HashSet<>();
+        result.add(w);
+        for (Node n : w.getNodes()) {
+            for (Way c : storage.getWays(n)) {
+                if (c.hasTagKey(tagKey)) {
+                    result.add(c);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Check if the node is too near any ways within the tolerance
      * 
-     * The warning is suppressed if the node is connected to the nearby way via a (single) further way
+     * The warning is suppressed if the node is connected to the nearby way via a (single) further way. During a pass
+     * candidate segments are retrieved from the ConnectionIndex, otherwise from the spatial index of the Storage.
      * 
+     * @param storage the Storage the way is in
      * @param tagKey tag key the ways need to have to be candidates
      * @param w the Way we are validating
      * @param logic the current Logic instance
      * @param layer the layer of w
      * @param n the Node we are checking for
-     * 
-     * @throws OsmException if something goes wrong creating the bounding box
+     * @param tolerance how far away the node has to be from a way in screen pixel units
+     * @param toleranceE7 the tolerance in WGS84*1E7 degrees
+     * @param connectedWays the ways that share a node with w
      */
-    private void checkNearbyWays(@NonNull String tagKey, @NonNull Way w, @NonNull Logic logic, int layer, @NonNull Node n) throws OsmException {
+    private void checkNearbyWays(@NonNull Storage storage, @NonNull String tagKey, @NonNull Way w, @NonNull Logic logic, int layer, @NonNull Node n,
+            float tolerance, int toleranceE7, @NonNull Set<Way> connectedWays) {
         final int lat = n.getLat();
         final int lon = n.getLon();
-        if (App.getDelegator().isInDownload(lon, lat)) { // only check for nodes in download
-            BoundingBox box = GeoMath.createBoundingBoxForCoordinates(lat / 1E7D, lon / 1E7D, tolerance);
-            List<Way> nearbyWays = App.getDelegator().getCurrentStorage().getWays(box);
-            List<Way> connectedWays = new ArrayList<>();
-            BoundingBox bb = w.getBounds();
-            for (Way maybeConnected : new ArrayList<>(nearbyWays)) {
-                if (!maybeConnected.hasTagKey(tagKey) || maybeConnected.equals(w)) {
-                    nearbyWays.remove(maybeConnected);
-                    continue;
-                }
-                if (bb.intersects(maybeConnected.getBounds()) && maybeConnected.hasCommonNode(w)) {
-                    connectedWays.add(maybeConnected);
-                    nearbyWays.remove(maybeConnected);
+        if (!App.getDelegator().isInDownload(lon, lat)) { // only check for nodes in download
+            return;
+        }
+        final float jx = logic.lonE7ToX(lon);
+        final float jy = logic.latE7ToY(lat);
+        List<Way> checked = new ArrayList<>();
+        ConnectionIndex index = getPassIndex(tagKey, toleranceE7);
+        if (index != null) {
+            IntPrimitiveList segments = new IntPrimitiveList();
+            index.query(lon, lat, segments);
+            for (int i = 0; i < segments.size(); i++) {
+                int segment = segments.get(i);
+                Way nearbyWay = index.getWay(segment);
+                if (isCandidate(tagKey, layer, nearbyWay, connectedWays, checked)
+                        && isNearSegment(logic, tolerance, jx, jy, nearbyWay, index.getStart(segment))
+                        && isUnconnected(storage, nearbyWay, connectedWays, checked)) {
+                    addProblem(n, Validator.UNCONNECTED_END_NODE);
+                    return;
                 }
             }
-            for (Way nearbyWay : nearbyWays) {
-                if (!hasConnection(nearbyWay, connectedWays) && layer == getLayer(nearbyWay)) {
-                    connectedValidation(logic, tolerance, nearbyWay, n);
-                    if ((n.getCachedProblems() & Validator.UNCONNECTED_END_NODE) != 0) {
+            return;
+        }
+        BoundingBox box = new BoundingBox(lon - toleranceE7, lat - toleranceE7, lon + toleranceE7, lat + toleranceE7);
+        for (Way nearbyWay : storage.getWays(box)) {
+            if (isCandidate(tagKey, layer, nearbyWay, connectedWays, checked)) {
+                for (int i = 0, segmentCount = nearbyWay.nodeCount() - 1; i < segmentCount; i++) {
+                    if (isNearSegment(logic, tolerance, jx, jy, nearbyWay, i)) {
+                        if (isUnconnected(storage, nearbyWay, connectedWays, checked)) {
+                            addProblem(n, Validator.UNCONNECTED_END_NODE);
+                            return;
+                        }
                         break;
                     }
                 }
@@ -389,20 +521,40 @@ public class BaseValidator implements Validator {
     }
 
     /**
-     * Check if a way has a connection to one of a List of ways
+     * Check if a nearby Way needs to be checked
      * 
-     * @param way the way
-     * @param candidateWays the list of candidates
-     * @return true if we have a common node with one of the ways
+     * @param tagKey tag key the ways need to have to be candidates
+     * @param layer the layer of the Way we are validating
+     * @param nearbyWay the nearby Way
+     * @param connectedWays the ways that share a node with the Way we are validating
+     * @param checked ways that have already been found to be connected
+     * @return true if the Way needs to be checked
      */
-    private boolean hasConnection(@NonNull Way way, @NonNull List<Way> candidateWays) {
-        BoundingBox bb = way.getBounds();
-        for (Way c : candidateWays) {
-            if (bb.intersects(c.getBounds()) && way.hasCommonNode(c)) {
-                return true;
+    private boolean isCandidate(@NonNull String tagKey, int layer, @NonNull Way nearbyWay, @NonNull Set<Way> connectedWays, @NonNull List<Way> checked) {
+        return nearbyWay.hasTagKey(tagKey) && !connectedWays.contains(nearbyWay) && !checked.contains(nearbyWay) && layer == getLayer(nearbyWay);
+    }
+
+    /**
+     * Check if a Way is not connected via a further way to the Way we are validating
+     * 
+     * Uses the node to way index of the Storage, connected ways are added to checked
+     * 
+     * @param storage the Storage the way is in
+     * @param nearbyWay the nearby Way
+     * @param connectedWays the ways that share a node with the Way we are validating
+     * @param checked ways that have already been found to be connected
+     * @return true if there is no connection
+     */
+    private boolean isUnconnected(@NonNull Storage storage, @NonNull Way nearbyWay, @NonNull Set<Way> connectedWays, @NonNull List<Way> checked) {
+        for (Node node : nearbyWay.getNodes()) {
+            for (Way c : storage.getWays(node)) {
+                if (connectedWays.contains(c)) {
+                    checked.add(nearbyWay);
+                    return false;
+                }
             }
         }
-        return false;
+        return true;
     }
 
     /**
@@ -420,52 +572,51 @@ public class BaseValidator implements Validator {
     }
 
     /**
-     * Check if a Node is so near a Way that it should be connected
+     * Check if a position is so near a segment of a Way that it should be connected
+     * 
+     * For the first and last segment the distance to the end nodes is checked too
      * 
      * @param logic the current Logic instance
      * @param tolerance how far away the node has to be from the line in screen pixel units
+     * @param jx screen x coordinate of the position
+     * @param jy screen y coordinate of the position
      * @param way the Way
-     * @param node the Node
-     */
-    private void connectedValidation(@NonNull Logic logic, float tolerance, @NonNull Way way, @NonNull Node node) {
-        if (!way.hasNode(node)) {
-            float jx = logic.lonE7ToX(node.getLon());
-            float jy = logic.latE7ToY(node.getLat());
-            List<Node> wayNodes = way.getNodes();
-            Node firstNode = wayNodes.get(0);
-            float node1X = logic.lonE7ToX(firstNode.getLon());
-            float node1Y = logic.latE7ToY(firstNode.getLat());
-            double nodeDist = Math.hypot(jx - node1X, jy - node1Y); // first node
-            if (nodeDist < tolerance) {
-                addProblem(node, Validator.UNCONNECTED_END_NODE);
-                return;
-            }
-            for (int i = 1, wayNodesSize = wayNodes.size(); i < wayNodesSize; ++i) {
-                Node node2 = wayNodes.get(i);
-                float node2X = logic.lonE7ToX(node2.getLon());
-                float node2Y = logic.latE7ToY(node2.getLat());
-                if (Geometry.isPositionOnLine(tolerance, jx, jy, node1X, node1Y, node2X, node2Y) >= 0) {
-                    addProblem(node, Validator.UNCONNECTED_END_NODE);
-                    break;
-                }
-                node1X = node2X;
-                node1Y = node2Y;
-            }
-            nodeDist = Math.hypot(jx - node1X, jy - node1Y); // last node
-            if (nodeDist < tolerance) {
-                addProblem(node, Validator.UNCONNECTED_END_NODE);
-            }
+     * @param start the index of the first node of the segment
+     * @return true if the position is within the tolerance
+     */
+    private boolean isNearSegment(@NonNull Logic logic, float tolerance, float jx, float jy, @NonNull Way way, int start) {
+        List<Node> wayNodes = way.getNodes();
+        int wayNodesSize = wayNodes.size();
+        if (start + 1 >= wayNodesSize) { // way has changed since the index was built
+            return false;
+        }
+        Node node1 = wayNodes.get(start);
+        Node node2 = wayNodes.get(start + 1);
+        float node1X = logic.lonE7ToX(node1.getLon());
+        float node1Y = logic.latE7ToY(node1.getLat());
+        float node2X = logic.lonE7ToX(node2.getLon());
+        float node2Y = logic.latE7ToY(node2.getLat());
+        if (start == 0 && Math.hypot(jx - node1X, jy - node1Y) < tolerance) { // first node
+            return true;
         }
+        if (start + 2 == wayNodesSize && Math.hypot(jx - node2X, jy - node2Y) < tolerance) { // last node
+            return true;
+        }
+        return Geometry.isPositionOnLine(tolerance, jx, jy, node1X, node1Y, node2X, node2Y) >= 0;
     }
 
     /**
      * Set a specific problem bit
      * 
+     * Ways sharing end nodes may be validated concurrently, so this is synchronized on the element
+     * 
      * @param e the OsmElement
      * @param problem the problem value
      */
     protected void addProblem(@NonNull OsmElement e, int problem) {
-        e.setProblem(e.getCachedProblems() | problem);
+        synchronized (e) {
+            e.setProblem(e.getCachedProblems() | problem);
+        }
     }
 
     /**
@@ -475,7 +626,9 @@ public class BaseValidator implements Validator {
      * @param problem the problem value
      */
     protected void deleteProblem(@NonNull OsmElement e, int problem) {
-        e.setProblem(e.getCachedProblems() & ~problem);
+        synchronized (e) {
+            e.setProblem(e.getCachedProblems() & ~problem);
+        }
     }
 
     /**
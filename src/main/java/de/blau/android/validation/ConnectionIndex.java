@@ -0,0 +1,159 @@
+package de.blau.android.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.Way;
+import de.blau.android.util.collections.IntPrimitiveList;
+import de.blau.android.util.collections.LongHashMap;
+
+/**
+ * Spatial hash of way segments for finding segments near end nodes
+ *
+ * Segments are added to all cells of a fixed size grid that their bounding box overlaps, as the cells are at least as
+ * large as the search tolerance, all segments within the tolerance of a point are found in the cell of the point and
+ * its neighbours. Segments that would cover too many cells are kept in a separate list and always returned.
+ *
+ * The index is a snapshot, it is only valid as long as the ways it was built from don't change.
+ *
+ * @author simon
+ *
+ */
+final class ConnectionIndex {
+
+    /**
+     * Segments whose bounding box covers more cells are not added to the grid
+     */
+    private static final int MAX_CELLS = 64;
+
+    private final int                           cellSize;
+    private final LongHashMap<IntPrimitiveList> cells         = new LongHashMap<>();
+    private final IntPrimitiveList              largeSegments = new IntPrimitiveList();
+    private final List<Way>                     segmentWays   = new ArrayList<>();
+    private final IntPrimitiveList              segmentStarts = new IntPrimitiveList();
+
+    /**
+     * Construct a new index
+     *
+     * @param cellSize the cell size in WGS84*1E7 degrees, needs to be at least the search tolerance
+     */
+    ConnectionIndex(int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+    }
+
+    /**
+     * Get the cell size
+     *
+     * @return the cell size in WGS84*1E7 degrees
+     */
+    int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Add the segments of a Way
+     *
+     * @param way the Way
+     */
+    void add(@NonNull Way way) {
+        List<Node> nodes = way.getNodes();
+        for (int i = 0; i < nodes.size() - 1; i++) {
+            Node n1 = nodes.get(i);
+            Node n2 = nodes.get(i + 1);
+            int segment = segmentWays.size();
+            segmentWays.add(way);
+            segmentStarts.add(i);
+            int left = cell(Math.min(n1.getLon(), n2.getLon()));
+            int right = cell(Math.max(n1.getLon(), n2.getLon()));
+            int bottom = cell(Math.min(n1.getLat(), n2.getLat()));
+            int top = cell(Math.max(n1.getLat(), n2.getLat()));
+            if ((long) (right - left + 1) * (top - bottom + 1) > MAX_CELLS) {
+                largeSegments.add(segment);
+                continue;
+            }
+            for (int x = left; x <= right; x++) {
+                for (int y = bottom; y <= top; y++) {
+                    long key = key(x, y);
+                    IntPrimitiveList cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new IntPrimitiveList(4);
+                        cells.put(key, cell);
+                    }
+                    cell.add(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the segments that may be within the cell size of a point
+     *
+     * The result may contain the same segment more than once
+     *
+     * @param lon longitude of the point in WGS84*1E7 degrees
+     * @param lat latitude of the point in WGS84*1E7 degrees
+     * @param result list the segment ids are added to
+     */
+    void query(int lon, int lat, @NonNull IntPrimitiveList result) {
+        int cx = cell(lon);
+        int cy = cell(lat);
+        for (int x = cx - 1; x <= cx + 1; x++) {
+            for (int y = cy - 1; y <= cy + 1; y++) {
+                IntPrimitiveList cell = cells.get(key(x, y));
+                if (cell != null) {
+                    for (int i = 0; i < cell.size(); i++) {
+                        result.add(cell.get(i));
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < largeSegments.size(); i++) {
+            result.add(largeSegments.get(i));
+        }
+    }
+
+    /**
+     * Get the Way a segment belongs to
+     *
+     * @param segment the segment id
+     * @return the Way
+     */
+    @NonNull
+    Way getWay(int segment) {
+        return segmentWays.get(segment);
+    }
+
+    /**
+     * Get the position of the first node of a segment in its Way
+     *
+     * @param segment the segment id
+     * @return the index of the first node
+     */
+    int getStart(int segment) {
+        return segmentStarts.get(segment);
+    }
+
+    /**
+     * Get the cell for a coordinate
+     *
+     * @param coordinate the coordinate in WGS84*1E7 degrees
+     * @return the cell number
+     */
+    private int cell(int coordinate) {
+        // rounds towards negative infinity, Math.floorDiv is not available on older Android versions
+        return coordinate >= 0 ? coordinate / cellSize : -((-coordinate - 1) / cellSize) - 1;
+    }
+
+    /**
+     * Combine the cell numbers to a key
+     *
+     * @param x cell number in x direction
+     * @param y cell number in y direction
+     * @return the key
+     */
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
@@ -77,6 +77,21 @@ public class ExtendedValidator implements Validator {
         init(context);
     }
 
+    @Override
+    public void startPass() {
+        base.startPass();
+    }
+
+    @Override
+    public void endPass() {
+        base.endPass();
+    }
+
+    @Override
+    public void invalidatePass() {
+        base.invalidatePass();
+    }
+
     @Override
     public int validate(Node node) {
         int result = base.validate(node);
@@ -0,0 +1,443 @@
+package de.blau.android.validation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.Relation;
+import de.blau.android.osm.RelationMember;
+import de.blau.android.osm.Storage;
+import de.blau.android.osm.Way;
+
+/**
+ * Validate OsmElements in the background
+ *
+ * Changed elements, together with the elements whose validation result depends on them, are collected in a dirty set
+ * and validated in batches on a pool of worker threads. Nodes are validated before Ways and Ways before Relations as
+ * Way validation sets problems on its end Nodes. The results are cached in the elements as before, so that
+ * {@link OsmElement#hasProblem(Context, Validator)} simply returns the result if the element has already been
+ * processed.
+ *
+ * @author simon
+ *
+ */
+public class ValidationEngine {
+
+    private static final String DEBUG_TAG = ValidationEngine.class.getSimpleName();
+
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Callback for when a round of validation has completed
+     */
+    public interface ValidationListener {
+        /**
+         * Called on a background thread after dirty elements have been validated
+         */
+        void onValidated();
+    }
+
+    /**
+     * Callback for issue reports
+     */
+    public interface ReportListener {
+        /**
+         * Called on a background thread with the elements that have issues
+         *
+         * @param elements the elements with issues
+         */
+        void onReport(@NonNull List<OsmElement> elements);
+    }
+
+    private final Context         context;
+    private final Validator       validator;
+    private final ExecutorService coordinator;
+    private final ExecutorService workers;
+
+    private final Set<Node>     dirtyNodes     = new LinkedHashSet<>();
+    private final Set<Way>      dirtyWays      = new LinkedHashSet<>();
+    private final Set<Relation> dirtyRelations = new LinkedHashSet<>();
+    private boolean             running        = false;
+
+    /**
+     * Elements invalidated by invalidateAll, they are validated after the dirty elements of the same type and don't
+     * generate alerts
+     */
+    private final Set<Node>     bulkNodes     = new LinkedHashSet<>();
+    private final Set<Way>      bulkWays      = new LinkedHashSet<>();
+    private final Set<Relation> bulkRelations = new LinkedHashSet<>();
+
+    /**
+     * Incremented when all results are invalidated, results calculated with an older value are discarded
+     */
+    private volatile int generation = 0;
+
+    private ValidationListener listener;
+
+    /**
+     * Construct a new engine
+     *
+     * @param context an Android Context, used for generating alerts
+     * @param validator the Validator to use
+     */
+    public ValidationEngine(@NonNull Context context, @NonNull Validator validator) {
+        this.context = context;
+        this.validator = validator;
+        ThreadFactory factory = (Runnable r) -> {
+            Thread t = new Thread(r, DEBUG_TAG);
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        };
+        coordinator = Executors.newSingleThreadExecutor(factory);
+        workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), factory);
+    }
+
+    /**
+     * Set a listener that is called after dirty elements have been validated
+     *
+     * @param listener the listener or null to remove it
+     */
+    public synchronized void setListener(@Nullable ValidationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the problems of an element without validating it on the calling thread
+     *
+     * If the element hasn't been validated yet it is queued and Validator.OK returned
+     *
+     * @param e the OsmElement
+     * @return the cached problems or Validator.OK if not known yet
+     */
+    public int getProblems(@NonNull OsmElement e) {
+        int problems = e.getCachedProblems();
+        if (problems == Validator.NOT_VALIDATED) {
+            synchronized (this) {
+                add(e, false);
+            }
+            schedule();
+            return Validator.OK;
+        }
+        return problems;
+    }
+
+    /**
+     * Invalidate changed elements and the elements whose validation depends on them and schedule their validation
+     *
+     * For Nodes these are the Ways they are a member of, for Ways the end Nodes and for Relations the untagged
+     * members. In all cases the parent Relations are invalidated too.
+     *
+     * @param storage the Storage the elements are in
+     * @param elements the changed elements
+     */
+    public void invalidate(@NonNull Storage storage, @NonNull Collection<? extends OsmElement> elements) {
+        List<OsmElement> dependents = new ArrayList<>();
+        for (OsmElement e : elements) {
+            if (e instanceof Node) {
+                dependents.addAll(storage.getWays((Node) e));
+            } else if (e instanceof Way) {
+                Way w = (Way) e;
+                if (w.nodeCount() > 0) {
+                    dependents.add(w.getFirstNode());
+                    dependents.add(w.getLastNode());
+                }
+            } else if (e instanceof Relation) {
+                addUntaggedMembers((Relation) e, dependents);
+            }
+            List<Relation> parents = e.getParentRelations();
+            if (parents != null) {
+                dependents.addAll(parents);
+            }
+        }
+        // a report running in a pass would otherwise continue with structures built from the old data
+        validator.invalidatePass();
+        synchronized (this) {
+            for (OsmElement e : elements) {
+                invalidate(e, false);
+            }
+            for (OsmElement e : dependents) {
+                invalidate(e, false);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Add the members of a Relation without tags to a List, their validation depends on being a member
+     *
+     * @param r the Relation
+     * @param result the List to add the members to
+     */
+    private static void addUntaggedMembers(@NonNull Relation r, @NonNull List<OsmElement> result) {
+        List<RelationMember> members = r.getMembers();
+        if (members != null) {
+            for (RelationMember rm : members) {
+                OsmElement member = rm.getElement();
+                if (member != null && !member.hasTags()) {
+                    result.add(member);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reset the cached problems of an element and queue it
+     *
+     * @param e the OsmElement
+     * @param bulk if true the element is validated without generating an alert
+     */
+    private void invalidate(@NonNull OsmElement e, boolean bulk) {
+        e.resetHasProblem();
+        add(e, bulk);
+    }
+
+    /**
+     * Discard all results, including those that are currently being calculated, and validate all elements again
+     *
+     * This should be called when the configuration of the Validator has changed, as nothing has been edited no alerts
+     * are generated for the elements
+     *
+     * @param elements all elements
+     */
+    public void invalidateAll(@NonNull Collection<? extends OsmElement> elements) {
+        synchronized (this) {
+            generation++;
+            for (OsmElement e : elements) {
+                invalidate(e, true);
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Add an element to the dirty or bulk set, needs to be called with the lock held
+     *
+     * @param e the OsmElement
+     * @param bulk if true the element is added to the bulk set
+     */
+    private void add(@NonNull OsmElement e, boolean bulk) {
+        if (e instanceof Node) {
+            (bulk ? bulkNodes : dirtyNodes).add((Node) e);
+        } else if (e instanceof Way) {
+            (bulk ? bulkWays : dirtyWays).add((Way) e);
+        } else if (e instanceof Relation) {
+            (bulk ? bulkRelations : dirtyRelations).add((Relation) e);
+        }
+    }
+
+    /**
+     * Check if there is nothing to validate, needs to be called with the lock held
+     *
+     * @return true if the dirty and bulk sets are empty
+     */
+    private boolean isClean() {
+        return dirtyNodes.isEmpty() && dirtyWays.isEmpty() && dirtyRelations.isEmpty() && bulkNodes.isEmpty() && bulkWays.isEmpty()
+                && bulkRelations.isEmpty();
+    }
+
+    /**
+     * Start validating the dirty elements if that isn't already happening
+     */
+    private synchronized void schedule() {
+        if (!running && !isClean()) {
+            running = true;
+            coordinator.execute(this::drain);
+        }
+    }
+
+    /**
+     * Validate dirty elements until there are none left
+     */
+    private void drain() {
+        while (true) {
+            List<Node> nodes;
+            List<Way> ways;
+            List<Relation> relations;
+            List<Node> quietNodes;
+            List<Way> quietWays;
+            List<Relation> quietRelations;
+            ValidationListener currentListener;
+            synchronized (this) {
+                if (isClean()) {
+                    running = false;
+                    return;
+                }
+                nodes = new ArrayList<>(dirtyNodes);
+                ways = new ArrayList<>(dirtyWays);
+                relations = new ArrayList<>(dirtyRelations);
+                quietNodes = new ArrayList<>(bulkNodes);
+                quietWays = new ArrayList<>(bulkWays);
+                quietRelations = new ArrayList<>(bulkRelations);
+                dirtyNodes.clear();
+                dirtyWays.clear();
+                dirtyRelations.clear();
+                bulkNodes.clear();
+                bulkWays.clear();
+                bulkRelations.clear();
+                currentListener = listener;
+            }
+            // no validation pass here, the data may be changed while we are running, see Validator#startPass()
+            // an element in both sets is validated, with an alert, as a dirty element and its bulk entry is skipped
+            final int currentGeneration = generation;
+            if (!validate(nodes, currentGeneration, context, false) || !validate(quietNodes, currentGeneration, null, false)
+                    || !validate(ways, currentGeneration, context, false) || !validate(quietWays, currentGeneration, null, false)
+                    || !validate(relations, currentGeneration, context, false) || !validate(quietRelations, currentGeneration, null, false)) {
+                synchronized (this) {
+                    running = false;
+                }
+                return;
+            }
+            if (currentListener != null) {
+                currentListener.onValidated();
+            }
+        }
+    }
+
+    /**
+     * Validate a List of elements in parallel batches
+     *
+     * @param elements the elements
+     * @param currentGeneration the generation at the start of validation
+     * @param alertContext Android Context for generating alerts or null for none
+     * @param pass if true the worker threads join the validation pass of the caller
+     * @return false if we were interrupted
+     */
+    private boolean validate(@NonNull List<? extends OsmElement> elements, final int currentGeneration, @Nullable final Context alertContext,
+            final boolean pass) {
+        final int size = elements.size();
+        if (size == 0) {
+            return true;
+        }
+        List<Callable<Void>> batches = new ArrayList<>();
+        for (int start = 0; start < size; start += BATCH_SIZE) {
+            final List<? extends OsmElement> batch = elements.subList(start, Math.min(size, start + BATCH_SIZE));
+            batches.add(() -> {
+                if (pass) {
+                    validator.startPass();
+                }
+                try {
+                    for (OsmElement e : batch) {
+                        validate(e, currentGeneration, alertContext);
+                    }
+                } finally {
+                    if (pass) {
+                        validator.endPass();
+                    }
+                }
+                return null;
+            });
+        }
+        try {
+            workers.invokeAll(batches);
+            return true;
+        } catch (InterruptedException e) {
+            Log.w(DEBUG_TAG, "validation interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Validate a single element if it hasn't been validated yet
+     *
+     * @param e the OsmElement
+     * @param currentGeneration the generation at the start of validation
+     * @param alertContext Android Context for generating an alert or null for none
+     */
+    private void validate(@NonNull OsmElement e, int currentGeneration, @Nullable Context alertContext) {
+        if (e.getState() == OsmElement.STATE_DELETED) {
+            return;
+        }
+        final int lastChange = e.getLastChange();
+        try {
+            e.hasProblem(alertContext, validator);
+        } catch (RuntimeException ex) {
+            // most likely the element was changed while we were validating, it will be invalidated again
+            Log.w(DEBUG_TAG, "Validating " + e.getDescription() + " failed " + ex.getMessage());
+            e.resetHasProblem();
+            return;
+        }
+        if (currentGeneration != generation) {
+            // the validator was reset while we were running
+            synchronized (this) {
+                invalidate(e, true);
+            }
+        } else if (lastChange != e.getLastChange()) {
+            // the element was changed while we were validating and our result may have overwritten the reset
+            synchronized (this) {
+                invalidate(e, false);
+            }
+        }
+    }
+
+    /**
+     * Produce a report of all elements with issues without blocking the caller
+     *
+     * Elements that haven't been validated yet are validated on the worker threads without generating alerts, elements
+     * that already have a cached result are not validated again. The validation runs in a pass that only the threads validating for the
+     * report are in, the structures built for it are discarded when elements are invalidated by edits.
+     *
+     * @param elements the elements to report on, typically the contents of the current Storage
+     * @param reportListener called with the elements that have issues
+     */
+    public void report(@NonNull Collection<? extends OsmElement> elements, @NonNull ReportListener reportListener) {
+        final List<Node> nodes = new ArrayList<>();
+        final List<Way> ways = new ArrayList<>();
+        final List<Relation> relations = new ArrayList<>();
+        for (OsmElement e : elements) {
+            if (e instanceof Node) {
+                nodes.add((Node) e);
+            } else if (e instanceof Way) {
+                ways.add((Way) e);
+            } else if (e instanceof Relation) {
+                relations.add((Relation) e);
+            }
+        }
+        coordinator.execute(() -> {
+            final int currentGeneration = generation;
+            // keeps the structures for the pass from being released between the element types
+            validator.startPass();
+            try {
+                if (!validate(nodes, currentGeneration, null, true) || !validate(ways, currentGeneration, null, true)
+                        || !validate(relations, currentGeneration, null, true)) {
+                    return;
+                }
+            } finally {
+                validator.endPass();
+            }
+            List<OsmElement> result = new ArrayList<>();
+            addIssues(nodes, result);
+            addIssues(ways, result);
+            addIssues(relations, result);
+            reportListener.onReport(result);
+        });
+    }
+
+    /**
+     * Add elements that have issues to a List
+     *
+     * @param elements the elements to check
+     * @param result the List to add to
+     */
+    private static void addIssues(@NonNull List<? extends OsmElement> elements, @NonNull List<OsmElement> result) {
+        for (OsmElement e : elements) {
+            int problems = e.getCachedProblems();
+            if (problems != Validator.OK && problems != Validator.NOT_VALIDATED) {
+                result.add(e);
+            }
+        }
+    }
+}
@@ -33,6 +33,32 @@ public interface Validator {
      */
     void reset(Context context);
 
+    /**
+     * Start a validation pass on the current thread
+     * 
+     * Until {@link #endPass()} is called on the same thread the data is assumed not to change, this allows the
+     * validator to build structures that speed up validating many elements. Only validation on threads that are in a
+     * pass uses them, they are shared by all threads in a pass at the same time.
+     */
+    default void startPass() {
+        // do nothing
+    }
+
+    /**
+     * End the validation pass on the current thread, any structures built for it are released when no thread is in a
+     * pass any more
+     */
+    default void endPass() {
+        // do nothing
+    }
+
+    /**
+     * Discard the structures built for the current pass as the data has changed, they are rebuilt if needed
+     */
+    default void invalidatePass() {
+        // do nothing
+    }
+
     /**
      * Validate an OSM Node
      * 
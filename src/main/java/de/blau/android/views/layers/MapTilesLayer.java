@@ -123,6 +123,14 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
 
     private final BitSet rendered = new BitSet();
 
+    /**
+     * Maximum number of placeholder tiles requested per draw so that a zoom change doesn't flood the workers
+     */
+    private static final int MAX_SYNTHESIZED_PER_DRAW = 16;
+
+    private long framesDrawn            = 0;
+    private long framesWithMissingTiles = 0;
+
     public interface TileRenderer<B> {
 
         /**
@@ -435,6 +443,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         final int tileNeededRight = Math.max(xTileLeft, xTileRight);
         final int tileNeededTop = Math.min(yTileTop, yTileBottom);
         final int tileNeededBottom = Math.max(yTileTop, yTileBottom);
+        mTileProvider.setViewport(myRendererInfo.getId(), zoomLevel, tileNeededLeft, tileNeededTop, tileNeededRight, tileNeededBottom);
 
         final int mapTileMask = (n) - 1;
 
@@ -452,6 +461,8 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
         // requiredTiles = (tileNeededBottom - tileNeededTop + 1) * (tileNeededRight - tileNeededLeft + 1)
         int row = tileNeededRight - tileNeededLeft + 1;
         rendered.clear();
+        int synthesized = 0;
+        boolean missingTiles = false;
         for (int y = tileNeededTop; y <= tileNeededBottom; y++) {
             // x = x tile number (longitude)
             for (int x = tileNeededLeft; x <= tileNeededRight; x++) {
@@ -488,6 +499,13 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
 
                 final boolean bitmapRenderer = myRendererInfo.getTileType() == TileType.BITMAP;
 
+                // request a placeholder from cached tiles at other zoom levels, this will be used from the next draw on
+                // until the real tile is available, for this draw we fall back to overzooming
+                if (tileBlob == null && bitmapRenderer && synthesized < MAX_SYNTHESIZED_PER_DRAW && tile.zoomLevel >= minZoom
+                        && tile.zoomLevel <= maxZoom && mTileProvider.requestPlaceholder(tile, minZoom, maxZoom, maxOverZoom, owner)) {
+                    synthesized++;
+                }
+
                 // OVERZOOM
                 // Preferred tile is not available - request it
                 // mTileProvider.preCacheTile(tile); already done in getMapTile
@@ -535,17 +553,33 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                 } else if (bitmapRenderer) {
                     tile.reinit();
                     // Still no tile available - try smaller scale tiles
-                    drawTile(c, osmv, 0, zoomLevel + 2, zoomLevel, x & mapTileMask, y & mapTileMask, squareTiles, lonOffset, latOffset);
+                    missingTiles |= !drawTile(c, osmv, 0, zoomLevel + 2, zoomLevel, x & mapTileMask, y & mapTileMask, squareTiles, lonOffset, latOffset);
+                } else {
+                    missingTiles = true;
                 }
                 xPos += destIncX;
             }
             xPos = 0;
             yPos += destIncY;
         }
+        framesDrawn++;
+        if (missingTiles) {
+            framesWithMissingTiles++;
+        }
         // any post render pass finalisation
         mTileRenderer.postRender(c, actualZoomLevel);
     }
 
+    /**
+     * Get statistics on how often tiles were missing when drawing
+     * 
+     * @return a String suitable for display
+     */
+    @NonNull
+    public String getDrawInfo() {
+        return "frames " + framesDrawn + " with missing tiles " + framesWithMissingTiles + " placeholders created " + mTileProvider.getSynthesizedCount();
+    }
+
     /**
      * Get the y tile number
      * 
@@ -829,6 +863,7 @@ public class MapTilesLayer<T> extends MapViewLayer implements ExtentInterface, L
                     return;
                 case MapAsyncTileProvider.NONETWORK:
                 case MapAsyncTileProvider.DOESNOTEXIST:
+                case MapAsyncTileProvider.CANCELLED:
                     return; // ignore
                 default: // fall though to log
                 }
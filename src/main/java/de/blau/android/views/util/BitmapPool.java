@@ -0,0 +1,173 @@
+package de.blau.android.views.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import de.blau.android.util.collections.LongHashMap;
+
+/**
+ * Pool of Bitmaps evicted from the tile cache that can be reused when decoding new tiles
+ *
+ * Bitmaps are bucketed by width, height and configuration so that a pooled Bitmap can always be used as
+ * BitmapFactory.Options.inBitmap, independent of the Android version. The total size of the pooled Bitmaps is limited,
+ * Bitmaps that don't fit are recycled.
+ *
+ * @author simon
+ *
+ */
+final class BitmapPool {
+
+    private final LongHashMap<List<Bitmap>> buckets = new LongHashMap<>();
+
+    private long maxBytes;
+    private long pooledBytes = 0;
+
+    private long hits           = 0;
+    private long misses         = 0;
+    private long allocatedBytes = 0;
+    private long reusedBytes    = 0;
+
+    /**
+     * Construct a new pool
+     *
+     * @param maxBytes the maximum size of the pooled Bitmaps in bytes
+     */
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the bucket key for Bitmap dimensions and configuration
+     *
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param config the Bitmap configuration
+     * @return a key
+     */
+    private static long key(int width, int height, @NonNull Bitmap.Config config) {
+        return ((long) width << 32) | ((long) (height & 0xFFFFFF) << 8) | config.ordinal();
+    }
+
+    /**
+     * Get the size of a Bitmap in bytes
+     *
+     * @param bitmap the Bitmap
+     * @return the size in bytes
+     */
+    private static long size(@NonNull Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Get a pooled Bitmap with the specified dimensions and configuration, counts a hit or miss
+     *
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param config the Bitmap configuration
+     * @return a Bitmap or null if none is available
+     */
+    @Nullable
+    synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        List<Bitmap> bucket = buckets.get(key(width, height, config));
+        if (bucket != null && !bucket.isEmpty()) {
+            Bitmap bitmap = bucket.remove(bucket.size() - 1);
+            long size = size(bitmap);
+            pooledBytes -= size;
+            reusedBytes += size;
+            hits++;
+            return bitmap;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Return a Bitmap to the pool, if it can't be reused or the pool is full it is recycled
+     *
+     * @param bitmap the Bitmap
+     */
+    synchronized void release(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        Bitmap.Config config = bitmap.getConfig();
+        long size = size(bitmap);
+        if (!bitmap.isMutable() || config == null || pooledBytes + size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        long key = key(bitmap.getWidth(), bitmap.getHeight(), config);
+        List<Bitmap> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        pooledBytes += size;
+    }
+
+    /**
+     * Record that a new Bitmap had to be allocated
+     *
+     * @param bitmap the new Bitmap
+     */
+    synchronized void allocated(@NonNull Bitmap bitmap) {
+        allocatedBytes += size(bitmap);
+    }
+
+    /**
+     * Recycle all pooled Bitmaps
+     */
+    synchronized void clear() {
+        for (List<Bitmap> bucket : buckets.values()) {
+            for (Bitmap bitmap : bucket) {
+                bitmap.recycle();
+            }
+        }
+        buckets.clear();
+        pooledBytes = 0;
+    }
+
+    /**
+     * Empty the pool and halve its maximum size
+     */
+    synchronized void onLowMemory() {
+        clear();
+        maxBytes /= 2;
+    }
+
+    /**
+     * @return the size of the pooled Bitmaps in bytes
+     */
+    synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * @return the number of requests that could be satisfied from the pool
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that could not be satisfied from the pool
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get some statistics on pool usage
+     *
+     * @return a String suitable for display
+     */
+    @NonNull
+    synchronized String getInfo() {
+        return "pool " + pooledBytes + " of maximum " + maxBytes + " hits " + hits + " misses " + misses + " allocated " + allocatedBytes + " reused "
+                + reusedBytes;
+    }
+}
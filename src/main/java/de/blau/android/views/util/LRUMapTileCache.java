@@ -44,10 +44,15 @@ public class LRUMapTileCache<T> {
     private long                        cacheSize = 0;
     /** LRU list. */
     private final List<CacheElement<T>> list;
+    /** LRU list of placeholders, these are evicted before anything in list */
+    private final List<CacheElement<T>> placeholders;
     private final List<CacheElement<T>> reuseList;
+    /** Pool evicted Bitmaps are returned to */
+    private BitmapPool                  pool;
 
     private static class CacheElement<B> {
         boolean recycleable = true;
+        boolean placeholder = false;
         String  key;
         B       blob;
         long    owner;
@@ -83,6 +88,7 @@ public class LRUMapTileCache<T> {
             this.key = key;
             this.blob = blob;
             this.owner = owner;
+            this.placeholder = false;
         }
     }
 
@@ -100,6 +106,7 @@ public class LRUMapTileCache<T> {
         this.maxCacheSize = maxCacheSize;
         cache = new HashMap<>();
         list = new ArrayList<>(); // using a LinkedList doesn't have any real advantages
+        placeholders = new ArrayList<>();
         reuseList = new ArrayList<>();
     }
 
@@ -123,6 +130,40 @@ public class LRUMapTileCache<T> {
         }
         cache.clear();
         list.clear();
+        placeholders.clear();
+        if (pool != null) {
+            pool.clear();
+        }
+    }
+
+    /**
+     * Set a pool that evicted Bitmaps are returned to instead of recycling them
+     * 
+     * @param pool the BitmapPool or null
+     */
+    synchronized void setBitmapPool(@Nullable BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Get the pool that evicted Bitmaps are returned to
+     * 
+     * @return the BitmapPool or null
+     */
+    @Nullable
+    synchronized BitmapPool getBitmapPool() {
+        return pool;
+    }
+
+    /**
+     * Dispose of a value that was not added to the cache, Bitmaps are returned to the pool if there is one
+     * 
+     * @param value the value
+     */
+    public synchronized void discard(@NonNull T value) {
+        if (pool != null && value instanceof Bitmap) {
+            pool.release((Bitmap) value);
+        }
     }
 
     /**
@@ -138,8 +179,9 @@ public class LRUMapTileCache<T> {
         if (limit < 0) {
             limit = 0;
         }
-        while (cacheSize > limit && !list.isEmpty()) {
-            CacheElement<T> ce = list.remove(list.size() - 1);
+        while (cacheSize > limit && (!placeholders.isEmpty() || !list.isEmpty())) {
+            List<CacheElement<T>> from = placeholders.isEmpty() ? list : placeholders;
+            CacheElement<T> ce = from.remove(from.size() - 1);
             if (ce.owner == owner && owner != 0) {
                 // cache is being thrashed because it is too small, fail
                 Log.e(DEBUG_TAG, "cache too small, failing");
@@ -148,19 +190,32 @@ public class LRUMapTileCache<T> {
             if (cache.remove(ce.key) == null) {
                 throw new IllegalStateException("can't remove " + ce.key + " from cache");
             }
-            reuseList.add(ce);
-            T b = ce.blob;
-            if (b instanceof Bitmap && !((Bitmap) b).isRecycled()) {
-                Bitmap bitmap = (Bitmap) b;
-                cacheSize -= (long) bitmap.getRowBytes() * bitmap.getHeight();
-                if (ce.recycleable) {
+            dispose(ce);
+        }
+        return true; // success
+    }
+
+    /**
+     * Release the value of an element that has been removed from the cache and make the element available for reuse
+     * 
+     * @param ce the CacheElement
+     */
+    private void dispose(@NonNull CacheElement<T> ce) {
+        reuseList.add(ce);
+        T b = ce.blob;
+        if (b instanceof Bitmap && !((Bitmap) b).isRecycled()) {
+            Bitmap bitmap = (Bitmap) b;
+            cacheSize -= (long) bitmap.getRowBytes() * bitmap.getHeight();
+            if (ce.recycleable) {
+                if (pool != null) {
+                    pool.release(bitmap);
+                } else {
                     bitmap.recycle();
                 }
-            } else {
-                cacheSize -= 1;
             }
+        } else {
+            cacheSize -= 1;
         }
-        return true; // success
     }
 
     /**
@@ -178,6 +233,10 @@ public class LRUMapTileCache<T> {
     public void onLowMemory() {
         maxCacheSize /= 2;
         applyCacheLimit(0, 0);
+        BitmapPool p = getBitmapPool();
+        if (p != null) {
+            p.onLowMemory();
+        }
     }
 
     /**
@@ -227,6 +286,13 @@ public class LRUMapTileCache<T> {
         }
 
         CacheElement<T> prev = cache.get(key);
+        if (prev != null && prev.placeholder) {
+            // replace the placeholder with the real thing, placeholders are not recycleable as they may still be drawn
+            placeholders.remove(prev);
+            cache.remove(key);
+            dispose(prev);
+            prev = null;
+        }
         // if the key isn't in the cache and the cache is full...
         if (prev == null) {
             long sizeInc = 1;
@@ -264,6 +330,75 @@ public class LRUMapTileCache<T> {
         return value;
     }
 
+    /**
+     * Add a low priority placeholder for a value that is not available yet
+     * 
+     * Placeholders only use spare space, to make room only older placeholders are evicted, and are replaced when a
+     * value for the same key is added with put. Placeholder Bitmaps are never recycled or returned to the pool by the
+     * cache as they may still be in use when they are replaced.
+     * 
+     * @param key key with which the specified value is to be associated
+     * @param value placeholder value to be associated with the key
+     * @param owner a long indicating what is putting the element in the cache
+     * @return true if the placeholder was added, false if the key is already present or there was no space
+     */
+    public synchronized boolean putPlaceholder(@NonNull final String key, @NonNull final T value, long owner) {
+        if (maxCacheSize == 0 || cache.containsKey(key)) {
+            return false;
+        }
+        long sizeInc = 1;
+        if (value instanceof Bitmap) {
+            Bitmap bitmap = (Bitmap) value;
+            sizeInc = (long) bitmap.getRowBytes() * bitmap.getHeight();
+        }
+        long limit = maxCacheSize - sizeInc;
+        while (cacheSize > limit && !placeholders.isEmpty()) {
+            CacheElement<T> ce = placeholders.get(placeholders.size() - 1);
+            if (ce.owner == owner && owner != 0) {
+                // don't evict placeholders for the current owner
+                return false;
+            }
+            placeholders.remove(placeholders.size() - 1);
+            cache.remove(ce.key);
+            dispose(ce);
+        }
+        if (cacheSize > limit) {
+            return false;
+        }
+        CacheElement<T> ce = null;
+        if (!reuseList.isEmpty()) {
+            ce = reuseList.remove(0);
+            ce.init(key, value, false, owner);
+        } else {
+            ce = new CacheElement<>(key, value, false, owner);
+        }
+        ce.placeholder = true;
+        placeholders.add(0, ce);
+        cache.put(key, ce);
+        cacheSize += sizeInc;
+        return true;
+    }
+
+    /**
+     * Check if the cache contains a placeholder for a key
+     * 
+     * @param key the key
+     * @return true if the value for the key is a placeholder
+     */
+    public synchronized boolean isPlaceholder(@NonNull String key) {
+        CacheElement<T> ce = cache.get(key);
+        return ce != null && ce.placeholder;
+    }
+
+    /**
+     * Get the number of placeholders in the cache
+     * 
+     * @return count
+     */
+    public synchronized int placeholderCount() {
+        return placeholders.size();
+    }
+
     /**
      * Overrides <code>get()</code> so that it also updates the LRU list.
      * 
@@ -287,8 +422,9 @@ public class LRUMapTileCache<T> {
      * @param value to move to the top of the list
      */
     private synchronized void update(final CacheElement<T> value) {
-        list.remove(value);
-        list.add(0, value);
+        List<CacheElement<T>> l = value.placeholder ? placeholders : list;
+        l.remove(value);
+        l.add(0, value);
     }
 
     // ===========================================================
@@ -64,6 +64,24 @@ public class MapTileCache<T> {
         return mCachedTiles.get(aTile.toId());
     }
 
+    /**
+     * Set a pool that evicted Bitmaps are returned to
+     * 
+     * @param pool the BitmapPool or null
+     */
+    void setBitmapPool(@Nullable BitmapPool pool) {
+        mCachedTiles.setBitmapPool(pool);
+    }
+
+    /**
+     * Dispose of a tile that was not added to the cache
+     * 
+     * @param aImage the tile
+     */
+    public void discard(@NonNull final T aImage) {
+        mCachedTiles.discard(aImage);
+    }
+
     /**
      * Put a tile in to the cache
      * 
@@ -92,6 +110,30 @@ public class MapTileCache<T> {
         return mCachedTiles.put(aTile.toId(), aImage, recycleable, owner) != null;
     }
 
+    /**
+     * Put a low priority placeholder for a tile in to the cache
+     * 
+     * The placeholder will be replaced when the tile itself is added with putTile
+     * 
+     * @param aTile the tile spec
+     * @param aImage the placeholder Bitmap
+     * @param owner a ref to the owner
+     * @return true if the placeholder was added
+     */
+    public synchronized boolean putPlaceholder(@NonNull final MapTile aTile, @NonNull final T aImage, final long owner) {
+        return mCachedTiles.putPlaceholder(aTile.toId(), aImage, owner);
+    }
+
+    /**
+     * Test if the cache contains a placeholder for the specified tile
+     * 
+     * @param aTile The tile to check for.
+     * @return true if there is a placeholder in the cache
+     */
+    public boolean isPlaceholder(@NonNull final MapTile aTile) {
+        return mCachedTiles.isPlaceholder(aTile.toId());
+    }
+
     // ===========================================================
     // Methods from SuperClass/Interfaces
     // ===========================================================
@@ -113,7 +155,7 @@ public class MapTileCache<T> {
     /**
      * Clear the tile cache.
      */
-    public void clear() {
+    public synchronized void clear() {
         mCachedTiles.clear();
     }
 
@@ -130,7 +172,7 @@ public class MapTileCache<T> {
     /**
      * Try to reduce memory use.
      */
-    public void onLowMemory() {
+    public synchronized void onLowMemory() {
         mCachedTiles.onLowMemory();
     }
 
@@ -141,7 +183,9 @@ public class MapTileCache<T> {
      */
     @NonNull
     public String getCacheUsageInfo() {
-        return "Size " + mCachedTiles.cacheSizeBytes() + " of maximum " + mCachedTiles.getMaxCacheSize() + " #entries " + mCachedTiles.size();
+        BitmapPool pool = mCachedTiles.getBitmapPool();
+        return "Size " + mCachedTiles.cacheSizeBytes() + " of maximum " + mCachedTiles.getMaxCacheSize() + " #entries " + mCachedTiles.size()
+                + " #placeholders " + mCachedTiles.placeholderCount() + (pool != null ? " " + pool.getInfo() : "");
     }
 
     // ===========================================================
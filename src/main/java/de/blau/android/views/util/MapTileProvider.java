@@ -3,10 +3,6 @@ package de.blau.android.views.util;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -15,6 +11,10 @@ import java.util.zip.GZIPInputStream;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -26,6 +26,8 @@ import de.blau.android.services.util.MapAsyncTileProvider;
 import de.blau.android.services.util.MapTile;
 import de.blau.android.services.util.MapTileFilesystemProvider;
 import de.blau.android.util.Util;
+import de.blau.android.util.collections.LongHashMap;
+import de.blau.android.util.collections.LongHashSet;
 
 /**
  * This class was taken from OpenStreetMapViewer (original package org.andnav.osm) in 2010 by Marcus Wolschon to be
@@ -50,6 +52,11 @@ public class MapTileProvider<T> {
 
     private static final int MVT_CACHE_SIZE = 128;
 
+    /**
+     * Fraction of the maximum heap that can be used for pooled Bitmaps
+     */
+    private static final int BITMAP_POOL_FRACTION = 32;
+
     // ===========================================================
     // Fields
     // ===========================================================
@@ -58,7 +65,8 @@ public class MapTileProvider<T> {
      * cache provider
      */
     private final MapTileCache<T>   mTileCache;
-    private final Map<String, Long> pending = new HashMap<>();
+    private final LongHashMap<Long> pending      = new LongHashMap<>();
+    private final LongHashSet       synthesizing = new LongHashSet();
 
     private final Handler                   mDownloadFinishedHandler;
     private final TileDecoder<T>            decoder;
@@ -70,6 +78,13 @@ public class MapTileProvider<T> {
      */
     private boolean smallHeap = false;
 
+    // for creating placeholder tiles, only used while holding the lock on mTileCache
+    private final Canvas synthesisCanvas = new Canvas();
+    private final Paint  synthesisPaint  = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect   synthesisSrc    = new Rect();
+    private final Rect   synthesisDest   = new Rect();
+    private long         synthesized     = 0;
+
     public interface TileDecoder<D> {
         /**
          * Decode a tile
@@ -83,6 +98,8 @@ public class MapTileProvider<T> {
 
     public static class BitmapDecoder implements TileDecoder<Bitmap> {
 
+        private final BitmapPool pool = new BitmapPool(Runtime.getRuntime().maxMemory() / BITMAP_POOL_FRACTION);
+
         @Override
         public Bitmap decode(@NonNull byte[] data, boolean small) {
             BitmapFactory.Options options = new BitmapFactory.Options();
@@ -91,10 +108,46 @@ public class MapTileProvider<T> {
             } else {
                 options.inPreferredConfig = Bitmap.Config.ARGB_8888;
             }
-            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inMutable = true;
+            // determine the size so that we can find a matching pooled Bitmap
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inJustDecodeBounds = false;
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                Bitmap reuse = pool.get(options.outWidth, options.outHeight, options.inPreferredConfig);
+                if (reuse != null) {
+                    options.inBitmap = reuse;
+                    try {
+                        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                        if (bitmap != null) {
+                            return bitmap;
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // format not supported for reuse on this device
+                        Log.w(DEBUG_TAG, "Decoding in to pooled Bitmap failed " + e.getMessage());
+                    }
+                    reuse.recycle();
+                    options.inBitmap = null;
+                }
+            }
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (bitmap != null) {
+                pool.allocated(bitmap);
+            }
+            return bitmap;
         }
 
+        /**
+         * Get the pool of reusable Bitmaps
+         * 
+         * @return the BitmapPool
+         */
+        @NonNull
+        BitmapPool getPool() {
+            return pool;
+        }
     }
+
     // ===========================================================
     // Constructors
     // ===========================================================
@@ -107,7 +160,12 @@ public class MapTileProvider<T> {
      * @param aDownloadFinishedListener handler to call when a tile download is complete
      */
     public MapTileProvider(@NonNull final Context ctx, @NonNull TileDecoder<T> decoder, @NonNull final Handler aDownloadFinishedListener) {
-        mTileCache = decoder instanceof BitmapDecoder ? new MapTileCache<>() : new MapTileCache<>(MVT_CACHE_SIZE);
+        if (decoder instanceof BitmapDecoder) {
+            mTileCache = new MapTileCache<>();
+            mTileCache.setBitmapPool(((BitmapDecoder) decoder).getPool());
+        } else {
+            mTileCache = new MapTileCache<>(MVT_CACHE_SIZE);
+        }
 
         smallHeap = Util.smallHeap();
         this.decoder = decoder;
@@ -146,6 +204,10 @@ public class MapTileProvider<T> {
     public T getMapTile(@NonNull final MapTile aTile, long owner) {
         T tile = mTileCache.getMapTile(aTile);
         if (tile != null) {
+            if (mTileCache.isPlaceholder(aTile)) {
+                // still need the real thing
+                preCacheTile(aTile, owner);
+            }
             return tile;
         } else {
             if (MapViewConstants.DEBUGMODE) {
@@ -167,6 +229,202 @@ public class MapTileProvider<T> {
         return mTileCache.getMapTile(aTile);
     }
 
+    /**
+     * Request a placeholder for a missing tile to be created from tiles in the in memory cache
+     * 
+     * The placeholder is created on a worker thread, when it has been added to the cache the download finished handler
+     * is notified. Only Bitmap tiles are supported.
+     * 
+     * @param aTile tile spec
+     * @param minZoom the minimum zoom level of the tile source
+     * @param maxZoom the maximum zoom level of the tile source
+     * @param maxLevels the maximum number of zoom levels to go up
+     * @param owner id for the current owner
+     * @return true if a request was queued
+     */
+    public boolean requestPlaceholder(@NonNull final MapTile aTile, int minZoom, int maxZoom, int maxLevels, long owner) {
+        if (!(decoder instanceof BitmapDecoder)) {
+            return false;
+        }
+        final long key = aTile.toKey();
+        synchronized (synthesizing) {
+            if (synthesizing.contains(key)) {
+                return false;
+            }
+            synthesizing.put(key);
+        }
+        // note aTile will be reused and needs to be copied
+        final MapTile placeholderTile = new MapTile(aTile);
+        try {
+            mThreadPool.execute(() -> {
+                try {
+                    if (synthesizeMapTile(placeholderTile, minZoom, maxZoom, maxLevels, owner)) {
+                        mDownloadFinishedHandler.sendEmptyMessage(MapTile.MAPTILE_SUCCESS_ID);
+                    }
+                } finally {
+                    synchronized (synthesizing) {
+                        synthesizing.remove(key);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException rjee) {
+            Log.e(DEBUG_TAG, "Execution rejected " + rjee.getMessage());
+            synchronized (synthesizing) {
+                synthesizing.remove(key);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Create a placeholder for a missing tile from tiles in the in memory cache
+     * 
+     * If a parent tile up to maxLevels zoom levels up is cached, the corresponding part of it is scaled up, otherwise if
+     * all four child tiles are cached they are stitched together. The placeholder is added to the cache as a low
+     * priority entry that is replaced when the tile itself has been loaded. The cache is locked while the source tiles
+     * are in use so that they cannot be evicted.
+     * 
+     * @param aTile tile spec
+     * @param minZoom the minimum zoom level of the tile source
+     * @param maxZoom the maximum zoom level of the tile source
+     * @param maxLevels the maximum number of zoom levels to go up
+     * @param owner id for the current owner
+     * @return true if a placeholder was added to the cache
+     */
+    @SuppressWarnings("unchecked")
+    private boolean synthesizeMapTile(@NonNull final MapTile aTile, int minZoom, int maxZoom, int maxLevels, long owner) {
+        BitmapPool pool = ((BitmapDecoder) decoder).getPool();
+        synchronized (mTileCache) {
+            if (mTileCache.containsTile(aTile)) {
+                return false;
+            }
+            Bitmap placeholder = null;
+            MapTile source = new MapTile(aTile);
+            for (int level = 1; level <= maxLevels && source.zoomLevel > minZoom; level++) {
+                source.reinit();
+                source.x >>= 1;
+                source.y >>= 1;
+                source.zoomLevel--;
+                T parent = mTileCache.getMapTile(source);
+                if (parent instanceof Bitmap) {
+                    placeholder = scaleUp(pool, (Bitmap) parent, level, aTile.x, aTile.y);
+                    break;
+                }
+            }
+            if (placeholder == null && aTile.zoomLevel < maxZoom) {
+                placeholder = stitch(pool, aTile);
+            }
+            if (placeholder == null) {
+                return false;
+            }
+            if (!mTileCache.putPlaceholder(aTile, (T) placeholder, owner)) {
+                // no spare space, the placeholder has never been drawn so it can be returned to the pool
+                pool.release(placeholder);
+                return false;
+            }
+            synthesized++;
+            return true;
+        }
+    }
+
+    /**
+     * Scale up the part of a parent tile that covers a tile
+     * 
+     * @param pool the BitmapPool to allocate from
+     * @param parent the parent tile
+     * @param levels the difference in zoom levels
+     * @param x tile x
+     * @param y tile y
+     * @return the new Bitmap
+     */
+    @NonNull
+    private Bitmap scaleUp(@NonNull BitmapPool pool, @NonNull Bitmap parent, int levels, int x, int y) {
+        int width = parent.getWidth();
+        int height = parent.getHeight();
+        int mask = (1 << levels) - 1;
+        int left = ((x & mask) * width) >> levels;
+        int top = ((y & mask) * height) >> levels;
+        synthesisSrc.set(left, top, left + Math.max(1, width >> levels), top + Math.max(1, height >> levels));
+        synthesisDest.set(0, 0, width, height);
+        Bitmap result = createBitmap(pool, width, height, parent.getConfig());
+        synthesisCanvas.setBitmap(result);
+        synthesisCanvas.drawBitmap(parent, synthesisSrc, synthesisDest, synthesisPaint);
+        synthesisCanvas.setBitmap(null);
+        return result;
+    }
+
+    /**
+     * Stitch the four child tiles of a tile together
+     * 
+     * @param pool the BitmapPool to allocate from
+     * @param aTile tile spec
+     * @return the new Bitmap or null if not all child tiles are cached
+     */
+    @Nullable
+    private Bitmap stitch(@NonNull BitmapPool pool, @NonNull MapTile aTile) {
+        Bitmap[] children = new Bitmap[4];
+        MapTile child = new MapTile(aTile);
+        child.zoomLevel = aTile.zoomLevel + 1;
+        for (int i = 0; i < 4; i++) {
+            child.reinit();
+            child.x = (aTile.x << 1) + (i & 1);
+            child.y = (aTile.y << 1) + (i >> 1);
+            T blob = mTileCache.getMapTile(child);
+            if (!(blob instanceof Bitmap)) {
+                return null;
+            }
+            children[i] = (Bitmap) blob;
+        }
+        int width = children[0].getWidth();
+        int height = children[0].getHeight();
+        Bitmap result = createBitmap(pool, width, height, children[0].getConfig());
+        synthesisCanvas.setBitmap(result);
+        for (int i = 0; i < 4; i++) {
+            Bitmap bitmap = children[i];
+            synthesisSrc.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            int left = (i & 1) * width / 2;
+            int top = (i >> 1) * height / 2;
+            synthesisDest.set(left, top, left + width / 2, top + height / 2);
+            synthesisCanvas.drawBitmap(bitmap, synthesisSrc, synthesisDest, synthesisPaint);
+        }
+        synthesisCanvas.setBitmap(null);
+        return result;
+    }
+
+    /**
+     * Get an empty Bitmap, from the pool if possible
+     * 
+     * @param pool the BitmapPool
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param config the configuration or null for the default
+     * @return a Bitmap
+     */
+    @NonNull
+    private static Bitmap createBitmap(@NonNull BitmapPool pool, int width, int height, @Nullable Bitmap.Config config) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        Bitmap bitmap = pool.get(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        bitmap = Bitmap.createBitmap(width, height, config);
+        pool.allocated(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Get the number of placeholder tiles that have been created
+     * 
+     * @return the count
+     */
+    public long getSynthesizedCount() {
+        return synthesized;
+    }
+
     /**
      * Request a tile from the tile service
      * 
@@ -174,11 +432,11 @@ public class MapTileProvider<T> {
      * @param owner if for the current owner
      */
     private void preCacheTile(@NonNull final MapTile aTile, long owner) {
-        String id = aTile.toId();
+        long key = aTile.toKey();
         synchronized (pending) {
-            if (!pending.containsKey(id)) {
+            if (!pending.containsKey(key)) {
                 try {
-                    pending.put(id, owner);
+                    pending.put(key, owner);
                     if (mapTileFilesystemProvider != null) {
                         // note aTile will be reused and needs to be copied
                         mapTileFilesystemProvider.loadMapTileAsync(new MapTile(aTile), mCallback);
@@ -203,21 +461,12 @@ public class MapTileProvider<T> {
                 mThreadPool.execute(() -> {
                     mapTileFilesystemProvider.flushQueue(rendererId, zoomLevel);
                     // remove the same from pending
-                    Set<String> keys;
+                    int rendererIndex = MapTile.rendererIndex(rendererId);
                     synchronized (pending) {
-                        keys = new HashSet<>(pending.keySet());
-                        if (zoomLevel != MapAsyncTileProvider.ALLZOOMS) {
-                            String id = Integer.toString(zoomLevel) + rendererId;
-                            for (String key : keys) {
-                                if (key.startsWith(id)) {
-                                    pending.remove(key);
-                                }
-                            }
-                        } else {
-                            for (String key : keys) {
-                                if (key.contains(rendererId)) {
-                                    pending.remove(key);
-                                }
+                        for (long key : pending.keys()) {
+                            if (MapTile.rendererIndexFromKey(key) == rendererIndex
+                                    && (zoomLevel == MapAsyncTileProvider.ALLZOOMS || MapTile.zoomFromKey(key) == zoomLevel)) {
+                                pending.remove(key);
                             }
                         }
                     }
@@ -230,6 +479,22 @@ public class MapTileProvider<T> {
         }
     }
 
+    /**
+     * Set the currently visible tiles for a renderer so that requests can be prioritized
+     * 
+     * @param rendererId the renderer
+     * @param zoomLevel the current zoom level
+     * @param left left most visible tile x
+     * @param top top most visible tile y
+     * @param right right most visible tile x
+     * @param bottom bottom most visible tile y
+     */
+    public void setViewport(@NonNull String rendererId, int zoomLevel, int left, int top, int right, int bottom) {
+        if (mapTileFilesystemProvider != null) {
+            mapTileFilesystemProvider.setViewport(rendererId, zoomLevel, left, top, right, bottom);
+        }
+    }
+
     /**
      * Flush the tile cache for a specific provider
      * 
@@ -267,7 +532,7 @@ public class MapTileProvider<T> {
         public void mapTileLoaded(@NonNull final String rendererID, final int zoomLevel, final int tileX, final int tileY, @NonNull final byte[] data)
                 throws IOException {
             MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
-            String id = t.toId();
+            long key = t.toKey();
             try {
                 T tileBlob = decoder.decode(unGZip(data), smallHeap);
                 if (tileBlob == null) {
@@ -275,10 +540,12 @@ public class MapTileProvider<T> {
                     throw new IOException("decoded tile is null");
                 }
                 synchronized (pending) {
-                    Long l = pending.get(id);
+                    Long l = pending.get(key);
                     if (l != null) {
                         mTileCache.putTile(t, tileBlob, l);
-                    } // else wasn't in pending queue just ignore
+                    } else { // wasn't in pending queue just ignore
+                        mTileCache.discard(tileBlob);
+                    }
                 }
                 mDownloadFinishedHandler.sendEmptyMessage(MapTile.MAPTILE_SUCCESS_ID);
             } catch (StorageException | OutOfMemoryError e) {
@@ -290,7 +557,7 @@ public class MapTileProvider<T> {
                 throw new IOException("Exception in mapTileLoaded callback " + npe);
             } finally {
                 synchronized (pending) {
-                    pending.remove(id);
+                    pending.remove(key);
                 }
             }
             if (MapViewConstants.DEBUGMODE) {
@@ -316,9 +583,11 @@ public class MapTileProvider<T> {
                 throws IOException {
             MapTile t = new MapTile(rendererID, zoomLevel, tileX, tileY);
             synchronized (pending) {
-                pending.remove(t.toId());
+                pending.remove(t.toKey());
+            }
+            if (reason != MapAsyncTileProvider.CANCELLED) {
+                mDownloadFinishedHandler.sendMessage(Message.obtain(mDownloadFinishedHandler, MapTile.MAPTILE_FAIL_ID, reason, 0));
             }
-            mDownloadFinishedHandler.sendMessage(Message.obtain(mDownloadFinishedHandler, MapTile.MAPTILE_FAIL_ID, reason, 0));
         }
     };
 
@@ -358,4 +627,14 @@ public class MapTileProvider<T> {
     public String getCacheUsageInfo() {
         return mTileCache.getCacheUsageInfo();
     }
+
+    /**
+     * Get information on the tile request queues
+     * 
+     * @return a String with queue depth and latency information suitable for display
+     */
+    @NonNull
+    public String getQueueInfo() {
+        return mapTileFilesystemProvider != null ? mapTileFilesystemProvider.getQueueInfo() : "";
+    }
 }
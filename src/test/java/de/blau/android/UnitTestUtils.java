@@ -6,6 +6,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -71,4 +73,17 @@ public final class UnitTestUtils {
         }
         return d;
     }
+
+    /**
+     * Get the number of bytes allocated by the current thread if supported
+     * 
+     * @return the allocated bytes or -1
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
 }
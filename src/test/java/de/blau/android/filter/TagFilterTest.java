@@ -1,6 +1,7 @@
 package de.blau.android.filter;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.junit.After;
@@ -27,6 +28,7 @@ import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.Way;
+import de.blau.android.util.Util;
 
 /**
  * Note: these test currently only test the filter logic not the UI
@@ -227,6 +229,54 @@ public class TagFilterTest {
         }
     }
 
+    /**
+     * Check that changing an element only invalidates the cache entries that depend on it
+     */
+    @Test
+    public void tagFilterOnElementChanged() {
+        try (TagFilterDatabaseHelper helper = new TagFilterDatabaseHelper(context); SQLiteDatabase db = helper.getWritableDatabase()) {
+            TreeMap<String, String> tags = new TreeMap<>();
+            tags.put(Tags.KEY_BUILDING, Tags.VALUE_YES);
+            Logic logic = App.getLogic();
+
+            logic.performAdd(null, 100.0f, 100.0f);
+            Node n1 = logic.getSelectedNode();
+            logic.performAdd(null, 1000.0f, 1000.0f);
+            Way w1 = logic.getSelectedWay();
+            logic.setSelectedNode(null);
+            logic.setSelectedWay(null);
+            logic.setTags(null, w1, tags);
+
+            logic.performAdd(null, 100.0f, 500.0f);
+            logic.performAdd(null, 400.0f, 900.0f);
+            Way w2 = logic.getSelectedWay();
+            logic.setSelectedNode(null);
+            logic.setSelectedWay(null);
+            logic.setTags(null, w2, tags);
+
+            insertTagFilterRow(db, TagFilter.DEFAULT_FILTER, true, true, "way+", Tags.KEY_BUILDING, null);
+
+            TagFilter f = new TagFilter(context);
+            Assert.assertTrue(f.include(w1, false));
+            Assert.assertTrue(f.include(w2, false));
+            Assert.assertTrue(f.include(n1, false));
+            Assert.assertEquals(2, f.getVisibleWays().size());
+            Assert.assertEquals(4, f.getVisibleNodes().size());
+
+            logic.setTags(null, w1, new TreeMap<>());
+            f.onElementChanged(null, Util.wrapInList((OsmElement) w1));
+            // w2 and its nodes are still cached
+            List<Way> visibleWays = f.getVisibleWays();
+            Assert.assertEquals(1, visibleWays.size());
+            Assert.assertTrue(visibleWays.contains(w2));
+            Assert.assertEquals(2, f.getVisibleNodes().size());
+            Assert.assertFalse(f.include(w1, false));
+            Assert.assertFalse(f.include(n1, false));
+        } catch (OsmIllegalOperationException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
     /**
      * Insert a row in the tag filter DB
      * 
@@ -0,0 +1,235 @@
+package de.blau.android.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import androidx.annotation.NonNull;
+import de.blau.android.gpx.TrackPointList.PointBuffer;
+import de.blau.android.osm.BoundingBox;
+import de.blau.android.osm.GeoPoint;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
+import de.blau.android.util.collections.IntPrimitiveList;
+
+public class TrackIndexTest {
+
+    private static final int POINTS        = 10000;
+    private static final int SEGMENT_START = 5000;
+
+    private List<TrackPoint> points;
+
+    /**
+     * Create a random walk track with two segments
+     */
+    @Before
+    public void setup() {
+        points = new ArrayList<>();
+        Random random = new Random(1234);
+        double lat = 47.0;
+        double lon = 8.0;
+        for (int i = 0; i < POINTS; i++) {
+            lat += (random.nextDouble() - 0.4) * 0.0001;
+            lon += (random.nextDouble() - 0.4) * 0.0001;
+            points.add(new TrackPoint(i == SEGMENT_START ? TrackPoint.FLAG_NEWSEGMENT : 0, lat, lon, i * 1000L));
+        }
+    }
+
+    /**
+     * At full resolution with a box covering everything the original points should be returned
+     */
+    @Test
+    public void fullResolution() {
+        TrackIndex index = new TrackIndex();
+        index.update(points, 0);
+        assertEquals(POINTS, index.size());
+        List<InterruptibleGeoPoint> result = new ArrayList<>();
+        query(index, points, new BoundingBox(7.0, 46.0, 9.0, 48.0), 1, result);
+        assertEquals(POINTS, result.size());
+        for (int i = 0; i < POINTS; i++) {
+            assertSame(points.get(i), result.get(i));
+        }
+        result.clear();
+        query(index, points, new BoundingBox(10.0, 46.0, 11.0, 48.0), 1, result);
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * Check that all points in a box are returned and that disconnected parts don't get joined
+     */
+    @Test
+    public void partial() {
+        TrackIndex index = new TrackIndex();
+        index.update(points, 0);
+        TrackPoint middle = points.get(POINTS / 4);
+        BoundingBox box = new BoundingBox(middle.getLongitude() - 0.0005, middle.getLatitude() - 0.0005, middle.getLongitude() + 0.0005,
+                middle.getLatitude() + 0.0005);
+        List<InterruptibleGeoPoint> result = new ArrayList<>();
+        query(index, points, box, 1, result);
+        assertTrue(result.size() < POINTS);
+        Set<Long> coordinates = new HashSet<>();
+        for (InterruptibleGeoPoint p : result) {
+            if (!points.contains(p)) {
+                // a copy starting a new segment
+                assertTrue(p.isInterrupted());
+            }
+            coordinates.add(key(p));
+        }
+        for (TrackPoint p : points) {
+            if (box.isIn(p.getLon(), p.getLat())) {
+                assertTrue(coordinates.contains(key(p)));
+            }
+        }
+    }
+
+    /**
+     * Query an index and resolve the returned indices
+     * 
+     * @param index the TrackIndex
+     * @param points the points of the track
+     * @param box the BoundingBox
+     * @param pixelE7 the size of a screen pixel in WGS84*1E7 degrees longitude
+     * @param result List the points are added to, copies are added for points that need to start a new segment
+     */
+    private static void query(@NonNull TrackIndex index, @NonNull List<? extends InterruptibleGeoPoint> points, @NonNull BoundingBox box, double pixelE7,
+            @NonNull List<InterruptibleGeoPoint> result) {
+        IntPrimitiveList indices = new IntPrimitiveList();
+        index.query(points, box, pixelE7, indices);
+        for (int i = 0; i < indices.size(); i++) {
+            int pointIndex = indices.get(i);
+            if (pointIndex >= 0) {
+                result.add(points.get(pointIndex));
+            } else {
+                InterruptibleGeoPoint p = points.get(~pointIndex);
+                result.add(p.isInterrupted() ? p : new TrackPointList.Point(p.getLat(), p.getLon(), true));
+            }
+        }
+    }
+
+    /**
+     * Get a key for the coordinates of a point
+     * 
+     * @param p the point
+     * @return a long combining lat and lon
+     */
+    private static long key(@NonNull GeoPoint p) {
+        return ((long) p.getLat() << 32) | (p.getLon() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Check that simplification retains end and segment points and reduces the number of points
+     */
+    @Test
+    public void simplified() {
+        TrackIndex index = new TrackIndex();
+        index.update(points, 0);
+        List<InterruptibleGeoPoint> result = new ArrayList<>();
+        query(index, points, new BoundingBox(7.0, 46.0, 9.0, 48.0), 1000, result);
+        System.out.println("Simplified " + POINTS + " to " + result.size() + " points"); // NOSONAR
+        assertTrue(result.size() < POINTS / 2);
+        assertSame(points.get(0), result.get(0));
+        assertSame(points.get(POINTS - 1), result.get(result.size() - 1));
+        assertTrue(result.contains(points.get(SEGMENT_START - 1)));
+        assertTrue(result.contains(points.get(SEGMENT_START)));
+        assertEquals(-1, TrackIndex.level(1));
+        assertEquals(TrackIndex.LEVELS - 1, TrackIndex.level(Double.MAX_VALUE));
+    }
+
+    /**
+     * Check that adding points one by one gives the same result as indexing them in one go
+     */
+    @Test
+    public void incremental() {
+        TrackIndex index = new TrackIndex();
+        List<TrackPoint> growing = new ArrayList<>();
+        List<InterruptibleGeoPoint> result = new ArrayList<>();
+        BoundingBox box = new BoundingBox(7.0, 46.0, 9.0, 48.0);
+        for (TrackPoint p : points) {
+            growing.add(p);
+            index.update(growing, 0);
+            if (growing.size() % 1000 == 0) {
+                result.clear();
+                query(index, growing, box, 100, result); // calculate intermediate simplifications
+            }
+        }
+        result.clear();
+        query(index, growing, box, 100, result);
+        TrackIndex reference = new TrackIndex();
+        reference.update(points, 0);
+        List<InterruptibleGeoPoint> referenceResult = new ArrayList<>();
+        query(reference, points, box, 100, referenceResult);
+        assertEquals(referenceResult, result);
+
+        // replacing the points rebuilds the index
+        List<TrackPoint> other = new ArrayList<>(points.subList(10, 20));
+        index.update(other, 1);
+        assertEquals(10, index.size());
+        result.clear();
+        query(index, other, box, 1, result);
+        assertEquals(other, result);
+        assertFalse(result.contains(points.get(0)));
+    }
+
+    /**
+     * Check that inserting points in the middle of a track, that doesn't change its start, rebuilds the index
+     */
+    @Test
+    public void insert() {
+        TrackPointList list = new TrackPointList();
+        list.addAll(points.subList(0, 100));
+        TrackIndex index = new TrackIndex();
+        index.update(list.geoPoints(), list.getModificationCount());
+        assertEquals(100, index.size());
+        list.add(100, points.get(100)); // append
+        int modifications = list.getModificationCount();
+        list.add(50, points.get(200));
+        assertNotEquals(modifications, list.getModificationCount());
+        index.update(list.geoPoints(), list.getModificationCount());
+        assertEquals(102, index.size());
+        IntPrimitiveList indices = new IntPrimitiveList();
+        index.query(list.geoPoints(), new BoundingBox(7.0, 46.0, 9.0, 48.0), 1, indices);
+        PointBuffer result = new PointBuffer();
+        list.getPoints(indices, result);
+        assertEquals(102, result.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(key(list.geoPoints().get(i)), key(result.get(i)));
+        }
+    }
+
+    /**
+     * Check that a PointBuffer reuses its points when it is filled again
+     */
+    @Test
+    public void pointBuffer() {
+        TrackPointList list = new TrackPointList();
+        list.addAll(points.subList(0, 1000));
+        TrackIndex index = new TrackIndex();
+        index.update(list.geoPoints(), list.getModificationCount());
+        IntPrimitiveList indices = new IntPrimitiveList();
+        BoundingBox box = new BoundingBox(7.0, 46.0, 9.0, 48.0);
+        index.query(list.geoPoints(), box, 1, indices);
+        PointBuffer result = new PointBuffer();
+        list.getPoints(indices, result);
+        assertEquals(1000, result.size());
+        InterruptibleGeoPoint first = result.get(0);
+        TrackPoint middle = points.get(500);
+        BoundingBox small = new BoundingBox(middle.getLongitude() - 0.0001, middle.getLatitude() - 0.0001, middle.getLongitude() + 0.0001,
+                middle.getLatitude() + 0.0001);
+        indices.clear();
+        index.query(list.geoPoints(), small, 1, indices);
+        list.getPoints(indices, result);
+        assertTrue(result.size() < 1000);
+        assertSame(first, result.get(0));
+        assertEquals(key(list.geoPoints().get(indices.get(0))), key(result.get(0)));
+    }
+}
@@ -0,0 +1,187 @@
+package de.blau.android.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import androidx.annotation.NonNull;
+import de.blau.android.osm.GeoPoint.InterruptibleGeoPoint;
+
+public class TrackPointListTest {
+
+    private static final int  POINTS = 1000;
+    private static final long START  = 1600000000000L;
+
+    private List<TrackPoint> points;
+
+    /**
+     * Create some random points with a time gap that doesn't fit in an int and altitudes only for the later points
+     */
+    @Before
+    public void setup() {
+        points = new ArrayList<>();
+        Random random = new Random(4321);
+        long time = START;
+        for (int i = 0; i < POINTS; i++) {
+            time += i == 300 ? 30L * 24 * 3600 * 1000 : random.nextInt(5000);
+            double lat = -90 + random.nextDouble() * 180;
+            double lon = -180 + random.nextDouble() * 360;
+            byte flags = i % 100 == 0 ? TrackPoint.FLAG_NEWSEGMENT : 0;
+            if (i < 500) {
+                points.add(new TrackPoint(flags, lat, lon, time));
+            } else {
+                points.add(new TrackPoint(flags, lat, lon, random.nextInt(4000), time));
+            }
+        }
+    }
+
+    /**
+     * Check that the points can be retrieved unchanged
+     */
+    @Test
+    public void roundTrip() {
+        TrackPointList list = new TrackPointList();
+        list.addAll(points);
+        assertEquals(POINTS, list.size());
+        check(points, list);
+        List<InterruptibleGeoPoint> geoPoints = list.geoPoints();
+        assertEquals(POINTS, geoPoints.size());
+        for (int i = 0; i < POINTS; i++) {
+            InterruptibleGeoPoint p = geoPoints.get(i);
+            assertEquals(points.get(i).getLat(), p.getLat());
+            assertEquals(points.get(i).getLon(), p.getLon());
+            assertEquals(points.get(i).isNewSegment(), p.isInterrupted());
+        }
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    /**
+     * Check that inserting points in front of existing ones works
+     */
+    @Test
+    public void prepend() {
+        TrackPointList list = new TrackPointList();
+        list.addAll(points.subList(600, POINTS));
+        TrackPointList front = new TrackPointList();
+        front.addAll(points.subList(0, 600));
+        list.addAll(0, front);
+        check(points, list);
+        list.add(0, points.get(0));
+        assertEquals(POINTS + 1, list.size());
+        check(points, list.subList(1, POINTS + 1));
+    }
+
+    /**
+     * Check that inserting points in the middle works, also when the inserted points have altitudes and times that
+     * don't fit in the block
+     */
+    @Test
+    public void insert() {
+        List<TrackPoint> expected = new ArrayList<>(points.subList(0, 250));
+        TrackPointList list = new TrackPointList();
+        list.addAll(expected);
+        assertEquals(0, list.getModificationCount());
+
+        expected.addAll(150, points.subList(600, 700));
+        list.addAll(150, new ArrayList<>(points.subList(600, 700)));
+        check(expected, list);
+
+        TrackPointList other = new TrackPointList();
+        other.addAll(points.subList(250, 350));
+        expected.addAll(20, points.subList(250, 350));
+        list.addAll(20, other);
+        check(expected, list);
+
+        expected.add(333, points.get(999));
+        list.add(333, points.get(999));
+        check(expected, list);
+        assertEquals(3, list.getModificationCount());
+    }
+
+    /**
+     * Check that TrackPoint truncates when converting to WGS84*1E7 and that the stored coordinates are returned
+     * unchanged
+     */
+    @Test
+    public void coordinates() {
+        TrackPoint p = new TrackPoint((byte) 0, 0.12345679, -0.12345679, START);
+        assertEquals(1234567, p.getLat());
+        assertEquals(-1234567, p.getLon());
+        Random random = new Random(1234);
+        for (int i = 0; i < 100000; i++) {
+            int e7 = random.nextInt(1800000000) - 900000000;
+            assertEquals(e7, (int) (TrackPointList.toDegrees(e7) * 1E7));
+        }
+        TrackPointList list = new TrackPointList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new TrackPoint((byte) 0, (i - 500) / 1E7, (1234567 + i) / 1E7, START + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(list.getLat(i), list.get(i).getLat());
+            assertEquals(list.getLon(i), list.get(i).getLon());
+        }
+    }
+
+    /**
+     * Check that written points can be read back and that an incomplete block is detected
+     *
+     * @throws IOException if writing fails
+     */
+    @Test
+    public void readWrite() throws IOException {
+        TrackPointList list = new TrackPointList();
+        list.addAll(points);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        list.write(out, 0, 400);
+        int firstPart = bytes.size();
+        list.write(out, 400, POINTS);
+        out.flush();
+        byte[] data = bytes.toByteArray();
+
+        TrackPointList read = new TrackPointList();
+        assertTrue(read.read(ByteBuffer.wrap(data)));
+        check(points, read);
+
+        // simulate an interrupted write
+        TrackPointList partial = new TrackPointList();
+        assertFalse(partial.read(ByteBuffer.wrap(Arrays.copyOf(data, firstPart + 100))));
+        assertTrue(partial.size() >= 400);
+        check(points.subList(0, partial.size()), partial);
+    }
+
+    /**
+     * Compare TrackPoints
+     *
+     * @param expected the expected TrackPoints
+     * @param actual the actual TrackPoints
+     */
+    private void check(@NonNull List<TrackPoint> expected, @NonNull List<TrackPoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TrackPoint e = expected.get(i);
+            TrackPoint a = actual.get(i);
+            assertEquals(e.getLat(), a.getLat());
+            assertEquals(e.getLon(), a.getLon());
+            assertEquals(e.getTime(), a.getTime());
+            assertEquals(e.isNewSegment(), a.isNewSegment());
+            assertEquals(e.hasAltitude(), a.hasAltitude());
+            if (e.hasAltitude()) {
+                assertEquals(e.getAltitude(), a.getAltitude(), 0.001);
+            }
+        }
+    }
+}
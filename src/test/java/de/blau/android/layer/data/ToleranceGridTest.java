@@ -0,0 +1,61 @@
+package de.blau.android.layer.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ToleranceGridTest {
+
+    /**
+     * Compare the grid with a brute force check for random points, including some off screen
+     */
+    @Test
+    public void compareWithBruteForce() {
+        final int width = 1080;
+        final int height = 1920;
+        final float radius = 40f;
+        Random random = new Random(4711);
+        ToleranceGrid grid = new ToleranceGrid();
+        for (int frame = 0; frame < 3; frame++) {
+            grid.reset(width, height, radius);
+            float[] xs = new float[5000];
+            float[] ys = new float[5000];
+            int placed = 0;
+            for (int i = 0; i < xs.length; i++) {
+                float x = random.nextFloat() * (width + 200) - 100;
+                float y = random.nextFloat() * (height + 200) - 100;
+                boolean free = true;
+                for (int j = 0; j < placed; j++) {
+                    float dx = xs[j] - x;
+                    float dy = ys[j] - y;
+                    if (dx * dx + dy * dy < radius * radius) {
+                        free = false;
+                        break;
+                    }
+                }
+                assertEquals(free, grid.addIfFree(x, y));
+                if (free) {
+                    xs[placed] = x;
+                    ys[placed] = y;
+                    placed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that a tiny radius doesn't create an excessive number of cells
+     */
+    @Test
+    public void smallRadius() {
+        ToleranceGrid grid = new ToleranceGrid();
+        grid.reset(4000, 4000, 0.1f);
+        assertTrue(grid.addIfFree(10f, 10f));
+        assertFalse(grid.addIfFree(10.05f, 10f));
+        assertTrue(grid.addIfFree(10.2f, 10f));
+    }
+}
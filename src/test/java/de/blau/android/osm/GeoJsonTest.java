@@ -9,13 +9,17 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Test;
 
 import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Geometry;
+import com.mapbox.geojson.Point;
 
 import androidx.annotation.NonNull;
 
@@ -321,6 +325,42 @@ public class GeoJsonTest {
         }
     }
 
+    /**
+     * Read GeoJSON incrementally and compare with parsing the whole document
+     */
+    @Test
+    public void streamingTest() {
+        try (InputStream input = getClass().getResourceAsStream("/geojson/featureCollection.geojson")) {
+            String json = inputStreamToString(input);
+            List<Feature> expected = FeatureCollection.fromJson(json).features();
+            List<Feature> features = new ArrayList<>();
+            de.blau.android.util.GeoJson.readFeatures(new StringReader(json), features::add);
+            assertEquals(expected.size(), features.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).geometry(), features.get(i).geometry());
+                assertNotNull(features.get(i).properties());
+            }
+        } catch (Exception ex) {
+            fail(ex.getMessage());
+        }
+        try (InputStream input = getClass().getResourceAsStream("/geojson/pointFeature.geojson")) {
+            List<Feature> features = new ArrayList<>();
+            de.blau.android.util.GeoJson.readFeatures(new InputStreamReader(input, Charset.forName(OsmXml.UTF_8)), features::add);
+            assertEquals(1, features.size());
+            assertEquals("value0", features.get(0).getStringProperty("prop0"));
+        } catch (Exception ex) {
+            fail(ex.getMessage());
+        }
+        try (InputStream input = getClass().getResourceAsStream("/geojson/point.geojson")) {
+            List<Feature> features = new ArrayList<>();
+            de.blau.android.util.GeoJson.readFeatures(new InputStreamReader(input, Charset.forName(OsmXml.UTF_8)), features::add);
+            assertEquals(1, features.size());
+            assertEquals(Point.fromLngLat(30, 10), features.get(0).geometry());
+        } catch (Exception ex) {
+            fail(ex.getMessage());
+        }
+    }
+
     /**
      * Read an InputStream and return contents as a String
      * 
@@ -1,6 +1,7 @@
 package de.blau.android.osm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -47,6 +48,49 @@ public class PbfTest {
         }
     }
 
+    /**
+     * Read a pbf file sequentially and with multiple threads and compare
+     */
+    @Test
+    public void readPbfParallel() {
+        long start = System.currentTimeMillis();
+        Storage sequential = read();
+        System.out.println("Sequential " + (System.currentTimeMillis() - start) + " ms"); // NOSONAR
+        start = System.currentTimeMillis();
+        Storage parallel = new Storage();
+        try (InputStream input = PbfTest.class.getResourceAsStream("/liechtenstein-latest.osm.pbf")) {
+            new OsmPbfParser(parallel).parse(input, 4);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        System.out.println("Parallel " + (System.currentTimeMillis() - start) + " ms"); // NOSONAR
+        assertEquals(sequential.getNodeCount(), parallel.getNodeCount());
+        assertEquals(sequential.getWayCount(), parallel.getWayCount());
+        assertEquals(sequential.getRelationCount(), parallel.getRelationCount());
+        assertEquals(sequential.getBoundingBoxes().size(), parallel.getBoundingBoxes().size());
+        for (Way w : sequential.getWaysView()) {
+            Way other = parallel.getWay(w.getOsmId());
+            assertNotNull(other);
+            assertEquals(w.getTags(), other.getTags());
+            assertEquals(w.nodeCount(), other.nodeCount());
+            for (int i = 0; i < w.nodeCount(); i++) {
+                assertEquals(w.getNodes().get(i).getOsmId(), other.getNodes().get(i).getOsmId());
+            }
+        }
+        for (Relation r : sequential.getRelationsView()) {
+            Relation other = parallel.getRelation(r.getOsmId());
+            assertNotNull(other);
+            assertEquals(r.getTags(), other.getTags());
+            assertEquals(r.getMembers().size(), other.getMembers().size());
+            for (int i = 0; i < r.getMembers().size(); i++) {
+                RelationMember member = r.getMembers().get(i);
+                RelationMember otherMember = other.getMembers().get(i);
+                assertEquals(member.getRef(), otherMember.getRef());
+                assertEquals(member.getElement() == null, otherMember.getElement() == null);
+            }
+        }
+    }
+
     /**
      * Read and parse a pbf from resources
      * 
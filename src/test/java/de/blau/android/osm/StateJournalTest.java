@@ -0,0 +1,179 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.xml.sax.SAXException;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class StateJournalTest {
+
+    private Context context;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteFile(StorageDelegator.FILENAME);
+        context.deleteFile(StateJournal.FILENAME);
+    }
+
+    /**
+     * Save the state, make some changes, save again and check that only the journal was written and that the changes
+     * are restored on load
+     */
+    @Test
+    public void journalRoundTrip() {
+        StorageDelegator d = new StorageDelegator();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            OsmParser parser = new OsmParser();
+            parser.start(input);
+            d.setCurrentStorage(parser.getStorage());
+            d.writeToFile(context);
+            File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+            File journal = context.getFileStreamPath(StateJournal.FILENAME);
+            assertTrue(state.exists());
+            assertTrue(journal.exists());
+            final long stateLength = state.length();
+            final long stateModified = state.lastModified();
+            final long journalLength = journal.length();
+
+            Storage storage = d.getCurrentStorage();
+            Node tagged = storage.getNodesView().get(0);
+            Node moved = storage.getNodesView().get(1);
+            Way removed = storage.getWaysView().get(0);
+            d.getUndo().createCheckpoint("test");
+            Map<String, String> tags = new TreeMap<>();
+            tags.put("journal", "test");
+            d.setTags(tagged, tags);
+            d.moveNode(moved, moved.getLat() + 1000, moved.getLon() - 1000);
+            Node created = d.getFactory().createNodeWithNewId(moved.getLat(), moved.getLon());
+            d.insertElementSafe(created);
+            d.removeWay(removed);
+            d.writeToFile(context);
+
+            // only the journal should have changed
+            assertEquals(stateLength, state.length());
+            assertEquals(stateModified, state.lastModified());
+            assertTrue(journal.length() > journalLength);
+
+            StorageDelegator restored = new StorageDelegator();
+            assertTrue(restored.readFromFile(context));
+            Storage restoredStorage = restored.getCurrentStorage();
+            assertEquals(storage.getNodeCount(), restoredStorage.getNodeCount());
+            assertEquals(storage.getWayCount(), restoredStorage.getWayCount());
+            assertEquals(d.getApiElementCount(), restored.getApiElementCount());
+            Node restoredTagged = restoredStorage.getNode(tagged.getOsmId());
+            assertEquals("test", restoredTagged.getTagWithKey("journal"));
+            assertEquals(OsmElement.STATE_MODIFIED, restoredTagged.getState());
+            Node restoredMoved = restoredStorage.getNode(moved.getOsmId());
+            assertEquals(moved.getLat(), restoredMoved.getLat());
+            assertEquals(moved.getLon(), restoredMoved.getLon());
+            Node restoredCreated = restoredStorage.getNode(created.getOsmId());
+            assertNotNull(restoredCreated);
+            assertEquals(OsmElement.STATE_CREATED, restoredCreated.getState());
+            assertNull(restoredStorage.getWay(removed.getOsmId()));
+            Way restoredRemoved = restored.getApiStorage().getWay(removed.getOsmId());
+            assertNotNull(restoredRemoved);
+            assertEquals(OsmElement.STATE_DELETED, restoredRemoved.getState());
+            // new ids must not clash with the replayed ones
+            assertTrue(restored.getFactory().createNodeWithNewId(0, 0).getOsmId() < created.getOsmId());
+
+            // the replayed changes can be undone
+            assertTrue(restored.getUndo().canUndo());
+            assertFalse(restored.getUndo().canRedo());
+            restored.getUndo().undo();
+            assertNull(restoredTagged.getTagWithKey("journal"));
+            assertEquals(OsmElement.STATE_UNCHANGED, restoredTagged.getState());
+            assertNull(restoredStorage.getNode(created.getOsmId()));
+            assertNotNull(restoredStorage.getWay(removed.getOsmId()));
+            assertEquals(0, restored.getApiElementCount());
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that a journal that doesn't belong to the state file is ignored
+     */
+    @Test
+    public void staleJournal() {
+        StorageDelegator d = new StorageDelegator();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            OsmParser parser = new OsmParser();
+            parser.start(input);
+            d.setCurrentStorage(parser.getStorage());
+            d.writeToFile(context);
+            Node node = d.getCurrentStorage().getNodesView().get(0);
+            d.getUndo().createCheckpoint("test");
+            Map<String, String> tags = new TreeMap<>();
+            tags.put("journal", "test");
+            d.setTags(node, tags);
+            d.writeToFile(context);
+            // simulate a state file written without the journal being reset
+            File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+            assertTrue(state.setLastModified(state.lastModified() - 10000));
+
+            StorageDelegator restored = new StorageDelegator();
+            assertTrue(restored.readFromFile(context));
+            assertNull(restored.getCurrentStorage().getNode(node.getOsmId()).getTagWithKey("journal"));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that changes that have not been recorded in the undo storage cause a full save
+     */
+    @Test
+    public void unrecordedChange() {
+        StorageDelegator d = new StorageDelegator();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            OsmParser parser = new OsmParser();
+            parser.start(input);
+            d.setCurrentStorage(parser.getStorage());
+            d.writeToFile(context);
+            File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+            final long stateModified = state.lastModified();
+            assertTrue(state.setLastModified(stateModified - 10000));
+
+            // change without saving in undo
+            Node node = d.getCurrentStorage().getNodesView().get(0);
+            Map<String, String> tags = new TreeMap<>();
+            tags.put("journal", "test");
+            node.setTags(tags);
+            d.dirty();
+            d.writeToFile(context);
+            assertTrue(state.lastModified() > stateModified - 10000);
+
+            StorageDelegator restored = new StorageDelegator();
+            assertTrue(restored.readFromFile(context));
+            assertEquals("test", restored.getCurrentStorage().getNode(node.getOsmId()).getTagWithKey("journal"));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+}
@@ -20,12 +20,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.App;
 import de.blau.android.Logic;
 import de.blau.android.exception.OsmException;
 import de.blau.android.exception.OsmIllegalOperationException;
+import de.blau.android.filter.TagFilter;
+import de.blau.android.filter.TagFilterDatabaseHelper;
 import de.blau.android.prefs.Preferences;
 import de.blau.android.util.Coordinates;
 import de.blau.android.util.Geometry;
@@ -248,6 +253,126 @@ public class StorageDelegatorTest {
         assertEquals(wayCount + 1L, d.getCurrentStorage().getWayCount());
     }
 
+    /**
+     * Merge newer versions of existing elements and check that references to them are updated, then check that a
+     * conflicting merge leaves the data unchanged
+     */
+    @Test
+    public void mergeDataReplace() {
+        Storage s = new Storage();
+        Node n1 = OsmElementFactory.createNode(1L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.0), toE7(8.0));
+        Node n2 = OsmElementFactory.createNode(2L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.001), toE7(8.001));
+        Way w10 = OsmElementFactory.createWay(10L, 1L, -1L, OsmElement.STATE_UNCHANGED);
+        w10.addNode(n1);
+        w10.addNode(n2);
+        Relation r20 = OsmElementFactory.createRelation(20L, 1L, -1L, OsmElement.STATE_UNCHANGED);
+        r20.addMember(new RelationMember("", w10));
+        w10.addParentRelation(r20);
+        r20.addMember(new RelationMember(Node.NAME, 3L, ""));
+        s.insertNodeUnsafe(n1);
+        s.insertNodeUnsafe(n2);
+        s.insertWayUnsafe(w10);
+        s.insertRelationUnsafe(r20);
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(s);
+        assertEquals(1, d.getCurrentStorage().getWays(n1).size());
+
+        Storage download = new Storage();
+        Node newN1 = OsmElementFactory.createNode(1L, 2L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.0005), toE7(8.0));
+        Node n2Copy = OsmElementFactory.createNode(2L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.001), toE7(8.001));
+        Node n3 = OsmElementFactory.createNode(3L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.002), toE7(8.002));
+        Way w11 = OsmElementFactory.createWay(11L, 1L, -1L, OsmElement.STATE_UNCHANGED);
+        w11.addNode(n2Copy);
+        w11.addNode(n3);
+        download.insertNodeUnsafe(newN1);
+        download.insertNodeUnsafe(n2Copy);
+        download.insertNodeUnsafe(n3);
+        download.insertWayUnsafe(w11);
+
+        assertTrue(d.mergeData(download, null));
+        assertEquals(newN1, d.getOsmElement(Node.NAME, 1L));
+        assertEquals(n2, d.getOsmElement(Node.NAME, 2L));
+        assertEquals(newN1, w10.getFirstNode()); // existing way references the new version
+        assertEquals(n2, w11.getFirstNode()); // new way references the existing node
+        assertTrue(d.getCurrentStorage().getWays(newN1).contains(w10));
+        assertEquals(2, d.getCurrentStorage().getWays(n2).size());
+        RelationMember member = r20.getMember(Node.NAME, 3L);
+        assertNotNull(member);
+        assertEquals(n3, member.getElement()); // previously missing member is now linked
+        assertTrue(n3.hasParentRelation(r20));
+        assertEquals(1, w10.getParentRelations().size());
+
+        // modify n2 and try to merge a newer version
+        d.getUndo().createCheckpoint("merge");
+        SortedMap<String, String> tags = new TreeMap<>();
+        tags.put("test", "merge");
+        d.setTags(n2, tags);
+        Storage conflict = new Storage();
+        Node newN2 = OsmElementFactory.createNode(2L, 2L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.0015), toE7(8.001));
+        Node n4 = OsmElementFactory.createNode(4L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.003), toE7(8.003));
+        conflict.insertNodeUnsafe(n4);
+        conflict.insertNodeUnsafe(newN2);
+        assertFalse(d.mergeData(conflict, null));
+        assertEquals(n2, d.getOsmElement(Node.NAME, 2L));
+        assertNull(d.getOsmElement(Node.NAME, 4L));
+        assertEquals(n2, w10.getLastNode());
+    }
+
+    /**
+     * Merge a newer version of a way and check that the filter doesn't use the cached value for the replaced version
+     */
+    @Test
+    public void mergeDataFilter() {
+        Context context = ApplicationProvider.getApplicationContext();
+        App.newLogic();
+        Logic logic = App.getLogic();
+        try (TagFilterDatabaseHelper helper = new TagFilterDatabaseHelper(context); SQLiteDatabase db = helper.getWritableDatabase()) {
+            ContentValues values = new ContentValues();
+            values.put("filter", TagFilter.DEFAULT_FILTER);
+            values.put("active", 1);
+            values.put("include", 1);
+            values.put("type", Way.NAME);
+            values.put("key", Tags.KEY_BUILDING);
+            db.insert("filterentries", null, values);
+            TagFilter filter = new TagFilter(context);
+            logic.setFilter(filter);
+
+            Storage s = new Storage();
+            Node n1 = OsmElementFactory.createNode(1L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.0), toE7(8.0));
+            Node n2 = OsmElementFactory.createNode(2L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.001), toE7(8.001));
+            Way w10 = OsmElementFactory.createWay(10L, 1L, -1L, OsmElement.STATE_UNCHANGED);
+            w10.addNode(n1);
+            w10.addNode(n2);
+            Map<String, String> tags = new HashMap<>();
+            tags.put(Tags.KEY_BUILDING, Tags.VALUE_YES);
+            w10.setTags(tags);
+            s.insertNodeUnsafe(n1);
+            s.insertNodeUnsafe(n2);
+            s.insertWayUnsafe(w10);
+            StorageDelegator d = new StorageDelegator();
+            d.setCurrentStorage(s);
+            assertTrue(filter.include(w10, false));
+
+            Storage download = new Storage();
+            Node n1Copy = OsmElementFactory.createNode(1L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.0), toE7(8.0));
+            Node n2Copy = OsmElementFactory.createNode(2L, 1L, -1L, OsmElement.STATE_UNCHANGED, toE7(47.001), toE7(8.001));
+            Way newW10 = OsmElementFactory.createWay(10L, 2L, -1L, OsmElement.STATE_UNCHANGED);
+            newW10.addNode(n1Copy);
+            newW10.addNode(n2Copy);
+            download.insertNodeUnsafe(n1Copy);
+            download.insertNodeUnsafe(n2Copy);
+            download.insertWayUnsafe(newW10);
+            assertTrue(d.mergeData(download, null));
+            assertEquals(newW10, d.getOsmElement(Way.NAME, 10L));
+            assertFalse(filter.include(newW10, false));
+            assertTrue(filter.getVisibleWays().isEmpty());
+
+            db.delete("filterentries", null, null);
+        } finally {
+            logic.setFilter(null);
+        }
+    }
+
     /**
      * Split way then merge in various ways
      */
@@ -0,0 +1,250 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.xml.sax.SAXException;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.util.SavingHelper;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class StorageSnapshotTest {
+
+    private Context context;
+
+    /**
+     * Pre test setup
+     */
+    @Before
+    public void setup() {
+        context = ApplicationProvider.getApplicationContext();
+        for (String name : new String[] { StorageDelegator.FILENAME, StorageDelegator.FILENAME + StorageSnapshot.EXTENSION,
+                StorageDelegator.FILENAME + ".backup" + StorageSnapshot.EXTENSION, StateJournal.FILENAME }) {
+            context.deleteFile(name);
+        }
+    }
+
+    /**
+     * Save state with a snapshot, read it back and check that the object graph is consistent
+     */
+    @Test
+    public void roundTrip() {
+        StorageDelegator d = new StorageDelegator();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            OsmParser parser = new OsmParser();
+            parser.start(input);
+            d.setCurrentStorage(parser.getStorage());
+            Storage storage = d.getCurrentStorage();
+            Way modified = storage.getWaysView().get(0);
+            d.getUndo().createCheckpoint("test");
+            Map<String, String> tags = new TreeMap<>(modified.getTags());
+            tags.put("snapshot", "test");
+            d.setTags(modified, tags);
+            d.writeToFile(context);
+            assertTrue(context.getFileStreamPath(StorageDelegator.FILENAME + StorageSnapshot.EXTENSION).exists());
+
+            StorageDelegator restored = new StorageDelegator();
+            assertTrue(restored.readFromFile(context));
+            Storage restoredStorage = restored.getCurrentStorage();
+            assertEquals(storage.getNodeCount(), restoredStorage.getNodeCount());
+            assertEquals(storage.getWayCount(), restoredStorage.getWayCount());
+            assertEquals(storage.getRelationCount(), restoredStorage.getRelationCount());
+            for (Node n : storage.getNodesView()) {
+                Node rn = restoredStorage.getNode(n.getOsmId());
+                assertNotNull(rn);
+                assertEquals(n.getLat(), rn.getLat());
+                assertEquals(n.getLon(), rn.getLon());
+                assertEquals(n.getTags(), rn.getTags());
+                assertEquals(n.getOsmVersion(), rn.getOsmVersion());
+                assertEquals(n.getTimestamp(), rn.getTimestamp());
+            }
+            for (Way w : storage.getWaysView()) {
+                Way rw = restoredStorage.getWay(w.getOsmId());
+                assertEquals(w.getTags(), rw.getTags());
+                assertEquals(w.getState(), rw.getState());
+                List<Node> nodes = rw.getNodes();
+                assertEquals(w.getNodes().size(), nodes.size());
+                for (int i = 0; i < nodes.size(); i++) {
+                    assertSame(restoredStorage.getNode(w.getNodes().get(i).getOsmId()), nodes.get(i));
+                }
+            }
+            for (Relation r : storage.getRelationsView()) {
+                Relation rr = restoredStorage.getRelation(r.getOsmId());
+                assertEquals(r.getTags(), rr.getTags());
+                assertEquals(r.getMembers().size(), rr.getMembers().size());
+                for (RelationMember rm : rr.getMembers()) {
+                    OsmElement e = rm.getElement();
+                    if (e != null) {
+                        assertSame(restoredStorage.getOsmElement(rm.getType(), rm.getRef()), e);
+                        assertTrue(e.hasParentRelation(rr));
+                    }
+                }
+            }
+            Way restoredModified = restoredStorage.getWay(modified.getOsmId());
+            assertEquals("test", restoredModified.getTagWithKey("snapshot"));
+            assertSame(restoredModified, restored.getApiStorage().getWay(modified.getOsmId()));
+            assertTrue(restored.getUndo().canUndo());
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that a full save reuses the existing snapshot and that changes and removals are retained
+     */
+    @Test
+    public void reuse() {
+        StorageDelegator d = new StorageDelegator();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            OsmParser parser = new OsmParser();
+            parser.start(input);
+            d.setCurrentStorage(parser.getStorage());
+            d.writeToFile(context);
+            File base = context.getFileStreamPath(StorageDelegator.FILENAME + StorageSnapshot.EXTENSION);
+            assertTrue(base.exists());
+            assertTrue(base.setLastModified(base.lastModified() - 10000));
+            final long baseModified = base.lastModified();
+
+            StorageDelegator restored = new StorageDelegator();
+            assertTrue(restored.readFromFile(context));
+            Storage storage = restored.getCurrentStorage();
+            Node tagged = storage.getNodesView().get(0);
+            Way removed = null;
+            for (Way w : storage.getWaysView()) {
+                if (!w.hasParentRelations()) {
+                    removed = w;
+                    break;
+                }
+            }
+            assertNotNull(removed);
+            restored.getUndo().createCheckpoint("test");
+            Map<String, String> tags = new TreeMap<>();
+            tags.put("snapshot", "test");
+            restored.setTags(tagged, tags);
+            storage.removeWay(removed); // not recorded in the journal
+            restored.dirty();
+            restored.writeToFile(context);
+            assertEquals(baseModified, base.lastModified());
+            assertFalse(context.getFileStreamPath(StorageDelegator.FILENAME + ".backup" + StorageSnapshot.EXTENSION).exists());
+
+            StorageDelegator reloaded = new StorageDelegator();
+            assertTrue(reloaded.readFromFile(context));
+            Storage reloadedStorage = reloaded.getCurrentStorage();
+            assertEquals(storage.getNodeCount(), reloadedStorage.getNodeCount());
+            assertEquals(storage.getWayCount(), reloadedStorage.getWayCount());
+            assertNull(reloadedStorage.getWay(removed.getOsmId()));
+            assertEquals("test", reloadedStorage.getNode(tagged.getOsmId()).getTagWithKey("snapshot"));
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Compare loading the state with and without snapshot for a large synthetic data set, the timings are only logged
+     */
+    @Test
+    public void startupBenchmark() {
+        StorageDelegator d = new StorageDelegator();
+        d.setCurrentStorage(createStorage(1000000, 10));
+        final String plainName = "plain.res";
+        long start = System.currentTimeMillis();
+        assertTrue(new SavingHelper<StorageDelegator>().save(context, plainName, d, true));
+        System.out.println("Full serialization " + (System.currentTimeMillis() - start) + " ms " + context.getFileStreamPath(plainName).length() + " bytes"); // NOSONAR
+        start = System.currentTimeMillis();
+        try {
+            d.writeToFile(context);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        File state = context.getFileStreamPath(StorageDelegator.FILENAME);
+        File base = context.getFileStreamPath(StorageDelegator.FILENAME + StorageSnapshot.EXTENSION);
+        System.out.println("Snapshot " + (System.currentTimeMillis() - start) + " ms " + state.length() + " + " + base.length() + " bytes"); // NOSONAR
+
+        start = System.currentTimeMillis();
+        StorageDelegator plain = new StorageDelegator();
+        assertTrue(plain.readFromFile(context, plainName));
+        long plainTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        StorageDelegator restored = new StorageDelegator();
+        assertTrue(restored.readFromFile(context));
+        long snapshotTime = System.currentTimeMillis() - start;
+        // what the first frame needs, answered from the snapshot without adding it to the Storage
+        start = System.currentTimeMillis();
+        Storage restoredStorage = restored.getCurrentStorage();
+        BoundingBox box = new BoundingBox(90001000, 470001000, 90002000, 470002000);
+        List<Node> boxNodes = restoredStorage.getNodes(box);
+        List<Way> boxWays = restoredStorage.getWays(box);
+        long firstFrameTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        final int nodeCount = restoredStorage.getNodesView().size();
+        long materializeTime = System.currentTimeMillis() - start;
+        System.out.println("Load full " + plainTime + " ms with snapshot " + snapshotTime + " ms, first frame " + firstFrameTime // NOSONAR
+                + " ms, materializing " + materializeTime + " ms");
+
+        Storage plainStorage = plain.getCurrentStorage();
+        assertEquals(plainStorage.getNodes(box).size(), boxNodes.size());
+        assertEquals(plainStorage.getWays(box).size(), boxWays.size());
+        for (Node n : boxNodes) {
+            assertSame(n, restoredStorage.getNode(n.getOsmId()));
+        }
+        for (Way w : boxWays) {
+            assertSame(w, restoredStorage.getWay(w.getOsmId()));
+        }
+        assertEquals(plainStorage.getNodeCount(), nodeCount);
+        assertEquals(plainStorage.getWayCount(), restoredStorage.getWayCount());
+        context.deleteFile(plainName);
+    }
+
+    /**
+     * Create a grid of unchanged ways
+     *
+     * @param nodeCount the number of Nodes
+     * @param nodesPerWay the number of Nodes per Way
+     * @return a Storage
+     */
+    @NonNull
+    private static Storage createStorage(int nodeCount, int nodesPerWay) {
+        Storage storage = new Storage();
+        Way way = null;
+        for (int i = 1; i <= nodeCount; i++) {
+            Node n = OsmElementFactory.createNode(i, 1, 1600000000L + i, OsmElement.STATE_UNCHANGED, 470000000 + i, 90000000 + i);
+            storage.insertNodeUnsafe(n);
+            if (way == null) {
+                way = OsmElementFactory.createWay(i, 1, 1600000000L, OsmElement.STATE_UNCHANGED);
+                TreeMap<String, String> tags = new TreeMap<>();
+                tags.put(Tags.KEY_HIGHWAY, "residential");
+                way.tags = tags;
+            }
+            way.addNode(n);
+            if (way.nodeCount() == nodesPerWay) {
+                storage.insertWayUnsafe(way);
+                way = null;
+            }
+        }
+        return storage;
+    }
+}
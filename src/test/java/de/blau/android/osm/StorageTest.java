@@ -1,12 +1,20 @@
 package de.blau.android.osm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -14,6 +22,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.test.filters.LargeTest;
 import de.blau.android.exception.OsmException;
 
@@ -154,4 +164,257 @@ public class StorageTest {
         assertNotNull(changed);
         assertEquals(node, changed);
     }
+
+    /**
+     * Check that the spatial index returns the same results as a sequential scan, also after changes
+     */
+    @Test
+    public void spatialIndex() {
+        Random random = new Random(4711);
+        BoundingBox data = storage.getLastBox();
+        for (int i = 0; i < 20; i++) {
+            int width = random.nextInt(data.getHeight() / 4);
+            int left = data.getLeft() + random.nextInt((int) data.getWidth() - width);
+            int bottom = data.getBottom() + random.nextInt(data.getHeight() - width);
+            checkSpatialIndex(new BoundingBox(left, bottom, left + width, bottom + width));
+        }
+        checkSpatialIndex(ViewBox.getMaxMercatorExtent());
+
+        // move a node
+        Node node = storage.getNode(300852915L);
+        List<Way> ways = storage.getWays(node);
+        BoundingBox target = new BoundingBox(data.getLeft() + 1000, data.getBottom() + 1000, data.getLeft() + 2000, data.getBottom() + 2000);
+        assertFalse(storage.getNodes(target).contains(node));
+        node.setLon(data.getLeft() + 1500);
+        node.setLat(data.getBottom() + 1500);
+        storage.invalidateIndices(node);
+        for (Way w : ways) {
+            w.invalidateBoundingBox();
+            storage.invalidateIndices(w);
+        }
+        assertTrue(storage.getNodes(target).contains(node));
+        assertTrue(storage.getWays(target).containsAll(ways));
+        checkSpatialIndex(target);
+
+        // move a node to an empty cell without invalidating, the stale entry is found and re-filed by the query
+        Node moved = storage.getNode(300852915L);
+        moved.setLon(data.getRight() + 10000000);
+        moved.setLat(data.getTop() + 10000000);
+        assertTrue(storage.getNodes(ViewBox.getMaxMercatorExtent()).contains(moved));
+        checkSpatialIndex(ViewBox.getMaxMercatorExtent());
+        moved.setLon(data.getLeft() + 1500);
+        moved.setLat(data.getBottom() + 1500);
+        assertTrue(storage.getNodes(ViewBox.getMaxMercatorExtent()).contains(moved));
+
+        // remove a way
+        Way way = ways.get(0);
+        storage.removeWay(way);
+        assertFalse(storage.getWays(target).contains(way));
+        checkSpatialIndex(target);
+    }
+
+    /**
+     * Check that the node to ways index returns the same results as a sequential scan, also after changes
+     */
+    @Test
+    public void nodeWaysIndex() {
+        Node node = storage.getNode(300852915L);
+        List<Way> ways = storage.getWays(node);
+        assertEquals(2, ways.size());
+        checkNodeWaysIndex(node);
+
+        // replace the node in one way
+        Way way = ways.get(0);
+        Node replacement = OsmElementFactory.createNode(-1L, 1, -1L, OsmElement.STATE_CREATED, node.getLat(), node.getLon());
+        storage.insertNodeUnsafe(replacement);
+        way.replaceNode(node, replacement);
+        storage.invalidateIndices(way);
+        assertEquals(1, storage.getWays(node).size());
+        assertEquals(1, storage.getWays(replacement).size());
+        assertTrue(storage.getWays(replacement).contains(way));
+        checkNodeWaysIndex(node);
+
+        // remove the other way
+        Way other = ways.get(1);
+        storage.removeWay(other);
+        assertTrue(storage.getWays(node).isEmpty());
+        assertFalse(storage.isEndNode(node));
+
+        // compare all nodes of some ways
+        int count = 0;
+        for (Way w : storage.getWays()) {
+            for (Node n : w.getNodes()) {
+                checkNodeWaysIndex(n);
+            }
+            if (count++ > 100) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Compare the result of getWays(Node) with a sequential scan
+     * 
+     * @param node the Node to query
+     */
+    private void checkNodeWaysIndex(@NonNull Node node) {
+        List<Way> ways = new ArrayList<>();
+        boolean endNode = false;
+        for (Way w : storage.getWays()) {
+            if (w.hasNode(node)) {
+                ways.add(w);
+                endNode = endNode || w.isEndNode(node);
+            }
+        }
+        List<Way> indexedWays = storage.getWays(node);
+        assertEquals(ways.size(), indexedWays.size());
+        assertEquals(new HashSet<>(ways), new HashSet<>(indexedWays));
+        assertEquals(endNode, storage.isEndNode(node));
+    }
+
+    /**
+     * Check that the tag index returns all elements with a tag, also after changes
+     */
+    @Test
+    public void tagIndex() {
+        checkTagIndex(Tags.KEY_HIGHWAY, "residential");
+        checkTagIndex(Tags.KEY_BUILDING, null);
+        checkTagIndex(Tags.KEY_NAME, "Vaduz");
+        assertEquals(0, storage.countElementsWithTag("does_not_exist", null));
+
+        // tag a node
+        Node node = storage.getNode(300852915L);
+        assertNotNull(node);
+        Map<String, String> tags = new TreeMap<>(node.getTags());
+        tags.put(Tags.KEY_HIGHWAY, "residential");
+        node.setTags(tags);
+        storage.invalidateIndices(node);
+        assertTrue(storage.getElementsWithTag(Tags.KEY_HIGHWAY, "Residential", new ArrayList<>()).contains(node));
+        checkTagIndex(Tags.KEY_HIGHWAY, "residential");
+
+        // remove a way
+        Way way = null;
+        for (Way w : storage.getWays()) {
+            if (w.hasTags()) {
+                way = w;
+                break;
+            }
+        }
+        assertNotNull(way);
+        String key = way.getTags().firstKey();
+        storage.removeWay(way);
+        assertFalse(storage.getElementsWithTag(key, null, new ArrayList<>()).contains(way));
+        checkTagIndex(key, null);
+    }
+
+    /**
+     * Compare the elements with a tag with a sequential scan
+     * 
+     * @param key the tag key
+     * @param value the tag value or null
+     */
+    private void checkTagIndex(@NonNull String key, @Nullable String value) {
+        Set<OsmElement> elements = new HashSet<>();
+        for (OsmElement e : storage.getElements()) {
+            String v = e.getTagWithKey(key);
+            if (v != null && (value == null || value.equals(v))) {
+                elements.add(e);
+            }
+        }
+        List<OsmElement> indexed = storage.getElementsWithTag(key, value, new ArrayList<>());
+        assertTrue(indexed.containsAll(elements));
+        assertEquals(indexed.size(), new HashSet<>(indexed).size());
+        assertTrue(indexed.size() <= storage.countElementsWithTag(key, value));
+    }
+
+    /**
+     * Check that the undownloaded member index returns the same results as a sequential scan, also after changes
+     */
+    @Test
+    public void undownloadedMemberIndex() {
+        assertTrue(checkMemberIndex() > 0);
+
+        // make a downloaded member undownloaded
+        Relation relation = null;
+        RelationMember member = null;
+        for (Relation r : storage.getRelations()) {
+            for (RelationMember rm : r.getMembers()) {
+                if (rm.downloaded()) {
+                    relation = r;
+                    member = rm;
+                    break;
+                }
+            }
+            if (member != null) {
+                break;
+            }
+        }
+        assertNotNull(member);
+        member.setElement(null);
+        storage.invalidateIndices(relation);
+        List<Relation> indexed = new ArrayList<>();
+        storage.getRelationsWithUndownloadedMember(member.getType(), member.getRef(), indexed);
+        assertTrue(indexed.contains(relation));
+        checkMemberIndex();
+
+        // download it again and remove the relation
+        member.setElement(storage.getOsmElement(member.getType(), member.getRef()));
+        indexed.clear();
+        storage.getRelationsWithUndownloadedMember(member.getType(), member.getRef(), indexed);
+        assertFalse(indexed.contains(relation));
+        storage.removeElement(relation);
+        checkMemberIndex();
+    }
+
+    /**
+     * Compare the Relations with undownloaded members with a sequential scan
+     * 
+     * @return the number of distinct undownloaded members
+     */
+    private int checkMemberIndex() {
+        Map<String, Set<Relation>> expected = new HashMap<>();
+        for (Relation r : storage.getRelations()) {
+            for (RelationMember rm : r.getMembers()) {
+                if (!rm.downloaded()) {
+                    expected.computeIfAbsent(rm.getType() + rm.getRef(), k -> new HashSet<>()).add(r);
+                }
+            }
+        }
+        for (Relation r : storage.getRelations()) {
+            for (RelationMember rm : r.getMembers()) {
+                List<Relation> indexed = new ArrayList<>();
+                storage.getRelationsWithUndownloadedMember(rm.getType(), rm.getRef(), indexed);
+                Set<Relation> relations = expected.get(rm.getType() + rm.getRef());
+                assertEquals(relations != null ? relations : new HashSet<>(), new HashSet<>(indexed));
+                assertEquals(indexed.size(), new HashSet<>(indexed).size());
+            }
+        }
+        return expected.size();
+    }
+
+    /**
+     * Compare the results of the indexed queries with a sequential scan
+     * 
+     * @param box the BoundingBox to query
+     */
+    private void checkSpatialIndex(@NonNull BoundingBox box) {
+        List<Node> nodes = new ArrayList<>();
+        for (Node n : storage.getNodes()) {
+            if (box.isIn(n.getLon(), n.getLat())) {
+                nodes.add(n);
+            }
+        }
+        List<Node> indexedNodes = storage.getNodes(box);
+        assertEquals(nodes.size(), indexedNodes.size());
+        assertEquals(new HashSet<>(nodes), new HashSet<>(indexedNodes));
+        List<Way> ways = new ArrayList<>();
+        for (Way w : storage.getWays()) {
+            if (w.getBounds().intersects(box)) {
+                ways.add(w);
+            }
+        }
+        List<Way> indexedWays = storage.getWays(box);
+        assertEquals(ways.size(), indexedWays.size());
+        assertEquals(new HashSet<>(ways), new HashSet<>(indexedWays));
+    }
 }
@@ -0,0 +1,164 @@
+package de.blau.android.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import de.blau.android.util.SavingHelper;
+
+@RunWith(RobolectricTestRunner.class)
+public class TagSetTest {
+
+    /**
+     * Check that TagSet behaves like a TreeMap with the same contents
+     */
+    @Test
+    public void mapContract() {
+        Map<String, String> source = new HashMap<>();
+        source.put("name", "Test");
+        source.put("highway", "residential");
+        source.put("oneway", "yes");
+        source.put("access", "private");
+        TreeMap<String, String> expected = new TreeMap<>(source);
+        TagSet tags = TagSet.of(source);
+        assertEquals(expected, tags);
+        assertEquals(tags, expected);
+        assertEquals(expected.hashCode(), tags.hashCode());
+        assertEquals(expected.toString(), tags.toString());
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(tags.keySet()));
+        assertEquals("residential", tags.get("highway"));
+        assertNull(tags.get("building"));
+        assertTrue(tags.containsKey("oneway"));
+        assertFalse(tags.containsKey("bridge"));
+        assertEquals("access", tags.firstKey());
+        assertEquals("oneway", tags.lastKey());
+        assertEquals(expected.subMap("b", "o"), tags.subMap("b", "o"));
+        assertEquals(expected.headMap("name"), tags.headMap("name"));
+        assertEquals(expected.tailMap("name"), tags.tailMap("name"));
+        assertTrue(TagSet.of(new HashMap<>()).isEmpty());
+    }
+
+    /**
+     * Check that identical tags share one instance and that duplicate keys are handled like put
+     */
+    @Test
+    public void sharing() {
+        Map<String, String> m1 = new TreeMap<>();
+        m1.put(Tags.KEY_BUILDING, Tags.VALUE_YES);
+        Map<String, String> m2 = new HashMap<>();
+        m2.put(new String(Tags.KEY_BUILDING), new String(Tags.VALUE_YES)); // NOSONAR
+        assertSame(TagSet.of(m1), TagSet.of(m2));
+        TagSet fromArray = TagSet.of(new String[] { Tags.KEY_NAME, "a", Tags.KEY_BUILDING, Tags.VALUE_YES, Tags.KEY_NAME, "b" }, 6);
+        assertEquals(2, fromArray.size());
+        assertEquals("b", fromArray.get(Tags.KEY_NAME));
+
+        Node n1 = OsmElementFactory.createNode(1, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        Node n2 = OsmElementFactory.createNode(2, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        n1.setTags(m1);
+        n2.setTags(m2);
+        assertSame(n1.getTags(), n2.getTags());
+        Map<String, String> m3 = new TreeMap<>(m1);
+        m3.put(Tags.KEY_NAME, "test");
+        n2.addTags(m3);
+        assertEquals(m3, n2.getTags());
+        assertEquals(1, n1.getTags().size());
+    }
+
+    /**
+     * Report the heap used by tags for a country extract compared to per element TreeMaps
+     */
+    @Test
+    public void heapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        long baseline = usedHeap(runtime);
+        Storage storage = PbfTest.read();
+        long shared = usedHeap(runtime) - baseline;
+        List<OsmElement> elements = storage.getElements();
+        int tagged = 0;
+        for (OsmElement e : elements) {
+            if (e.hasTags()) {
+                tagged++;
+                e.tags = new TreeMap<>(e.tags);
+            }
+        }
+        long copied = usedHeap(runtime) - baseline;
+        System.out.println(tagged + " tagged elements, " + TagSet.poolSize() + " distinct tag sets"); // NOSONAR
+        System.out.println("Heap with shared tags " + (shared / 1024) + " kB, with TreeMaps " + (copied / 1024) + " kB"); // NOSONAR
+        assertTrue(TagSet.poolSize() < tagged);
+        assertTrue(shared < copied);
+        for (OsmElement e : elements) {
+            SortedMap<String, String> tags = e.getTags();
+            e.tags = null;
+            e.setTags(tags);
+            assertTrue(e.tags instanceof TagSet);
+        }
+    }
+
+    /**
+     * Check that a state written before TagSet was introduced, with the tags of each element in a TreeMap, can still be
+     * read
+     */
+    @Test
+    public void legacyState() {
+        final String legacyName = "legacy.res";
+        Context context = ApplicationProvider.getApplicationContext();
+        StorageDelegator d = new StorageDelegator();
+        Storage storage = new Storage();
+        TreeMap<String, String> tags = new TreeMap<>();
+        tags.put(Tags.KEY_BUILDING, Tags.VALUE_YES);
+        tags.put(Tags.KEY_NAME, "legacy");
+        Node node = OsmElementFactory.createNode(1, 1, 0, OsmElement.STATE_UNCHANGED, 0, 0);
+        node.tags = tags;
+        storage.insertNodeUnsafe(node);
+        Way way = OsmElementFactory.createWay(1, 1, 0, OsmElement.STATE_UNCHANGED);
+        way.tags = new TreeMap<>(tags);
+        way.addNode(node);
+        storage.insertWayUnsafe(way);
+        d.setCurrentStorage(storage);
+        assertTrue(new SavingHelper<StorageDelegator>().save(context, legacyName, d, true));
+
+        StorageDelegator restored = new StorageDelegator();
+        assertTrue(restored.readFromFile(context, legacyName));
+        Node restoredNode = restored.getCurrentStorage().getNode(1);
+        assertTrue(restoredNode.tags instanceof TreeMap);
+        assertEquals(tags, restoredNode.getTags());
+        Way restoredWay = restored.getCurrentStorage().getWay(1);
+        assertEquals(tags, restoredWay.getTags());
+        assertSame(restoredNode, restoredWay.getFirstNode());
+        // changing the tags converts them
+        Map<String, String> changed = new TreeMap<>(tags);
+        changed.put(Tags.KEY_NAME, "current");
+        restoredNode.setTags(changed);
+        assertTrue(restoredNode.tags instanceof TagSet);
+        assertEquals(changed, restoredNode.getTags());
+        context.deleteFile(legacyName);
+    }
+
+    /**
+     * Get the used heap after garbage collection
+     *
+     * @param runtime the current Runtime
+     * @return the used heap in bytes
+     */
+    private static long usedHeap(Runtime runtime) {
+        for (int i = 0; i < 3; i++) {
+            System.gc(); // NOSONAR
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
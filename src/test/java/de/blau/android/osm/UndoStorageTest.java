@@ -6,6 +6,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Before;
@@ -17,6 +18,7 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.App;
 import de.blau.android.osm.UndoStorage.UndoElement;
+import de.blau.android.osm.UndoStorage.UndoNode;
 import de.blau.android.osm.UndoStorage.UndoRelation;
 import de.blau.android.osm.UndoStorage.UndoWay;
 import de.blau.android.util.Util;
@@ -123,4 +125,98 @@ public class UndoStorageTest {
         assertEquals(2, w.getParentRelations().size());
         assertTrue(w.getParentRelations().contains(r));
     }
+
+    /**
+     * Move a node - undo - redo and check that bounding box queries follow
+     */
+    @Test
+    public void movedNode() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Way w = addWayToStorage(d, false);
+        Node n = w.getNodes().get(0);
+        Storage current = d.getCurrentStorage();
+        BoundingBox original = new BoundingBox(n.getLon(), n.getLat());
+        BoundingBox target = new BoundingBox(10.0, 10.0, 10.001, 10.001);
+        assertTrue(current.getNodes(original).contains(n));
+        assertTrue(current.getWays(original).contains(w));
+        assertFalse(current.getWays(target).contains(w));
+        undo.createCheckpoint("move node");
+        d.moveNode(n, 100005000, 100005000);
+        assertFalse(current.getNodes(original).contains(n));
+        assertTrue(current.getNodes(target).contains(n));
+        assertTrue(current.getWays(target).contains(w));
+        // undo
+        assertNotNull(undo.undo(true));
+        assertTrue(current.getNodes(original).contains(n));
+        assertFalse(current.getNodes(target).contains(n));
+        assertFalse(current.getWays(target).contains(w));
+        // redo
+        assertNotNull(undo.redo());
+        assertTrue(current.getNodes(target).contains(n));
+        assertTrue(current.getWays(target).contains(w));
+    }
+
+    /**
+     * Move a large number of nodes and check that the checkpoint stays compact and undo restores all positions
+     */
+    @Test
+    public void movedManyNodes() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Storage current = d.getCurrentStorage();
+        final int count = 10000;
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Node n = OsmElementFactory.createNode(i + 1L, 1, 0, OsmElement.STATE_UNCHANGED, 515000000 + i, i);
+            current.insertNodeUnsafe(n);
+            nodes.add(n);
+        }
+        long before = undo.getMemoryUsage();
+        undo.createCheckpoint("move nodes");
+        d.moveNodes(nodes, 1000, 1000);
+        long perNode = (undo.getMemoryUsage() - before) / count;
+        System.out.println("Undo memory per moved node " + perNode + " bytes"); // NOSONAR
+        assertTrue(perNode < 200);
+        UndoElement ue = undo.getOriginal(nodes.get(42));
+        assertTrue(ue instanceof UndoNode);
+        assertEquals(515000042, ((UndoNode) ue).getLat());
+        assertNotNull(undo.undo(true));
+        for (int i = 0; i < count; i++) {
+            Node n = nodes.get(i);
+            assertEquals(515000000 + i, n.getLat());
+            assertEquals(i, n.getLon());
+        }
+        assertNotNull(undo.redo());
+        assertEquals(515001000, nodes.get(0).getLat());
+    }
+
+    /**
+     * Check that old checkpoints are discarded when the memory budget is exceeded
+     */
+    @Test
+    public void memoryBudget() {
+        StorageDelegator d = App.getDelegator();
+        UndoStorage undo = d.getUndo();
+        Storage current = d.getCurrentStorage();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Node n = OsmElementFactory.createNode(i + 1L, 1, 0, OsmElement.STATE_UNCHANGED, i, i);
+            current.insertNodeUnsafe(n);
+            nodes.add(n);
+        }
+        try {
+            d.setUndoMemoryBudget(4);
+            for (int i = 0; i < 10; i++) {
+                undo.createCheckpoint("move " + i);
+                d.moveNodes(nodes, 10, 10);
+            }
+            String[] actions = undo.getUndoActions(null);
+            assertTrue(actions.length < 10);
+            assertTrue(actions[actions.length - 1].startsWith("move 9"));
+            assertTrue(undo.getMemoryUsage() < 2 * 4 * 1024 * 1024);
+        } finally {
+            d.setUndoMemoryBudget(UndoStorage.DEFAULT_MEMORY_BUDGET);
+        }
+    }
 }
@@ -2,13 +2,17 @@ package de.blau.android.osm;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -21,7 +25,9 @@ import org.robolectric.RobolectricTestRunner;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
 
+import androidx.annotation.NonNull;
 import androidx.test.filters.LargeTest;
+import de.blau.android.UnitTestUtils;
 import de.blau.android.util.Hash;
 
 @RunWith(RobolectricTestRunner.class)
@@ -59,6 +65,123 @@ public class XmlTest {
         }
     }
 
+    /**
+     * Read an osm file with the streaming parser, write the object to XML and compare hash with the SAX result
+     */
+    @Test
+    public void readXmlStreaming() {
+        OsmParser parser = new OsmParser();
+        try (InputStream input = getClass().getResourceAsStream("/test2.osm")) {
+            parser.startStreaming(input);
+            Storage storage = parser.getStorage();
+            assertFalse(storage.isEmpty());
+            File file = File.createTempFile("test.osm", ".xml");
+            file.deleteOnExit();
+            OsmXml.write(storage, null, new FileOutputStream(file), "Vespucci Unit Tests");
+            try (DigestInputStream hashStream = new DigestInputStream(new FileInputStream(file), MessageDigest.getInstance("SHA-256"))) {
+                byte[] buffer = new byte[1024];
+                while (hashStream.read(buffer, 0, buffer.length) != -1) {
+                    // do nothing
+                }
+                String hashValue = Hash.toHex(hashStream.getMessageDigest().digest());
+                assertEquals("19bc1a700e9a7c0130625b1f8a20273283b93a982b60f5c756d7c099af8739fb", hashValue);
+            } catch (NoSuchAlgorithmException e) {
+                fail(e.getMessage());
+            }
+        } catch (SAXException | IOException | IllegalArgumentException | IllegalStateException | XmlPullParserException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Compare the time taken and the garbage produced by the SAX and the streaming parser, the streaming parser should
+     * at least halve the garbage, the timings are only logged
+     */
+    @Test
+    public void streamingTiming() {
+        try {
+            byte[] data = readAll(getClass().getResourceAsStream("/test2.osm"));
+            final int runs = 20;
+            // warm up
+            for (int i = 0; i < runs; i++) {
+                new OsmParser().start(new ByteArrayInputStream(data));
+                new OsmParser().startStreaming(new ByteArrayInputStream(data));
+            }
+            long sax = Long.MAX_VALUE;
+            long allocated = UnitTestUtils.allocatedBytes();
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                new OsmParser().start(new ByteArrayInputStream(data));
+                sax = Math.min(sax, System.nanoTime() - start);
+            }
+            long saxBytes = UnitTestUtils.allocatedBytes() - allocated;
+            long streaming = Long.MAX_VALUE;
+            Storage storage = null;
+            allocated = UnitTestUtils.allocatedBytes();
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                OsmParser parser = new OsmParser();
+                parser.startStreaming(new ByteArrayInputStream(data));
+                streaming = Math.min(streaming, System.nanoTime() - start);
+                storage = parser.getStorage();
+            }
+            long streamingBytes = UnitTestUtils.allocatedBytes() - allocated;
+            System.out.println("SAX " + sax / 1000 + " us " + saxBytes / runs + " bytes streaming " + streaming / 1000 + " us " + streamingBytes / runs // NOSONAR
+                    + " bytes per run");
+            OsmParser parser = new OsmParser();
+            parser.start(new ByteArrayInputStream(data));
+            assertEquals(parser.getStorage().getNodeCount(), storage.getNodeCount());
+            assertEquals(parser.getStorage().getWayCount(), storage.getWayCount());
+            assertEquals(parser.getStorage().getRelationCount(), storage.getRelationCount());
+            if (saxBytes > 0) { // -1 if not supported
+                assertTrue(streamingBytes * 2 <= saxBytes);
+            }
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that white space in attribute values is normalized the same way by both parsers
+     */
+    @Test
+    public void attributeNormalization() {
+        byte[] data = ("<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n"
+                + "<node id='1' version='1' lat='47.1' lon='9.5'>\n<tag k='note' v='a\tb\r\nc\nd&#10;e'/>\n</node>\n</osm>\n")
+                .getBytes(StandardCharsets.UTF_8);
+        try {
+            OsmParser sax = new OsmParser();
+            sax.start(new ByteArrayInputStream(data));
+            OsmParser streaming = new OsmParser();
+            streaming.startStreaming(new ByteArrayInputStream(data));
+            String value = streaming.getStorage().getNode(1L).getTagWithKey("note");
+            assertEquals("a b c d\ne", value);
+            assertEquals(sax.getStorage().getNode(1L).getTagWithKey("note"), value);
+        } catch (SAXException | IOException | ParserConfigurationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Read an InputStream in to a byte array
+     * 
+     * @param input the InputStream
+     * @return a byte array with the contents
+     * @throws IOException if reading fails
+     */
+    private static byte[] readAll(@NonNull InputStream input) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = input.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
     /**
      * Read an osm file into a Storage object, write the object to OSC and compare hash
      */
@@ -156,4 +279,23 @@ public class XmlTest {
             fail(e.getMessage());
         }
     }
+
+    /**
+     * Check that unknown elements are handled the same way by the streaming parser
+     */
+    @Test
+    public void unknownElementsStreaming() {
+        InputStream input = getClass().getResourceAsStream("/unknown_elements.osm");
+        OsmParser parser = new OsmParser();
+        try {
+            parser.startStreaming(input);
+            fail("Expected exception");
+        } catch (SAXException sax) {
+            assertEquals(
+                    "de.blau.android.exception.OsmParseException: Unknown element code\nUnknown element hay\nparseWayNode node 296055272 not in storage\nparseWayNode node 296055272 not in storage\nUnknown element bag",
+                    sax.getMessage());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
 }
\ No newline at end of file
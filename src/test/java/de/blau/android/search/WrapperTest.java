@@ -7,6 +7,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,7 +24,10 @@ import org.robolectric.annotation.Config;
 
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
+import ch.poole.osm.josmfilterparser.Condition;
 import ch.poole.osm.josmfilterparser.ElementState;
+import ch.poole.osm.josmfilterparser.JosmFilterParser;
+import ch.poole.osm.josmfilterparser.ParseException;
 import ch.poole.osm.josmfilterparser.Type;
 import ch.poole.osm.josmfilterparser.Version;
 import de.blau.android.App;
@@ -36,6 +41,8 @@ import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Way;
 import de.blau.android.presets.PresetGroup;
 import de.blau.android.presets.PresetItem;
+import de.blau.android.search.Wrapper.SearchResult;
+import de.blau.android.util.KeyValue;
 import de.blau.android.util.Util;
 
 @RunWith(RobolectricTestRunner.class)
@@ -444,4 +451,38 @@ public class WrapperTest {
         assertNotNull(r);
         assertEquals(Type.RELATION, Wrapper.toJosmFilterType(r));
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that searching with the tag index and in parallel returns the same result as a sequential scan
+     * 
+     * @throws ParseException if the filter expression can't be parsed
+     */
+    @Test
+    public void indexedSearchTest() throws ParseException {
+        final String filter = "highway=residential -name=*";
+        Condition condition = new JosmFilterParser(new ByteArrayInputStream(filter.getBytes())).condition(false);
+        List<KeyValue> requiredTags = RequiredTags.get(filter, false);
+        assertEquals(1, requiredTags.size());
+
+        long start = System.currentTimeMillis();
+        SearchResult sequential = wrapper.getMatchingElementsInternal(condition, new ArrayList<>(), false);
+        long sequentialTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        SearchResult indexed = wrapper.getMatchingElementsInternal(condition, requiredTags, true);
+        long indexedTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        SearchResult parallel = wrapper.getMatchingElementsInternal(condition);
+        long parallelTime = System.currentTimeMillis() - start;
+        System.out.println("Found " + sequential.ways.size() + " sequential " + sequentialTime + " ms, indexed " + indexedTime + " ms, parallel " + parallelTime // NOSONAR
+                + " ms");
+        assertFalse(sequential.isEmpty());
+        assertEquals(new HashSet<>(sequential.ways), new HashSet<>(indexed.ways));
+        assertEquals(sequential.ways, parallel.ways);
+        assertEquals(sequential.nodes.size(), indexed.nodes.size());
+
+        // alternatives and regular expressions can't use the index
+        assertTrue(RequiredTags.get("highway=residential | name=*", false).isEmpty());
+        assertTrue(RequiredTags.get("highway=residential", true).isEmpty());
+        assertTrue(RequiredTags.get("child highway=residential", false).isEmpty());
+    }
+}
@@ -3,6 +3,7 @@ package de.blau.android.services.util;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -18,6 +19,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import androidx.annotation.NonNull;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.exception.InvalidTileException;
@@ -112,6 +114,92 @@ public class MapTileProviderDataBaseTest {
         assertEquals(tileBytes.length, db.deleteOldest(tileBytes.length));
     }
 
+    /**
+     * Check that the least recently used tile is removed first
+     */
+    @Test
+    public void deleteLeastRecentlyUsed() {
+        MapTile tile2 = new MapTile("test", 10, 512, 340);
+        try {
+            db.addTile(tile, tileBytes);
+            Thread.sleep(10); // NOSONAR
+            db.addTile(tile2, tileBytes);
+            Thread.sleep(10); // NOSONAR
+            assertArrayEquals(tileBytes, db.getTile(tile));
+            assertEquals(tileBytes.length, db.deleteOldest(1));
+            assertTrue(db.hasTile(tile));
+            assertFalse(db.hasTile(tile2));
+        } catch (IOException | InterruptedException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check size and hit rate statistics
+     */
+    @Test
+    public void statistics() {
+        try {
+            db.addTile(tile, tileBytes);
+            db.getTile(tile);
+            assertNull(db.getTile(new MapTile("test", 11, 1, 1)));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        MapTileProviderDataBase.Statistics stats = db.getRendererStatistics("test");
+        assertEquals(tileBytes.length, stats.getBytes());
+        assertEquals(1, stats.getTiles());
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0.5f, stats.getHitRate(), 0.001f);
+        assertEquals(tileBytes.length, db.getCachedBytes());
+        assertEquals(db.getCurrentFSCacheByteSize(), db.getCachedBytes());
+    }
+
+    /**
+     * Check that the cache is reduced to the maximum size and quotas in the background
+     */
+    @Test
+    public void backgroundEviction() {
+        try {
+            for (int i = 0; i < 10; i++) {
+                db.addTile(new MapTile("test", 10, i, 0), tileBytes);
+                db.addTile(new MapTile("other", 10, i, 0), tileBytes);
+            }
+            db.setQuota("test", 4L * tileBytes.length);
+            waitFor(() -> db.getRendererStatistics("test").getBytes() <= 4L * tileBytes.length);
+            assertEquals(10L * tileBytes.length, db.getRendererStatistics("other").getBytes());
+            db.setMaxCacheSize(10L * tileBytes.length);
+            waitFor(() -> db.getCachedBytes() <= 10L * tileBytes.length);
+            assertEquals(db.getCurrentFSCacheByteSize(), db.getCachedBytes());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    interface Condition {
+        /**
+         * @return true if the condition is met
+         */
+        boolean isMet();
+    }
+
+    /**
+     * Wait for a condition to become true
+     * 
+     * @param condition the Condition
+     */
+    private static void waitFor(@NonNull Condition condition) {
+        for (int i = 0; i < 100 && !condition.isMet(); i++) {
+            try {
+                Thread.sleep(50); // NOSONAR
+            } catch (InterruptedException e) { // NOSONAR
+                fail(e.getMessage());
+            }
+        }
+        assertTrue(condition.isMet());
+    }
+
     /**
      * Flush, that is completely empty the DB for a specific provider
      */
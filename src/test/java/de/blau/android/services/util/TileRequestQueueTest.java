@@ -0,0 +1,147 @@
+package de.blau.android.services.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import androidx.annotation.NonNull;
+import de.blau.android.views.util.MapTileProviderCallback;
+
+public class TileRequestQueueTest {
+
+    private static final String RENDERER = "queue-test";
+
+    private static final MapTileProviderCallback CALLBACK = new MapTileProviderCallback() {
+        @Override
+        public void mapTileLoaded(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, @NonNull byte[] aImage) {
+            // not used
+        }
+
+        @Override
+        public void mapTileFailed(@NonNull String rendererID, int zoomLevel, int tileX, int tileY, int reason) {
+            // not used
+        }
+    };
+
+    /**
+     * Check that keys round trip and differ between renderers
+     */
+    @Test
+    public void keys() {
+        MapTile tile = new MapTile(RENDERER, 19, 274877, 179443);
+        long key = tile.toKey();
+        assertEquals(MapTile.rendererIndex(RENDERER), MapTile.rendererIndexFromKey(key));
+        assertEquals(19, MapTile.zoomFromKey(key));
+        assertEquals(274877, MapTile.xFromKey(key));
+        assertEquals(179443, MapTile.yFromKey(key));
+        assertNotEquals(key, new MapTile(RENDERER + "2", 19, 274877, 179443).toKey());
+        assertNotEquals(key, new MapTile(RENDERER, 18, 274877, 179443).toKey());
+        assertTrue(new MapTile(RENDERER, 25, (1 << 25) - 1, (1 << 25) - 1).toKey() > 0);
+    }
+
+    /**
+     * Check that more than 256 renderers never share an index with a renderer that is still in use
+     */
+    @Test
+    public void rendererIndices() {
+        int index = MapTile.rendererIndex(RENDERER);
+        for (int i = 0; i < 600; i++) {
+            int other = MapTile.rendererIndex(RENDERER + "-many-" + i);
+            assertTrue(other >= 0 && other < 256);
+            assertNotEquals(index, other);
+            assertEquals(index, MapTile.rendererIndex(RENDERER)); // keep in use
+        }
+        assertNotEquals(MapTile.rendererIndex(RENDERER + "-many-598"), MapTile.rendererIndex(RENDERER + "-many-599"));
+    }
+
+    /**
+     * Check that requests closest to the centre at the current zoom are run first and that tiles outside of the
+     * viewport are dropped
+     */
+    @Test
+    public void order() {
+        TileRequestQueue queue = new TileRequestQueue();
+        queue.add(request(10, 100, 100)); // off screen
+        queue.add(request(10, 500, 500)); // top left corner
+        queue.add(request(9, 251, 251)); // lower zoom, covers the centre
+        queue.add(request(10, 502, 502)); // centre
+        queue.add(request(10, 504, 503)); // bottom right corner
+        queue.setViewport(MapTile.rendererIndex(RENDERER), 10, 500, 500, 504, 504);
+        List<TileRequestQueue.Request> dropped = new ArrayList<>();
+        assertTile(10, 502, 502, queue.next(dropped));
+        assertEquals(1, dropped.size());
+        assertTile(10, 100, 100, dropped.get(0));
+        assertTile(10, 504, 503, queue.next(dropped));
+        assertTile(10, 500, 500, queue.next(dropped));
+        assertTile(9, 251, 251, queue.next(dropped));
+        assertNull(queue.next(dropped));
+        assertEquals(1, queue.getDropped());
+    }
+
+    /**
+     * Check that the viewport handles wrapping around the antimeridian
+     */
+    @Test
+    public void wrap() {
+        TileRequestQueue queue = new TileRequestQueue();
+        queue.add(request(4, 0, 8));
+        queue.add(request(4, 8, 8));
+        queue.setViewport(MapTile.rendererIndex(RENDERER), 4, 14, 7, 17, 9);
+        List<TileRequestQueue.Request> dropped = new ArrayList<>();
+        assertTile(4, 0, 8, queue.next(dropped));
+        assertNull(queue.next(dropped));
+        assertEquals(1, dropped.size());
+    }
+
+    /**
+     * Check that requests for renderers without a viewport are run in order and that flushing by zoom works
+     */
+    @Test
+    public void fifoAndFlush() {
+        TileRequestQueue queue = new TileRequestQueue();
+        queue.add(request(12, 3, 4));
+        queue.add(request(13, 1, 2));
+        queue.add(request(12, 1, 2));
+        List<TileRequestQueue.Request> removed = queue.remove(MapTile.rendererIndex(RENDERER), 13);
+        assertEquals(1, removed.size());
+        List<TileRequestQueue.Request> dropped = new ArrayList<>();
+        assertTile(12, 3, 4, queue.next(dropped));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.remove(MapTile.rendererIndex(RENDERER), MapAsyncTileProvider.ALLZOOMS).size());
+        assertEquals(0, queue.size());
+        assertTrue(dropped.isEmpty());
+    }
+
+    /**
+     * Create a new request
+     *
+     * @param zoom zoom level
+     * @param x tile x
+     * @param y tile y
+     * @return a Request
+     */
+    private static TileRequestQueue.Request request(int zoom, int x, int y) {
+        return new TileRequestQueue.Request(new MapTile(RENDERER, zoom, x, y), () -> {
+        }, CALLBACK);
+    }
+
+    /**
+     * Check that a request is for a specific tile
+     *
+     * @param zoom expected zoom level
+     * @param x expected tile x
+     * @param y expected tile y
+     * @param request the Request
+     */
+    private static void assertTile(int zoom, int x, int y, TileRequestQueue.Request request) {
+        assertEquals(zoom, request.tile.zoomLevel);
+        assertEquals(x, request.tile.x);
+        assertEquals(y, request.tile.y);
+    }
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,10 +14,13 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import de.blau.android.UnitTestUtils;
 import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElement;
 import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.util.collections.LongByteMap;
+import de.blau.android.util.collections.LongHashMap;
 import de.blau.android.util.collections.LongHashSet;
 import de.blau.android.util.collections.LongOsmElementMap;
 import de.blau.android.util.collections.MRUList;
@@ -65,6 +69,73 @@ public class CollectionTest {
         }
     }
 
+    /**
+     * Test the live view of the values of our Long to OsmElement hash map implementation
+     */
+    @Test
+    public void hashmapView() {
+        LongOsmElementMap<Node> map = new LongOsmElementMap<>(10000);
+        for (int i = 0; i < 1000; i++) {
+            Node n = OsmElementFactory.createNode((long) (Math.random() * Long.MAX_VALUE), 1L, System.currentTimeMillis() / 1000, OsmElement.STATE_CREATED, 0, 0);
+            map.put(n.getOsmId(), n);
+        }
+        List<Node> values = map.values();
+        List<Node> view = map.unmodifiableValues();
+        assertEquals(values, view);
+        for (int i = 0; i < view.size(); i++) {
+            assertEquals(values.get(i), view.get(i)); // same internal order
+        }
+        assertEquals(values.get(10), view.get(10)); // going backwards
+        try {
+            view.add(values.get(0));
+            fail("view should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // changes are reflected
+        map.remove(values.get(0).getOsmId());
+        assertEquals(999, view.size());
+        assertFalse(view.contains(values.get(0)));
+        assertEquals(map.values(), view);
+    }
+
+    /**
+     * Compare the garbage produced by iterating over a copy of the values with the view for a 1'000'000 element map
+     */
+    @Test
+    public void hashmapViewBenchmark() {
+        final int NODES = 1000000;
+        final int FRAMES = 10;
+        LongOsmElementMap<Node> map = new LongOsmElementMap<>(NODES);
+        for (int i = 1; i <= NODES; i++) {
+            map.put(i, OsmElementFactory.createNode(i, 1L, -1L, OsmElement.STATE_UNCHANGED, i, i));
+        }
+        long allocated = UnitTestUtils.allocatedBytes();
+        long start = System.currentTimeMillis();
+        long sum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            for (Node n : map.values()) {
+                sum += n.getLon();
+            }
+        }
+        long copyBytes = UnitTestUtils.allocatedBytes() - allocated;
+        System.out.println("values() " + (System.currentTimeMillis() - start) + " ms " + copyBytes / FRAMES + " bytes per frame"); // NOSONAR
+        allocated = UnitTestUtils.allocatedBytes();
+        start = System.currentTimeMillis();
+        long viewSum = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            for (Node n : map.unmodifiableValues()) {
+                viewSum += n.getLon();
+            }
+        }
+        long viewBytes = UnitTestUtils.allocatedBytes() - allocated;
+        System.out.println("unmodifiableValues() " + (System.currentTimeMillis() - start) + " ms " + viewBytes / FRAMES + " bytes per frame"); // NOSONAR
+        assertEquals(sum, viewSum);
+        if (copyBytes > 0) { // -1 if not supported
+            assertTrue(viewBytes < copyBytes / 100);
+        }
+    }
+
     /**
      * Test our OsmElement hash set implementation
      */
@@ -90,6 +161,81 @@ public class CollectionTest {
         assertTrue(set.isEmpty());
     }
 
+    /**
+     * Test our long to Object hash map implementation
+     */
+    @Test
+    public void longHashMap() {
+        LongHashMap<String> map = new LongHashMap<>(1000);
+
+        long[] l = new long[100000];
+        for (int i = 0; i < 100000; i++) {
+            l[i] = (long) ((Math.random() - 0.5D) * 2 * Long.MAX_VALUE);
+        }
+        l[0] = 0; // free key
+        for (int i = 0; i < 100000; i++) {
+            map.put(l[i], Long.toString(l[i]));
+        }
+        assertEquals(100000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(map.containsKey(l[i]));
+            assertEquals(Long.toString(l[i]), map.get(l[i]));
+        }
+        assertEquals(100000, map.keys().length);
+        assertEquals(100000, map.values().size());
+
+        LongHashMap<String> copy = new LongHashMap<>(map);
+        for (int i = 0; i < 100000; i += 2) {
+            assertEquals(Long.toString(l[i]), map.remove(l[i]));
+        }
+        assertEquals(50000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(l[i]));
+            assertEquals(Long.toString(l[i]), copy.get(l[i]));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(l[1]));
+    }
+
+    /**
+     * Test our long to byte hash map implementation
+     */
+    @Test
+    public void longByteMap() {
+        LongByteMap map = new LongByteMap(1000);
+
+        long[] l = new long[100000];
+        for (int i = 0; i < 100000; i++) {
+            l[i] = (long) ((Math.random() - 0.5D) * 2 * Long.MAX_VALUE);
+        }
+        l[0] = 0; // free key
+        for (int i = 0; i < 100000; i++) {
+            map.put(l[i], (byte) (i % 3));
+        }
+        assertEquals(100000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(map.containsKey(l[i]));
+            assertEquals((byte) (i % 3), map.get(l[i], (byte) -1));
+        }
+        assertEquals(100000, map.keys().length);
+
+        for (int i = 0; i < 100000; i += 2) {
+            assertTrue(map.remove(l[i]));
+        }
+        assertEquals(50000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(l[i]));
+            assertEquals(i % 2 == 1 ? (byte) (i % 3) : (byte) -1, map.get(l[i], (byte) -1));
+        }
+        map.put(l[1], (byte) 5);
+        assertEquals(5, map.get(l[1], (byte) -1));
+        assertEquals(50000, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(l[1]));
+    }
+
     /**
      * Some minimal tests for our RTree implementation
      */
@@ -134,6 +280,60 @@ public class CollectionTest {
         assertEquals(0, tree.count());
     }
 
+    /**
+     * Test bulk loading the RTree
+     */
+    @Test
+    public void rtreeBulkLoad() {
+        final double MAX = GeoMath.MAX_LAT_E7;
+        final int NODES = 10000;
+        List<Node> nodes = new ArrayList<>();
+        for (long i = 0; i < NODES; i++) {
+            nodes.add(OsmElementFactory.createNode(i, 1L, System.currentTimeMillis() / 1000, OsmElement.STATE_CREATED, (int) (Math.random() * MAX),
+                    (int) (Math.random() * MAX)));
+        }
+        RTree<Node> tree = new RTree<>(2, 12);
+        long start = System.currentTimeMillis();
+        // load in two steps so that adding to an existing tree is tested too
+        tree.load(nodes.subList(0, NODES / 2));
+        assertEquals(NODES / 2, tree.count());
+        tree.load(nodes.subList(NODES / 2, NODES));
+        System.out.println("Bulk load " + (System.currentTimeMillis() - start)); // NOSONAR
+        assertEquals(NODES, tree.count());
+        Collection<Node> result = new ArrayList<>();
+        BoundingBox b = new BoundingBox();
+        for (Node n : nodes) {
+            b.set(n.getLon() - 1, n.getLat() - 1, n.getLon() + 1, n.getLat() + 1);
+            result.clear();
+            tree.query(result, b);
+            assertTrue(result.contains(n));
+        }
+        // larger boxes should return the same as a brute force search
+        for (int i = 0; i < 100; i++) {
+            int left = (int) (Math.random() * MAX);
+            int bottom = (int) (Math.random() * MAX);
+            b.set(left, bottom, left + (int) (MAX / 20), bottom + (int) (MAX / 20));
+            result.clear();
+            tree.query(result, b);
+            int expected = 0;
+            for (Node n : nodes) {
+                if (b.contains(n.getLon(), n.getLat())) {
+                    expected++;
+                    assertTrue(result.contains(n));
+                }
+            }
+            assertEquals(expected, result.size());
+        }
+        // the packed tree should still support the normal operations
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tree.remove(nodes.get(i)));
+        }
+        for (int i = 0; i < 100; i++) {
+            tree.insert(nodes.get(i));
+        }
+        assertEquals(NODES, tree.count());
+    }
+
     /**
      * Test our MultiHashMap
      */
@@ -8,6 +8,7 @@ import static org.junit.Assert.fail;
 import org.junit.Test;
 
 import de.blau.android.util.collections.FloatPrimitiveList;
+import de.blau.android.util.collections.IntPrimitiveList;
 import de.blau.android.util.collections.LongPrimitiveList;
 
 public class PrimitiveListTest {
@@ -89,4 +90,49 @@ public class PrimitiveListTest {
         list.truncate(5);
         assertEquals(list.size(), 5);
     }
+
+    /**
+     * Test IntPrimitiveList
+     */
+    @Test
+    public void intList() {
+        IntPrimitiveList list = new IntPrimitiveList(5);
+        for (int i = 0; i < 6; i++) {
+            list.add(i);
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, list.get(i));
+        }
+        assertEquals(6, list.size());
+        assertEquals(10, list.getArray().length);
+        assertEquals(6, list.values().length);
+
+        list.set(3, 111);
+        assertEquals(111, list.get(3));
+
+        try {
+            list.get(6);
+            fail("should throw exception");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        try {
+            list.set(6, 222);
+            fail("should throw exception");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        list.insert(2, 20);
+        assertEquals(26, list.size());
+        assertEquals(1, list.get(1));
+        assertEquals(2, list.get(22));
+        assertEquals(5, list.get(25));
+
+        list.truncate(5);
+        assertEquals(5, list.size());
+        list.clear();
+        assertEquals(0, list.size());
+    }
 }
\ No newline at end of file
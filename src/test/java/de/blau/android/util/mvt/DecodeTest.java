@@ -1,20 +1,31 @@
 package de.blau.android.util.mvt;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
 
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.test.filters.LargeTest;
+import de.blau.android.UnitTestUtils;
 import de.blau.android.util.GeoJSONConstants;
 
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
 public class DecodeTest {
 
     /**
@@ -72,6 +83,105 @@ public class DecodeTest {
         }
     }
 
+    /**
+     * Check that lazily decoded features are the same as eagerly decoded ones and that the index finds the same features
+     * as a brute force search
+     */
+    @Test
+    public void decodeLazyTest() {
+        try {
+            byte[] data = readTile("/tilemaker_tile.pbf");
+            VectorTileDecoder decoder = new VectorTileDecoder();
+            long start = System.nanoTime();
+            Map<String, List<VectorTileDecoder.Feature>> eager = decoder.decode(data).asMap();
+            long eagerTime = System.nanoTime() - start;
+            decoder.setLazy(true);
+            start = System.nanoTime();
+            Map<String, List<VectorTileDecoder.Feature>> lazy = decoder.decode(data).asMap();
+            long lazyTime = System.nanoTime() - start;
+            System.out.println("Eager decode " + (eagerTime / 1000) + " us lazy decode " + (lazyTime / 1000) + " us"); // NOSONAR
+
+            assertEquals(eager.keySet(), lazy.keySet());
+            for (Entry<String, List<VectorTileDecoder.Feature>> entry : eager.entrySet()) {
+                List<VectorTileDecoder.Feature> eagerList = entry.getValue();
+                List<VectorTileDecoder.Feature> lazyList = lazy.get(entry.getKey());
+                assertEquals(eagerList.size(), lazyList.size());
+                for (int i = 0; i < eagerList.size(); i++) {
+                    VectorTileDecoder.Feature e = eagerList.get(i);
+                    VectorTileDecoder.Feature l = lazyList.get(i);
+                    assertEquals(e.getId(), l.getId());
+                    assertEquals(e.getAttributes(), l.getAttributes());
+                    assertEquals(e.getGeometry(), l.getGeometry());
+                    assertEquals(e.getBox(), l.getBox());
+                }
+                // query the index with a grid of small rectangles, coordinates are scaled to 0..255
+                FeatureList features = (FeatureList) lazyList;
+                List<VectorTileDecoder.Feature> result = new ArrayList<>();
+                for (int x = -8; x < 264; x += 8) {
+                    for (int y = -8; y < 264; y += 8) {
+                        result.clear();
+                        features.query(x, y, x + 4f, y + 4f, result);
+                        for (VectorTileDecoder.Feature f : features) {
+                            Rect box = f.getBox();
+                            boolean intersects = box.left <= x + 4 && box.right >= x && box.top <= y + 4 && box.bottom >= y;
+                            if (intersects) {
+                                assertTrue(result.contains(f));
+                            }
+                        }
+                    }
+                }
+            }
+            assertFalse(lazy.isEmpty());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Check that lazy decoding allocates less than eager decoding and that the geometry type used by style filters is
+     * available without decoding the geometry
+     */
+    @Test
+    public void decodeLazyMemoryTest() {
+        try {
+            byte[] data = readTile("/tilemaker_tile.pbf");
+            VectorTileDecoder eagerDecoder = new VectorTileDecoder();
+            VectorTileDecoder lazyDecoder = new VectorTileDecoder();
+            lazyDecoder.setLazy(true);
+            // warm up so that class loading isn't counted
+            eagerDecoder.decode(data).asList();
+            lazyDecoder.decode(data).asList();
+
+            long allocated = UnitTestUtils.allocatedBytes();
+            List<VectorTileDecoder.Feature> eager = eagerDecoder.decode(data).asList();
+            long eagerBytes = UnitTestUtils.allocatedBytes() - allocated;
+            allocated = UnitTestUtils.allocatedBytes();
+            List<VectorTileDecoder.Feature> lazy = lazyDecoder.decode(data).asList();
+            long lazyBytes = UnitTestUtils.allocatedBytes() - allocated;
+            allocated = UnitTestUtils.allocatedBytes();
+            int polygons = 0;
+            for (VectorTileDecoder.Feature f : lazy) {
+                if (GeoJSONConstants.POLYGON.equals(f.getType())) {
+                    polygons++;
+                }
+            }
+            long typeBytes = UnitTestUtils.allocatedBytes() - allocated;
+            System.out.println("Eager decode " + eagerBytes + " bytes lazy decode " + lazyBytes + " bytes type access " + typeBytes + " bytes"); // NOSONAR
+
+            assertEquals(eager.size(), lazy.size());
+            assertEquals(149 + 6, polygons);
+            for (int i = 0; i < eager.size(); i++) {
+                assertEquals(eager.get(i).getType(), lazy.get(i).getType());
+            }
+            if (eagerBytes > 0) { // -1 if not supported
+                assertTrue(lazyBytes < eagerBytes);
+                assertTrue(typeBytes < lazyBytes / 100);
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Read a sample tile in to a byte array
      * 
@@ -79,7 +189,7 @@ public class DecodeTest {
      * 
      * @return a byte array containing the data
      */
-    private static byte[] readTile(@NonNull String filename) throws IOException {
+    public static byte[] readTile(@NonNull String filename) throws IOException {
         InputStream input = DecodeTest.class.getResourceAsStream(filename);
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         int nRead;
@@ -1,13 +1,17 @@
 package de.blau.android.util.mvt.style;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import android.graphics.Rect;
+import androidx.annotation.NonNull;
 import androidx.test.filters.LargeTest;
 
 @RunWith(RobolectricTestRunner.class)
@@ -19,7 +23,18 @@ public class CollisionDetectionTest {
      */
     @Test
     public void collisionTest() {
-        SimpleCollisionDetector detector = new SimpleCollisionDetector();
+        collisionTest(new SimpleCollisionDetector());
+        collisionTest(new GridCollisionDetector());
+        // small cells so that boxes span multiple cells
+        collisionTest(new GridCollisionDetector(16));
+    }
+
+    /**
+     * Add a couple of objects and then check what collides
+     * 
+     * @param detector the CollisionDetector to test
+     */
+    private void collisionTest(@NonNull CollisionDetector detector) {
 
         assertFalse(detector.collides(new Rect(100, 100, 200, 200)));
         assertFalse(detector.collides(new float[] { 220, 100 }, new float[] { 270, 200 }, 10));
@@ -34,4 +49,69 @@ public class CollisionDetectionTest {
         assertFalse(detector.collides(new Rect(120, 120, 180, 180)));
         assertFalse(detector.collides(new Rect(250, 150, 280, 180)));
     }
+
+    /**
+     * Check that the grid based detector returns the same results as the simple one and compare run times
+     */
+    @Test
+    public void benchmark() {
+        final int labels = 5000;
+        final int frames = 5;
+        Random random = new Random(4711);
+        Rect[] rects = new Rect[labels];
+        float[][] starts = new float[labels][];
+        float[][] ends = new float[labels][];
+        for (int i = 0; i < labels; i++) {
+            float x = random.nextFloat() * 1920;
+            float y = random.nextFloat() * 1080;
+            if (i % 3 == 0) { // line label
+                double angle = random.nextDouble() * Math.PI;
+                float length = 20 + random.nextFloat() * 150;
+                starts[i] = new float[] { x, y };
+                ends[i] = new float[] { x + (float) (Math.cos(angle) * length), y + (float) (Math.sin(angle) * length) };
+            } else {
+                int width = 10 + random.nextInt(100);
+                int height = 10 + random.nextInt(20);
+                rects[i] = new Rect((int) x, (int) y, (int) x + width, (int) y + height);
+            }
+        }
+        CollisionDetector simple = new SimpleCollisionDetector(Integer.MAX_VALUE);
+        CollisionDetector grid = new GridCollisionDetector();
+        boolean[] simpleResult = new boolean[labels];
+        boolean[] gridResult = new boolean[labels];
+        long simpleTime = run(simple, rects, starts, ends, simpleResult, frames);
+        long gridTime = run(grid, rects, starts, ends, gridResult, frames);
+        int placed = 0;
+        for (int i = 0; i < labels; i++) {
+            assertEquals(simpleResult[i], gridResult[i]);
+            if (!gridResult[i]) {
+                placed++;
+            }
+        }
+        assertEquals(placed, ((GridCollisionDetector) grid).size());
+        System.out.println(labels + " labels " + placed + " placed, simple " + (simpleTime / frames / 1000) + " us grid " + (gridTime / frames / 1000) + " us per frame"); // NOSONAR
+    }
+
+    /**
+     * Run the labels through a detector a number of times
+     * 
+     * @param detector the CollisionDetector
+     * @param rects rectangular labels
+     * @param starts start points of line labels
+     * @param ends end points of line labels
+     * @param result array for the results of the last run
+     * @param frames the number of runs
+     * @return the time taken in ns
+     */
+    private long run(@NonNull CollisionDetector detector, @NonNull Rect[] rects, @NonNull float[][] starts, @NonNull float[][] ends, @NonNull boolean[] result,
+            int frames) {
+        long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            detector.reset();
+            for (int i = 0; i < rects.length; i++) {
+                result[i] = rects[i] != null ? detector.collides(rects[i]) : detector.collides(starts[i], ends[i], 8);
+            }
+        }
+        return System.nanoTime() - start;
+    }
 }
@@ -1,9 +1,14 @@
 package de.blau.android.util.mvt.style;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
@@ -12,11 +17,16 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.mapbox.geojson.Point;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.resources.DataStyle;
+import de.blau.android.util.GeoJSONConstants;
+import de.blau.android.util.mvt.DecodeTest;
 import de.blau.android.util.mvt.VectorTileDecoder;
 
 @RunWith(RobolectricTestRunner.class)
@@ -297,4 +307,261 @@ public class FilterTest {
         array.add(array3);
         assertTrue(symbol.evaluateFilter(array, feature));
     }
+
+    /**
+     * Test that filter results are cached and invalidated when the filter changes
+     */
+    @Test
+    public void cacheTest() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("s1", "string");
+        Point point = Point.fromLngLat(0, 0);
+        VectorTileDecoder.Feature feature = new VectorTileDecoder.Feature("test", 256, point, attributes, -1);
+        Style style = new Style();
+        Symbol symbol = new Symbol("test");
+        JsonArray array = new JsonArray();
+        array.add("==");
+        array.add("s1");
+        array.add("string");
+        symbol.setFilter(array);
+        style.addLayer("test", symbol);
+        assertTrue(symbol.evaluateFilter(feature));
+        assertTrue(symbol.evaluateFilter(feature));
+        array = new JsonArray();
+        array.add("==");
+        array.add("s1");
+        array.add("string2");
+        symbol.setFilter(array);
+        assertFalse(symbol.evaluateFilter(feature));
+        symbol.setFilter(null);
+        assertTrue(symbol.evaluateFilter(feature));
+    }
+
+    /**
+     * Check that the compiled and cached filters give the same results as interpreting the filter JSON and compare the
+     * time taken
+     */
+    @Test
+    public void filterBenchmark() {
+        final int iterations = 20;
+        Style style = new Style();
+        style.loadStyle(ApplicationProvider.getApplicationContext(), getClass().getResourceAsStream("/osm-liberty.json"));
+        List<VectorTileDecoder.Feature> features = null;
+        try {
+            features = new VectorTileDecoder().decode(DecodeTest.readTile("/tilemaker_tile.pbf")).asList();
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        // features with an empty geometry have no type in the decoded geometry the reference could use
+        features.removeIf(f -> GeoJSONConstants.GEOMETRYCOLLECTION.equals(f.getGeometry().type()));
+        List<Layer> layers = style.getLayers();
+        int checked = 0;
+        for (Layer layer : layers) {
+            JsonArray filter = layer.getFilter();
+            if (filter == null) {
+                continue;
+            }
+            for (VectorTileDecoder.Feature feature : features) {
+                if (feature.getLayerName().equals(layer.getSourceLayer())) {
+                    boolean expected = interpret(filter, feature);
+                    assertEquals(layer.toString(), expected, layer.evaluateFilter(feature));
+                    assertEquals(layer.toString(), expected, layer.evaluateFilter(feature)); // cached
+                    assertEquals(layer.toString(), expected, layer.evaluateFilter(filter, feature));
+                    checked++;
+                }
+            }
+        }
+        assertTrue(checked > 0);
+        int interpretedCount = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Layer layer : layers) {
+                JsonArray filter = layer.getFilter();
+                for (VectorTileDecoder.Feature feature : features) {
+                    if (feature.getLayerName().equals(layer.getSourceLayer()) && (filter == null || interpret(filter, feature))) {
+                        interpretedCount++;
+                    }
+                }
+            }
+        }
+        long interpreted = System.nanoTime() - start;
+        int compiledCount = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Layer layer : layers) {
+                for (VectorTileDecoder.Feature feature : features) {
+                    if (feature.getLayerName().equals(layer.getSourceLayer()) && layer.evaluateFilter(feature)) {
+                        compiledCount++;
+                    }
+                }
+            }
+        }
+        long compiled = System.nanoTime() - start;
+        System.out.println("Filter evaluation per pass from JSON " + interpreted / iterations + " ns compiled and cached " + compiled / iterations + " ns"); // NOSONAR
+        assertTrue(interpretedCount > 0);
+        assertEquals(interpretedCount, compiledCount);
+    }
+
+    /**
+     * Check that the cached results of one Style are not affected by changes to another Style
+     */
+    @Test
+    public void perStyleCache() {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("s1", "string");
+        Point point = Point.fromLngLat(0, 0);
+        VectorTileDecoder.Feature feature = new VectorTileDecoder.Feature("test", 256, point, attributes, -1);
+        Style style1 = new Style();
+        Symbol symbol1 = new Symbol("test");
+        JsonArray array = new JsonArray();
+        array.add("==");
+        array.add("s1");
+        array.add("string");
+        symbol1.setFilter(array);
+        style1.addLayer("test", symbol1);
+        int version1 = style1.getFilterVersion();
+        Style style2 = new Style();
+        Symbol symbol2 = new Symbol("test");
+        array = new JsonArray();
+        array.add("!=");
+        array.add("s1");
+        array.add("string");
+        symbol2.setFilter(array);
+        style2.addLayer("test", symbol2);
+        assertNotEquals(version1, style2.getFilterVersion());
+        assertTrue(symbol1.evaluateFilter(feature));
+        assertFalse(symbol2.evaluateFilter(feature));
+        symbol2.setFilter(null);
+        assertEquals(version1, style1.getFilterVersion());
+        assertTrue(symbol1.evaluateFilter(feature));
+        assertTrue(symbol2.evaluateFilter(feature));
+    }
+
+    /**
+     * Interpret a filter expression directly from the JSON, used as a reference for the compiled filters
+     * 
+     * This follows the original implementation except that $type maps all multi-geometries to the type of their
+     * members, as the compiled filters do, the original only mapped MultiLineString
+     * 
+     * @param expression the expression
+     * @param feature the feature to test
+     * @return true if the filter accepts the feature
+     */
+    private static boolean interpret(@NonNull JsonArray expression, @NonNull VectorTileDecoder.Feature feature) {
+        String function = expression.get(0).getAsString();
+        switch (function) {
+        case "==":
+        case "!=":
+        case "<":
+        case "<=":
+        case ">":
+        case ">=":
+            Object left = getKeyValue(feature, expression.get(1).getAsString());
+            if (left == null) {
+                return "!=".equals(function); // val doesn't exist is true
+            }
+            return compare(function, left, expression.get(2));
+        case "in":
+        case "!in":
+            boolean in = "in".equals(function);
+            left = getKeyValue(feature, expression.get(1).getAsString());
+            if (left == null) {
+                return !in;
+            }
+            for (int i = 2; i < expression.size(); i++) {
+                if (compare("==", left, expression.get(i))) {
+                    return in;
+                }
+            }
+            return !in;
+        case "all":
+            for (int i = 1; i < expression.size(); i++) {
+                if (!interpret((JsonArray) expression.get(i), feature)) {
+                    return false;
+                }
+            }
+            return true;
+        case "any":
+            for (int i = 1; i < expression.size(); i++) {
+                if (interpret((JsonArray) expression.get(i), feature)) {
+                    return true;
+                }
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Compare an Object to a JsonElement
+     * 
+     * @param function how to compare them
+     * @param left the Object
+     * @param jsonElement the JsonElement
+     * @return true if the condition we use to compare is met
+     */
+    private static boolean compare(@NonNull String function, @NonNull Object left, @NonNull JsonElement jsonElement) {
+        int result;
+        try {
+            if (left instanceof String) {
+                result = ((String) left).compareTo(jsonElement.getAsString());
+            } else if (left instanceof Integer) {
+                result = Integer.compare((int) left, jsonElement.getAsInt());
+            } else if (left instanceof Long) {
+                result = Long.compare((long) left, jsonElement.getAsLong());
+            } else if (left instanceof Float) {
+                result = Float.compare((float) left, jsonElement.getAsFloat());
+            } else if (left instanceof Double) {
+                result = Double.compare((double) left, jsonElement.getAsDouble());
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException | UnsupportedOperationException e) {
+            // can't be compared
+            return false;
+        }
+        switch (function) {
+        case "==":
+            return result == 0;
+        case "!=":
+            return result != 0;
+        case "<":
+            return result < 0;
+        case "<=":
+            return result <= 0;
+        case ">":
+            return result > 0;
+        case ">=":
+            return result >= 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Get the value for a specific key from the features attributes
+     * 
+     * @param feature the Feature
+     * @param key the key
+     * @return the value for the key
+     */
+    @Nullable
+    private static Object getKeyValue(@NonNull VectorTileDecoder.Feature feature, @NonNull String key) {
+        switch (key) {
+        case "$type":
+            String type = feature.getGeometry().type();
+            if (GeoJSONConstants.MULTIPOINT.equals(type)) {
+                return GeoJSONConstants.POINT;
+            }
+            if (GeoJSONConstants.MULTILINESTRING.equals(type)) {
+                return GeoJSONConstants.LINESTRING;
+            }
+            return GeoJSONConstants.MULTIPOLYGON.equals(type) ? GeoJSONConstants.POLYGON : type;
+        case "$id":
+            return feature.getId();
+        default:
+            return feature.getAttributes().get(key);
+        }
+    }
 }
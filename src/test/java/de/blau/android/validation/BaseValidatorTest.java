@@ -6,8 +6,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +19,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.LargeTest;
 import de.blau.android.App;
@@ -24,10 +27,14 @@ import de.blau.android.Logic;
 import de.blau.android.Main;
 import de.blau.android.R;
 import de.blau.android.ShadowWorkManager;
+import de.blau.android.exception.OsmException;
+import de.blau.android.osm.BoundingBox;
 import de.blau.android.osm.Node;
 import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.osm.PbfTest;
 import de.blau.android.osm.Relation;
 import de.blau.android.osm.RelationMember;
+import de.blau.android.osm.Storage;
 import de.blau.android.osm.StorageDelegator;
 import de.blau.android.osm.Tags;
 import de.blau.android.osm.Way;
@@ -135,4 +142,73 @@ public class BaseValidatorTest {
         assertEquals(1, warnings.size());
         assertTrue(warnings.get(0).contains(ctx.getString(R.string.element_type_node)));
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that validating unconnected end nodes in a pass produces the same results as without, and how long it
+     * takes
+     * 
+     * @throws OsmException if the bounding box of the data can't be calculated
+     */
+    @Test
+    public void unconnectedEndNodeTest() throws OsmException {
+        final Context ctx = ApplicationProvider.getApplicationContext();
+        StorageDelegator d = App.getDelegator();
+        d.reset(true);
+        Storage storage = PbfTest.read();
+        BoundingBox box = storage.calcBoundingBoxFromData();
+        if (storage.getBoundingBoxes().isEmpty()) {
+            storage.addBoundingBox(box);
+        }
+        d.setCurrentStorage(storage);
+        Logic logic = App.newLogic();
+        DataStyle.getStylesFromFiles(ctx);
+        de.blau.android.Map map = new de.blau.android.Map(ctx);
+        map.layout(0, 0, 1000, 1000);
+        logic.setMap(map, false);
+        map.setPrefs(ctx, new Preferences(ctx));
+        logic.getViewBox().fitToBoundingBox(map, box);
+        Validator v = App.getDefaultValidator(ctx);
+
+        long start = System.currentTimeMillis();
+        Set<Node> unconnected = validateHighways(v, storage);
+        long withoutPass = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        v.startPass();
+        Set<Node> unconnectedInPass;
+        try {
+            unconnectedInPass = validateHighways(v, storage);
+        } finally {
+            v.endPass();
+        }
+        long inPass = System.currentTimeMillis() - start;
+        System.out.println("Unconnected end nodes " + unconnected.size() + " without pass " + withoutPass + " ms, in pass " + inPass + " ms"); // NOSONAR
+        assertEquals(unconnected, unconnectedInPass);
+    }
+
+    /**
+     * Validate all ways with a highway tag
+     * 
+     * @param v the Validator
+     * @param storage the Storage holding the data
+     * @return the end nodes that were found to be unconnected
+     */
+    private Set<Node> validateHighways(@NonNull Validator v, @NonNull Storage storage) {
+        for (Node n : storage.getNodes()) {
+            n.resetHasProblem();
+        }
+        Set<Node> result = new HashSet<>();
+        for (Way w : storage.getWays()) {
+            if (w.hasTagKey(Tags.KEY_HIGHWAY)) {
+                w.resetHasProblem();
+                v.validate(w);
+                for (Node n : new Node[] { w.getFirstNode(), w.getLastNode() }) {
+                    if ((n.getCachedProblems() & Validator.UNCONNECTED_END_NODE) != 0) {
+                        result.add(n);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+package de.blau.android.validation;
+
+import static de.blau.android.osm.DelegatorUtil.toE7;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.filters.LargeTest;
+import de.blau.android.App;
+import de.blau.android.Main;
+import de.blau.android.ShadowWorkManager;
+import de.blau.android.exception.OsmIllegalOperationException;
+import de.blau.android.osm.Node;
+import de.blau.android.osm.OsmElement;
+import de.blau.android.osm.OsmElementFactory;
+import de.blau.android.osm.Relation;
+import de.blau.android.osm.RelationMember;
+import de.blau.android.osm.StorageDelegator;
+import de.blau.android.osm.Way;
+import de.blau.android.util.Util;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = { ShadowWorkManager.class })
+@LargeTest
+public class ValidationEngineTest {
+
+    private ValidationEngine engine;
+    private StorageDelegator delegator;
+
+    /**
+     * Pre-test setup
+     */
+    @Before
+    public void setup() {
+        Robolectric.buildActivity(Main.class).create().resume();
+        Context context = ApplicationProvider.getApplicationContext();
+        engine = new ValidationEngine(context, App.getDefaultValidator(context));
+        delegator = new StorageDelegator();
+    }
+
+    /**
+     * Check that a report contains exactly the elements with issues
+     *
+     * @throws InterruptedException if waiting is interrupted
+     */
+    @Test
+    public void report() throws InterruptedException {
+        OsmElementFactory factory = delegator.getFactory();
+        Node fixme = factory.createNodeWithNewId(toE7(51.476), toE7(0.006));
+        Map<String, String> tags = new TreeMap<>();
+        tags.put("fixme", "check");
+        delegator.setTags(fixme, tags);
+        Node untagged = factory.createNodeWithNewId(toE7(51.476), toE7(0.007));
+        Relation empty = factory.createRelationWithNewId();
+        List<OsmElement> elements = new ArrayList<>();
+        elements.add(fixme);
+        elements.add(untagged);
+        elements.add(empty);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<OsmElement> result = new ArrayList<>();
+        engine.report(elements, (List<OsmElement> issues) -> {
+            result.addAll(issues);
+            latch.countDown();
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(2, result.size());
+        assertTrue(result.contains(fixme));
+        assertTrue(result.contains(empty));
+        assertEquals(Validator.OK, untagged.getCachedProblems());
+    }
+
+    /**
+     * Check that changing an element revalidates it and its dependents in the background
+     *
+     * @throws InterruptedException if waiting is interrupted
+     * @throws OsmIllegalOperationException if adding the way nodes fails
+     */
+    @Test
+    public void invalidate() throws InterruptedException, OsmIllegalOperationException {
+        OsmElementFactory factory = delegator.getFactory();
+        Way way = factory.createWayWithNewId();
+        Node n1 = factory.createNodeWithNewId(toE7(51.476), toE7(0.006));
+        Node n2 = factory.createNodeWithNewId(toE7(51.476), toE7(0.007));
+        delegator.insertElementSafe(n1);
+        delegator.insertElementSafe(n2);
+        delegator.addNodeToWay(n1, way);
+        delegator.addNodeToWay(n2, way);
+        delegator.insertElementSafe(way);
+        Relation relation = factory.createRelationWithNewId();
+        delegator.addMemberToRelation(new RelationMember("", way), relation);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        engine.setListener(latch::countDown);
+        Map<String, String> tags = new TreeMap<>();
+        tags.put("fixme", "check");
+        delegator.setTags(relation, tags);
+        engine.invalidate(delegator.getCurrentStorage(), Util.wrapInList(relation));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(Validator.FIXME, relation.getCachedProblems() & Validator.FIXME);
+        // the untagged member has been validated again
+        assertEquals(0, way.getCachedProblems() & Validator.UNTAGGED);
+        assertTrue(way.getCachedProblems() != Validator.NOT_VALIDATED);
+
+        // not validated yet, queued and reported as OK
+        Node n3 = factory.createNodeWithNewId(toE7(51.476), toE7(0.008));
+        assertEquals(Validator.NOT_VALIDATED, n3.getCachedProblems());
+        assertEquals(Validator.OK, engine.getProblems(n3));
+    }
+
+    /**
+     * Check that a result calculated while the element was changed doesn't overwrite the reset
+     *
+     * @throws InterruptedException if waiting is interrupted
+     */
+    @Test
+    public void changedWhileValidating() throws InterruptedException {
+        Context context = ApplicationProvider.getApplicationContext();
+        final AtomicInteger calls = new AtomicInteger();
+        Validator validator = new BaseValidator(context) {
+            @Override
+            public int validate(@NonNull Node node) {
+                if (calls.getAndIncrement() == 0) {
+                    // simulate a change while we are validating
+                    node.resetHasProblem();
+                    return Validator.FIXME;
+                }
+                return super.validate(node);
+            }
+        };
+        ValidationEngine changingEngine = new ValidationEngine(context, validator);
+        Node node = delegator.getFactory().createNodeWithNewId(toE7(51.476), toE7(0.006));
+
+        // one round for the stale result and one for validating again
+        final CountDownLatch latch = new CountDownLatch(2);
+        changingEngine.setListener(latch::countDown);
+        assertEquals(Validator.OK, changingEngine.getProblems(node));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(Validator.OK, node.getCachedProblems());
+    }
+}
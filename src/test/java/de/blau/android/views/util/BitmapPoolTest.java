@@ -0,0 +1,71 @@
+package de.blau.android.views.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.LargeTest;
+import de.blau.android.exception.StorageException;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class BitmapPoolTest {
+
+    private static final int  TILE_SIZE  = 256;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4L;
+
+    /**
+     * Check that Bitmaps are bucketed by size and configuration and that the pool size is limited
+     */
+    @Test
+    public void pool() {
+        BitmapPool pool = new BitmapPool(2 * TILE_BYTES);
+        Bitmap b1 = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        Bitmap b2 = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        Bitmap b3 = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertTrue(b3.isRecycled());
+        assertEquals(2 * TILE_BYTES, pool.getPooledBytes());
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565));
+        assertNull(pool.get(2 * TILE_SIZE, 2 * TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertSame(b2, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        pool.onLowMemory();
+        assertTrue(b1.isRecycled());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    /**
+     * Check that Bitmaps evicted from the cache end up in the pool
+     */
+    @Test
+    public void eviction() {
+        BitmapPool pool = new BitmapPool(8 * TILE_BYTES);
+        LRUMapTileCache<Bitmap> cache = new LRUMapTileCache<>(4 * TILE_BYTES);
+        cache.setBitmapPool(pool);
+        try {
+            for (int i = 0; i < 10; i++) {
+                Bitmap bitmap = pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                if (bitmap == null) {
+                    bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                    pool.allocated(bitmap);
+                }
+                cache.put(Integer.toString(i), bitmap, true, i + 1L);
+            }
+        } catch (StorageException e) {
+            throw new AssertionError(e.getMessage());
+        }
+        System.out.println(pool.getInfo()); // NOSONAR
+        assertTrue(pool.getHits() > pool.getMisses());
+        assertTrue(cache.cacheSizeBytes() <= 4 * TILE_BYTES);
+    }
+}
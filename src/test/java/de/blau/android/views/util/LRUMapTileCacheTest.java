@@ -0,0 +1,81 @@
+package de.blau.android.views.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.LargeTest;
+import de.blau.android.exception.StorageException;
+
+@RunWith(RobolectricTestRunner.class)
+@LargeTest
+public class LRUMapTileCacheTest {
+
+    private static final int  TILE_SIZE  = 256;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4L;
+
+    /**
+     * Check that placeholders are evicted first, only use spare space and are replaced by the real tile without being
+     * recycled
+     */
+    @Test
+    public void placeholders() {
+        LRUMapTileCache<Bitmap> cache = new LRUMapTileCache<>(4 * TILE_BYTES);
+        try {
+            cache.put("1", bitmap(), true, 1L);
+            Bitmap placeholder = bitmap();
+            assertTrue(cache.putPlaceholder("2", placeholder, 2L));
+            assertTrue(cache.isPlaceholder("2"));
+            assertFalse(cache.putPlaceholder("1", bitmap(), 3L));
+            assertFalse(cache.isPlaceholder("1"));
+
+            // replace the placeholder
+            Bitmap real = bitmap();
+            cache.put("2", real, true, 4L);
+            assertFalse(cache.isPlaceholder("2"));
+            assertSame(real, cache.get("2"));
+            assertEquals(0, cache.placeholderCount());
+            assertEquals(2 * TILE_BYTES, cache.cacheSizeBytes());
+            assertFalse(placeholder.isRecycled());
+
+            // placeholder is evicted before the older normal entries
+            assertTrue(cache.putPlaceholder("3", bitmap(), 5L));
+            cache.put("4", bitmap(), true, 6L);
+            assertNull(cache.get("3"));
+            assertNotNull(cache.get("1"));
+            assertNotNull(cache.get("2"));
+            assertNotNull(cache.get("4"));
+            assertEquals(3, cache.size());
+
+            // placeholders only take the spare space and never evict normal entries
+            assertTrue(cache.putPlaceholder("5", bitmap(), 7L));
+            assertFalse(cache.putPlaceholder("6", bitmap(), 7L));
+            assertTrue(cache.putPlaceholder("6", bitmap(), 8L));
+            assertNull(cache.get("5"));
+            assertTrue(cache.isPlaceholder("6"));
+            assertNotNull(cache.get("1"));
+            assertNotNull(cache.get("2"));
+            assertNotNull(cache.get("4"));
+            assertEquals(4 * TILE_BYTES, cache.cacheSizeBytes());
+        } catch (StorageException e) {
+            throw new AssertionError(e.getMessage());
+        }
+    }
+
+    /**
+     * Create a tile sized Bitmap
+     *
+     * @return a new Bitmap
+     */
+    private static Bitmap bitmap() {
+        return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}